@@ -0,0 +1,347 @@
+package edu.gemini.ags.gems.mascot.util;
+
+/**
+ * Allocation free version of the criterion that Strehl.optimize passes to
+ * amoeba (Strehl.getStrehlMap2), which is evaluated hundreds of times per
+ * asterism.  The parts of the computation that don't depend on the mode
+ * gains are done once: those that depend only on the configuration in
+ * {@link Spectra}, shared by all asterisms, and those that depend on the
+ * asterism when the kernel is created.  What remains works on flat double
+ * arrays and reusable buffers, performing the same operations in the same
+ * order as the original.
+ */
+public final class StrehlKernel {
+
+    /**
+     * The gain independent parts of the transfer functions and of their
+     * interpolation at the frequencies of the turbulence and vibration
+     * spectra.  This is immutable, apart from per thread work buffers, and
+     * may be shared by any number of threads.
+     */
+    public static final class Spectra {
+        private final int n;           // number of frequencies of the transfer functions, including 0
+        private final double npt;      // number of frequencies, excluding 0
+
+        // Parts of the open loop transfer function, per frequency
+        // (see HotSpots.ftcb): hbo = (a * e * gain) / (1 - exp(-p te))
+        private final double[] aRe, aIm;     // hzoh * hmir * hwfs
+        private final double[] eRe, eIm;     // exp(-tcal p)
+        private final double[] dRe, dIm;     // reciprocal(1 - exp(-p te))
+
+        // Natural spline through the transfer functions (see HotSpots.spline):
+        // the tridiagonal system only depends on the frequencies, so its
+        // forward elimination coefficients are computed once.
+        private final double[] dx;     // x(i+1) - x(i)
+        private final double[] off;    // 1 / dx, the off diagonal elements
+        private final double[] cp;     // modified super diagonal
+        private final double[] den;    // modified diagonal
+        private final double xRange;   // x(n-1) - x(0)
+
+        private final Grid modes;      // turbulence spectra
+        private final Grid vibs;       // vibration spectra, null if vibrations are ignored
+
+        private final double[] turbAtZeroGain;  // turbulence of each mode if uncontrolled
+
+        private final double telDiam;
+        private final double lambdaIm;
+
+        private final ThreadLocal<double[][]> work;
+
+        /**
+         * @param te sampling period of the loop
+         * @param tcal calculation delay
+         * @param tmir mirror time constant
+         * @param dim number of frequencies of the transfer functions
+         * @param freq frequencies of the turbulence spectra
+         * @param modeWeights turbulence spectrum of each mode, scaled by its rms
+         * @param freqv frequencies of the vibration spectra
+         * @param vibWeights vibration spectrum of the tip and tilt modes, scaled by their rms,
+         *                   or null to ignore vibrations
+         * @param telDiam telescope diameter [m]
+         * @param lambdaIm imaging wavelength [microns]
+         */
+        public Spectra(double te, double tcal, double tmir, int dim,
+                       double[] freq, double[][] modeWeights,
+                       double[] freqv, double[][] vibWeights,
+                       double telDiam, double lambdaIm) {
+            this.n        = dim + 1;
+            this.npt      = dim * 1.0;
+            this.telDiam  = telDiam;
+            this.lambdaIm = lambdaIm;
+
+            // Same as HotSpots.ftcb up to the gain
+            final double[] f = HotSpots.divide(HotSpots.range(1, dim + 1), (te * 2.0 * dim));
+            final Complex[] p    = HotSpots.multiply(f, new Complex(0., 2.).times(Math.PI));
+            final Complex[] pte  = HotSpots.multiply(p, te);
+            final Complex[] mpte = HotSpots.multiply(pte, -1.);
+            final Complex[] hzoh = HotSpots.divide(HotSpots.add(HotSpots.multiply(HotSpots.exp(mpte), -1.0), 1.0), pte);
+            final Complex[] hmir = HotSpots.divide(1.0, HotSpots.add(HotSpots.multiply(p, tmir), 1.0));
+            final Complex[] hwfs = HotSpots.divide(HotSpots.add(HotSpots.multiply(HotSpots.exp(mpte), -1.0), 1.0), pte);
+            final Complex[] a    = HotSpots.multiply(HotSpots.multiply(hzoh, hmir), hwfs);
+            final Complex[] e    = HotSpots.exp(HotSpots.multiply(p, -tcal));
+            final Complex[] d    = HotSpots.add(HotSpots.multiply(HotSpots.exp(mpte), -1.0), 1.0);
+
+            aRe = new double[dim]; aIm = new double[dim];
+            eRe = new double[dim]; eIm = new double[dim];
+            dRe = new double[dim]; dIm = new double[dim];
+            for (int k = 0; k < dim; ++k) {
+                aRe[k] = a[k].re(); aIm[k] = a[k].im();
+                eRe[k] = e[k].re(); eIm[k] = e[k].im();
+                final Complex r = d[k].reciprocal();
+                dRe[k] = r.re(); dIm[k] = r.im();
+            }
+
+            // x = [0, f]
+            final double[] x = new double[n];
+            System.arraycopy(f, 0, x, 1, dim);
+
+            dx  = HotSpots.dif(x);
+            off = HotSpots.divide(1.0, dx);
+            final double[] diag = HotSpots.pcen(HotSpots.divide(2.0, dx));
+            if (n > 2) HotSpots.multiplyEq(diag, 1, diag.length - 1, 2.);
+            cp  = new double[n];
+            den = new double[n];
+            den[0] = diag[0];
+            cp[0]  = off[0] / den[0];
+            for (int i = 1; i < n; ++i) {
+                den[i] = diag[i] - off[i - 1] * cp[i - 1];
+                cp[i]  = (i < n - 1) ? off[i] / den[i] : 0.0;
+            }
+            xRange = x[n - 1] - x[0];
+
+            modes = new Grid(x, freq, modeWeights);
+            vibs  = (vibWeights == null) ? null : new Grid(x, freqv, vibWeights);
+
+            work = ThreadLocal.withInitial(() -> new double[2][n]);
+
+            turbAtZeroGain = new double[modeWeights.length];
+            for (int i = 0; i < modeWeights.length; ++i) {
+                turbAtZeroGain[i] = turbulence(i, 0.0, null);
+            }
+        }
+
+        /**
+         * Computes the turbulence of a mode for the given gain, and its
+         * noise (sum of the closed loop transfer function) in noise[i].
+         */
+        private double turbulence(int i, double gain, double[] noise) {
+            final double[][] w = work.get();
+            final double[] y = w[0];  // closed loop error transfer function (hcor)
+            final double[] s = w[1];  // spline derivatives
+
+            y[0] = (gain == 0.0) ? 1.0 : 0.0;
+            double nois = ((gain == 0.0) ? 0.0 : 1.0) / npt;
+
+            for (int k = 0; k < n - 1; ++k) {
+                // hcal = e * gain; hbo = ((a * hcal) * reciprocal(d))
+                final double hcRe = gain * eRe[k];
+                final double hcIm = gain * eIm[k];
+                final double tRe  = aRe[k] * hcRe - aIm[k] * hcIm;
+                final double tIm  = aRe[k] * hcIm + aIm[k] * hcRe;
+                final double hRe  = tRe * dRe[k] - tIm * dIm[k];
+                final double hIm  = tRe * dIm[k] + tIm * dRe[k];
+
+                // reciprocal(hbo + 1)
+                final double pRe   = hRe + 1.0;
+                final double pIm   = hIm;
+                final double scale = pRe * pRe + pIm * pIm;
+                final double rRe   = pRe / scale;
+                final double rIm   = -pIm / scale;
+
+                // hcor = |1 / (1 + hbo)|^2
+                final double zRe = 1.0 * rRe - 0.0 * rIm;
+                final double zIm = 1.0 * rIm + 0.0 * rRe;
+                y[k + 1] = zRe * zRe - zIm * (-zIm);
+
+                // hbf = |hbo / (1 + hbo)|^2
+                final double qRe = hRe * rRe - hIm * rIm;
+                final double qIm = hRe * rIm + hIm * rRe;
+                nois += (qRe * qRe - qIm * (-qIm)) / npt;
+            }
+            if (noise != null) noise[i] = nois;
+
+            solveSpline(y, s);
+            double turb = modes.weightedSum(i, y, s, xRange);
+            if (vibs != null && i < vibs.weights.length) turb += vibs.weightedSum(i, y, s, xRange);
+            return turb;
+        }
+
+        // Solves for the derivatives of the natural spline through y, see HotSpots.spline(y, x).
+        private void solveSpline(double[] y, double[] s) {
+            // right hand side
+            final int last = n - 1;
+            double prev = (y[1] - y[0]) * 3. / (dx[0] * dx[0]);
+            s[0] = prev;
+            for (int i = 0; i < last - 1; ++i) {
+                final double next = (y[i + 2] - y[i + 1]) * 3. / (dx[i + 1] * dx[i + 1]);
+                s[i + 1] = (prev + next) / 2. * 2.;
+                prev = next;
+            }
+            s[last] = prev;
+
+            // forward elimination and back substitution
+            s[0] = s[0] / den[0];
+            for (int i = 1; i < n; ++i) s[i] = (s[i] - off[i - 1] * s[i - 1]) / den[i];
+            for (int i = n - 2; i >= 0; --i) s[i] = s[i] - cp[i] * s[i + 1];
+        }
+    }
+
+    /**
+     * Frequencies at which a spline through the transfer functions is
+     * evaluated, with the interval containing each one precomputed, and the
+     * spectra the clipped values are weighted by.
+     */
+    private static final class Grid {
+        private final int[] l;        // lower bound of the interval in the extended x
+        private final double[] dx2;   // width of the interval
+        private final double[] t;     // offset from the lower bound
+        private final double[] t2, t3;
+        private final double[][] weights;
+
+        Grid(double[] x, double[] xp, double[][] weights) {
+            final int n = x.length;
+            final double range = x[n - 1] - x[0];
+            l   = HotSpots.digitize(xp, x);
+            dx2 = new double[xp.length];
+            t   = new double[xp.length];
+            t2  = new double[xp.length];
+            t3  = new double[xp.length];
+            for (int k = 0; k < xp.length; ++k) {
+                final double xl = ext(x, l[k], x[0] - range, x[n - 1] + range);
+                final double xu = ext(x, l[k] + 1, x[0] - range, x[n - 1] + range);
+                dx2[k] = xu - xl;
+                t[k]   = xp[k] - xl;
+                t2[k]  = Math.pow(t[k], 2);
+                t3[k]  = Math.pow(t[k], 3);
+            }
+            this.weights = weights;
+        }
+
+        // Element j of v extended with first and last at either end.
+        private static double ext(double[] v, int j, double first, double last) {
+            return (j == 0) ? first : (j == v.length + 1) ? last : v[j - 1];
+        }
+
+        // Sum of the weights of mode i times the spline through y with
+        // derivatives s, clipped at 0.  See HotSpots.splineMax.
+        double weightedSum(int i, double[] y, double[] s, double range) {
+            final int n = y.length;
+            final double yFirst = y[0] - s[0] * range;
+            final double yLast  = y[n - 1] + s[n - 1] * range;
+            final double[] w = weights[i];
+
+            double sum = 0.0;
+            for (int k = 0; k < l.length; ++k) {
+                final int j = l[k];
+                final double yl = ext(y, j, yFirst, yLast);
+                final double yu = ext(y, j + 1, yFirst, yLast);
+                final double dl = ext(s, j, s[0], s[n - 1]);
+                final double du = ext(s, j + 1, s[0], s[n - 1]);
+
+                final double d2    = dx2[k];
+                final double dydx2 = (yu - yl) / d2;
+                final double c2    = ((dydx2 * 3.0 - du) - dl * 2.0) / d2;
+                final double c3    = ((du + dl) - dydx2 * 2.0) / (d2 * d2);
+
+                double v = 0.0;
+                v += yl * 1.0;
+                v += dl * t[k];
+                v += c2 * t2[k];
+                v += c3 * t3[k];
+                sum += w[k] * Math.max(v, 0.0);
+            }
+            return sum;
+        }
+    }
+
+    private final Spectra spectra;
+    private final int nmodes;
+    private final int nmodesCont;
+    private final double[] mprop;       // nmodes x nmodes, row major
+    private final double[][] tip;       // tip distortion field of each mode
+    private final double[][] tilt;      // tilt distortion field of each mode
+    private final double[][] tip2;      // squared
+    private final double[][] tilt2;
+
+    // work buffers
+    private final double[] turb;
+    private final double[] nois;
+    private final double[] cov;
+
+    /**
+     * @param spectra the gain independent parts of the computation
+     * @param mprop noise propagation matrix, nmodes x nmodes in row major order
+     * @param dfields tip (index 0) and tilt (index 1) distortion fields of each mode
+     * @param nmodesCont number of controlled modes, i.e. number of gains
+     */
+    public StrehlKernel(Spectra spectra, double[] mprop, double[][][] dfields, int nmodesCont) {
+        this.spectra    = spectra;
+        this.nmodes     = dfields.length;
+        this.nmodesCont = nmodesCont;
+        this.mprop      = mprop.clone();
+        this.tip        = new double[nmodes][];
+        this.tilt       = new double[nmodes][];
+        this.tip2       = new double[nmodes][];
+        this.tilt2      = new double[nmodes][];
+        for (int i = 0; i < nmodes; ++i) {
+            tip[i]   = dfields[i][0].clone();
+            tilt[i]  = dfields[i][1].clone();
+            tip2[i]  = HotSpots.pow(tip[i], 2.0);
+            tilt2[i] = HotSpots.pow(tilt[i], 2.0);
+        }
+        this.turb = new double[nmodes];
+        this.nois = new double[nmodes];
+        this.cov  = new double[nmodes * nmodes];
+    }
+
+    /**
+     * Computes -log(average strehl) over the distortion fields for the given
+     * log10 mode gains, as Strehl.getStrehlMap2.  Not thread safe: use one
+     * kernel per thread.
+     */
+    public double criterion(double[] lgains) {
+        for (int i = 0; i < nmodes; ++i) {
+            if (i < nmodesCont) {
+                turb[i] = spectra.turbulence(i, Math.pow(10.0, lgains[i]), nois);
+            } else {
+                turb[i] = spectra.turbAtZeroGain[i];
+                nois[i] = 0.0;
+            }
+        }
+
+        // noise covariance (see YUtils.yMultiply)
+        for (int i = 0; i < nmodesCont; ++i) {
+            for (int j = 0; j < nmodesCont; ++j) {
+                cov[i * nmodes + j] = (mprop[j * nmodes + i] * nois[j]) * nois[i];
+            }
+        }
+
+        final int npts = tip[0].length;
+        double sum = 0.0;
+        for (int p = 0; p < npts; ++p) {
+            double tipErr  = 0.0;
+            double tiltErr = 0.0;
+            for (int j = 0; j < nmodes; ++j) {
+                tipErr  += tip2[j][p] * turb[j];
+                tiltErr += tilt2[j][p] * turb[j];
+            }
+            for (int i = 0; i < nmodesCont; ++i) {
+                for (int j = 0; j < nmodesCont; ++j) {
+                    final double c = cov[i * nmodes + j];
+                    tipErr  += (tip[i][p] * tip[j][p]) * c;
+                    tiltErr += (tilt[i][p] * tilt[j][p]) * c;
+                }
+            }
+
+            final double tipRd  = radians(Math.sqrt(tipErr));
+            final double tiltRd = radians(Math.sqrt(tiltErr));
+            sum += Math.sqrt(1.0 / (Math.pow(tipRd, 2.0) * 2.0 + 1.0)) * Math.sqrt(1.0 / (Math.pow(tiltRd, 2.0) * 2.0 + 1.0));
+        }
+        return -Math.log(sum / npts);
+    }
+
+    // Converts an error in arcsec to radians of phase at the imaging wavelength.
+    private double radians(double err) {
+        return err * 4.848e-6 * spectra.telDiam * 2.0 * Math.PI / (spectra.lambdaIm * 1e-6) / 4.0;
+    }
+}
@@ -1,6 +1,9 @@
 package edu.gemini.ags.gems.mascot
 
-import java.util.logging.Logger
+import java.util.concurrent.{Callable, ExecutionException, ForkJoinPool, ForkJoinWorkerThread, Future}
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.logging.{Level, Logger}
 
 import edu.gemini.ags.gems.mascot.util.AllPairsAndTriples
 import edu.gemini.ags.gems.mascot.util.YUtils._
@@ -45,6 +48,42 @@ object Mascot {
   }
 
 
+  /** System property that sets the number of threads used to search for
+    * asterisms.  Defaults to the number of available processors; 1 selects
+    * the sequential search.  The threads are shared by all the searches.
+    */
+  val ParallelismProp = "edu.gemini.ags.mascot.parallelism"
+
+  // Default number of threads used by findBestAsterism
+  lazy val defaultParallelism: Int = {
+    val defaultVal = Runtime.getRuntime.availableProcessors
+    Option(System.getProperty(ParallelismProp)).fold(defaultVal) { s =>
+      try math.max(1, s.trim.toInt) catch {
+        case ex: NumberFormatException =>
+          Log.log(Level.WARNING, s"Could not parse $ParallelismProp value '$s', using $defaultVal", ex)
+          defaultVal
+      }
+    }
+  }
+
+  // Pool shared by all parallel searches, created on first use.  Its daemon
+  // threads are bounded by the default parallelism whatever the number of
+  // concurrent searches.
+  private lazy val pool: ForkJoinPool =
+    new ForkJoinPool(defaultParallelism, new ForkJoinWorkerThreadFactory {
+      override def newThread(p: ForkJoinPool): ForkJoinWorkerThread = {
+        val t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p)
+        t.setName(s"Mascot-${t.getPoolIndex}")
+        t.setDaemon(true)
+        t
+      }
+    }, null, false)
+
+  // Number of slices of the candidate asterisms per thread in a parallel
+  // search.  More slices balance the load better, since the time to compute
+  // the strehl varies between asterisms.
+  private val SlicesPerThread = 4
+
   // The default mag bandpass
   val defaultBandpass:MagnitudeBand = MagnitudeBand.R
 
@@ -84,13 +123,19 @@ object Mascot {
    * @param progress a function(strehl, count, total) called for each asterism as it is calculated
    * @param filter a filter function that returns false if the Star should be excluded
    * @param asterismPreFilter a filter function that returns false if a candidate asterism should be excluded
+   * @param parallelism number of threads used to compute the strehl of the candidate asterisms, at most
+   *                    the default parallelism since the threads come from a shared pool.  The
+   *                    progress function is always called on the calling thread, in the same order
+   *                    and with the same arguments as for a sequential search, and the results are
+   *                    the same
    * @return a tuple: (list of stars actually used, list of asterisms found)
    */
   def findBestAsterism(starList: List[Star],
                        factor: Double = defaultFactor,
                        progress: ProgressFunction = defaultProgress,
                        filter: Star => Boolean = defaultFilter,
-                       asterismPreFilter: List[SiderealTarget] => Boolean = defaultAsterismPreFilter)
+                       asterismPreFilter: List[SiderealTarget] => Boolean = defaultAsterismPreFilter,
+                       parallelism: Int = defaultParallelism)
   : (List[Star], List[Strehl]) = {
     // sort by selected mag and select
     val sortedStarList = starList.distinct.sortWith((s1,s2) => s1.r < s2.r)
@@ -137,7 +182,69 @@ object Mascot {
       singles.stars
     }
 
-    (filteredStarList, sortBestAsterisms(go()))
+    // The same search with the strehl computations spread over a pool of
+    // threads.  The count passed to the progress function follows doStars,
+    // which doesn't advance it after the last asterism of each stage.
+    def goParallel(): List[Strehl] = {
+      val stages: List[List[(Star, Option[Star], Option[Star])]] = List(
+        if (ns >= 3) trips else Nil,
+        if (ns >= 2) pairs.map(t => (t._1, t._2, None)) else Nil,
+        if (ns >= 1) sings.map(t => (t, None, None)) else Nil
+      )
+      val counts = stages.foldLeft((List.empty[Int], 1)) { case ((cs, c), st) =>
+        (cs ++ st.indices.map(c + _), if (st.isEmpty) c else c + st.length - 1)
+      }._1
+      val candidates = stages.flatten.toVector.zip(counts)
+      searchParallel(candidates, factor, progress, total, parallelism)
+    }
+
+    val result = if (parallelism > 1 && total > 1) goParallel() else go()
+    (filteredStarList, sortBestAsterisms(result))
+  }
+
+  /**
+   * Computes the strehl of the given candidate asterisms on the shared pool,
+   * calling the progress function for each of them in order on the calling
+   * thread.  Stops as soon as the progress function returns false.
+   * @return the asterisms computed, last first, as in the sequential search
+   */
+  private def searchParallel(candidates: Vector[((Star, Option[Star], Option[Star]), Int)],
+                             factor: Double,
+                             progress: ProgressFunction,
+                             total: Int,
+                             parallelism: Int): List[Strehl] = {
+    val cancelled = new AtomicBoolean(false)
+    val sliceSize = math.max(1, math.ceil(candidates.size.toDouble / (parallelism * SlicesPerThread)).toInt)
+    val slices: List[Future[Vector[Option[Strehl]]]] =
+      candidates.map(_._1).grouped(sliceSize).toList.map { slice =>
+        pool.submit(new Callable[Vector[Option[Strehl]]] {
+          override def call(): Vector[Option[Strehl]] =
+            slice.iterator.takeWhile(_ => !cancelled.get).map(s => computeStrehl(factor, (StarTriple.apply _).tupled(s))).toVector
+        })
+      }
+
+    try {
+      @tailrec
+      def collect(result: List[Strehl], rest: Iterator[(Option[Strehl], Int)]): List[Strehl] =
+        if (!rest.hasNext) result
+        else {
+          val (strehl, count) = rest.next()
+          val continue = strehl.forall(progress(_, count, total))
+          val result0  = strehl.map(_ :: result).getOrElse(result)
+          if (continue) collect(result0, rest) else result0
+        }
+
+      val strehls = slices.iterator.flatMap { f =>
+        try f.get.iterator catch {
+          case ex: ExecutionException => throw ex.getCause
+        }
+      }
+      collect(Nil, strehls.zip(candidates.iterator.map(_._2)))
+    } finally {
+      // Leave the pool to other searches, dropping the slices not started yet.
+      cancelled.set(true)
+      slices.foreach(_.cancel(false))
+    }
   }
 
   //func select_stars_on_mag(void)
@@ -8,6 +8,7 @@ import Amoeba._
 import util.Spline._
 import util.YUtils.{avg, rms, where, sqrt, divide}
 import util.YUtils.{yMultiply, yMultiply4d}
+import util.StrehlKernel
 import scala.collection.JavaConverters._
 
 // mascot Strehl compute/optimize using distortion modes
@@ -78,9 +79,38 @@ object Strehl {
 
   val nmodes = 5
   val sp = nullModesSpectra()
-  var spv = vibSpectra()
+  // Vibration spectra, limited to the upper frequency range for the spline
+  // (see optimize).  Done once here rather than on first use so that strehl
+  // computations may run concurrently.
+  val spv = {
+    val v = vibSpectra()
+    if (max(v(::, 0)) > sampfreq) {
+      val tmp = where(v(::, 0), _ < sampfreq)
+      v(0 to tmp(tmp.length - 1), ::)
+    } else v
+  }
   val novibs = false
 
+  // The parts of the criterion optimized by amoeba that depend neither on
+  // the asterism nor on the gains (see getStrehlMap).
+  lazy val kernelSpectra: StrehlKernel.Spectra = {
+    val rmsvib = DenseVector(sum(tipvibrms :^ 2.0), sum(tiltvibrms :^ 2.0))
+    new StrehlKernel.Spectra(1.0 / sampfreq, 0.3e-3, 2e-3, 512,
+      sp(::, 0).toArray, Array.tabulate(nmodes)(i => (sp(::, i + 1) * math.pow(rmsmodes(i), 2.0)).toArray),
+      spv(::, 0).toArray, if (novibs) null else Array.tabulate(2)(i => (spv(::, i + 1) * math.pow(rmsvib(i), 2.0)).toArray),
+      tel_diam, lambdaim)
+  }
+
+  /**
+   * Creates the kernel that computes the same value as getStrehlMap2, for the
+   * given asterism, without allocating.
+   */
+  def strehlKernel(mprop: DenseMatrix[Double], dfields: Array[Array[DenseMatrix[Double]]], nmodes_cont: Int): StrehlKernel =
+    new StrehlKernel(kernelSpectra,
+      Array.tabulate(mprop.rows * mprop.cols)(k => mprop(k / mprop.cols, k % mprop.cols)),
+      dfields.map(_.map(_.toArray)),
+      nmodes_cont)
+
   //  func mascot_compute_strehl(void)
   ///* DOCUMENT mascot_compute_strehl(void)
   //   Main routine. originally from Damien Gratadour.
@@ -227,8 +257,13 @@ object Strehl {
     //  bg = amoeba(0.01, get_strehl_map,nc, fval, nMax=1000,
     //              p0=-0.7*array(1.,nmodes_cont),scale=0.2);
     val ftol = 0.01
-    // Porting Note: make a partially applied function for getStrehlMap containing any formerly external values
-    val f = getStrehlMap2(mprop, dfields, nmodes_cont, _: DenseVector[Double])
+    // The criterion is getStrehlMap2, computed by a kernel that doesn't allocate per call
+    val kernel = strehlKernel(mprop, dfields, nmodes_cont)
+    val lgains = new Array[Double](nmodes_cont)
+    val f = (v: DenseVector[Double]) => {
+      for (i <- 0 until nmodes_cont) lgains(i) = v(i)
+      kernel.criterion(lgains)
+    }
     val nMax = 1000
     val p0 = DenseVector.ones[Double](nmodes_cont) * -0.7
     val scale = 0.2
@@ -339,11 +374,7 @@ object Strehl {
     //  rmsvib(2) = sum((*tiltvibrms)^2.);
 
 
-    if (max(spv(::, 0)) > sampfreq) {
-      val tmp = where(spv(::, 0), _ < sampfreq)
-      val w = tmp(tmp.length - 1)
-      spv = spv(0 to w, ::)
-    }
+    // (spv is already limited to the sampling frequency)
     val freqv = spv(::, 0)
 
     val rmsvib = DenseVector.zeros[Double](2)
@@ -0,0 +1,34 @@
+package edu.gemini.ags.gems.mascot
+
+/**
+ * Times Mascot.findBestAsterism on a fixed star list for an increasing
+ * number of threads.  Not a unit test, run the main method by hand:
+ *
+ * MascotBenchmark [max threads] [iterations]
+ */
+object MascotBenchmark {
+
+  def main(args: Array[String]): Unit = {
+    val maxThreads = args.headOption.map(_.toInt).getOrElse(Runtime.getRuntime.availableProcessors)
+    val iterations = args.drop(1).headOption.map(_.toInt).getOrElse(5)
+    val stars      = new MascotTest().allStarList
+    val quiet: Mascot.ProgressFunction = (_, _, _) => true
+
+    def run(threads: Int): Long = {
+      val start = System.nanoTime
+      Mascot.findBestAsterism(stars, progress = quiet, parallelism = threads)
+      (System.nanoTime - start) / 1000000
+    }
+
+    // warm up
+    run(1)
+    run(maxThreads)
+
+    val base = (1 to iterations).map(_ => run(1)).min
+    println(f"threads=1: $base%d ms")
+    (2 to maxThreads).foreach { t =>
+      val ms = (1 to iterations).map(_ => run(t)).min
+      println(f"threads=$t%d: $ms%d ms, speed-up ${base.toDouble / ms}%.2f")
+    }
+  }
+}
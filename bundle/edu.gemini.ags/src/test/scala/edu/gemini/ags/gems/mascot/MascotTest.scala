@@ -100,6 +100,29 @@ class MascotTest {
 
   }
 
+  @Test def testParallelFindBestAsterism() {
+    val (seqStars, seqStrehls) = Mascot.findBestAsterism(allStarList, parallelism = 1)
+    val (parStars, parStrehls) = Mascot.findBestAsterism(allStarList, parallelism = 4)
+    assertEquals(seqStars, parStars)
+    assertEquals(seqStrehls.map(s => (s.stars, s.avgstrehl)), parStrehls.map(s => (s.stars, s.avgstrehl)))
+  }
+
+  @Test def testParallelProgress() {
+    def progress(counts: collection.mutable.Buffer[Int], limit: Int): Mascot.ProgressFunction =
+      (_: Strehl, count: Int, _: Int) => {
+        counts += count
+        counts.size < limit
+      }
+
+    val seqCounts = collection.mutable.Buffer[Int]()
+    val parCounts = collection.mutable.Buffer[Int]()
+    val (_, seqStrehls) = Mascot.findBestAsterism(allStarList, progress = progress(seqCounts, 10), parallelism = 1)
+    val (_, parStrehls) = Mascot.findBestAsterism(allStarList, progress = progress(parCounts, 10), parallelism = 4)
+    assertEquals(10, seqStrehls.size)
+    assertEquals(seqCounts, parCounts)
+    assertEquals(seqStrehls.map(_.stars), parStrehls.map(_.stars))
+  }
+
   @Test def testSelectStarsOnMag() {
     val slist = Mascot.selectStarsOnMag(allStarList)
     assertEquals(7, slist.size)
@@ -0,0 +1,36 @@
+package edu.gemini.ags.gems.mascot
+
+import breeze.linalg._
+
+/**
+ * Compares the time taken to evaluate the Strehl optimization criterion with
+ * getStrehlMap2 and with the kernel used by Strehl.optimize.  Not a unit
+ * test, run the main method by hand:
+ *
+ * StrehlBenchmark [iterations]
+ */
+object StrehlBenchmark {
+
+  def main(args: Array[String]): Unit = {
+    val iterations  = args.headOption.map(_.toInt).getOrElse(20000)
+    val fixture     = new StrehlTest()
+    val mprop       = fixture.mprop
+    val dfields     = fixture.dfields
+    val nmodes_cont = 5
+    val kernel      = Strehl.strehlKernel(mprop, dfields, nmodes_cont)
+    val gains       = DenseVector.fill(nmodes_cont)(-0.7)
+    val lgains      = gains.toArray
+
+    def time(name: String)(f: => Double): Unit = {
+      var sum = 0.0
+      (1 to iterations / 10).foreach(_ => sum += f) // warm up
+      val start = System.nanoTime
+      (1 to iterations).foreach(_ => sum += f)
+      val us = (System.nanoTime - start) / 1000.0 / iterations
+      println(f"$name%-14s $us%8.2f us/call (checksum $sum%.6f)")
+    }
+
+    time("getStrehlMap2")(Strehl.getStrehlMap2(mprop, dfields, nmodes_cont, gains))
+    time("kernel")(kernel.criterion(lgains))
+  }
+}
@@ -312,6 +312,25 @@ class StrehlTest {
   }
 
 
+  // The kernel used by optimize must give the same criterion as getStrehlMap
+  @Test def testStrehlKernel() {
+    val nmodes_cont = 5
+    val r = new scala.util.Random(0)
+
+    // a random covariance matrix, and the distortion of each mode over a 5x5 grid of the field
+    val b = DenseMatrix.tabulate(nmodes_cont, nmodes_cont)((_, _) => r.nextGaussian() * 0.01)
+    val mprop = b * b.t
+    val x = DenseMatrix.tabulate(5, 5)((_, j) => (j - 2) * 30.0)
+    val y = DenseMatrix.tabulate(5, 5)((i, _) => (i - 2) * 30.0)
+    val dfields = Array.tabulate(nmodes_cont)(mn => createDistortion(mn + 1, x, y))
+
+    val kernel = strehlKernel(mprop, dfields, nmodes_cont)
+    for (_ <- 0 until 10) {
+      val lgains = DenseVector.fill(nmodes_cont)(-0.7 + r.nextGaussian() * 0.5)
+      assertEquals(getStrehlMap2(mprop, dfields, nmodes_cont, lgains), kernel.criterion(lgains.toArray), 1e-12)
+    }
+  }
+
   // Test top level Strehl algorithm with data from the Yorick version
   @Test def testStrehl() {
     val starList = List(
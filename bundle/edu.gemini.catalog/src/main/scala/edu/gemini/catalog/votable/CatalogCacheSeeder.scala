@@ -0,0 +1,51 @@
+package edu.gemini.catalog.votable
+
+import edu.gemini.catalog.api.{CatalogName, ConeSearchCatalogQuery, RadiusConstraint}
+import edu.gemini.spModel.core.{Angle, Coordinates}
+
+import scala.concurrent.Await
+import scala.concurrent.ExecutionContext.Implicits.global
+import scala.concurrent.duration._
+import scala.io.Source
+
+/**
+ * Fills the catalog disk cache for a list of positions ahead of time, for
+ * instance for a semester's targets, so that guide star searches for them
+ * don't need to reach the catalog servers.  The radius should be at least
+ * that of the guide star searches that will use the results.
+ *
+ * CatalogCacheSeeder <file with one "ra dec" in degrees per line> [radius arcmin] [catalog id] [lgs]
+ *
+ * The cache directory is set, as usual, with the edu.gemini.catalog.diskCache
+ * property.
+ */
+object CatalogCacheSeeder {
+
+  def main(args: Array[String]): Unit = {
+    if (args.isEmpty) {
+      System.err.println("usage: CatalogCacheSeeder <positions file> [radius arcmin] [catalog id] [lgs]")
+      sys.exit(1)
+    }
+
+    val radius  = args.lift(1).map(_.toDouble).getOrElse(10.0)
+    val catalog = args.lift(2).map { id =>
+      CatalogAdapter.All.map(_.catalog).find(_.id == id).getOrElse(sys.error(s"Unknown catalog $id"))
+    }.getOrElse(CatalogName.GaiaGemini)
+    val lgs     = args.lift(3).exists(_.equalsIgnoreCase("lgs"))
+
+    val positions = Source.fromFile(args(0)).getLines().map(_.trim).filter(l => l.nonEmpty && !l.startsWith("#")).flatMap { l =>
+      l.split("\\s+").toList match {
+        case ra :: dec :: _ => Coordinates.fromDegrees(ra.toDouble, dec.toDouble)
+        case _              => None
+      }
+    }.toList
+
+    positions.zipWithIndex.foreach { case (c, i) =>
+      val q = ConeSearchCatalogQuery(None, c, RadiusConstraint.between(Angle.zero, Angle.fromArcmin(radius)), Nil, catalog, lgs)
+      val r = Await.result(VoTableClient.catalog(q, None)(global), 5.minutes)
+      println(f"${i + 1}%d/${positions.size}%d ${c.ra.toAngle.toDegrees}%.5f ${c.dec.toDegrees}%.5f: ${r.result.targets.rows.size}%d targets${r.result.problems.headOption.fold("")(p => s", ${p.displayValue}")}")
+    }
+
+    CatalogDiskCache.default.foreach(dc => println(dc.stats))
+  }
+}
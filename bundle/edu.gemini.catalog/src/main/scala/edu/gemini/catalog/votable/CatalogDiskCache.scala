@@ -0,0 +1,313 @@
+package edu.gemini.catalog.votable
+
+import java.io._
+import java.nio.file.{Files, StandardCopyOption}
+import java.util.UUID
+import java.util.concurrent.atomic.AtomicLong
+import java.util.logging.{Level, Logger}
+import java.util.zip.{GZIPInputStream, GZIPOutputStream}
+
+import edu.gemini.catalog.api.ConeSearchCatalogQuery
+import edu.gemini.spModel.core.{Angle, Coordinates}
+import jsky.util.Preferences
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable
+import scala.util.control.NonFatal
+
+/**
+ * Catalog query results kept on disk between sessions.  Each entry holds the
+ * result of one cone search, with no magnitude filtering, in its own file.
+ * Entries are indexed by the cells of a fixed sky grid that their cones
+ * overlap, so finding an entry that contains a given cone only requires
+ * checking the entries in the cell of the cone's center.  When the files
+ * grow beyond the size limit the least recently used entries are deleted.
+ *
+ * Entries are identified by a key chosen by the backend, typically the
+ * catalog id, which must distinguish queries that would return different
+ * targets for the same cone.
+ */
+final class CatalogDiskCache(dir: File, maxBytes: Long) {
+  import CatalogDiskCache._
+
+  private final class Entry(val file: File, val key: String, val base: Coordinates, val radius: Angle, val bytes: Long) {
+    def contains(k: String, q: ConeSearchCatalogQuery): Boolean =
+      (k == key) && {
+        val distance = Coordinates.difference(base, q.base).distance.toDegrees
+        distance + q.radiusConstraint.maxLimit.toDegrees <= radius.toDegrees
+      }
+
+    lazy val cells: List[Long] = cellsOf(base, radius)
+  }
+
+  // Entries in access order, for eviction
+  private val entries = new java.util.LinkedHashMap[File, Entry](64, 0.75f, true)
+  private val index   = mutable.HashMap.empty[Long, List[Entry]]
+  private var total   = 0L
+
+  private val hits      = new AtomicLong()
+  private val misses    = new AtomicLong()
+  private val stores    = new AtomicLong()
+  private val evictions = new AtomicLong()
+
+  load()
+
+  // Reads the headers of the files already in the cache, oldest first
+  private def load(): Unit = {
+    dir.mkdirs()
+    val files = Option(dir.listFiles).fold(List.empty[File])(_.toList).filter(_.getName.endsWith(Suffix))
+    files.sortBy(_.lastModified).foreach { f =>
+      readHeader(f).fold {
+        Log.info(s"Removing unreadable catalog cache file $f")
+        f.delete()
+        ()
+      }(add)
+    }
+    evict()
+    Log.info(s"Catalog cache at $dir has ${entries.size} entries, ${total / 1024} KB")
+  }
+
+  private def add(e: Entry): Unit = synchronized {
+    entries.put(e.file, e)
+    e.cells.foreach(c => index.put(c, e :: index.getOrElse(c, Nil)))
+    total += e.bytes
+  }
+
+  private def remove(e: Entry): Unit = synchronized {
+    if (entries.remove(e.file) != null) {
+      e.cells.foreach { c =>
+        index.get(c).map(_.filterNot(_ eq e)).foreach { es =>
+          if (es.isEmpty) index.remove(c) else index.put(c, es)
+        }
+      }
+      total -= e.bytes
+    }
+  }
+
+  private def evict(): Unit = synchronized {
+    while (total > maxBytes && !entries.isEmpty) {
+      val e = entries.values.iterator.next()
+      remove(e)
+      e.file.delete()
+      evictions.incrementAndGet()
+    }
+  }
+
+  private def readHeader(f: File): Option[Entry] =
+    try {
+      val in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))
+      try {
+        if (in.readInt() != Magic || in.readInt() != Version) None
+        else {
+          val key    = in.readUTF()
+          val ra     = in.readDouble()
+          val dec    = in.readDouble()
+          val radius = in.readDouble()
+          Coordinates.fromDegrees(ra, dec).map(new Entry(f, key, _, Angle.fromDegrees(radius), f.length))
+        }
+      } finally {
+        in.close()
+      }
+    } catch {
+      case _: IOException => None
+    }
+
+  private def readResult(f: File): Option[CatalogQueryResult] =
+    try {
+      val in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))
+      try {
+        in.readInt(); in.readInt(); in.readUTF()
+        in.readDouble(); in.readDouble(); in.readDouble()
+        new ObjectInputStream(new GZIPInputStream(in)).readObject() match {
+          case r: CatalogQueryResult => Some(r)
+          case _                     => None
+        }
+      } finally {
+        in.close()
+      }
+    } catch {
+      // includes classes changed since the file was written
+      case NonFatal(_) => None
+    }
+
+  /**
+   * Finds a result stored for a cone that contains the query's cone, if any.
+   * The result may include targets outside the query's cone.
+   */
+  def find(key: String, q: ConeSearchCatalogQuery): Option[CatalogQueryResult] = {
+    val candidate = synchronized {
+      index.getOrElse(cellOf(q.base), Nil).find(_.contains(key, q)).map { e =>
+        entries.get(e.file) // update the access order
+        e
+      }
+    }
+
+    val result = candidate.flatMap { e =>
+      readResult(e.file).fold {
+        Log.info(s"Removing unreadable catalog cache file ${e.file}")
+        remove(e)
+        e.file.delete()
+        Option.empty[CatalogQueryResult]
+      } { r =>
+        e.file.setLastModified(System.currentTimeMillis) // keep the order across sessions
+        Some(r)
+      }
+    }
+
+    if (result.isDefined) hits.incrementAndGet() else misses.incrementAndGet()
+    result
+  }
+
+  // Whether there is already an entry containing the query's cone.  Queries
+  // sent to several mirrors at once would otherwise be stored once per mirror.
+  private def covered(key: String, q: ConeSearchCatalogQuery): Boolean = synchronized {
+    index.getOrElse(cellOf(q.base), Nil).exists(_.contains(key, q))
+  }
+
+  /**
+   * Stores the result of a query, which must contain all the targets in the
+   * query's outer radius.
+   */
+  def store(key: String, q: ConeSearchCatalogQuery, r: CatalogQueryResult): Unit =
+    if (!covered(key, q)) try {
+      val file = new File(dir, s"${UUID.randomUUID}$Suffix")
+      val tmp  = File.createTempFile("catalog", ".tmp", dir)
+      try {
+        write(tmp, key, q.base, q.radiusConstraint.maxLimit, r)
+        Files.move(tmp.toPath, file.toPath, StandardCopyOption.ATOMIC_MOVE)
+      } finally {
+        tmp.delete()
+      }
+      add(new Entry(file, key, q.base, q.radiusConstraint.maxLimit, file.length))
+      stores.incrementAndGet()
+      evict()
+    } catch {
+      case ex: IOException =>
+        Log.log(Level.WARNING, s"Could not store catalog result in $dir", ex)
+    }
+
+  /** Gets the current counters. */
+  def stats: Stats =
+    synchronized {
+      Stats(hits.get, misses.get, stores.get, evictions.get, entries.size, total)
+    }
+
+  /** Deletes all the stored results. */
+  def clear(): Unit = synchronized {
+    entries.values.asScala.toList.foreach { e =>
+      remove(e)
+      e.file.delete()
+    }
+  }
+
+}
+
+object CatalogDiskCache {
+  private val Log = Logger.getLogger(classOf[CatalogDiskCache].getName)
+
+  /** System property with the cache directory, or "none" to disable it. */
+  val DirProp = "edu.gemini.catalog.diskCache"
+
+  /** System property with the maximum size of the cache files in MB. */
+  val SizeProp = "edu.gemini.catalog.diskCacheMB"
+
+  private val Magic   = 0x47434154 // "GCAT"
+  private val Version = 1
+  private val Suffix  = ".cat"
+
+  /** Counters describing the use of the cache. */
+  case class Stats(hits: Long, misses: Long, stores: Long, evictions: Long, entries: Int, bytes: Long)
+
+  /**
+   * The cache shared by the remote backends, in the jsky cache directory
+   * unless set with the `edu.gemini.catalog.diskCache` property.
+   */
+  lazy val default: Option[CatalogDiskCache] = {
+    val dir = Option(System.getProperty(DirProp)).map(_.trim).getOrElse {
+      new File(Preferences.getPreferences.getCacheDir, "catalog").getPath
+    }
+    val mb  = Option(System.getProperty(SizeProp)).fold(500L) { s =>
+      try s.trim.toLong catch {
+        case ex: NumberFormatException =>
+          Log.log(Level.WARNING, s"Could not parse $SizeProp value '$s', using 500", ex)
+          500L
+      }
+    }
+
+    if (dir.equalsIgnoreCase("none")) None
+    else
+      try Some(new CatalogDiskCache(new File(dir), (mb max 0) * 1024 * 1024)) catch {
+        case ex: Exception =>
+          Log.log(Level.WARNING, s"Could not open the catalog cache at $dir", ex)
+          None
+      }
+  }
+
+  // The sky is divided in declination bands of CellSize degrees, and each
+  // band in as many right ascension cells as fit at its center, so the cells
+  // have roughly the same area.
+  private val CellSize = 1.0
+  private val Bands    = (180 / CellSize).toInt
+
+  private def band(dec: Double): Int =
+    ((dec + 90) / CellSize).toInt max 0 min (Bands - 1)
+
+  private def raCells(band: Int): Int = {
+    val dec = -90 + (band + 0.5) * CellSize
+    (360 * math.cos(dec.toRadians) / CellSize).toInt max 1
+  }
+
+  private def cell(band: Int, i: Int): Long =
+    band.toLong * 1000 + i
+
+  private def raIndex(ra: Double, n: Int): Int =
+    (math.floor(ra / 360 * n).toInt % n + n) % n
+
+  private[votable] def cellOf(c: Coordinates): Long = {
+    val b = band(c.dec.toDegrees)
+    cell(b, raIndex(c.ra.toAngle.toDegrees, raCells(b)))
+  }
+
+  // All the cells overlapping the bounding box of a cone
+  private[votable] def cellsOf(c: Coordinates, radius: Angle): List[Long] = {
+    val ra  = c.ra.toAngle.toDegrees
+    val dec = c.dec.toDegrees
+    val r   = radius.toDegrees
+
+    // Half width in right ascension of the cone, or None if it covers a pole
+    val halfWidth =
+      if (math.abs(dec) + r >= 90) None
+      else {
+        val s = math.sin(r.toRadians) / math.cos(dec.toRadians)
+        if (s >= 1) None else Some(math.toDegrees(math.asin(s)))
+      }
+
+    (band(dec - r) to band(dec + r)).toList.flatMap { b =>
+      val n = raCells(b)
+      halfWidth.filter(_ < 180).fold((0 until n).toList) { w =>
+        val first = math.floor((ra - w) / 360 * n).toInt
+        val last  = math.floor((ra + w) / 360 * n).toInt
+        if (last - first + 1 >= n) (0 until n).toList
+        else (first to last).toList.map(i => (i % n + n) % n)
+      }.map(cell(b, _))
+    }
+  }
+
+  private def write(f: File, key: String, base: Coordinates, radius: Angle, r: CatalogQueryResult): Unit = {
+    val out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)))
+    try {
+      out.writeInt(Magic)
+      out.writeInt(Version)
+      out.writeUTF(key)
+      out.writeDouble(base.ra.toAngle.toDegrees)
+      out.writeDouble(base.dec.toDegrees)
+      out.writeDouble(radius.toDegrees)
+      val oos = new ObjectOutputStream(new GZIPOutputStream(out))
+      oos.writeObject(r)
+      oos.close()
+    } finally {
+      out.close()
+    }
+  }
+
+}
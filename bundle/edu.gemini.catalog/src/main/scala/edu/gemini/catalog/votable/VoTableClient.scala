@@ -4,7 +4,7 @@ import java.net.{URL, UnknownHostException, URLEncoder}
 import java.util.concurrent.atomic.AtomicInteger
 import java.util.logging.Logger
 
-import edu.gemini.catalog.api.{CatalogName, RadiusConstraint, MagnitudeConstraints, NameCatalogQuery, ConeSearchCatalogQuery, CatalogQuery}
+import edu.gemini.catalog.api.{CatalogName, RadiusConstraint, RadiusFilter, MagnitudeConstraints, NameCatalogQuery, ConeSearchCatalogQuery, CatalogQuery}
 import edu.gemini.spModel.core.{Angle, Magnitude, MagnitudeBand, MagnitudeSystem, NiciBandsList, NoBands, RBandsList, SiderealTarget, SingleBand}
 
 import org.apache.http.HttpResponse
@@ -163,8 +163,56 @@ trait RemoteCallBackend { this: CachedBackend =>
   protected [votable] def queryParams(q: CatalogQuery): Array[(String, String)]
   protected [votable] def queryUrl(e: SearchKey): String
 
+  // Filter applied while parsing the response to the widened query.  The
+  // result is cached and reused for other queries (see CachedBackend), which
+  // share the magnitude constraints but may have a different inner radius,
+  // so only the magnitudes and outer radius can be checked here.  Results
+  // stored on disk are shared by queries with any magnitude constraints.
+  protected [votable] def parseFilter(q: CatalogQuery): SiderealTarget => Boolean =
+    q match {
+      case c: ConeSearchCatalogQuery =>
+        val outer = RadiusConstraint.between(Angle.zero, c.radiusConstraint.maxLimit)
+        if (diskCache.isDefined) RadiusFilter(c.base, outer).filter
+        else c.copy(radiusConstraint = outer).filter
+      case _                         =>
+        _ => true
+    }
+
+  /** Results kept between sessions, if any.  Only cone searches are stored. */
+  protected def diskCache: Option[CatalogDiskCache] =
+    CatalogDiskCache.default
+
+  /**
+   * Identifies the stored results that can answer a query.  Queries with the
+   * same key must return the same targets for the same cone, whatever their
+   * magnitude constraints.
+   */
+  protected def diskCacheKey(q: ConeSearchCatalogQuery): String =
+    q.catalog.id
+
   override protected def query(e: SearchKey): QueryResult = {
     val widerQuery = widen(e.query)
+    val disk       = for {
+      dc <- diskCache
+      cs <- widerQuery match {
+              case cs: ConeSearchCatalogQuery => Some(cs)
+              case _                          => None
+            }
+    } yield (dc, cs)
+
+    disk.flatMap { case (dc, cs) => dc.find(diskCacheKey(cs), cs) }.fold {
+      val qr = remoteQuery(e, widerQuery)
+      // Don't store failed queries
+      if (qr.result.targets.rows.nonEmpty || qr.result.problems.isEmpty)
+        disk.foreach { case (dc, cs) => dc.store(diskCacheKey(cs), cs, qr.result) }
+      qr
+    } { r =>
+      Log.info(s"Catalog query for ${e.query.catalog.id} answered from the disk cache")
+      QueryResult(widerQuery, r)
+    }
+  }
+
+  private def remoteQuery(e: SearchKey, widerQuery: CatalogQuery): QueryResult = {
     val qs         = queryParams(widerQuery)
                        .map { case (n, v) => s"$n=${URLEncoder.encode(v, "UTF-8")}"}
                        .mkString("&")
@@ -187,7 +235,7 @@ trait RemoteCallBackend { this: CachedBackend =>
     val response = client.execute(get)
     try {
       Option(response.getEntity).fold(noEntity(response)) { ent =>
-        VoTableParser.parse(e.query.catalog, ent.getContent) match {
+        VoTableParser.parse(e.query.catalog, ent.getContent, parseFilter(widerQuery)) match {
           case -\/(p) => problemResult(p)
           case \/-(y) => QueryResult(widerQuery, CatalogQueryResult(y))
         }
@@ -246,6 +294,10 @@ sealed trait GaiaBackend extends CachedBackend with RemoteCallBackend {
         q
     }
 
+  // The faint limit of the query depends on whether it is for LGS
+  override protected def diskCacheKey(q: ConeSearchCatalogQuery): String =
+    s"${q.catalog.id}-${if (q.isLgs) "lgs" else "ngs"}"
+
   def adql(cs: ConeSearchCatalogQuery): String = {
 
     val fields = gaia.allFields.map(_.id).mkString(",")
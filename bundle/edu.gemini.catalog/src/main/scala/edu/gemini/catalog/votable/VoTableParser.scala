@@ -1,15 +1,18 @@
 package edu.gemini.catalog.votable
 
-import java.io.{ByteArrayInputStream, InputStream}
+import java.io.{ByteArrayInputStream, ByteArrayOutputStream, InputStream, InputStreamReader, Reader}
+import java.nio.charset.StandardCharsets.UTF_8
 import edu.gemini.catalog.api.CatalogName
 import edu.gemini.spModel.core._
 
 import java.util.logging.Logger
+import javax.xml.stream.{XMLInputFactory, XMLStreamConstants}
+import javax.xml.transform.stream.StreamSource
+import javax.xml.validation.{Schema, SchemaFactory}
 
+import scala.collection.concurrent.TrieMap
 import scala.collection.immutable
-import scala.io.Source
-import scala.util.matching.Regex
-import scala.xml.XML
+import scala.collection.mutable.ListBuffer
 import scala.xml.Node
 import scalaz._
 import Scalaz._
@@ -37,32 +40,58 @@ object VoTableParser extends VoTableParser {
   val UCD_MAG        = UcdWord("phot.mag")
   val STAT_ERR       = UcdWord("stat.error")
 
-  private val VoTableHeader: Regex =
-    """<VOTABLE([^>]*)>""".r.unanchored
-
   private val MinVersion: VersionToken = VersionToken.unsafeFromIntegers(1, 2)
   private val MaxVersion: VersionToken = VersionToken.unsafeFromIntegers(1, 4)
 
-  private val VersionRegex: Regex =
-    """version="(\d+\.\d+)"""".r.unanchored
+  private[votable] val xmlInputFactory: XMLInputFactory = {
+    val f = XMLInputFactory.newInstance
+    f.setProperty(XMLInputFactory.SUPPORT_DTD, false)
+    f.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false)
+    f
+  }
 
-  private def extractHeader(catalogName: CatalogName, xmlText: String): CatalogProblem \/ String =
-    xmlText match {
-      case VoTableHeader(header) =>
-        \/-(header)
-      case _                    =>
-        LOG.warning(s"Couldn't find VOTABLE header in $catalogName catalog output.")
-        -\/(ValidationError(catalogName))
+  // Compiled schemas by version, compiling them is much slower than validating
+  private val schemas: TrieMap[String, Schema] = TrieMap.empty
+
+  private def reader(bytes: Array[Byte]): Reader =
+    new InputStreamReader(new ByteArrayInputStream(bytes), UTF_8)
+
+  private def readFully(is: InputStream): Array[Byte] = {
+    val out = new ByteArrayOutputStream()
+    val buf = new Array[Byte](64 * 1024)
+    var n   = is.read(buf)
+    while (n >= 0) {
+      out.write(buf, 0, n)
+      n = is.read(buf)
+    }
+    out.toByteArray
+  }
+
+  // Reads the attributes of the VOTABLE element, stopping there.
+  private def extractHeader(catalogName: CatalogName, bytes: Array[Byte]): CatalogProblem \/ Map[String, String] =
+    \/.fromTryCatchNonFatal {
+      val r = xmlInputFactory.createXMLStreamReader(reader(bytes))
+      try {
+        while (r.hasNext && r.next() != XMLStreamConstants.START_ELEMENT) {}
+        (r.isStartElement && r.getLocalName == "VOTABLE") option {
+          (0 until r.getAttributeCount).map(i => r.getAttributeLocalName(i) -> r.getAttributeValue(i)).toMap
+        }
+      } finally {
+        r.close()
+      }
+    }.toOption.flatten.toRightDisjunction {
+      LOG.warning(s"Couldn't find VOTABLE header in $catalogName catalog output.")
+      ValidationError(catalogName)
     }
 
-  private def parseVersion(catalogName: CatalogName, header: String): CatalogProblem \/ VersionToken =
-    header match {
-      case VersionRegex(versionToken) =>
+  private def parseVersion(catalogName: CatalogName, header: Map[String, String]): CatalogProblem \/ VersionToken =
+    header.get("version") match {
+      case Some(versionToken) =>
         VersionToken.parse(versionToken).toRightDisjunction {
           LOG.warning(s"Couldn't parse version token '$versionToken' in $catalogName catalog output.")
           ValidationError(catalogName)
         }
-      case _                          =>
+      case None               =>
         LOG.warning(s"Couldn't find version token in $catalogName catalog header '$header'.")
         -\/(ValidationError(catalogName))
     }
@@ -73,35 +102,43 @@ object VoTableParser extends VoTableParser {
       ValidationError(catalogName)
     }
 
-  private def versionedValidate(catalogName: CatalogName, xmlText: String, version: VersionToken): CatalogProblem \/ Unit =
-    \/.fromTryCatchNonFatal {
-      import javax.xml.transform.stream.StreamSource
-      import javax.xml.validation.SchemaFactory
-
+  private def schema(version: VersionToken): Schema =
+    schemas.getOrElseUpdate(version.format, {
       val xsd        = s"/votable-${version.format}.xsd"
       val schemaLang = "http://www.w3.org/2001/XMLSchema"
       val factory    = SchemaFactory.newInstance(schemaLang)
-      val schema     = factory.newSchema(new StreamSource(getClass.getResourceAsStream(xsd)))
-      val validator  = schema.newValidator()
+      factory.newSchema(new StreamSource(getClass.getResourceAsStream(xsd)))
+    })
 
-      validator.validate(new StreamSource(new ByteArrayInputStream(xmlText.getBytes(java.nio.charset.Charset.forName("UTF-8")))))
+  private def versionedValidate(catalogName: CatalogName, bytes: Array[Byte], version: VersionToken): CatalogProblem \/ Unit =
+    \/.fromTryCatchNonFatal {
+      schema(version).newValidator().validate(new StreamSource(reader(bytes)))
     }.leftMap(_ => ValidationError(catalogName))
 
-  private def validate(catalogName: CatalogName, xmlText: String): CatalogProblem \/ Unit =
+  private def validate(catalogName: CatalogName, bytes: Array[Byte]): CatalogProblem \/ Unit =
     for {
-      h <- extractHeader(catalogName, xmlText)
+      h <- extractHeader(catalogName, bytes)
       v <- parseVersion(catalogName, h)
       _ <- validateVersion(catalogName, v)
-      _ <- versionedValidate(catalogName, xmlText, v)
+      _ <- versionedValidate(catalogName, bytes, v)
     } yield ()
 
   /**
    * parse takes an input stream and attempts to read the xml content and convert it to a VoTable resource
    */
   def parse(catalog: CatalogName, is: InputStream): CatalogResult =
+    parse(catalog, is, (_: SiderealTarget) => true)
+
+  /**
+   * Like `parse` but dropping the targets rejected by `filter` as the rows are
+   * read, so that they are never held in memory.  Rows that can't be parsed
+   * are kept as problems.
+   */
+  def parse(catalog: CatalogName, is: InputStream, filter: SiderealTarget => Boolean): CatalogResult =
     (CatalogAdapter.forCatalog(catalog) \/> UnknownCatalog).flatMap { adapter =>
-      // Load in memory (Could be a problem for large responses)
-      val xmlText = Source.fromInputStream(is, "UTF-8").getLines().mkString
+      // The response is kept as bytes for validation, but the document is
+      // read with a pull parser and never built in memory.
+      val bytes = readFully(is)
 
       // See FR-42171 and REL-4126.  Our code doesn't appear to explicitly
       // mutate or lock anything, but unless the XML processing is synchronized
@@ -112,15 +149,16 @@ object VoTableParser extends VoTableParser {
             // Simbad is a special case as it is not fully votable-compliant.
             // We want to catch some errors at this level to simplify the parse method
             // that assumes we are votable compliant
-            val xml = XML.loadString(xmlText)
-            if (CatalogAdapter.Simbad.containsExceptions(xml)) {
+            val b = new ResourceBuilder(filter)
+            readTables(adapter, reader(bytes), b)
+            if (CatalogAdapter.Simbad.containsExceptions(b.infoValues)) {
               \/.left(ValidationError(catalog))
             } else {
-              \/.right(parse(adapter, xml))
+              \/.right(b.result)
             }
 
           case _ =>
-            validate(catalog, xmlText).as(parse(adapter, XML.loadString(xmlText)))
+            validate(catalog, bytes).as(parseStream(adapter, reader(bytes), filter))
         }
       }
     }
@@ -539,9 +577,13 @@ object CatalogAdapter {
     }
 
     def containsExceptions(xml: Node): Boolean =
+      containsExceptions((xml \\ "INFO" \ "@value").text)
+
+    // Takes the concatenated values of all the INFO elements
+    def containsExceptions(infoValues: String): Boolean =
       // The only case known is with java.lang.NullPointerException but let's make the check
       // more general.
-      (xml \\ "INFO" \ "@value").text.matches("java\\..*Exception")
+      infoValues.matches("java\\..*Exception")
   }
 
   val All: List[CatalogAdapter] =
@@ -603,6 +645,128 @@ trait VoTableParser {
       }
     )
 
+  /**
+   * Receives the contents of a VOTable as they are read by `readTables`.
+   */
+  protected trait VoTableHandler {
+    def table(): Unit
+    def row(r: CatalogProblem \/ SiderealTarget): Unit
+    def info(value: String): Unit
+  }
+
+  /**
+   * Collects the tables read into a ParsedVoResource, dropping the targets
+   * rejected by `filter`.
+   */
+  protected class ResourceBuilder(filter: SiderealTarget => Boolean) extends VoTableHandler {
+    private val tables = ListBuffer.empty[ListBuffer[CatalogProblem \/ SiderealTarget]]
+    private val infos  = new StringBuilder
+
+    def table(): Unit =
+      tables += ListBuffer.empty
+
+    def row(r: CatalogProblem \/ SiderealTarget): Unit =
+      if (r.fold(_ => true, filter)) tables.last += r
+
+    def info(value: String): Unit =
+      infos.append(value)
+
+    def infoValues: String =
+      infos.toString
+
+    def result: ParsedVoResource =
+      ParsedVoResource(tables.toList.map(t => ParsedTable(t.toList)))
+  }
+
+  /**
+   * Reads a VOTable with a pull parser, passing each row to the handler as a
+   * target as soon as it has been read.  The rows are the same that
+   * `parse(adapter, xml)` would produce for the document.
+   */
+  protected def readTables(adapter: CatalogAdapter, in: java.io.Reader, handler: VoTableHandler): Unit = {
+    import javax.xml.stream.XMLStreamConstants._
+
+    val r = VoTableParser.xmlInputFactory.createXMLStreamReader(in)
+
+    def attr(n: String): Option[String] = Option(r.getAttributeValue(null, n))
+
+    val fieldsBuf = ListBuffer.empty[FieldId]
+    var fields    = List.empty[FieldId]
+    val tds       = ListBuffer.empty[String]
+    val text      = new java.lang.StringBuilder
+    var inTable   = false
+    var inData    = false
+    var inRow     = false
+    var tdDepth   = 0
+
+    try {
+      while (r.hasNext) {
+        r.next() match {
+          case START_ELEMENT =>
+            if (tdDepth > 0) tdDepth += 1
+            else r.getLocalName match {
+              case "TABLE"                 =>
+                inTable = true
+                fieldsBuf.clear()
+                handler.table()
+              case "FIELD" if inTable      =>
+                val name = attr("name")
+                ^^(attr("ID").orElse(name), attr("ucd"), name) { (i, u, _) =>
+                  fieldsBuf += adapter.postProcessFieldDescriptor(FieldId(i, Ucd(u)))
+                }
+              case "TABLEDATA" if inTable  =>
+                inData = true
+                fields = fieldsBuf.toList
+              case "TR" if inData          =>
+                inRow = true
+                tds.clear()
+              case "TD" if inRow           =>
+                tdDepth = 1
+                text.setLength(0)
+              case "INFO"                  =>
+                attr("value").foreach(handler.info)
+              case _                       =>
+            }
+
+          case CHARACTERS | CDATA | SPACE if tdDepth > 0 =>
+            text.append(r.getTextCharacters, r.getTextStart, r.getTextLength)
+
+          case END_ELEMENT =>
+            if (tdDepth > 1) tdDepth -= 1
+            else r.getLocalName match {
+              case "TD" if tdDepth == 1 =>
+                tdDepth = 0
+                tds += text.toString
+              case "TR" if inRow        =>
+                inRow = false
+                val row = if (tds.length == fields.length) TableRow(fields.zip(tds).map(TableRowItem.tupled)) else TableRow(Nil)
+                handler.row(tableRow2Target(adapter, fields)(row))
+              case "TABLEDATA"          =>
+                inData = false
+              case "TABLE"              =>
+                inTable = false
+              case _                    =>
+            }
+
+          case _ =>
+        }
+      }
+    } finally {
+      r.close()
+    }
+  }
+
+  /**
+   * Reads the resources and targets of a VOTable like `parse(adapter, xml)`,
+   * but without building the document in memory.  Targets rejected by
+   * `filter` are dropped as they are read.
+   */
+  protected def parseStream(adapter: CatalogAdapter, in: java.io.Reader, filter: SiderealTarget => Boolean): ParsedVoResource = {
+    val b = new ResourceBuilder(filter)
+    readTables(adapter, in, b)
+    b.result
+  }
+
   /**
    * Convert a table row to a sidereal target or CatalogProblem
    */
@@ -0,0 +1,100 @@
+package edu.gemini.catalog.votable
+
+import java.io.File
+import java.nio.file.Files
+
+import edu.gemini.catalog.api._
+import edu.gemini.spModel.core._
+import org.specs2.mutable.Specification
+
+class CatalogDiskCacheSpec extends Specification {
+
+  def tempDir: File =
+    Files.createTempDirectory("catalog-cache").toFile
+
+  def cone(ra: Double, dec: Double, arcmin: Double, catalog: CatalogName = CatalogName.UCAC4): ConeSearchCatalogQuery =
+    ConeSearchCatalogQuery(None, Coordinates.fromDegrees(ra, dec).get, RadiusConstraint.between(Angle.zero, Angle.fromArcmin(arcmin)), Nil, catalog, isLgs = false)
+
+  val targets = CatalogQueryResult(TargetsTable(List(
+    SiderealTarget.empty.copy(name = "a", coordinates = Coordinates.fromDegrees(10.0, 20.0).get, magnitudes = List(new Magnitude(12.0, MagnitudeBand.R))),
+    SiderealTarget.empty.copy(name = "b", coordinates = Coordinates.fromDegrees(10.1, 20.1).get)
+  )), Nil)
+
+  "CatalogDiskCache" should {
+    "find results for cones inside a stored cone" in {
+      val cache = new CatalogDiskCache(tempDir, Long.MaxValue)
+      cache.store("ucac4", cone(10.0, 20.0, 10.0), targets)
+
+      cache.find("ucac4", cone(10.0, 20.0, 5.0)) should beSome(targets)
+      cache.find("ucac4", cone(10.02, 20.02, 5.0)) should beSome(targets)
+      cache.find("ucac4", cone(10.0, 20.0, 11.0)) should beNone
+      cache.find("ucac4", cone(10.2, 20.0, 5.0)) should beNone
+      cache.find("ppmxl", cone(10.0, 20.0, 5.0)) should beNone
+      cache.stats.hits should beEqualTo(2)
+      cache.stats.misses should beEqualTo(3)
+    }
+    "find cones across cell and right ascension boundaries" in {
+      val cache = new CatalogDiskCache(tempDir, Long.MaxValue)
+      cache.store("ucac4", cone(0.05, 0.02, 12.0), targets)
+      cache.store("ucac4", cone(120.0, 89.9, 12.0), targets)
+
+      cache.find("ucac4", cone(359.99, -0.05, 3.0)) should beSome(targets)
+      cache.find("ucac4", cone(300.0, 89.95, 1.0)) should beSome(targets)
+    }
+    "keep results between sessions" in {
+      val dir = tempDir
+      new CatalogDiskCache(dir, Long.MaxValue).store("ucac4", cone(10.0, 20.0, 10.0), targets)
+
+      val cache = new CatalogDiskCache(dir, Long.MaxValue)
+      cache.stats.entries should beEqualTo(1)
+      cache.find("ucac4", cone(10.0, 20.0, 5.0)) should beSome(targets)
+    }
+    "evict the least recently used results" in {
+      val dir   = tempDir
+      val cache = new CatalogDiskCache(dir, Long.MaxValue)
+      cache.store("ucac4", cone(10.0, 20.0, 10.0), targets)
+      val size  = cache.stats.bytes
+
+      val small = new CatalogDiskCache(dir, size * 2)
+      small.store("ucac4", cone(50.0, 20.0, 10.0), targets)
+      small.find("ucac4", cone(10.0, 20.0, 5.0)) should beSome(targets)
+      small.store("ucac4", cone(90.0, 20.0, 10.0), targets)
+
+      small.stats.evictions should beEqualTo(1)
+      small.find("ucac4", cone(50.0, 20.0, 5.0)) should beNone
+      small.find("ucac4", cone(10.0, 20.0, 5.0)) should beSome(targets)
+      dir.listFiles.count(_.getName.endsWith(".cat")) should beEqualTo(2)
+    }
+    "ignore unreadable files" in {
+      val dir = tempDir
+      new CatalogDiskCache(dir, Long.MaxValue).store("ucac4", cone(10.0, 20.0, 10.0), targets)
+      dir.listFiles.foreach(f => Files.write(f.toPath, Array[Byte](1, 2, 3)))
+
+      val cache = new CatalogDiskCache(dir, Long.MaxValue)
+      cache.stats.entries should beEqualTo(0)
+      cache.find("ucac4", cone(10.0, 20.0, 5.0)) should beNone
+    }
+    "index every cell a cone overlaps" in {
+      val cones = for {
+        ra  <- List(0.0, 0.3, 45.0, 180.0, 359.8)
+        dec <- List(-89.9, -45.2, -0.1, 0.0, 30.5, 88.7)
+      } yield (Coordinates.fromDegrees(ra, dec).get, Angle.fromArcmin(30.0))
+
+      // The point at the given bearing and distance from c
+      def destination(c: Coordinates, bearing: Double, distance: Double): Coordinates = {
+        val (lat, lon, d, b) = (c.dec.toDegrees.toRadians, c.ra.toAngle.toDegrees.toRadians, distance.toRadians, bearing.toRadians)
+        val lat2 = math.asin(math.sin(lat) * math.cos(d) + math.cos(lat) * math.sin(d) * math.cos(b))
+        val lon2 = lon + math.atan2(math.sin(b) * math.sin(d) * math.cos(lat), math.cos(d) - math.sin(lat) * math.sin(lat2))
+        Coordinates.fromDegrees(lon2.toDegrees, lat2.toDegrees).get
+      }
+
+      cones.forall { case (c, r) =>
+        val cells = CatalogDiskCache.cellsOf(c, r).toSet
+        // points on the edge of the cone
+        (0 until 36).forall { i =>
+          cells.contains(CatalogDiskCache.cellOf(destination(c, i * 10.0, r.toDegrees * 0.99)))
+        }
+      } should beTrue
+    }
+  }
+}
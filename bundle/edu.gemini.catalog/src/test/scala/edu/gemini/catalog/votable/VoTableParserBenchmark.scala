@@ -0,0 +1,74 @@
+package edu.gemini.catalog.votable
+
+import java.io.ByteArrayInputStream
+import java.lang.management.ManagementFactory
+import java.lang.management.MemoryType.HEAP
+import java.nio.charset.StandardCharsets.UTF_8
+
+import edu.gemini.catalog.api.CatalogName
+
+import scala.collection.JavaConverters._
+import scala.io.Source
+import scala.xml.XML
+
+/**
+ * Compares the time and peak heap used to parse a large VOTable with the
+ * streaming parser and by loading the whole document.  The table is made by
+ * repeating the rows of a stored UCAC4 response.  Not a unit test, run the
+ * main method by hand, ideally once per parser so that the heap peaks don't
+ * interfere:
+ *
+ * VoTableParserBenchmark [stream|dom|both] [copies of the rows] [iterations]
+ */
+object VoTableParserBenchmark extends VoTableParser {
+
+  def main(args: Array[String]): Unit = {
+    val which      = args.headOption.getOrElse("both")
+    val copies     = args.drop(1).headOption.map(_.toInt).getOrElse(5000)
+    val iterations = args.drop(2).headOption.map(_.toInt).getOrElse(3)
+
+    val bytes = largeTable(copies)
+    println(f"VOTable of ${bytes.length / 1024.0 / 1024.0}%.1f MB")
+
+    def stream(): Int =
+      VoTableParser.parse(CatalogName.UCAC4, new ByteArrayInputStream(bytes)).fold(_ => 0, _.tables.map(_.rows.size).sum)
+
+    // The DOM path as the parser used to do it.  Validation is only included
+    // in the streaming times, so the comparison favours the DOM.
+    def dom(): Int = {
+      val text = Source.fromInputStream(new ByteArrayInputStream(bytes), "UTF-8").getLines().mkString
+      parse(CatalogAdapter.UCAC4, XML.loadString(text)).tables.map(_.rows.size).sum
+    }
+
+    if (which != "dom")    run("stream", iterations)(stream())
+    if (which != "stream") run("dom",    iterations)(dom())
+  }
+
+  private def largeTable(copies: Int): Array[Byte] = {
+    val xml   = Source.fromInputStream(getClass.getResourceAsStream("/votable-ucac4.xml"), "UTF-8").mkString
+    val start = xml.indexOf("<TABLEDATA>") + "<TABLEDATA>".length
+    val end   = xml.indexOf("</TABLEDATA>")
+    val rows  = xml.substring(start, end)
+    val sb    = new StringBuilder(xml.length + rows.length * copies)
+    sb.append(xml.substring(0, start))
+    (1 to copies).foreach(_ => sb.append(rows))
+    sb.append(xml.substring(end))
+    sb.toString.getBytes(UTF_8)
+  }
+
+  private def run(name: String, iterations: Int)(f: => Int): Unit = {
+    val pools = ManagementFactory.getMemoryPoolMXBeans.asScala.filter(_.getType == HEAP)
+
+    f // warm up
+    (1 to iterations).foreach { _ =>
+      System.gc()
+      val before = pools.map(_.getUsage.getUsed).sum
+      pools.foreach(_.resetPeakUsage())
+      val start  = System.nanoTime
+      val rows   = f
+      val ms     = (System.nanoTime - start) / 1000000
+      val peak   = pools.map(_.getPeakUsage.getUsed).sum - before
+      println(f"$name%-6s $rows%d rows in $ms%d ms, peak heap +${peak / 1024.0 / 1024.0}%.1f MB")
+    }
+  }
+}
@@ -917,6 +917,40 @@ class VoTableParserSpec extends Specification with VoTableParser {
       val result = VoTableParser.parse(CatalogName.SIMBAD, getClass.getResourceAsStream(s"/$xmlFile"))
       result must beEqualTo(\/.left(ValidationError(CatalogName.SIMBAD)))
     }
+    "stream the same targets as parsing the whole document" in {
+      def stream(a: CatalogAdapter, xml: scala.xml.Node) =
+        parseStream(a, new java.io.StringReader(xml.toString), _ => true)
+
+      stream(CatalogAdapter.PPMXL, voTable) should beEqualTo(parse(CatalogAdapter.PPMXL, voTable))
+      stream(CatalogAdapter.PPMXL, voTableWithErrors) should beEqualTo(parse(CatalogAdapter.PPMXL, voTableWithErrors))
+      stream(CatalogAdapter.PPMXL, voTableWithRedshift) should beEqualTo(parse(CatalogAdapter.PPMXL, voTableWithRedshift))
+      stream(CatalogAdapter.PPMXL, voTableWithRadialVelocityError) should beEqualTo(parse(CatalogAdapter.PPMXL, voTableWithRadialVelocityError))
+      stream(CatalogAdapter.UCAC4, voTableWithProperMotion) should beEqualTo(parse(CatalogAdapter.UCAC4, voTableWithProperMotion))
+      stream(CatalogAdapter.GaiaEsa, voTableGaia) should beEqualTo(parse(CatalogAdapter.GaiaEsa, voTableGaia))
+    }
+    "stream the same targets as parsing the whole document for stored responses" in {
+      val files = List(
+        CatalogName.UCAC4  -> "votable-ucac4.xml",
+        CatalogName.UCAC4  -> "votable-ucac4-v1_4.xml",
+        CatalogName.PPMXL  -> "votable-ppmxl.xml",
+        CatalogName.PPMXL  -> "votable-ppmxl-proper-motion.xml",
+        CatalogName.SIMBAD -> "simbad-ngc-2438.xml",
+        CatalogName.SIMBAD -> "simbad-vega.xml"
+      )
+      files.forall { case (c, f) =>
+        val adapter = CatalogAdapter.forCatalog(c).get
+        val dom     = parse(adapter, scala.xml.XML.load(getClass.getResourceAsStream(s"/$f")))
+        VoTableParser.parse(c, getClass.getResourceAsStream(s"/$f")) == \/.right(dom)
+      } should beTrue
+    }
+    "filter targets while parsing" in {
+      val xmlFile = "votable-ucac4.xml"
+      val all     = VoTableParser.parse(CatalogName.UCAC4, getClass.getResourceAsStream(s"/$xmlFile")).getOrElse(ParsedVoResource(Nil))
+      val bright  = (t: SiderealTarget) => t.magnitudeIn(MagnitudeBand.J).exists(_.value < 14.0)
+      val result  = VoTableParser.parse(CatalogName.UCAC4, getClass.getResourceAsStream(s"/$xmlFile"), bright).getOrElse(ParsedVoResource(Nil))
+
+      result.tables.map(_.rows) should beEqualTo(all.tables.map(_.rows.filter(_.forall(bright))))
+    }
     "ppmxl proper motion should be in mas/y. REL-2841" in {
       val xmlFile = "votable-ppmxl-proper-motion.xml"
       // PPMXL returns proper motion on degrees per year, it should be converted to mas/year
@@ -0,0 +1,169 @@
+package edu.gemini.itc.web.servlets
+
+import java.nio.charset.StandardCharsets.UTF_8
+import java.security.MessageDigest
+import java.util.concurrent.{ConcurrentHashMap, CountDownLatch}
+import java.util.concurrent.atomic.AtomicLong
+import java.util.logging.{Level, Logger}
+
+import argonaut._, Argonaut._
+import edu.gemini.itc.shared.{ItcError, ItcParameters, ItcResult, ItcService}
+import edu.gemini.itc.web.json.ItcParametersCodec
+
+import scalaz._, Scalaz._
+
+/**
+ * Cache of ITC results keyed by the content of the `ItcParameters` they were
+ * calculated for.  The key is a digest of the canonical JSON encoding of the
+ * decoded parameters, so requests that differ only in formatting or field
+ * order share an entry.  Entries expire after a time to live and the least
+ * recently used entries are dropped when the cache grows beyond its maximum
+ * size.  Only successful results are kept, since failures may be caused by
+ * transient problems.
+ *
+ * Concurrent requests for the same parameters are coalesced: the first one
+ * calculates the result and the others wait for it.
+ */
+final class ItcResultCache(name: String, maxEntries: Int, ttlMs: Long) extends ItcParametersCodec {
+  import ItcResultCache._
+
+  private case class Entry(result: ItcResult, created: Long)
+
+  // A calculation in progress, which other requests for the same key wait on.
+  private final class InFlight {
+    private val done = new CountDownLatch(1)
+    @volatile private var result: ItcService.Result = _
+
+    def complete(r: ItcService.Result): Unit = {
+      result = r
+      done.countDown()
+    }
+
+    def await: ItcService.Result = {
+      done.await()
+      result
+    }
+  }
+
+  private val entries = new java.util.LinkedHashMap[String, Entry](64, 0.75f, true) {
+    override def removeEldestEntry(e: java.util.Map.Entry[String, Entry]): Boolean = {
+      val evict = size > maxEntries
+      if (evict) evictions.incrementAndGet()
+      evict
+    }
+  }
+
+  private val inFlight = new ConcurrentHashMap[String, InFlight]()
+
+  private val hits       = new AtomicLong()
+  private val misses     = new AtomicLong()
+  private val coalesced  = new AtomicLong()
+  private val evictions  = new AtomicLong()
+  private val calcNanos  = new AtomicLong()
+
+  /** Gets the result for the given parameters, calculating it if necessary. */
+  def apply(p: ItcParameters)(calc: ItcParameters => ItcService.Result): ItcService.Result = {
+    val k = key(p)
+
+    lookup(k).fold {
+      val mine  = new InFlight
+      val other = Option(inFlight.putIfAbsent(k, mine))
+      other.fold {
+        misses.incrementAndGet()
+        var r: ItcService.Result = ItcResult.forMessage("ITC calculation failed")
+        try {
+          val start = System.nanoTime
+          r = try calc(p) catch {
+            case e: Exception => ItcResult.forException(e)
+          }
+          calcNanos.addAndGet(System.nanoTime - start)
+          r.foreach(store(k, _))
+        } finally {
+          // release any requests waiting for this one, whatever happened
+          inFlight.remove(k)
+          mine.complete(r)
+        }
+        r
+      } { f =>
+        coalesced.incrementAndGet()
+        f.await
+      }
+    } { r =>
+      hits.incrementAndGet()
+      r.right[ItcError]
+    }
+  }
+
+  private def lookup(k: String): Option[ItcResult] = entries.synchronized {
+    Option(entries.get(k)).flatMap { e =>
+      if (System.currentTimeMillis - e.created <= ttlMs) Some(e.result)
+      else {
+        entries.remove(k)
+        None
+      }
+    }
+  }
+
+  private def store(k: String, r: ItcResult): Unit = entries.synchronized {
+    entries.put(k, Entry(r, System.currentTimeMillis))
+  }
+
+  private def key(p: ItcParameters): String = {
+    val md = MessageDigest.getInstance("SHA-256")
+    md.digest(p.asJson.nospaces.getBytes(UTF_8)).map(b => f"${b & 0xff}%02x").mkString
+  }
+
+  /** Gets the current counters. */
+  def stats: Stats =
+    Stats(name, hits.get, misses.get, coalesced.get, evictions.get, entries.synchronized(entries.size), calcNanos.get / 1000000)
+
+  /** Discards all cached results. */
+  def clear(): Unit = entries.synchronized(entries.clear())
+
+}
+
+object ItcResultCache {
+  private val Log = Logger.getLogger(classOf[ItcResultCache].getName)
+
+  /** System property that sets the maximum number of results kept by each cache. */
+  val MaxEntriesProp = "edu.gemini.itc.web.cacheSize"
+
+  /** System property that sets how long, in seconds, results are kept. */
+  val TtlProp = "edu.gemini.itc.web.cacheTtl"
+
+  /** Counters describing the use of a cache. */
+  case class Stats(name: String, hits: Long, misses: Long, coalesced: Long, evictions: Long, entries: Int, calcMillis: Long) {
+    def meanCalcMillis: Double = if (misses == 0) 0.0 else calcMillis.toDouble / misses
+  }
+
+  implicit val StatsEncodeJson: EncodeJson[Stats] =
+    EncodeJson { s =>
+      ("name"           := s.name)           ->:
+      ("hits"           := s.hits)           ->:
+      ("misses"         := s.misses)         ->:
+      ("coalesced"      := s.coalesced)      ->:
+      ("evictions"      := s.evictions)      ->:
+      ("entries"        := s.entries)        ->:
+      ("calcMillis"     := s.calcMillis)     ->:
+      ("meanCalcMillis" := s.meanCalcMillis) ->:
+      jEmptyObject
+    }
+
+  private def intProp(prop: String, defaultVal: Int): Int =
+    Option(System.getProperty(prop)).fold(defaultVal) { s =>
+      try s.trim.toInt catch {
+        case ex: NumberFormatException =>
+          Log.log(Level.WARNING, s"Could not parse $prop value '$s', using $defaultVal", ex)
+          defaultVal
+      }
+    }
+
+  private def newCache(name: String): ItcResultCache =
+    new ItcResultCache(name, intProp(MaxEntriesProp, 500) max 0, (intProp(TtlProp, 600) max 0) * 1000L)
+
+  /** Results of exposure time calculations. */
+  lazy val calculations: ItcResultCache = newCache("calculate")
+
+  /** Results of chart calculations. */
+  lazy val charts: ItcResultCache = newCache("calculateCharts")
+}
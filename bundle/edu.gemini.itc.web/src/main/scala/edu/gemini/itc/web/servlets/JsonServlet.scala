@@ -6,6 +6,7 @@ import edu.gemini.itc.service.ItcServiceImpl
 import edu.gemini.itc.web.json.{ ItcParametersCodec, ItcResultCodec }
 import javax.servlet.http.{ HttpServlet, HttpServletRequest, HttpServletResponse }
 import javax.servlet.http.HttpServletResponse.{ SC_BAD_REQUEST, SC_OK }
+import edu.gemini.itc.web.servlets.JsonServlet.writeStats
 import scala.io.Source
 import scalaz._, Scalaz._
 
@@ -40,18 +41,16 @@ object ItcCalculation extends ItcParametersCodec with ItcResultCodec {
 }
 
 /**
- * Servlet that accepts a JSON-encoded `ItcParameters` as its POST payload (no other methods are
- * supported) and responds with a JSON-encoded `ItcResult` on success, or `SC_BAD_REQUEST` with
+ * Servlet that accepts a JSON-encoded `ItcParameters` as its POST payload and responds with a JSON-encoded `ItcResult` on success, or `SC_BAD_REQUEST` with
  * an error message on failure. JSON codecs are defined in package `edu.gemini.itc.web.json`.
+ * Results are cached and identical concurrent requests are calculated only once; a GET request
+ * returns the cache counters.
  */
 class JsonServlet(versionToken: String) extends HttpServlet with ItcParametersCodec with ItcResultCodec {
   def this() = this("")
 
   override def doPost(req: HttpServletRequest, res: HttpServletResponse): Unit = {
 
-    // I don't know if this is threadsafe so we'll forge one per-request.
-    val itc: ItcService = new ItcServiceImpl
-
     // Read the body, which with some luck is a JSON string
     val enc  = Option(req.getCharacterEncoding).getOrElse("UTF-8")
     val src  = Source.fromInputStream(req.getInputStream, enc)
@@ -61,7 +60,11 @@ class JsonServlet(versionToken: String) extends HttpServlet with ItcParametersCo
     val result: Either[String, ItcResult] =
       for {
         itcReq <- Parse.decodeEither[ItcParameters](json)
-        itcRes <- itc.calculate(itcReq, true).toEither.leftMap(_.msg)
+        itcRes <- ItcResultCache.calculations(itcReq) { p =>
+                    // I don't know if this is threadsafe so we'll forge one per-calculation.
+                    val itc: ItcService = new ItcServiceImpl
+                    itc.calculate(p, true)
+                  }.toEither.leftMap(_.msg)
       } yield itcRes
 
     // Send our result back.
@@ -82,20 +85,22 @@ class JsonServlet(versionToken: String) extends HttpServlet with ItcParametersCo
 
   }
 
+  override def doGet(req: HttpServletRequest, res: HttpServletResponse): Unit =
+    writeStats(res, ItcResultCache.calculations.stats)
+
 }
 
 /**
  * Servlet that accepts a JSON-encoded `ItcParameters` as its POST payload
  * and responds with a JSON-encoded `ItcResult` on success, or `SC_BAD_REQUEST` with
  * an error message on failure. JSON codecs are defined in package `edu.gemini.itc.web.json`.
+ * Like `JsonServlet` results are cached, and a GET request returns the cache counters.
  */
 class JsonChartServlet(versionToken: String = "") extends HttpServlet with ItcParametersCodec with ItcResultCodec {
   def this() = this("")
 
   override def doPost(req: HttpServletRequest, res: HttpServletResponse) = {
 
-    val itc: ItcService = new ItcServiceImpl
-
     // Read the body, which with some luck is a JSON string
     val enc  = Option(req.getCharacterEncoding).getOrElse("UTF-8")
     val src  = Source.fromInputStream(req.getInputStream, enc)
@@ -105,7 +110,10 @@ class JsonChartServlet(versionToken: String = "") extends HttpServlet with ItcPa
     val result: Either[String, ItcResult] =
       for {
         itcReq <- Parse.decodeEither[ItcParameters](json)
-        itcRes <- itc.calculateCharts(itcReq).toEither.leftMap(_.msg)
+        itcRes <- ItcResultCache.charts(itcReq) { p =>
+                    val itc: ItcService = new ItcServiceImpl
+                    itc.calculateCharts(p)
+                  }.toEither.leftMap(_.msg)
       } yield itcRes
 
     // Send our result back.
@@ -126,4 +134,20 @@ class JsonChartServlet(versionToken: String = "") extends HttpServlet with ItcPa
 
   }
 
+  override def doGet(req: HttpServletRequest, res: HttpServletResponse): Unit =
+    writeStats(res, ItcResultCache.charts.stats)
+
+}
+
+object JsonServlet {
+
+  /** Writes the counters of a result cache as the JSON response. */
+  def writeStats(res: HttpServletResponse, stats: ItcResultCache.Stats): Unit = {
+    res.setStatus(SC_OK)
+    res.setContentType("text/json; charset=UTF-8")
+    val writer = res.getWriter
+    writer.write(stats.asJson.spaces2)
+    writer.close
+  }
+
 }
@@ -0,0 +1,86 @@
+package edu.gemini.itc.web.servlets
+
+import edu.gemini.itc.shared._
+import edu.gemini.itc.web.arb
+import java.util.concurrent.{CountDownLatch, Executors, TimeUnit}
+import java.util.concurrent.atomic.AtomicInteger
+import org.specs2.ScalaCheck
+import org.specs2.mutable.Specification
+import org.specs2.scalacheck.ScalaCheckParameters
+import scalaz._, Scalaz._
+
+object ItcResultCacheSpec extends Specification with ScalaCheck with ScalaCheckParameters {
+
+  import arb.itcparameters._
+
+  val result: ItcResult = ItcImagingResult(Nil, Nil)
+
+  "ItcResultCache" should {
+
+    "calculate each set of parameters once" !
+      prop { (p: ItcParameters) =>
+        val cache = new ItcResultCache("test", 10, 60000)
+        val calls = new AtomicInteger()
+        def calc(p: ItcParameters): ItcService.Result = { calls.incrementAndGet(); result.right }
+
+        cache(p)(calc) mustEqual result.right
+        cache(p)(calc) mustEqual result.right
+        calls.get mustEqual 1
+        cache.stats.hits mustEqual 1
+        cache.stats.misses mustEqual 1
+      }
+
+    "not keep failures" !
+      prop { (p: ItcParameters) =>
+        val cache = new ItcResultCache("test", 10, 60000)
+        cache(p)(_ => ItcResult.forMessage("nope")) mustEqual ItcError("nope").left
+        cache(p)(_ => sys.error("boom")) mustEqual ItcError("boom").left
+        cache(p)(_ => result.right) mustEqual result.right
+        cache.stats.misses mustEqual 3
+      }
+
+    "expire entries" !
+      prop { (p: ItcParameters) =>
+        val cache = new ItcResultCache("test", 10, -1)
+        cache(p)(_ => result.right)
+        cache(p)(_ => result.right)
+        cache.stats.hits mustEqual 0
+      }
+
+    "coalesce concurrent requests" !
+      prop { (p: ItcParameters) =>
+        val cache   = new ItcResultCache("test", 10, 60000)
+        val calls   = new AtomicInteger()
+        val started = new CountDownLatch(1)
+        val release = new CountDownLatch(1)
+        val pool    = Executors.newFixedThreadPool(4)
+        try {
+          val first = pool.submit(new java.util.concurrent.Callable[ItcService.Result] {
+            def call(): ItcService.Result = cache(p) { _ =>
+              calls.incrementAndGet()
+              started.countDown()
+              release.await()
+              result.right
+            }
+          })
+          started.await()
+          val others = (1 to 3).map { _ =>
+            pool.submit(new java.util.concurrent.Callable[ItcService.Result] {
+              def call(): ItcService.Result = cache(p) { _ => calls.incrementAndGet(); result.right }
+            })
+          }
+          // the others all wait for the first calculation to finish
+          val deadline = System.currentTimeMillis + 10000
+          while (cache.stats.coalesced < 3 && System.currentTimeMillis < deadline) Thread.sleep(1)
+          cache.stats.coalesced mustEqual 3
+          release.countDown()
+          (first +: others).map(_.get(10, TimeUnit.SECONDS)).forall(_ == result.right) mustEqual true
+          calls.get mustEqual 1
+        } finally {
+          pool.shutdownNow()
+        }
+      }.set(defaultParameters.minTestsOk, 5)
+
+  }
+
+}
@@ -1,10 +1,15 @@
 package edu.gemini.itc.base
 
+import java.io.{ByteArrayOutputStream, File, IOException}
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, StandardCopyOption, StandardOpenOption}
 import java.util.Scanner
 import java.util.logging.{Level, Logger}
 import java.util.regex.Pattern
+import java.util.zip.CRC32
 import scala.collection._
-import scalaz._
 
 /**
  * Set of tools to ingest dat files stored as resource files.
@@ -14,6 +19,12 @@ import scalaz._
  * know all the numbers are doubles. Using scan.next().toDouble is much more efficient than scan.nextDouble().
  * The contract regarding missing files and parsing errors is that this results in unchecked exceptions which
  * bubble all the way up to the servlet. This isn't better or worse than what we had originally.
+ *
+ * Purely numeric files (transmission, filter and background curves) are parsed with a hand written tokenizer
+ * and the values are kept in a binary file stamped with the resource's location, size and modification time,
+ * so that later loads of an unchanged file, including in later runs, just read the doubles back without
+ * reading the text at all.  Loaded files are kept in a cache that is bounded
+ * by the approximate size of the data it holds and that counts hits and misses.
  */
 object DatFile {
   lazy val Log = Logger.getLogger(getClass.getName)
@@ -86,15 +97,19 @@ object DatFile {
 
   // ===== Cached data file loaders
 
-  val arrays = cache { s =>
-    scanArray(s)
+  private val ArraysKind  = "arrays"
+  private val FiltersKind = "filters"
+
+  val arrays: String => Data = cache[Data](ArraysKind, weigh) { f =>
+    toArrays(f, numbers(f), 0)
   }
 
-  val filters = cache { s =>
-    Filter(s.nextDouble(), scanArray(s))
+  val filters: String => Filter = cache[Filter](FiltersKind, weighFilter) { f =>
+    toFilter(f, numbers(f))
   }
 
-  val gratings = cache { s =>
+  val gratings: String => Map[String, Grating] = cache[Map[String, Grating]]("gratings", _ => SmallEntryWeight) { f =>
+    val s = scanFile(f)
     val l = mutable.MutableList[Grating]()
     while (s.hasNext) {
       val name           = s.next()
@@ -121,10 +136,31 @@ object DatFile {
     l.map(l => l.name -> l).toMap
   }
 
-  val instruments = cache { s =>
+  val instruments: String => Instrument = cache[Instrument]("instruments", _ => SmallEntryWeight) { f =>
+    val s = scanFile(f)
     Instrument(s.next, s.nextInt, s.nextInt, s.nextDouble, s.next, s.nextDouble, s.nextDouble, s.nextDouble)
   }
 
+  /** Splits the values into the filter wavelength and wavelength/value pairs. */
+  private def toFilter(f: String, ns: Array[Double]): Filter = {
+    if (ns.isEmpty) throw new NoSuchElementException(s"Empty filter file $f")
+    Filter(ns(0), toArrays(f, ns, 1))
+  }
+
+  /** Splits the values, starting at `offset`, into wavelength/value pairs. */
+  private def toArrays(f: String, ns: Array[Double], offset: Int): Data = {
+    val n = ns.length - offset
+    if (n % 2 != 0) throw new NoSuchElementException(s"Odd number of values in data file $f")
+    val data = Array(new Array[Double](n / 2), new Array[Double](n / 2))
+    var i = 0
+    while (i < n / 2) {
+      data(0)(i) = ns(offset + 2 * i)
+      data(1)(i) = ns(offset + 2 * i + 1)
+      i += 1
+    }
+    data
+  }
+
   private def scanArray(s: Scanner): Array[Array[Double]] = {
     val l = mutable.MutableList[(Double, Double)]()
     while (s.hasNext) {
@@ -137,12 +173,312 @@ object DatFile {
     data
   }
 
-  /** Loads a file and parses it using the given scanner unless it is already available in the cache. */
-  // Note: this could be changed to use a weak hash map in case we run into memory issues
-  private def cache[T](load: Scanner => T): String => T = Memo.immutableHashMapMemo[String, T] { f =>
-    Log.fine(s"Caching file $f")
-    load(scanFile(f))
+  // ===== Numeric contents of data files
+
+  /** System property naming the directory in which the binary form of data
+    * files is kept.  Defaults to the directory set with `setDefaultBinaryDir`,
+    * the bundle's external data directory when running in OSGi; set it to
+    * `none`, or leave it unset outside OSGi, to always parse the text files.
+    */
+  val BinaryDirProp = "edu.gemini.itc.datBinaryDir"
+
+  /** System property that sets the approximate size, in MB, of the data held
+    * by the data file cache.  Defaults to 256.
+    */
+  val CacheSizeProp = "edu.gemini.itc.datCacheMB"
+
+  private def usableDir(dir: File): Option[File] =
+    if (dir.isDirectory || dir.mkdirs()) Some(dir)
+    else {
+      Log.warning(s"Cannot create ITC binary data file directory $dir")
+      None
+    }
+
+  // The directory named by the property, if it is set.
+  private lazy val propertyBinaryDir: Option[Option[File]] =
+    Option(System.getProperty(BinaryDirProp)).map(_.trim).map { d =>
+      if (d.equalsIgnoreCase("none")) None else usableDir(new File(d))
+    }
+
+  @volatile private var defaultBinaryDir: Option[File] = None
+
+  /** Sets the directory in which the binary form of data files is kept when
+    * the `BinaryDirProp` property is not set. */
+  def setDefaultBinaryDir(dir: File): Unit =
+    defaultBinaryDir = usableDir(dir)
+
+  private def binaryDir: Option[File] =
+    propertyBinaryDir.getOrElse(defaultBinaryDir)
+
+  /** Gets all the values in a purely numeric data file.  The text is parsed
+    * once and kept in a binary form, named after the resource and its stamp,
+    * that is simply read back on subsequent loads.  Resources that can't be
+    * stamped are identified by a checksum of their text instead. */
+  def numbers(f: String): Array[Double] =
+    binaryDir.fold(parseNumbers(f, readResource(f))) { dir =>
+      lazy val text = readResource(f)
+      val stamp     = resourceStamp(f).getOrElse(checksum(text))
+      val bin       = new File(dir, binaryName(f, stamp))
+      readBinary(bin, stamp).getOrElse {
+        val ns = parseNumbers(f, text)
+        try writeBinary(bin, stamp, ns) catch {
+          case ex: IOException => Log.log(Level.WARNING, s"Could not write binary data file $bin", ex)
+        }
+        ns
+      }
+    }
+
+  /** Identifies the current contents of a resource by its location, size and
+    * modification time, which are known without reading it.  None if the
+    * resource doesn't report them. */
+  private[base] def resourceStamp(f: String): Option[Long] =
+    Option(getClass.getResource(f)).flatMap { url =>
+      try {
+        val conn = url.openConnection
+        try {
+          val size     = conn.getContentLengthLong
+          val modified = conn.getLastModified
+          if (size < 0 || modified <= 0) None
+          else Some(checksum(s"$url $size $modified".getBytes(StandardCharsets.UTF_8)))
+        } finally {
+          conn.getInputStream.close() // some connections open the resource to answer
+        }
+      } catch {
+        case _: IOException => None
+      }
+    }
+
+  private def checksum(bytes: Array[Byte]): Long = {
+    val crc = new CRC32()
+    crc.update(bytes)
+    crc.getValue
+  }
+
+  private def readResource(f: String): Array[Byte] =
+    Option(getClass.getResourceAsStream(f)).fold {
+      val msg = s"Unsupported configuration, missing data file $f"
+      Log.fine(msg)
+      throw new IllegalArgumentException(msg)
+    } { is =>
+      try {
+        val out = new ByteArrayOutputStream(64 * 1024)
+        val buf = new Array[Byte](64 * 1024)
+        var n   = is.read(buf)
+        while (n >= 0) {
+          out.write(buf, 0, n)
+          n = is.read(buf)
+        }
+        out.toByteArray
+      } finally {
+        is.close()
+      }
+    }
+
+  private def isDelimiter(c: Byte): Boolean =
+    c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == 0x0B || c == ',' || c == ';'
+
+  /** Parses the values in a data file, with the same delimiters and comments
+    * as `scanFile` but without the overhead of a regex based scanner. */
+  private[base] def parseNumbers(f: String, text: Array[Byte]): Array[Double] = {
+    var ns    = new Array[Double](math.max(16, text.length / 8))
+    var count = 0
+    var i     = 0
+    while (i < text.length) {
+      val c = text(i)
+      if (c == '#') {
+        while (i < text.length && text(i) != '\n') i += 1
+      } else if (isDelimiter(c)) {
+        i += 1
+      } else {
+        val start = i
+        while (i < text.length && text(i) != '#' && !isDelimiter(text(i))) i += 1
+        if (count == ns.length) ns = java.util.Arrays.copyOf(ns, count * 2)
+        ns(count) = java.lang.Double.parseDouble(new String(text, start, i - start, StandardCharsets.ISO_8859_1))
+        count += 1
+      }
+    }
+    java.util.Arrays.copyOf(ns, count)
   }
 
-}
+  // ===== Binary form
+
+  private val BinaryMagic   = 0x49544344 // "ITCD"
+  private val BinaryVersion = 2
+  private val HeaderSize    = 4 + 4 + 8 + 4
+
+  private def binaryName(f: String, stamp: Long): String =
+    f.replaceAll("[^A-Za-z0-9_.-]", "_") + "-" + java.lang.Long.toHexString(stamp) + ".bin"
 
+  /** Reads the values from a binary data file, provided it exists and was
+    * made from the resource with the given stamp. */
+  private[base] def readBinary(bin: File, stamp: Long): Option[Array[Double]] =
+    if (!bin.isFile) None
+    else try {
+      val ch = FileChannel.open(bin.toPath, StandardOpenOption.READ)
+      try {
+        val buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size)
+        if (buf.remaining < HeaderSize || buf.getInt != BinaryMagic || buf.getInt != BinaryVersion || buf.getLong != stamp) None
+        else {
+          val count = buf.getInt
+          if (buf.remaining != count * 8L) None
+          else {
+            val ns = new Array[Double](count)
+            buf.asDoubleBuffer.get(ns)
+            Some(ns)
+          }
+        }
+      } finally {
+        ch.close()
+      }
+    } catch {
+      case ex: IOException =>
+        Log.log(Level.WARNING, s"Could not read binary data file $bin", ex)
+        None
+    }
+
+  /** Writes the values to a binary data file.  The file is written under a
+    * temporary name and then moved into place so that a concurrent reader
+    * never sees a partial file. */
+  private[base] def writeBinary(bin: File, stamp: Long, ns: Array[Double]): Unit = {
+    val buf = ByteBuffer.allocate(HeaderSize + ns.length * 8)
+    buf.putInt(BinaryMagic).putInt(BinaryVersion).putLong(stamp).putInt(ns.length)
+    buf.asDoubleBuffer.put(ns)
+    buf.position(buf.capacity)
+    buf.flip()
+
+    val tmp = File.createTempFile(bin.getName, ".tmp", bin.getParentFile)
+    try {
+      val ch = FileChannel.open(tmp.toPath, StandardOpenOption.WRITE)
+      try {
+        while (buf.hasRemaining) ch.write(buf)
+      } finally {
+        ch.close()
+      }
+      Files.move(tmp.toPath, bin.toPath, StandardCopyOption.REPLACE_EXISTING)
+    } finally {
+      tmp.delete()
+    }
+  }
+
+  // ===== Cache
+
+  /** Counters describing the use of the data file cache. */
+  case class CacheStats(hits: Long, misses: Long, evictions: Long, entries: Int, bytes: Long, loadMillis: Long) {
+    def hitRate: Double = if (hits + misses == 0) 0.0 else hits.toDouble / (hits + misses)
+  }
+
+  private val SmallEntryWeight = 1024L
+
+  private def weigh(d: Data): Long =
+    d.map(a => 16L + 8L * a.length).sum
+
+  private def weighFilter(f: Filter): Long =
+    weigh(f.data)
+
+  private lazy val maxCacheBytes: Long = {
+    val defaultVal = 256L
+    val mb = Option(System.getProperty(CacheSizeProp)).flatMap { s =>
+      try Some(s.trim.toLong).filter(_ > 0) catch { case _: NumberFormatException => None }
+    }.getOrElse(defaultVal)
+    mb * 1024 * 1024
+  }
+
+  // A least recently used cache, shared by all the loaders and bounded by the
+  // approximate size of the data it holds.  Files are loaded outside of the
+  // lock so that a slow load doesn't hold up requests for cached files.
+  private object Cache {
+    private case class Entry(value: AnyRef, weight: Long)
+
+    private val entries = new java.util.LinkedHashMap[(String, String), Entry](64, 0.75f, true)
+    private var bytes      = 0L
+    private var hits       = 0L
+    private var misses     = 0L
+    private var evictions  = 0L
+    private var loadNanos  = 0L
+
+    def get[T <: AnyRef](kind: String, f: String, weigh: T => Long)(load: => T): T = {
+      val key    = (kind, f)
+      val cached = synchronized {
+        val e = Option(entries.get(key))
+        if (e.isDefined) hits += 1 else misses += 1
+        e
+      }
+
+      cached.fold {
+        Log.fine(s"Caching file $f")
+        val start = System.nanoTime
+        val value = load
+        val w     = weigh(value)
+        synchronized {
+          loadNanos += System.nanoTime - start
+          // another thread may have loaded the same file in the meantime
+          Option(entries.get(key)).fold {
+            entries.put(key, Entry(value, w))
+            bytes += w
+            evict()
+            value
+          }(_.value.asInstanceOf[T])
+        }
+      }(_.value.asInstanceOf[T])
+    }
+
+    // Drops least recently used entries until within bounds, always keeping
+    // the most recent one.
+    private def evict(): Unit = {
+      val it = entries.values.iterator
+      while (bytes > maxCacheBytes && entries.size > 1 && it.hasNext) {
+        bytes -= it.next().weight
+        it.remove()
+        evictions += 1
+      }
+    }
+
+    def stats: CacheStats = synchronized {
+      CacheStats(hits, misses, evictions, entries.size, bytes, loadNanos / 1000000)
+    }
+
+    def clear(): Unit = synchronized {
+      entries.clear()
+      bytes = 0L
+    }
+  }
+
+  /** Loads a file with the given loader unless it is already available in the cache. */
+  private def cache[T <: AnyRef](kind: String, weigh: T => Long)(load: String => T): String => T =
+    f => Cache.get(kind, f, weigh)(load(f))
+
+  /** Gets the current cache counters. */
+  def cacheStats: CacheStats = Cache.stats
+
+  /** Empties the cache. */
+  def clearCache(): Unit = Cache.clear()
+
+  /** Loads the given data files into the cache, so that the first requests
+    * that need them don't have to wait.  Each purely numeric file is loaded
+    * as a filter if it contains an odd number of values (the filter
+    * wavelength followed by pairs) and as plain arrays otherwise.  Files
+    * that aren't purely numeric (grating and instrument descriptions) are
+    * skipped.  Each file is read once, whatever its kind.
+    *
+    * @return the number of files loaded
+    */
+  def warmUp(files: Seq[String]): Int = {
+    val start = System.currentTimeMillis
+    val count = files.count { f =>
+      try {
+        val ns = numbers(f)
+        if (ns.length % 2 == 0) Cache.get(ArraysKind, f, weigh)(toArrays(f, ns, 0))
+        else Cache.get(FiltersKind, f, weighFilter)(toFilter(f, ns))
+        true
+      } catch {
+        case _: NumberFormatException => false
+        case ex: Exception            =>
+          Log.log(Level.WARNING, s"Could not preload data file $f", ex)
+          false
+      }
+    }
+    Log.info(s"Preloaded $count of ${files.size} ITC data files in ${System.currentTimeMillis - start} ms: $cacheStats")
+    count
+  }
+
+}
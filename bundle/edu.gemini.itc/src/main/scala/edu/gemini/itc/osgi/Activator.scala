@@ -3,17 +3,24 @@ package edu.gemini.itc.osgi
 import java.util.logging.Level._
 import java.util.logging.Logger
 
+import edu.gemini.itc.base.DatFile
 import edu.gemini.itc.osgi.Activator._
 import edu.gemini.itc.service.ItcServiceImpl
 import edu.gemini.itc.shared.ItcService
+import edu.gemini.util.osgi.ExternalStorage
 import org.osgi.framework.{BundleActivator, BundleContext, ServiceRegistration}
 
+import scala.collection.JavaConverters._
 import scala.concurrent.ExecutionContext.Implicits.global
 import scala.concurrent.Future
 import scala.util.{Failure, Success}
 
 object Activator {
   val Log = Logger.getLogger(classOf[Activator].getName)
+
+  /** Bundle property with a comma separated list of resource directories
+    * (e.g. "gmos,niri") whose data files are preloaded at startup. */
+  val WarmUpProp = "edu.gemini.itc.warmUp"
 }
 
 /**
@@ -27,6 +34,9 @@ class Activator extends BundleActivator {
 
     Log.info(s"Starting itc services bundle")
     
+    // keep the binary form of the data files in the bundle's storage area..
+    DatFile.setDefaultBinaryDir(ExternalStorage.getExternalDataFile(ctx, "dat"))
+
     // register the services..
     Future {
 
@@ -44,6 +54,17 @@ class Activator extends BundleActivator {
         Log.log(SEVERE, "Registration of itc service failed.", t)
     }
 
+    // preload the data files of the configured instruments, if any..
+    val dirs = Option(ctx.getProperty(WarmUpProp)).toList.flatMap(_.split(",")).map(_.trim).filter(_.nonEmpty)
+    if (dirs.nonEmpty) Future {
+      val files = dirs.flatMap { d =>
+        Option(ctx.getBundle.findEntries("/" + d, "*.dat", true)).toList.flatMap(_.asScala.map(_.getPath))
+      }
+      DatFile.warmUp(files)
+    } onFailure {
+      case t => Log.log(WARNING, "Preloading of itc data files failed.", t)
+    }
+
   }
 
   def stop(ctx: BundleContext): Unit = {
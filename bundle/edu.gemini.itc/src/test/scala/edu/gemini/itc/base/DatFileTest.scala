@@ -1,5 +1,8 @@
 package edu.gemini.itc.base
 
+import java.io.File
+import java.nio.file.Files
+
 import org.junit.Test
 
 /**
@@ -202,4 +205,69 @@ class DatFileTest {
     assert(data(1).size == 25)
   }
 
+  @Test
+  def parseNumbersLikeScanner(): Unit = {
+    val text = "#comment\n\n 1,2;3\t4 #more\n5e-3 -6.0#x\n\n7 8\r\n"
+    val s    = DatFile.scan(text)
+    val l    = scala.collection.mutable.ListBuffer[Double]()
+    while (s.hasNext) l += s.next().toDouble
+    assert(DatFile.parseNumbers("test", text.getBytes("ISO-8859-1")).toList == l.toList)
+    assert(l.size == 8)
+  }
+
+  @Test
+  def binaryRoundTrip(): Unit = {
+    val dir = Files.createTempDirectory("itc-dat").toFile
+    val bin = new File(dir, "test.bin")
+    try {
+      val ns = Array(1.0, 2.5, -3.25, Double.MaxValue)
+      DatFile.writeBinary(bin, 42L, ns)
+      assert(DatFile.readBinary(bin, 42L).exists(_.sameElements(ns)))
+      assert(DatFile.readBinary(bin, 43L).isEmpty)
+    } finally {
+      bin.delete()
+      dir.delete()
+    }
+  }
+
+  @Test
+  def numbersMatchScannedFile(): Unit = {
+    val f = "/flamingos2/HK.dat"
+    val s = DatFile.scanFile(f)
+    val l = scala.collection.mutable.ListBuffer[Double]()
+    while (s.hasNext) l += s.next().toDouble
+    // twice, the second time from the binary form
+    assert(DatFile.numbers(f).sameElements(l))
+    assert(DatFile.numbers(f).sameElements(l))
+  }
+
+  @Test
+  def resourceStamps(): Unit = {
+    val f = "/flamingos2/HK.dat"
+    assert(DatFile.resourceStamp(f).isDefined)
+    assert(DatFile.resourceStamp(f) == DatFile.resourceStamp(f))
+    assert(DatFile.resourceStamp(f) != DatFile.resourceStamp("/acqcam/colfilt_B_G0152.dat"))
+    assert(DatFile.resourceStamp("/no/such/file.dat").isEmpty)
+  }
+
+  @Test
+  def cacheHits(): Unit = {
+    val f      = "/acqcam/colfilt_B_G0152.dat"
+    val first  = DatFile.arrays(f)
+    val before = DatFile.cacheStats
+    assert(DatFile.arrays(f) eq first)
+    val after  = DatFile.cacheStats
+    assert(after.hits == before.hits + 1)
+    assert(after.misses == before.misses)
+  }
+
+  @Test
+  def warmUp(): Unit = {
+    DatFile.clearCache()
+    assert(DatFile.warmUp(Seq("/acqcam/colfilt_B_G0152.dat", "/michelle/michelle_SI_1.dat")) == 2)
+    val before = DatFile.cacheStats
+    DatFile.filters("/michelle/michelle_SI_1.dat")
+    assert(DatFile.cacheStats.hits == before.hits + 1)
+  }
+
 }
@@ -106,7 +106,7 @@ object LchQueryParam {
 
   private[servlet] implicit class ISPProgramExtractors(val prog: ISPProgram) extends AnyVal {
     def toSPProg: SPProgram =
-      prog.getDataObject.asInstanceOf[SPProgram]
+      prog.getReadOnlyDataObject.asInstanceOf[SPProgram]
 
     def scienceSemester: Option[String] =
       ProgramId.parse(prog.getProgramID.toString) match {
@@ -176,10 +176,10 @@ object LchQueryParam {
 
   private[servlet] implicit class ISPObservationExtractors(val obs: ISPObservation) extends AnyVal {
     def toSPObs: SPObservation =
-      obs.getDataObject.asInstanceOf[SPObservation]
+      obs.getReadOnlyDataObject.asInstanceOf[SPObservation]
 
     def instrument: Option[SPInstObsComp] =
-      SPTreeUtil.findInstruments(obs).asScala.map(_.getDataObject).collect {
+      SPTreeUtil.findInstruments(obs).asScala.map(_.getReadOnlyDataObject).collect {
         case inst: SPInstObsComp => inst
       }.headOption
 
@@ -187,7 +187,7 @@ object LchQueryParam {
       instrument.map(_.getType.readableStr)
 
     def ao: AOConstants.AO = {
-      Option(AOTreeUtil.findAOSystem(obs)).map(_.getDataObject).
+      Option(AOTreeUtil.findAOSystem(obs)).map(_.getReadOnlyDataObject).
         collect {
           case inst: InstAltair if inst.getGuideStarType == AltairParams.GuideStarType.LGS => AOConstants.AO.Altair_LGS
           case inst: InstAltair if inst.getGuideStarType == AltairParams.GuideStarType.NGS => AOConstants.AO.Altair_NGS
@@ -205,13 +205,13 @@ object LchQueryParam {
 
     def targetEnvironment: Option[TargetEnvironment] = for {
       n <- Option(SPTreeUtil.findTargetEnvNode(obs))
-      c <- Option(n.getDataObject).map(_.asInstanceOf[TargetObsComp])
+      c <- Option(n.getReadOnlyDataObject).map(_.asInstanceOf[TargetObsComp])
       t <- Option(c.getTargetEnvironment)
     } yield t
 
     def timingWindows: Option[List[SPSiteQuality.TimingWindow]] = for {
       n <- Option(SPTreeUtil.findObsCondNode(obs))
-      c <- Option(n.getDataObject).map(_.asInstanceOf[SPSiteQuality])
+      c <- Option(n.getReadOnlyDataObject).map(_.asInstanceOf[SPSiteQuality])
     } yield c.getTimingWindows.asScala.toList
 
     def obsLogComments: Option[Map[DatasetLabel,DatasetQaRecord]] =
@@ -0,0 +1,74 @@
+package edu.gemini.p2checker.api;
+
+import java.io.Serializable;
+
+/**
+ * Throughput of the phase 2 checking service.  Each time the service needs
+ * the problems of an observation it either finds them in its cache, which
+ * counts as a hit, or checks the observation.
+ */
+public final class P2CheckMetrics implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long checked;
+    private final long hits;
+    private final long checkNanos;
+    private final int cached;
+
+    public P2CheckMetrics(long checked, long hits, long checkNanos, int cached) {
+        this.checked    = checked;
+        this.hits       = hits;
+        this.checkNanos = checkNanos;
+        this.cached     = cached;
+    }
+
+    /**
+     * Number of observations checked by running the rules.
+     */
+    public long getObservationsChecked() {
+        return checked;
+    }
+
+    /**
+     * Number of times up to date problems were found in the cache.
+     */
+    public long getCacheHits() {
+        return hits;
+    }
+
+    /**
+     * Total time spent running the rules, in milliseconds.  Checks run in
+     * parallel, so this may be more than the time elapsed.
+     */
+    public long getCheckTimeMs() {
+        return checkNanos / 1000000;
+    }
+
+    /**
+     * Number of observations whose problems are currently cached.
+     */
+    public int getCachedObservations() {
+        return cached;
+    }
+
+    /**
+     * Observations checked per second of time spent running the rules.
+     */
+    public double getObservationsPerSecond() {
+        return (checkNanos == 0) ? 0.0 : checked * 1e9 / checkNanos;
+    }
+
+    /**
+     * Fraction of the requests for problems that were answered by the cache.
+     */
+    public double getCacheHitRatio() {
+        final long total = checked + hits;
+        return (total == 0) ? 0.0 : ((double) hits) / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d observations checked (%.1f/s), %d cache hits (%.1f%%), %d cached",
+                checked, getObservationsPerSecond(), hits, getCacheHitRatio() * 100, cached);
+    }
+}
@@ -0,0 +1,132 @@
+package edu.gemini.p2checker.api;
+
+import edu.gemini.pot.sp.ISPObservation;
+import edu.gemini.pot.sp.ISPProgramNode;
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.sp.SPObservationID;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The problems found in one observation.  Unlike {@link IP2Problems}, which
+ * refers to the nodes of the program, the problems here identify the affected
+ * nodes by key, so that they can be sent to clients and stored.
+ */
+public final class P2CheckResult implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * A problem of the observation.
+     */
+    public static final class Issue implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        public final Problem.Type type;
+        public final String id;
+        public final String description;
+
+        // Key of the node with the problem, if any.
+        public final SPNodeKey nodeKey;
+
+        public Issue(Problem.Type type, String id, String description, SPNodeKey nodeKey) {
+            this.type        = type;
+            this.id          = id;
+            this.description = description;
+            this.nodeKey     = nodeKey;
+        }
+
+        public Issue(Problem p) {
+            this(p.getType(), p.getId(), p.getDescription(), nodeKey(p.getAffectedNode()));
+        }
+
+        private static SPNodeKey nodeKey(ISPProgramNode n) {
+            return (n == null) ? null : n.getNodeKey();
+        }
+
+        @Override
+        public String toString() {
+            return type.getDisplayValue() + ":" + description + " at " + nodeKey;
+        }
+    }
+
+    private final SPNodeKey obsKey;
+    private final SPObservationID obsId;
+    private final long checksum;
+    private final List<Issue> issues;
+
+    public P2CheckResult(SPNodeKey obsKey, SPObservationID obsId, long checksum, List<Issue> issues) {
+        this.obsKey   = obsKey;
+        this.obsId    = obsId;
+        this.checksum = checksum;
+        this.issues   = Collections.unmodifiableList(new ArrayList<>(issues));
+    }
+
+    /**
+     * Creates the result of checking the given observation.
+     *
+     * @param checksum identifies the state of the program that was checked
+     */
+    public static P2CheckResult fromProblems(ISPObservation obs, long checksum, IP2Problems problems) {
+        final List<Issue> issues = new ArrayList<>();
+        if (problems != null) {
+            for (Problem p : problems.getProblems()) issues.add(new Issue(p));
+        }
+        return new P2CheckResult(obs.getNodeKey(), obs.getObservationID(), checksum, issues);
+    }
+
+    public SPNodeKey getObservationKey() {
+        return obsKey;
+    }
+
+    /**
+     * Gets the observation id, which may be <code>null</code> for template
+     * observations and observations of programs without an id.
+     */
+    public SPObservationID getObservationId() {
+        return obsId;
+    }
+
+    /**
+     * Gets the checksum of the versions of the observation and the parts of
+     * the program that were considered when it was checked.
+     */
+    public long getChecksum() {
+        return checksum;
+    }
+
+    public List<Issue> getIssues() {
+        return issues;
+    }
+
+    public int getErrorCount() {
+        return count(Problem.Type.ERROR);
+    }
+
+    public int getWarningCount() {
+        return count(Problem.Type.WARNING);
+    }
+
+    private int count(Problem.Type type) {
+        int res = 0;
+        for (Issue i : issues) if (i.type == type) ++res;
+        return res;
+    }
+
+    /**
+     * Gets the type of the most severe problem, or <code>Problem.Type.NONE</code>
+     * if there are no problems.
+     */
+    public Problem.Type getSeverity() {
+        Problem.Type res = Problem.Type.NONE;
+        for (Issue i : issues) if (i.type.compareTo(res) > 0) res = i.type;
+        return res;
+    }
+
+    @Override
+    public String toString() {
+        return "P2CheckResult{obs=" + ((obsId == null) ? obsKey : obsId) + ", issues=" + issues + "}";
+    }
+}
@@ -0,0 +1,45 @@
+package edu.gemini.p2checker.api;
+
+import edu.gemini.pot.sp.SPObservationID;
+import edu.gemini.spModel.core.SPProgramID;
+
+import java.util.List;
+
+/**
+ * The phase 2 checking service of the ODB.  The ODB keeps the problems of
+ * every observation up to date in the background, so clients can obtain them
+ * without running the rules themselves.
+ */
+public interface P2CheckService {
+
+    /**
+     * Gets the problems of each observation in the given program, including
+     * its template observations.  Observations that changed since they were
+     * last checked are checked before returning.  Observations on which the
+     * rules fail are left out.
+     *
+     * @return one result per observation, or an empty list if there is no
+     * such program
+     *
+     * @throws java.security.AccessControlException if the caller may not
+     * read the program
+     */
+    List<P2CheckResult> programResults(SPProgramID progId);
+
+    /**
+     * Gets the problems of the given observation, checking it first if it
+     * changed since it was last checked.
+     *
+     * @return the problems of the observation, or <code>null</code> if there
+     * is no such observation
+     *
+     * @throws java.security.AccessControlException if the caller may not
+     * read the program
+     */
+    P2CheckResult observationResult(SPObservationID obsId);
+
+    /**
+     * Gets the throughput of the service since the ODB started.
+     */
+    P2CheckMetrics metrics();
+}
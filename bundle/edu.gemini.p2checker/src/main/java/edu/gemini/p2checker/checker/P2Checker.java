@@ -203,6 +203,18 @@ public final class P2Checker {
         return null;
     }
 
+    /**
+     * Checks the given observation without consulting the cache.  The cache
+     * only notices changes to the observation itself, while some rules also
+     * read the program and its template folder.
+     *
+     * @param obs the observation to check
+     * @return the problems found in the observation
+     */
+    public IP2Problems checkObservation(ISPObservation obs, AgsMagnitude.MagnitudeTable mt) {
+        return _checkObservation(obs, mt);
+    }
+
     //Perform the checking of an observation, the small
     //unit that can be checked individually.
     private IP2Problems _checkObservation(ISPObservation node, AgsMagnitude.MagnitudeTable mt) {
@@ -0,0 +1,87 @@
+package edu.gemini.p2checker.osgi
+
+import edu.gemini.ags.conf.ProbeLimitsTable
+import edu.gemini.p2checker.api.P2CheckService
+import edu.gemini.p2checker.service.P2CheckServer
+import edu.gemini.pot.spdb.IDBDatabaseService
+import edu.gemini.util.osgi.{ExternalStorage, SecureServiceFactory}
+import edu.gemini.util.osgi.SecureServiceFactory._
+import edu.gemini.util.osgi.Tracker._
+
+import org.osgi.framework.{BundleActivator, BundleContext}
+import org.osgi.util.tracker.ServiceTracker
+
+import java.security.Principal
+import java.util.logging.Logger
+
+import scala.collection.JavaConverters._
+
+/**
+ * The phase 2 checker is used by the OT to check programs as they are edited
+ * and by the ODB, where in `Service` mode the bundle keeps the problems of
+ * all the programs up to date and publishes them to TRPC clients.
+ */
+class Activator extends BundleActivator {
+  import Activator._
+
+  private var tracker: Option[ServiceTracker[_,_]] = None
+
+  override def start(ctx: BundleContext): Unit = {
+    tracker = Mode(ctx) match {
+      case Api     =>
+        None
+
+      case Service =>
+        Log.info("Starting edu.gemini.p2checker in Service mode")
+
+        Some(track[IDBDatabaseService, (() => Unit)](ctx) { odb =>
+          val store  = ExternalStorage.getExternalDataFile(ctx, StoreFile)
+          val server = new P2CheckServer(odb, ProbeLimitsTable.loadOrThrow(), Some(store))
+          server.start()
+
+          val factory = new SecureServiceFactory[P2CheckService] {
+            def getService(ps: Set[Principal]): P2CheckService =
+              server.serviceApi(ps.asJava)
+          }
+
+          Log.info("Registering P2CheckService")
+          val reg = ctx.registerSecureService(factory, Map("trpc" -> ""))
+
+          () => {
+            reg.unregister()
+            server.stop()
+          }
+        } { _.apply() })
+    }
+
+    tracker.foreach(_.open())
+  }
+
+  override def stop(ctx: BundleContext): Unit = {
+    tracker.foreach(_.close())
+    tracker = None
+  }
+}
+
+object Activator {
+  val Log: Logger = Logger.getLogger(classOf[Activator].getName)
+
+  val ModeProp: String  = "edu.gemini.p2checker.mode"
+  val StoreFile: String = "p2check.ser"
+
+  /**
+   * Bundle mode, either "api" or "service".  If "api" nothing is started or
+   * registered (this is the default).  If "service" then check the programs
+   * of the database and register the P2CheckService.
+   */
+  sealed abstract class Mode(val name: String)
+  case object Api     extends Mode("api")
+  case object Service extends Mode("service")
+
+  val AllModes = List(Api, Service)
+
+  object Mode {
+    def apply(ctx: BundleContext): Mode =
+      Option(ctx.getProperty(ModeProp)).flatMap(s => AllModes.find(_.name == s)).getOrElse(Api)
+  }
+}
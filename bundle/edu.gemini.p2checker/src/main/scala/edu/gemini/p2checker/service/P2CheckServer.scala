@@ -0,0 +1,395 @@
+package edu.gemini.p2checker.service
+
+import edu.gemini.ags.api.AgsMagnitude.MagnitudeTable
+import edu.gemini.p2checker.api.{P2CheckMetrics, P2CheckResult, P2CheckService}
+import edu.gemini.p2checker.checker.P2Checker
+import edu.gemini.pot.sp._
+import edu.gemini.pot.sp.version.{nodeChecksum, vmChecksum}
+import edu.gemini.pot.spdb.{DBProgramListFunctor, IDBDatabaseService, ProgramEvent, ProgramEventListener}
+import edu.gemini.spModel.core.{SPProgramID, Version}
+import edu.gemini.spModel.gemini.calunit.smartgcal.CalibrationProviderHolder
+import edu.gemini.util.security.permission.ProgramPermission
+import edu.gemini.util.security.policy.ImplicitPolicy
+
+import java.beans.{PropertyChangeEvent, PropertyChangeListener}
+import java.io._
+import java.nio.ByteBuffer
+import java.nio.file.{Files, StandardCopyOption}
+import java.security.Principal
+import java.util.concurrent._
+import java.util.concurrent.atomic.{AtomicBoolean, AtomicLong}
+import java.util.logging.{Level, Logger}
+import java.util.zip.CRC32
+
+import scala.collection.JavaConverters._
+import scala.util.control.NonFatal
+
+object P2CheckServer {
+  val Log: Logger = Logger.getLogger(classOf[P2CheckServer].getName)
+
+  /** Time to wait after a change before checking the program again, so that
+    * a burst of edits leads to a single check.
+    */
+  val CheckDelayMs: Long = 5000
+
+  /** Time between saves of the results, if any changed. */
+  val SaveIntervalMs: Long = 10 * 60 * 1000
+
+  // Update when the layout of the file or the meaning of the checksums
+  // changes.  Results saved by another release are discarded as well, since
+  // the rules may have changed.
+  private val FormatVersion = 1
+
+  /** All the observations that the phase 2 checker examines in a program:
+    * those in the program and its groups and the template observations.
+    */
+  def observations(p: ISPProgram): List[ISPObservation] = {
+    val templates = Option(p.getTemplateFolder).toList.flatMap(_.getTemplateGroups.asScala).flatMap(_.getAllObservations.asScala)
+    p.getAllObservations.asScala.toList ++ templates
+  }
+
+  /** Checksum of what the rules read outside of the observation: the program
+    * node (for instance the band 3 minimum time), the template folder (phase 1
+    * targets and conditions) and the smartgcal tables.
+    */
+  def contextChecksum(p: ISPProgram): Long = {
+    val key  = p.getProgramKey
+    val prog = vmChecksum(Map(key -> p.getVersions(key)))
+    val tf   = Option(p.getTemplateFolder).fold(0L)(nodeChecksum)
+    val cal  = CalibrationProviderHolder.getProvider.getVersionInfo.asScala.map { v =>
+      s"${v.getInstrument}/${v.getType}/${v.getVersion}"
+    }.sorted.mkString(",").hashCode.toLong
+    combine(prog, tf, cal)
+  }
+
+  /** Checksum identifying the state in which the observation is checked. */
+  def checksum(o: ISPObservation, context: Long): Long =
+    combine(nodeChecksum(o), context)
+
+  private def combine(ls: Long*): Long = {
+    val buf = ByteBuffer.allocate(8 * ls.size)
+    ls.foreach(buf.putLong)
+    val crc = new CRC32
+    crc.update(buf.array)
+    crc.getValue
+  }
+}
+
+/**
+ * Keeps the phase 2 problems of every observation in the database.  When
+ * started, it checks all the programs in parallel and then listens for
+ * changes, checking a changed program again a few seconds later.  Results are
+ * cached per observation along with the checksum of the versions of the nodes
+ * that were checked, so only observations that changed are checked again.
+ * The cache is saved to the given file, if any, so that a restart doesn't
+ * have to check everything again.
+ *
+ * @param store file in which the results are kept between runs
+ * @param threads number of programs checked at the same time
+ */
+final class P2CheckServer(db: IDBDatabaseService, mt: MagnitudeTable, store: Option[File], threads: Int = Runtime.getRuntime.availableProcessors)
+  extends ProgramEventListener[ISPProgram] with PropertyChangeListener { outer =>
+
+  import P2CheckServer._
+
+  // Observation key -> results.  Results are only used if their checksum
+  // matches the current state of the program.
+  private val results = new ConcurrentHashMap[SPNodeKey, P2CheckResult]()
+
+  // Program key -> keys of its observations when last checked, to drop the
+  // results of observations that are deleted.
+  private val programObs = new ConcurrentHashMap[SPNodeKey, Set[SPNodeKey]]()
+
+  // All guarded by this.
+  private var listening = Map.empty[SPNodeKey, ISPProgram]
+  private var pending   = Set.empty[SPNodeKey]
+
+  private val saveLock   = new Object
+  private val dirty      = new AtomicBoolean(false)
+  private val checked    = new AtomicLong(0)
+  private val hits       = new AtomicLong(0)
+  private val checkNanos = new AtomicLong(0)
+
+  // P2Checker keeps state while checking, so each thread has its own.
+  private val checker = new ThreadLocal[P2Checker] {
+    override def initialValue(): P2Checker = new P2Checker()
+  }
+
+  // The first check of all the programs and the checks it waits for, so that
+  // stopping can cancel them instead of leaving the thread waiting forever.
+  @volatile private var initialCheck = Option.empty[Thread]
+  private val initialTasks = new ConcurrentLinkedQueue[Future[_]]()
+
+  private val pool = Executors.newScheduledThreadPool(threads, new ThreadFactory() {
+    override def newThread(r: Runnable): Thread = {
+      val t = new Thread(r, "P2CheckServer")
+      t.setDaemon(true)
+      t.setPriority(Thread.NORM_PRIORITY - 1)
+      t
+    }
+  })
+
+  private def runnable(f: => Unit): Runnable =
+    new Runnable {
+      override def run(): Unit = f
+    }
+
+  /** Loads the saved results, if any, and starts checking the programs in the
+    * background.
+    */
+  def start(): Unit = {
+    store.foreach(load)
+    db.addProgramEventListener(this)
+
+    val t = new Thread(runnable(checkAll()), "P2CheckServer initial check")
+    t.setDaemon(true)
+    initialCheck = Some(t)
+    t.start()
+
+    if (store.isDefined)
+      pool.scheduleWithFixedDelay(runnable(if (dirty.getAndSet(false)) save()), SaveIntervalMs, SaveIntervalMs, TimeUnit.MILLISECONDS)
+  }
+
+  /** Stops checking and saves the results. */
+  def stop(): Unit = {
+    db.removeProgramEventListener(this)
+    initialCheck.foreach(_.interrupt())
+    pool.shutdownNow()
+    initialTasks.asScala.foreach(_.cancel(true))
+    pool.awaitTermination(10, TimeUnit.SECONDS)
+    initialCheck.foreach(_.join(TimeUnit.SECONDS.toMillis(10)))
+    initialCheck = None
+
+    val progs = synchronized {
+      val ps = listening.values
+      listening = Map.empty
+      ps
+    }
+    progs.foreach(_.removeCompositeChangeListener(this))
+
+    save()
+  }
+
+  def metrics: P2CheckMetrics =
+    new P2CheckMetrics(checked.get, hits.get, checkNanos.get, results.size)
+
+  /** Gets the results of all the observations in the program, checking those
+    * that are not up to date.  Observations on which the rules fail are logged
+    * and left out.
+    */
+  def programResults(p: ISPProgram): List[P2CheckResult] = {
+    val ctx = contextChecksum(p)
+    val obs = observations(p)
+    val res = obs.flatMap { o => safely(o)(result(o, ctx)) }
+
+    val keys = obs.map(_.getNodeKey).toSet
+    Option(programObs.put(p.getProgramKey, keys)).foreach { old =>
+      (old -- keys).foreach(results.remove)
+    }
+    res
+  }
+
+  /** Gets the results of the observation, checking it if not up to date. */
+  def observationResult(o: ISPObservation): P2CheckResult =
+    result(o, contextChecksum(o.getProgram))
+
+  /** Service for TRPC clients, who can only see the programs they may read. */
+  def serviceApi(ps: java.util.Set[Principal]): P2CheckService =
+    new P2CheckService {
+      private def checkRead(pid: SPProgramID): Unit =
+        ImplicitPolicy.forJava.checkPermission(db, ps, new ProgramPermission.Read(pid))
+
+      override def programResults(pid: SPProgramID): java.util.List[P2CheckResult] = {
+        checkRead(pid)
+        Option(db.lookupProgramByID(pid)).fold(List.empty[P2CheckResult])(outer.programResults).asJava
+      }
+
+      override def observationResult(oid: SPObservationID): P2CheckResult = {
+        checkRead(oid.getProgramID)
+        Option(db.lookupObservationByID(oid)).map(outer.observationResult).orNull
+      }
+
+      override def metrics: P2CheckMetrics =
+        outer.metrics
+    }
+
+  private def result(o: ISPObservation, ctx: Long): P2CheckResult = {
+    val sum = checksum(o, ctx)
+    Option(results.get(o.getNodeKey)).filter(_.getChecksum == sum) match {
+      case Some(r) =>
+        hits.incrementAndGet()
+        r
+
+      case None    =>
+        val start = System.nanoTime
+        val r     = P2CheckResult.fromProblems(o, sum, checker.get.checkObservation(o, mt))
+        checkNanos.addAndGet(System.nanoTime - start)
+        checked.incrementAndGet()
+
+        results.put(o.getNodeKey, r)
+        dirty.set(true)
+        r
+    }
+  }
+
+  private def safely[A](n: ISPNode)(a: => A): Option[A] =
+    try {
+      Some(a)
+    } catch {
+      case NonFatal(ex) =>
+        Log.log(Level.WARNING, s"Could not check ${n.getNodeKey} in program ${n.getProgramID}", ex)
+        None
+    }
+
+  private def checkAll(): Unit = {
+    val start = System.currentTimeMillis
+    val keys  = db.getQueryRunner(java.util.Collections.emptySet[Principal]).queryPrograms(new DBProgramListFunctor).getKeyList.asScala
+
+    // Listen before reading the program so that no change is missed.
+    val tasks = keys.toList.flatMap(k => Option(db.lookupProgram(k))).map { p =>
+      listen(p)
+      val f = pool.submit(runnable(if (isListening(p)) programResults(p)))
+      initialTasks.add(f)
+      f
+    }
+
+    try {
+      tasks.foreach(_.get)
+
+      // Forget the saved results of observations that no longer exist.
+      val all = programObs.values.asScala.flatten.toSet
+      results.keySet.retainAll(all.asJava)
+
+      Log.info(s"Checked ${keys.size} programs in ${System.currentTimeMillis - start} ms: $metrics")
+      save()
+    } catch {
+      case _: InterruptedException | _: CancellationException | _: RejectedExecutionException => // stopped
+      case ex: ExecutionException                                                              =>
+        Log.log(Level.WARNING, "Could not check the programs", ex.getCause)
+    } finally {
+      initialTasks.clear()
+    }
+  }
+
+  private def isListening(p: ISPProgram): Boolean =
+    synchronized { listening.get(p.getProgramKey).exists(_ eq p) }
+
+  private def listen(p: ISPProgram): Unit = {
+    val old = synchronized {
+      val o = listening.get(p.getProgramKey)
+      listening = listening.updated(p.getProgramKey, p)
+      o
+    }
+    if (!old.exists(_ eq p)) {
+      old.foreach(_.removeCompositeChangeListener(this))
+      p.addCompositeChangeListener(this)
+    }
+  }
+
+  private def forget(p: ISPProgram): Unit = {
+    val listened = synchronized {
+      val l = listening.get(p.getProgramKey).exists(_ eq p)
+      if (l) listening = listening - p.getProgramKey
+      l
+    }
+    if (listened) p.removeCompositeChangeListener(this)
+  }
+
+  // Checks the program again after a while, unless already planned.
+  private def schedule(p: ISPProgram): Unit = {
+    val key   = p.getProgramKey
+    val added = synchronized {
+      val a = !pending.contains(key)
+      pending = pending + key
+      a
+    }
+
+    if (added) try {
+      pool.schedule(runnable {
+        synchronized { pending = pending - key }
+        if (isListening(p)) programResults(p)
+      }, CheckDelayMs, TimeUnit.MILLISECONDS)
+    } catch {
+      case _: RejectedExecutionException => // stopped
+        synchronized { pending = pending - key }
+    }
+  }
+
+  override def propertyChange(evt: PropertyChangeEvent): Unit =
+    if (!SPUtil.isTransientClientDataPropertyName(evt.getPropertyName)) {
+      evt.getSource match {
+        case n: ISPNode =>
+          n.getRootAncestor match {
+            case p: ISPProgram if isListening(p) => schedule(p)
+            case _                               => // ignore
+          }
+        case _          => // ignore
+      }
+    }
+
+  override def programAdded(pme: ProgramEvent[ISPProgram]): Unit = {
+    listen(pme.getNewProgram)
+    schedule(pme.getNewProgram)
+  }
+
+  // The replacement keeps the node keys, so the results of the observations
+  // that did not change are still valid.
+  override def programReplaced(pme: ProgramEvent[ISPProgram]): Unit = {
+    forget(pme.getOldProgram)
+    listen(pme.getNewProgram)
+    schedule(pme.getNewProgram)
+  }
+
+  override def programRemoved(pme: ProgramEvent[ISPProgram]): Unit = {
+    val p = pme.getOldProgram
+    forget(p)
+    Option(programObs.remove(p.getProgramKey)).foreach(_.foreach(results.remove))
+    dirty.set(true)
+  }
+
+  private def load(f: File): Unit =
+    if (f.exists) {
+      try {
+        val in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(f)))
+        try {
+          if (in.readInt() == FormatVersion && in.readUTF() == Version.current.toString) {
+            in.readObject().asInstanceOf[java.util.List[P2CheckResult]].asScala.foreach { r =>
+              results.put(r.getObservationKey, r)
+            }
+            Log.info(s"Loaded ${results.size} phase 2 check results from $f")
+          } else {
+            Log.info(s"Ignoring phase 2 check results of another release in $f")
+          }
+        } finally {
+          in.close()
+        }
+      } catch {
+        case NonFatal(ex) =>
+          Log.log(Level.WARNING, s"Could not read phase 2 check results from $f", ex)
+          results.clear()
+      }
+    }
+
+  // Writes a new file and then moves it into place, so that a crash while
+  // saving doesn't leave a partial file behind.
+  private def save(): Unit =
+    store.foreach { f =>
+      saveLock.synchronized {
+        val tmp = new File(f.getPath + ".tmp")
+        try {
+          val out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))
+          try {
+            out.writeInt(FormatVersion)
+            out.writeUTF(Version.current.toString)
+            out.writeObject(new java.util.ArrayList[P2CheckResult](results.values))
+          } finally {
+            out.close()
+          }
+          Files.move(tmp.toPath, f.toPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+        } catch {
+          case NonFatal(ex) =>
+            Log.log(Level.WARNING, s"Could not save phase 2 check results to $f", ex)
+        }
+      }
+    }
+}
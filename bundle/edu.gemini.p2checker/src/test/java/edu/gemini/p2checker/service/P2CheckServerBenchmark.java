@@ -0,0 +1,98 @@
+package edu.gemini.p2checker.service;
+
+import edu.gemini.ags.api.AgsMagnitude;
+import edu.gemini.ags.conf.ProbeLimitsTable;
+import edu.gemini.p2checker.checker.P2Checker;
+import edu.gemini.pot.sp.ISPFactory;
+import edu.gemini.pot.sp.ISPProgram;
+import edu.gemini.pot.sp.Instrument;
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.spdb.DBLocalDatabase;
+import edu.gemini.pot.spdb.IDBDatabaseService;
+import edu.gemini.spModel.core.SPProgramID;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/**
+ * Compares checking every program of a synthetic database with a
+ * <code>P2Checker</code>, as done for each program opened in the OT, with
+ * the <code>P2CheckServer</code> checking them in parallel the first time and
+ * answering from its cache afterwards.  Not a unit test; run it by hand:
+ *
+ * <pre>
+ *   P2CheckServerBenchmark [programs=100] [observations=20] [threads=4]
+ * </pre>
+ */
+public final class P2CheckServerBenchmark {
+
+    private static final Instrument[] INSTRUMENTS = {
+        Instrument.GmosSouth, Instrument.Flamingos2, Instrument.Gsaoi, Instrument.Gnirs
+    };
+
+    private static List<ISPProgram> createPrograms(IDBDatabaseService odb, int progCount, int obsCount) throws Exception {
+        final ISPFactory fact = odb.getFactory();
+        final List<ISPProgram> res = new ArrayList<>();
+        for (int p = 0; p < progCount; ++p) {
+            final ISPProgram prog = fact.createProgram(new SPNodeKey(), SPProgramID.toProgramID("GS-2014A-Q-" + (p + 1)));
+            for (int i = 0; i < obsCount; ++i) {
+                prog.addObservation(fact.createObservation(prog, INSTRUMENTS[(p + i) % INSTRUMENTS.length].some(), null));
+            }
+            odb.put(prog);
+            res.add(prog);
+        }
+        return res;
+    }
+
+    // Gets the results of all the programs, a few at a time.
+    private static void checkAll(ExecutorService exec, P2CheckServer server, List<ISPProgram> progs) throws Exception {
+        final List<Callable<Object>> tasks = progs.stream()
+                .map(p -> (Callable<Object>) () -> server.programResults(p))
+                .collect(Collectors.toList());
+        exec.invokeAll(tasks);
+    }
+
+    private static void report(String name, long start, int obsCount) {
+        final long ms = Math.max(1, (System.nanoTime() - start) / 1000000);
+        System.out.printf("%-22s %8d ms %10.1f obs/s%n", name, ms, obsCount * 1000.0 / ms);
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int progCount = (args.length > 0) ? Integer.parseInt(args[0]) : 100;
+        final int obsCount  = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+        final int threads   = (args.length > 2) ? Integer.parseInt(args[2]) : 4;
+
+        final AgsMagnitude.MagnitudeTable mt = ProbeLimitsTable.loadOrThrow();
+        final IDBDatabaseService odb = DBLocalDatabase.createTransient();
+        final P2CheckServer server   = new P2CheckServer(odb, mt, scala.Option.<File>empty(), threads);
+        final ExecutorService exec   = Executors.newFixedThreadPool(threads);
+        try {
+            final List<ISPProgram> progs = createPrograms(odb, progCount, obsCount);
+            final int total = progCount * obsCount;
+            System.out.printf("Checking %d programs of %d observations%n", progCount, obsCount);
+
+            long start = System.nanoTime();
+            for (ISPProgram p : progs) new P2Checker().check(p, mt);
+            report("P2Checker", start, total);
+
+            start = System.nanoTime();
+            checkAll(exec, server, progs);
+            report("P2CheckServer (cold)", start, total);
+
+            start = System.nanoTime();
+            checkAll(exec, server, progs);
+            report("P2CheckServer (warm)", start, total);
+
+            System.out.println(server.metrics());
+        } finally {
+            exec.shutdown();
+            server.stop();
+            odb.getDBAdmin().shutdown();
+        }
+    }
+}
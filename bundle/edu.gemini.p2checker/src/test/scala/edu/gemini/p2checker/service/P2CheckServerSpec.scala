@@ -0,0 +1,153 @@
+package edu.gemini.p2checker.service
+
+import edu.gemini.ags.conf.ProbeLimitsTable
+import edu.gemini.pot.sp.{ISPProgram, Instrument, SPNodeKey}
+import edu.gemini.pot.spdb.{DBLocalDatabase, IDBDatabaseService}
+import edu.gemini.spModel.core.SPProgramID
+import edu.gemini.spModel.gemini.obscomp.SPProgram
+import edu.gemini.util.security.principal.StaffPrincipal
+import org.specs2.mutable.Specification
+
+import java.io.File
+import java.security.Principal
+
+import scala.collection.JavaConverters._
+
+/**
+ * Tests that the P2CheckServer only checks observations that changed, and
+ * that its results survive a restart.
+ */
+object P2CheckServerSpec extends Specification {
+  sequential
+
+  val mt = ProbeLimitsTable.loadOrThrow()
+
+  val pid = SPProgramID.toProgramID("GS-2014A-Q-1")
+
+  def withDb[A](f: IDBDatabaseService => A): A = {
+    val db = DBLocalDatabase.createTransient()
+    try f(db) finally db.getDBAdmin.shutdown()
+  }
+
+  def withStore[A](f: File => A): A = {
+    val file = File.createTempFile("p2check", ".ser")
+    file.delete()
+    try f(file) finally file.delete()
+  }
+
+  def program(db: IDBDatabaseService, obsCount: Int, id: SPProgramID = pid): ISPProgram = {
+    val p = db.getFactory.createProgram(new SPNodeKey(), id)
+    (1 to obsCount).foreach { _ =>
+      p.addObservation(db.getFactory.createObservation(p, Instrument.GmosSouth.some, null))
+    }
+    db.put(p)
+    p
+  }
+
+  def withServer[A](db: IDBDatabaseService, store: Option[File])(f: P2CheckServer => A): A = {
+    val s = new P2CheckServer(db, mt, store, 2)
+    try f(s) finally s.stop()
+  }
+
+  "P2CheckServer" should {
+    "check each observation once" in withDb { db =>
+      val p = program(db, 3)
+      withServer(db, None) { s =>
+        s.programResults(p).size must_== 3
+        s.programResults(p).size must_== 3
+        s.metrics.getObservationsChecked must_== 3
+        s.metrics.getCacheHits must_== 3
+      }
+    }
+
+    "check changed observations again" in withDb { db =>
+      val p = program(db, 3)
+      withServer(db, None) { s =>
+        s.programResults(p)
+
+        val o = p.getAllObservations.get(0)
+        val d = o.getDataObject
+        d.setTitle("changed")
+        o.setDataObject(d)
+
+        s.programResults(p)
+        s.metrics.getObservationsChecked must_== 4
+        s.metrics.getCacheHits must_== 2
+      }
+    }
+
+    "check every observation when the program node changes" in withDb { db =>
+      val p = program(db, 2)
+      withServer(db, None) { s =>
+        s.programResults(p)
+
+        val d = p.getDataObject.asInstanceOf[SPProgram]
+        d.setQueueBand("3")
+        p.setDataObject(d)
+
+        s.programResults(p)
+        s.metrics.getObservationsChecked must_== 4
+      }
+    }
+
+    "drop the results of removed observations" in withDb { db =>
+      val p = program(db, 3)
+      withServer(db, None) { s =>
+        s.programResults(p)
+        p.removeObservation(p.getAllObservations.get(0))
+        s.programResults(p).size must_== 2
+        s.metrics.getCachedObservations must_== 2
+      }
+    }
+
+    "keep the results between runs" in withDb { db =>
+      val p = program(db, 3)
+      withStore { f =>
+        withServer(db, Some(f)) { s =>
+          s.programResults(p)
+        }
+        f.exists must beTrue
+
+        withServer(db, Some(f)) { s =>
+          s.start()
+          s.programResults(p).size must_== 3
+          s.metrics.getObservationsChecked must_== 0
+        }
+      }
+    }
+
+    "stop while checking the programs for the first time" in withDb { db =>
+      (1 to 20).foreach(i => program(db, 5, SPProgramID.toProgramID(s"GS-2014A-Q-${i + 100}")))
+      withStore { f =>
+        val s = new P2CheckServer(db, mt, Some(f), 1)
+        s.start()
+        s.stop()
+
+        Thread.getAllStackTraces.keySet.asScala.exists { t =>
+          t.getName == "P2CheckServer initial check" && t.isAlive
+        } must beFalse
+        f.exists must beTrue
+      }
+    }
+
+    "serve the results of readable programs" in withDb { db =>
+      val p     = program(db, 2)
+      val staff = Set[Principal](StaffPrincipal.Gemini).asJava
+      withServer(db, None) { s =>
+        val api = s.serviceApi(staff)
+        api.programResults(pid).size must_== 2
+
+        val oid = p.getAllObservations.get(1).getObservationID
+        api.observationResult(oid).getObservationId must_== oid
+        api.programResults(SPProgramID.toProgramID("GS-2014A-Q-2")).isEmpty must beTrue
+      }
+    }
+
+    "not serve programs the caller may not read" in withDb { db =>
+      program(db, 1)
+      withServer(db, None) { s =>
+        s.serviceApi(java.util.Collections.emptySet[Principal]).programResults(pid) must throwA[java.security.AccessControlException]
+      }
+    }
+  }
+}
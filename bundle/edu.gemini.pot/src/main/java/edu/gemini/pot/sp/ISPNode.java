@@ -188,6 +188,21 @@ public interface ISPNode {
      */
     ISPDataObject getDataObject();
 
+    /**
+     * Returns the data object for this node without copying it.  The object
+     * is shared with the node, and with anyone else who asked for it, so it
+     * must be treated as read-only: modifying it would change the program
+     * without a version update or property change event.  Since nodes never
+     * modify their data object in place but replace it with a copy of the
+     * new value, the object remains a consistent snapshot after subsequent
+     * updates.  This is meant for code that only inspects many data objects,
+     * like database query functors, for which the copy implied by
+     * getDataObject() is most of the cost.
+     *
+     * @return the serializable data object for the node, not to be modified
+     */
+    ISPDataObject getReadOnlyDataObject();
+
     /**
      * Replaces the data object for this node.  This is a convenience method
      * that allows direct access to the "DataObject" client data.  It is
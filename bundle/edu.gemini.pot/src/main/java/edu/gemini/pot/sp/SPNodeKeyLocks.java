@@ -1,42 +1,207 @@
 package edu.gemini.pot.sp;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Provides a low-level API for getting read/write locks associated with
- * SPNodeKeys.  Locks are created on demand but never removed.
+ * SPNodeKeys.  Locks are created on demand and reference counted by the
+ * threads holding or waiting for them.  They are discarded as soon as the
+ * last such thread releases the lock so that keys that are no longer in use
+ * do not accumulate locks.  The registry is a concurrent map, so locking
+ * distinct keys does not contend on a shared monitor.
+ *
+ * <p>Optionally, per-key lock statistics (acquisition counts, time spent
+ * waiting for read and write locks and time spent holding write locks) are
+ * collected.  Collection is off by default and may be enabled with the
+ * {@link #STATS_PROP} system property or {@link #setStatsEnabled}.
  */
 public enum SPNodeKeyLocks {
     instance;
 
-    private Map<SPNodeKey, ReentrantReadWriteLock> locks = new HashMap<SPNodeKey, ReentrantReadWriteLock>();
+    /**
+     * System property that, when set to <code>true</code>, turns on the
+     * collection of lock statistics at startup.
+     */
+    public static final String STATS_PROP = "edu.gemini.pot.lockStats";
+
+    /**
+     * Accumulated lock statistics for a single key.  All times are in
+     * nanoseconds.
+     */
+    public static final class Stats {
+        private final LongAdder readCount      = new LongAdder();
+        private final LongAdder writeCount     = new LongAdder();
+        private final LongAdder readWaitTime   = new LongAdder();
+        private final LongAdder writeWaitTime  = new LongAdder();
+        private final LongAdder writeHoldTime  = new LongAdder();
+        private final LongAccumulator maxWait  = new LongAccumulator(Math::max, 0);
+        private final LongAccumulator maxHold  = new LongAccumulator(Math::max, 0);
+
+        private void read(long wait) {
+            readCount.increment();
+            readWaitTime.add(wait);
+            maxWait.accumulate(wait);
+        }
+
+        private void write(long wait) {
+            writeCount.increment();
+            writeWaitTime.add(wait);
+            maxWait.accumulate(wait);
+        }
+
+        private void hold(long hold) {
+            writeHoldTime.add(hold);
+            maxHold.accumulate(hold);
+        }
+
+        public long getReadCount()         { return readCount.sum();     }
+        public long getWriteCount()        { return writeCount.sum();    }
+        public long getReadWaitTime()      { return readWaitTime.sum();  }
+        public long getWriteWaitTime()     { return writeWaitTime.sum(); }
+        public long getWriteHoldTime()     { return writeHoldTime.sum(); }
+        public long getMaxWaitTime()       { return maxWait.get();       }
+        public long getMaxWriteHoldTime()  { return maxHold.get();       }
+
+        @Override public String toString() {
+            return String.format("reads=%d (wait %d ms), writes=%d (wait %d ms, hold %d ms), max wait=%d ms, max hold=%d ms",
+                    getReadCount(),  getReadWaitTime()  / 1000000,
+                    getWriteCount(), getWriteWaitTime() / 1000000, getWriteHoldTime() / 1000000,
+                    getMaxWaitTime() / 1000000, getMaxWriteHoldTime() / 1000000);
+        }
+    }
+
+    // A lock along with the number of threads holding or waiting for it.  The
+    // reference count is only modified inside ConcurrentMap.compute for the
+    // key, which serializes updates for that key.
+    private static final class LockEntry {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        final Stats stats;
+        int refs;
+        long writeStart;  // only touched by the thread holding the write lock
 
-    private synchronized ReentrantReadWriteLock getLock(SPNodeKey key) {
-        ReentrantReadWriteLock l = locks.get(key);
-        if (l == null) {
-            l = new ReentrantReadWriteLock();
-            locks.put(key, l);
+        LockEntry(Stats stats) {
+            this.stats = stats;
         }
-        return l;
     }
 
-    private Lock getReadLock(SPNodeKey key)  { return getLock(key).readLock();  }
-    private Lock getWriteLock(SPNodeKey key) { return getLock(key).writeLock(); }
+    private final ConcurrentMap<SPNodeKey, LockEntry> locks = new ConcurrentHashMap<>();
+    private final ConcurrentMap<SPNodeKey, Stats> stats     = new ConcurrentHashMap<>();
+    private volatile boolean statsEnabled = Boolean.getBoolean(STATS_PROP);
+
+    private LockEntry acquire(SPNodeKey key) {
+        return locks.compute(key, (k, e) -> {
+            final LockEntry res = (e == null) ? new LockEntry(statsFor(k)) : e;
+            ++res.refs;
+            return res;
+        });
+    }
+
+    private void release(SPNodeKey key) {
+        locks.computeIfPresent(key, (k, e) -> (--e.refs == 0) ? null : e);
+    }
+
+    private LockEntry held(SPNodeKey key) {
+        final LockEntry e = locks.get(key);
+        if (e == null) throw new IllegalMonitorStateException("No lock held for " + key);
+        return e;
+    }
 
-    public void readLock(SPNodeKey key)     { getReadLock(key).lock();   }
-    public void readUnlock(SPNodeKey key)   { getReadLock(key).unlock(); }
+    private Stats statsFor(SPNodeKey key) {
+        return statsEnabled ? stats.computeIfAbsent(key, k -> new Stats()) : null;
+    }
 
-    public void writeLock(SPNodeKey key)    { getWriteLock(key).lock();   }
-    public void writeUnlock(SPNodeKey key)  { getWriteLock(key).unlock(); }
+    public void readLock(SPNodeKey key) {
+        final LockEntry e = acquire(key);
+        if (e.stats == null) {
+            e.lock.readLock().lock();
+        } else {
+            final long start = System.nanoTime();
+            e.lock.readLock().lock();
+            e.stats.read(System.nanoTime() - start);
+        }
+    }
+
+    public void readUnlock(SPNodeKey key) {
+        held(key).lock.readLock().unlock();
+        release(key);
+    }
+
+    public void writeLock(SPNodeKey key) {
+        final LockEntry e = acquire(key);
+        if (e.stats == null) {
+            e.lock.writeLock().lock();
+        } else {
+            final long start = System.nanoTime();
+            e.lock.writeLock().lock();
+            final long now = System.nanoTime();
+            e.stats.write(now - start);
+            if (e.lock.getWriteHoldCount() == 1) e.writeStart = now;
+        }
+    }
+
+    public void writeUnlock(SPNodeKey key) {
+        final LockEntry e = held(key);
+        if ((e.stats != null) && (e.lock.getWriteHoldCount() == 1)) {
+            e.stats.hold(System.nanoTime() - e.writeStart);
+        }
+        e.lock.writeLock().unlock();
+        release(key);
+    }
 
     /**
      * Returns <code>true</code> if the current thread has a write lock for the
      * indicated program key.
      */
     public boolean isWriteLockHeld(SPNodeKey key) {
-        return getLock(key).isWriteLockedByCurrentThread();
+        final LockEntry e = locks.get(key);
+        return (e != null) && e.lock.isWriteLockedByCurrentThread();
+    }
+
+    /**
+     * Gets the number of keys that currently have a lock held or awaited.
+     */
+    public int getActiveLockCount() {
+        return locks.size();
+    }
+
+    public boolean isStatsEnabled() {
+        return statsEnabled;
+    }
+
+    /**
+     * Turns lock statistics collection on or off.  Locks that are currently
+     * held keep their setting until they are released by every thread.
+     */
+    public void setStatsEnabled(boolean enabled) {
+        statsEnabled = enabled;
+    }
+
+    /**
+     * Gets the statistics collected for the given key, or <code>null</code>
+     * if there are none.
+     */
+    public Stats getStats(SPNodeKey key) {
+        return stats.get(key);
+    }
+
+    /**
+     * Gets a copy of the statistics collected for all keys.
+     */
+    public Map<SPNodeKey, Stats> getAllStats() {
+        return Collections.unmodifiableMap(new HashMap<>(stats));
+    }
+
+    /**
+     * Discards all collected statistics.
+     */
+    public void resetStats() {
+        stats.clear();
     }
 }
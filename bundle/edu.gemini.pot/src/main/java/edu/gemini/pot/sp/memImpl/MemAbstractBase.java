@@ -78,6 +78,11 @@ public abstract class MemAbstractBase implements ISPNode, Serializable {
     protected MemAbstractBase(DocumentData docData, ISPNode node, boolean preserveKeys) {
         this(docData, preserveKeys ? node.getNodeKey() : (node instanceof ISPRootNode ? docData.getDocumentKey() : new SPNodeKey()));
 
+        if (preserveKeys && (node instanceof MemAbstractBase)) {
+            _shareClientData((MemAbstractBase) node);
+            return;
+        }
+
         // Copy the client data.  Clone the objects that are cloneable, add a
         // reference to the ones that aren't.
         Set<String> nameSet = node.getClientDataKeys();
@@ -92,6 +97,44 @@ public abstract class MemAbstractBase implements ISPNode, Serializable {
         }
     }
 
+    /**
+     * Copies the client data of the node being duplicated.  Stored client
+     * data is only ever handed out or accepted as a copy, so the duplicate
+     * can share the source node's instances rather than cloning each of them
+     * (which, for a large program, is most of the cost of the copy).  Event
+     * monitors are told about changes to the node and may update themselves,
+     * so they are still cloned.
+     */
+    private void _shareClientData(MemAbstractBase that) {
+        final Map<String, Object> shared   = new HashMap<>(4);
+        final Map<String, Object> monitors = new HashMap<>(4);
+        that.getProgramReadLock();
+        try {
+            for (Map.Entry<String, Object> me : that._clientData.entrySet()) {
+                final Object value = me.getValue();
+                if (value instanceof ISPEventMonitor) {
+                    monitors.put(me.getKey(), copyClientData(value));
+                } else {
+                    shared.put(me.getKey(), value);
+                }
+            }
+        } finally {
+            that.returnProgramReadLock();
+        }
+
+        getProgramWriteLock();
+        try {
+            _clientData.putAll(shared);
+            if (shared.containsKey(DATA_OBJECT_KEY)) markModified();
+        } finally {
+            returnProgramWriteLock();
+        }
+
+        for (Map.Entry<String, Object> me : monitors.entrySet()) {
+            putClientData(me.getKey(), me.getValue());
+        }
+    }
+
 
     public boolean isSendingEvents() {
         return _sendEvents;
@@ -372,6 +415,15 @@ public abstract class MemAbstractBase implements ISPNode, Serializable {
         return (ISPDataObject) getClientData(DATA_OBJECT_KEY);
     }
 
+    public ISPDataObject getReadOnlyDataObject() {
+        getProgramReadLock();
+        try {
+            return (ISPDataObject) _clientData.get(DATA_OBJECT_KEY);
+        } finally {
+            returnProgramReadLock();
+        }
+    }
+
     public PropagationId setDataObject(ISPDataObject newValue) {
         return setDataObject(newValue, false);
     }
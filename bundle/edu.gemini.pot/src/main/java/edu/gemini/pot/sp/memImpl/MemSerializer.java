@@ -3,20 +3,77 @@ package edu.gemini.pot.sp.memImpl;
 import edu.gemini.pot.sp.ISPRootNode;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
+/**
+ * Reads and writes program snapshots.  A snapshot is a small versioned header
+ * followed by the serialized program tree, optionally deflate compressed:
+ *
+ * <pre>
+ *   int  MAGIC
+ *   byte FORMAT_VERSION
+ *   byte compression (see {@link Compression})
+ *   ...  payload
+ * </pre>
+ *
+ * Files written before the header was introduced are plain Java
+ * serialization streams.  They are recognized by the serialization stream
+ * magic number and are still read, so an existing database migrates to the
+ * new format as each program is next stored.
+ */
 public final class MemSerializer {
     private static final Logger LOG = Logger.getLogger(MemSerializer.class.getName());
 
+    /** Snapshot header magic number, "OCSP". */
+    private static final int MAGIC = 0x4F435350;
+
+    /** Current snapshot format version. */
+    private static final byte FORMAT_VERSION = 1;
+
+    private static final int HEADER_LENGTH = 6;
+
+    /**
+     * Strings up to this length are interned as they are read. These are the
+     * parameter names, enum values, instrument and component names, etc.
+     * repeated across every observation of every program.  Longer strings
+     * (notes, target names) are typically unique and left alone.
+     */
+    private static final int MAX_INTERN_LENGTH = 64;
+
+    /** Payload compression options. */
+    public enum Compression {
+        none(0),
+        deflate(1),
+        ;
+
+        final byte code;
+
+        Compression(int code) {
+            this.code = (byte) code;
+        }
+
+        static Compression fromCode(byte code) throws IOException {
+            for (Compression c : values()) if (c.code == code) return c;
+            throw new IOException("Unknown program snapshot compression: " + code);
+        }
+    }
+
     // An ObjectInputStream that uses the bundle's class loader if possible to
-    // resolve classes.
+    // resolve classes, and that interns short strings as they are read.
     private final class ClassLoaderObjectInputStream extends ObjectInputStream {
         private final ClassLoader loader;
 
         ClassLoaderObjectInputStream(ClassLoader loader, InputStream is) throws IOException {
             super(is);
             this.loader = loader;
+            enableResolveObject(true);
         }
 
         @Override protected Class<?> resolveClass(ObjectStreamClass osc) throws IOException, ClassNotFoundException {
@@ -26,6 +83,36 @@ public final class MemSerializer {
                return super.resolveClass(osc);
             }
         }
+
+        @Override protected Object resolveObject(Object obj) {
+            if (obj instanceof String) {
+                final String s = (String) obj;
+                return (s.length() <= MAX_INTERN_LENGTH) ? s.intern() : s;
+            }
+            return obj;
+        }
+    }
+
+    private final Compression compression;
+
+    /**
+     * Creates a serializer that writes deflate compressed snapshots.
+     */
+    public MemSerializer() {
+        this(Compression.deflate);
+    }
+
+    /**
+     * Creates a serializer that writes snapshots with the given compression.
+     * Snapshots are always readable regardless of how they were compressed.
+     */
+    public MemSerializer(Compression compression) {
+        if (compression == null) throw new NullPointerException("compression");
+        this.compression = compression;
+    }
+
+    public Compression getCompression() {
+        return compression;
     }
 
     private ClassLoader getLoader() {
@@ -33,12 +120,60 @@ public final class MemSerializer {
     }
 
     public MemAbstractBase load(File file) throws IOException {
-        final FileInputStream fis = new FileInputStream(file);
-        return loadAndClose(new ClassLoaderObjectInputStream(getLoader(), new BufferedInputStream(fis)));
+        return load(readFully(file));
+    }
+
+    // Reads the entire file with channel reads into a single heap buffer.  The
+    // file is deliberately not memory mapped: a live mapping is only released
+    // when the buffer is collected, and until then some platforms (Windows in
+    // particular, where the OT keeps a local database) refuse to delete or
+    // replace the file when the program is next stored.
+    private static byte[] readFully(File file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = ch.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("File too large: " + file);
+
+            final ByteBuffer buf = ByteBuffer.allocate((int) size);
+            while (buf.hasRemaining()) {
+                if (ch.read(buf) < 0) throw new EOFException("Unexpected end of file: " + file);
+            }
+            return buf.array();
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the blob is in the legacy format, a bare
+     * Java serialization stream without a snapshot header.
+     */
+    public static boolean isLegacyFormat(byte[] blob) {
+        return (blob.length >= 2) &&
+               (((blob[0] & 0xff) << 8) | (blob[1] & 0xff)) == (ObjectStreamConstants.STREAM_MAGIC & 0xffff);
     }
 
     public MemAbstractBase load(byte[] blob) throws IOException {
-        return loadAndClose(new ClassLoaderObjectInputStream(getLoader(), new ByteArrayInputStream(blob)));
+        final InputStream is;
+        if (isLegacyFormat(blob)) {
+            is = new ByteArrayInputStream(blob);
+        } else {
+            final DataInputStream dis = new DataInputStream(new ByteArrayInputStream(blob));
+            if ((blob.length < HEADER_LENGTH) || (dis.readInt() != MAGIC)) {
+                throw new IOException("Not a program snapshot");
+            }
+
+            final byte version = dis.readByte();
+            if (version > FORMAT_VERSION) {
+                throw new IOException("Unsupported program snapshot version: " + version);
+            }
+
+            switch (Compression.fromCode(dis.readByte())) {
+                case deflate:
+                    is = new InflaterInputStream(dis);
+                    break;
+                default:
+                    is = dis;
+            }
+        }
+        return loadAndClose(new ClassLoaderObjectInputStream(getLoader(), new BufferedInputStream(is)));
     }
 
     private MemAbstractBase loadAndClose(ObjectInputStream ois) throws IOException {
@@ -54,14 +189,42 @@ public final class MemSerializer {
         }
     }
 
+    /**
+     * Stores a snapshot of the program in the given file.  The program read
+     * lock is only held while the snapshot is taken in memory, not while it is
+     * written to disk.
+     */
     public void store(ISPRootNode mab, File file) throws IOException {
-        final FileOutputStream fos = new FileOutputStream(file);
-        storeAndClose(mab, new ObjectOutputStream(new BufferedOutputStream(fos)));
+        final byte[] snapshot = store(mab);
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            fos.write(snapshot);
+        }
     }
 
+    /**
+     * Takes a snapshot of the program, holding the program read lock while it
+     * is encoded.
+     */
     public byte[] store(ISPRootNode mab) throws IOException {
         final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        storeAndClose(mab, new ObjectOutputStream(baos));
+        final DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeInt(MAGIC);
+        dos.writeByte(FORMAT_VERSION);
+        dos.writeByte(compression.code);
+        dos.flush();
+
+        switch (compression) {
+            case deflate:
+                final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+                try {
+                    storeAndClose(mab, new ObjectOutputStream(new BufferedOutputStream(new DeflaterOutputStream(baos, deflater, 8192))));
+                } finally {
+                    deflater.end();
+                }
+                break;
+            default:
+                storeAndClose(mab, new ObjectOutputStream(new BufferedOutputStream(baos)));
+        }
         return baos.toByteArray();
     }
 
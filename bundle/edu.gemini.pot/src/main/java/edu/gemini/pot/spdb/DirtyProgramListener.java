@@ -10,10 +10,14 @@ package edu.gemini.pot.spdb;
 import edu.gemini.pot.sp.ISPNode;
 import edu.gemini.pot.sp.ISPRootNode;
 import edu.gemini.pot.sp.SPUtil;
+import edu.gemini.spModel.data.ISPDataObject;
 
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.io.IOException;
 import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 
 /**
@@ -24,17 +28,28 @@ import java.util.*;
  * <code>{@link StorageManager}</code>.  It contains a thread that
  * periodically checks for "dirty" programs (via the
  * <code>getDirtyPrograms()</code> method of this class) and saves.
+ *
+ * <p>Changes that only replace a node's data object do not mark the program
+ * dirty.  Instead they are recorded as journal entries (see
+ * <code>getJournalEntries()</code>) which are appended to the program's
+ * journal without rewriting the whole program.
  */
 @SuppressWarnings("unchecked")
 final class DirtyProgramListener<N extends ISPRootNode> implements PropertyChangeListener {
+    private static final Logger LOG = Logger.getLogger(DirtyProgramListener.class.getName());
+
+    private static final String DATA_OBJECT_PROP = SPUtil.getDataObjectPropertyName();
+
     private final Set<N> _progSet;
+    private final Map<N, List<ProgramJournal.Entry>> _journalMap;
 
     /**
      * Default constructor declared because superclass default constructor
      * throws <code>RemoteException</code>.
      */
     DirtyProgramListener()  {
-        _progSet = new HashSet<N>();
+        _progSet    = new HashSet<N>();
+        _journalMap = new LinkedHashMap<N, List<ProgramJournal.Entry>>();
     }
 
     @Override public void propertyChange(PropertyChangeEvent pce) {
@@ -43,10 +58,35 @@ final class DirtyProgramListener<N extends ISPRootNode> implements PropertyChang
         final Object src = pce.getSource();
         if (!(src instanceof ISPNode)) return;
 
-        ISPRootNode root = ((ISPNode) src).getRootAncestor();
-        if (root != null) {
-            synchronized (this) { _progSet.add((N)root); }
+        final ISPNode node = (ISPNode) src;
+        ISPRootNode root = node.getRootAncestor();
+        if (root == null) return;
+
+        if (DATA_OBJECT_PROP.equals(pce.getPropertyName()) && (pce.getNewValue() instanceof ISPDataObject)) {
+            try {
+                final ProgramJournal.Entry e = ProgramJournal.Entry.create(node, (ISPDataObject) pce.getNewValue());
+                synchronized (this) {
+                    List<ProgramJournal.Entry> lst = _journalMap.get(root);
+                    if (lst == null) {
+                        lst = new ArrayList<ProgramJournal.Entry>();
+                        _journalMap.put((N) root, lst);
+                    }
+                    lst.add(e);
+                }
+                return;
+            } catch (IOException ex) {
+                LOG.log(Level.WARNING, "Couldn't journal change to " + node.getNodeKey() + ", storing the whole program instead", ex);
+            }
         }
+
+        markDirty((N) root);
+    }
+
+    /**
+     * Marks the given program as needing to be stored in full.
+     */
+    synchronized void markDirty(N prog) {
+        _progSet.add(prog);
     }
 
     /**
@@ -62,11 +102,26 @@ final class DirtyProgramListener<N extends ISPRootNode> implements PropertyChang
         return lst;
     }
 
+    /**
+     * Gets the data object changes recorded for each program since the last
+     * call and clears them.
+     *
+     * @return journal entries grouped by program, in the order they were made
+     */
+    synchronized Map<N, List<ProgramJournal.Entry>> getJournalEntries() {
+        if (_journalMap.isEmpty()) return Collections.emptyMap();
+        final Map<N, List<ProgramJournal.Entry>> res = new LinkedHashMap<N, List<ProgramJournal.Entry>>(_journalMap);
+        _journalMap.clear();
+        return res;
+    }
+
     /**
      * Removes the given program from its collection of modified, "dirty",
-     * programs.  If the program isn't in the collection, then nothing is done.
+     * programs and drops any pending journal entries for it.  If the program
+     * isn't in the collection, then nothing is done.
      */
     synchronized void removeProgram(N prog) {
+        _journalMap.remove(prog);
         if (_progSet.size() == 0) return;
         _progSet.remove(prog);
     }
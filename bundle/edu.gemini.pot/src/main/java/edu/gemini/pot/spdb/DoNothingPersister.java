@@ -35,6 +35,10 @@ public final class DoNothingPersister implements IDBPersister {
         // Do nothing.
     }
 
+    @Override public long journal(ISPRootNode node, List<ProgramJournal.Entry> entries) {
+        return 0L;
+    }
+
     @Override public long size(SPNodeKey key) {
         return -1L;
     }
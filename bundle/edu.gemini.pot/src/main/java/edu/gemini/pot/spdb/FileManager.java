@@ -7,6 +7,10 @@ import edu.gemini.spModel.core.SPProgramID;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 
 /**
@@ -17,6 +21,7 @@ import java.util.*;
  * <code>FileManager</code>.
  */
 final class FileManager implements IDBPersister {
+    private static final Logger LOG = Logger.getLogger(FileManager.class.getName());
 
     /** The file suffix that is appended to programs in the database. */
     public static final String PROGRAM_SUFFIX = ".sp";
@@ -48,8 +53,26 @@ final class FileManager implements IDBPersister {
     private static final ISPFileFilter _progFilter = new ISPFileFilter(PROGRAM_SUFFIX);
     private static final ISPFileFilter _planFilter = new ISPFileFilter(PLAN_SUFFIX);
 
+    /**
+     * System property that sets the number of worker threads used to
+     * deserialize program and plan files when the database is reloaded.  A
+     * value of 1 loads the files one at a time on the calling thread.  By
+     * default one thread per available processor is used.
+     */
+    public static final String LOAD_THREADS_PROP = "edu.gemini.spdb.loadThreads";
+
+    /**
+     * System property that selects the compression applied to program files
+     * as they are stored, one of the {@link MemSerializer.Compression} names.
+     * Files are always readable regardless of how they were written.  Defaults
+     * to <code>deflate</code>.
+     */
+    public static final String COMPRESSION_PROP = "edu.gemini.spdb.compression";
+
     private final File _dbDir;
     private final MemSerializer _ser;
+    private final int _loadThreads;
+    private final ProgramJournal _journal;
     private final Map<SPNodeKey, File> _fileMap = new HashMap<SPNodeKey, File>();
 
     /**
@@ -60,9 +83,54 @@ final class FileManager implements IDBPersister {
      * @throws IOException if <code>dbDir</code> is not valid
      */
     FileManager(final File dbDir) throws IOException {
+        this(dbDir, _getDefaultLoadThreads());
+    }
+
+    /**
+     * Constructs the <code>FileManager</code> with the database directory to
+     * use and the number of threads that will deserialize files in parallel
+     * when the database is reloaded.
+     *
+     * @throws IOException if <code>dbDir</code> is not valid
+     */
+    FileManager(final File dbDir, final int loadThreads) throws IOException {
+        if (loadThreads < 1) throw new IllegalArgumentException("loadThreads must be > 0");
         _setupDbDirectory(dbDir);
-        _dbDir = dbDir;
-        _ser   = new MemSerializer();
+        _dbDir       = dbDir;
+        _ser         = new MemSerializer(_getCompression());
+        _loadThreads = loadThreads;
+        _journal     = new ProgramJournal(dbDir);
+    }
+
+    private static MemSerializer.Compression _getCompression() {
+        final MemSerializer.Compression defaultVal = MemSerializer.Compression.deflate;
+        final String propStr = System.getProperty(COMPRESSION_PROP);
+        if (propStr == null) return defaultVal;
+
+        try {
+            return MemSerializer.Compression.valueOf(propStr.trim());
+        } catch (IllegalArgumentException ex) {
+            LOG.warning("Could not parse value of property '" + COMPRESSION_PROP +
+                        "': " + propStr + ", using default value: " + defaultVal);
+            return defaultVal;
+        }
+    }
+
+    private static int _getDefaultLoadThreads() {
+        final int defaultVal = Runtime.getRuntime().availableProcessors();
+        final String propStr = System.getProperty(LOAD_THREADS_PROP);
+        if (propStr == null) return defaultVal;
+
+        try {
+            final int threads = Integer.parseInt(propStr.trim());
+            if (threads > 0) return threads;
+            LOG.warning("Value of property '" + LOAD_THREADS_PROP + "' must be > 0 (" +
+                        propStr + "), using default value: " + defaultVal);
+        } catch (NumberFormatException ex) {
+            LOG.warning("Could not parse value of property '" + LOAD_THREADS_PROP +
+                        "': " + propStr);
+        }
+        return defaultVal;
     }
 
     /**
@@ -137,31 +205,124 @@ final class FileManager implements IDBPersister {
         return reload("plan", _planFilter);
     }
 
+    /**
+     * The outcome of reading a single file: either the deserialized node or
+     * the exception that prevented it from being read, along with the time
+     * spent on the file.
+     */
+    private static final class LoadResult<T extends ISPRootNode> {
+        final File file;
+        final T node;
+        final Exception failure;
+        final long time;
+
+        LoadResult(File file, T node, Exception failure, long time) {
+            this.file    = file;
+            this.node    = node;
+            this.failure = failure;
+            this.time    = time;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends ISPRootNode> LoadResult<T> _load(final File progFile) {
+        final long start = System.currentTimeMillis();
+        T node = null;
+        Exception failure = null;
+        try {
+            node = (T) _ser.load(progFile);
+        } catch (Exception ex) {
+            failure = ex;
+        }
+        final long time = System.currentTimeMillis() - start;
+        LOG.log(Level.FINE, String.format("Read %s: %d ms", progFile.getName(), time));
+        return new LoadResult<T>(progFile, node, failure, time);
+    }
+
+    private <T extends ISPRootNode> List<LoadResult<T>> _loadSequential(final File[] fileA) {
+        final List<LoadResult<T>> res = new ArrayList<LoadResult<T>>(fileA.length);
+        for (final File progFile : fileA) res.add(this.<T>_load(progFile));
+        return res;
+    }
+
+    /**
+     * Deserializes the files on a bounded pool of worker threads, returning
+     * the results in the same order as the files in <code>fileA</code> so
+     * that duplicate detection behaves as in the sequential case.
+     */
+    private <T extends ISPRootNode> List<LoadResult<T>> _loadParallel(final String name, final File[] fileA) throws IOException {
+        final AtomicInteger count = new AtomicInteger();
+        final ExecutorService pool = Executors.newFixedThreadPool(Math.min(_loadThreads, fileA.length), new ThreadFactory() {
+            @Override public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, String.format("ODB %s loader %d", name, count.incrementAndGet()));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        try {
+            final List<Future<LoadResult<T>>> futures = new ArrayList<Future<LoadResult<T>>>(fileA.length);
+            for (final File progFile : fileA) {
+                futures.add(pool.submit(new Callable<LoadResult<T>>() {
+                    @Override public LoadResult<T> call() {
+                        return FileManager.this.<T>_load(progFile);
+                    }
+                }));
+            }
+
+            final List<LoadResult<T>> res = new ArrayList<LoadResult<T>>(fileA.length);
+            for (int i = 0; i < fileA.length; ++i) {
+                try {
+                    res.add(futures.get(i).get());
+                } catch (ExecutionException ex) {
+                    // _load catches any Exception so this is an Error.
+                    final Throwable cause = ex.getCause();
+                    if (cause instanceof Error) throw (Error) cause;
+                    res.add(new LoadResult<T>(fileA[i], null, new RuntimeException(cause), 0));
+                }
+            }
+            return res;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading the " + name + " database");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
     private <T extends ISPRootNode> List<T> reload(final String name, final FileFilter filter) throws IOException {
-        System.out.println(String.format("Loading the %s database ...", name));
+        final int threads = _loadThreads;
+        System.out.println(String.format("Loading the %s database (%d thread%s) ...", name, threads, (threads == 1) ? "" : "s"));
 
         final long time1      = System.currentTimeMillis();
         final File[] fileA    = _dbDir.listFiles(filter);
+        final List<LoadResult<T>> results = ((threads > 1) && (fileA.length > 1)) ?
+                                             this.<T>_loadParallel(name, fileA) :
+                                             this.<T>_loadSequential(fileA);
         final List<T> retList = new ArrayList<T>(fileA.length);
 
-        // Try to load each file.
-        for (final File progFile : fileA) {
-
-            // Load the program file.
-            final T prog;
-            try {
-                prog = (T) _ser.load(progFile);
-                if (prog == null) continue;
-            } catch (Exception ex) {
-                String path = _getPath(progFile);
-                if (ex.getCause() instanceof InvalidClassException) {
+        long readTime = 0;
+        int failures  = 0;
+        LoadResult<T> slowest = null;
+
+        for (final LoadResult<T> res : results) {
+            readTime += res.time;
+            if ((slowest == null) || (res.time > slowest.time)) slowest = res;
+
+            if (res.failure != null) {
+                ++failures;
+                final String path = _getPath(res.file);
+                if (res.failure.getCause() instanceof InvalidClassException) {
                     System.err.println("Warning: incompatible file: '" + path + "'. Please delete and reimport from XML");
                 } else {
-                    System.err.println("Problem reading program file `" + path + "': " + ex);
+                    System.err.println("Problem reading program file `" + path + "': " + res.failure);
                 }
                 continue;
             }
 
+            final T prog = res.node;
+            if (prog == null) continue;
+
             // If there are two program files with the same program (i.e.,
             // with the same key), just skip the next one read.
             final SPNodeKey key = prog.getNodeKey();
@@ -169,15 +330,30 @@ final class FileManager implements IDBPersister {
                 System.out.println("Already loaded: " + key);
                 continue; // already loaded
             }
-            _fileMap.put(key, progFile);
+            _fileMap.put(key, res.file);
+
+            // Apply any changes journaled since the file was written and
+            // fold them into a new snapshot.
+            if (!_journal.files(key).isEmpty()) {
+                final int applied = _journal.replay(prog);
+                System.out.println(String.format("Replayed %d journaled change(s) for %s", applied, key));
+                try {
+                    store(prog);
+                } catch (IOException ex) {
+                    System.err.println("Problem compacting journal for `" + _getPath(res.file) + "': " + ex);
+                }
+            }
 
             retList.add(prog);
         }
 
         final long time2 = System.currentTimeMillis();
 
-        final String msg = String.format("Finished loading: %d ms, %d %ss", time2-time1, fileA.length, name);
+        final String msg = String.format("Finished loading: %d ms, %d %ss (%d failed), %d ms total read time", time2-time1, fileA.length, name, failures, readTime);
         System.out.println(msg);
+        if (slowest != null) {
+            LOG.info(String.format("Slowest %s file: %s, %d ms", name, slowest.file.getName(), slowest.time));
+        }
         return retList;
 
     }
@@ -195,8 +371,16 @@ final class FileManager implements IDBPersister {
         final SPNodeKey key = node.getNodeKey();
         final File newFile = _getDocumentFile(node, suffix);
 
+        // Set aside the journal; the snapshot about to be taken includes all
+        // the changes it records.
+        final List<File> journals = _journal.roll(key);
+
         _storeProgram(node, newFile);
 
+        for (File f : journals) {
+            if (!f.delete()) LOG.warning("Couldn't delete journal " + f);
+        }
+
         synchronized (this) {
             final File oldFile = _fileMap.get(key);
             if ((oldFile != null) && !newFile.equals(oldFile) && oldFile.exists()) {
@@ -213,21 +397,29 @@ final class FileManager implements IDBPersister {
      * Stores the given <code>prog</code>ram in the given <code>progFile</code>.
      */
     private void _storeProgram(ISPRootNode node, File file) throws IOException {
-        // Create a temp file to write the object.
-        final File tmpFile = _createTempFile(file);
-
+        // Take the snapshot in memory, holding the lock only while encoding.
+        final byte[] snapshot;
         final SPNodeKey key = node.getProgramKey();
         SPNodeKeyLocks.instance.readLock(key);
         try {
-            // Write the object to the temp file.
-            _ser.store(node, tmpFile);
-
-            // Rename the temp file to the destination file.
-            file.delete(); // under win2k, rename fails if file exists
-            if (!tmpFile.renameTo(file)) throw new IOException("Couldn't store the program.");
+            snapshot = _ser.store(node);
         } finally {
             SPNodeKeyLocks.instance.readUnlock(key);
         }
+
+        // Create a temp file to write the object.
+        final File tmpFile = _createTempFile(file);
+        try (FileOutputStream fos = new FileOutputStream(tmpFile)) {
+            fos.write(snapshot);
+            fos.getFD().sync();
+        } catch (IOException ex) {
+            tmpFile.delete();
+            throw ex;
+        }
+
+        // Rename the temp file to the destination file.
+        file.delete(); // under win2k, rename fails if file exists
+        if (!tmpFile.renameTo(file)) throw new IOException("Couldn't store the program.");
     }
 
     @Override public synchronized long size(SPNodeKey key) {
@@ -241,6 +433,15 @@ final class FileManager implements IDBPersister {
     public synchronized void remove(SPNodeKey key) {
         final File progFile = _fileMap.remove(key);
         if (progFile != null) progFile.delete();
+        _journal.delete(key);
+    }
+
+    @Override public long journal(ISPRootNode node, List<ProgramJournal.Entry> entries) throws IOException {
+        final SPNodeKey key = node.getNodeKey();
+        synchronized (this) {
+            if (!_fileMap.containsKey(key)) return -1;
+            return _journal.append(key, entries);
+        }
     }
 
     /**
@@ -0,0 +1,47 @@
+package edu.gemini.pot.spdb;
+
+/**
+ * An <code>{@link IDBQueryFunctor}</code> whose work may be split across
+ * several threads by the <code>{@link IDBQueryRunner}</code>.  The query
+ * runner partitions the programs to be examined into contiguous slices,
+ * creates a new partition functor for each slice with
+ * <code>{@link #newPartition}</code> and runs them concurrently.  When all
+ * the partitions have finished, their partial results are merged back into
+ * the original functor with <code>{@link #mergePartition}</code>.
+ *
+ * <p>The call sequence is as follows:
+ * <ul>
+ *   <li><code>init()</code> is called on the original functor</li>
+ *   <li>each partition receives <code>init()</code> followed by any number of
+ *   <code>isDone()</code> / <code>execute()</code> calls, but never
+ *   <code>finished()</code></li>
+ *   <li>partitions are merged into the original in the order of their
+ *   slices, so that results that depend upon the order of the nodes are
+ *   the same as for a sequential execution</li>
+ *   <li><code>finished()</code> is called on the original functor</li>
+ * </ul>
+ *
+ * <p>Partitions run concurrently with one another, so any state they share
+ * with the original functor must be treated as read-only.  If a partition
+ * fails, all the others stop at the next node.  If a partition reports that
+ * it is done, the partitions of later slices stop at the next node and are
+ * not merged, while those of earlier slices run to completion, so the merged
+ * result includes every node a sequential execution would have examined.
+ * Since each partition only sees its own results, functors that rely upon
+ * <code>isDone()</code> to stop after some number of results should be
+ * prepared for the merged result to contain more than that number.
+ */
+public interface IDBParallelQueryFunctor extends IDBQueryFunctor {
+
+    /**
+     * Creates a fresh functor, configured like this one but with empty
+     * results, that will be executed on one slice of the nodes.
+     */
+    IDBParallelQueryFunctor newPartition();
+
+    /**
+     * Combines the results gathered by the given partition, previously
+     * created by <code>{@link #newPartition}</code>, into this functor.
+     */
+    void mergePartition(IDBParallelQueryFunctor partition);
+}
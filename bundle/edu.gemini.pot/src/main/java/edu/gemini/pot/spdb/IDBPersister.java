@@ -14,6 +14,16 @@ interface IDBPersister {
     void store(ISPRootNode node) throws IOException;
     void remove(SPNodeKey key);
 
+    /**
+     * Appends data object changes to the node's journal, forcing them to disk
+     * before returning.  The changes are folded into the program file the
+     * next time the node is stored.
+     *
+     * @return size of the journal on disk after the append, or -1 if the node
+     * has never been stored and so must be stored in full instead
+     */
+    long journal(ISPRootNode node, List<ProgramJournal.Entry> entries) throws IOException;
+
     /** Gets the size of the program file on disk, or -1 if not known. */
     long size(SPNodeKey key);
 
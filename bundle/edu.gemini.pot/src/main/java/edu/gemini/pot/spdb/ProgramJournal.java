@@ -0,0 +1,248 @@
+package edu.gemini.pot.spdb;
+
+import edu.gemini.pot.sp.*;
+import edu.gemini.pot.sp.version.LifespanId;
+import edu.gemini.shared.util.VersionComparison;
+import edu.gemini.shared.util.VersionVector;
+import edu.gemini.spModel.data.ISPDataObject;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of data object changes made to a program since its
+ * last full snapshot was written.  The journal lets the
+ * <code>{@link StorageManager}</code> make small edits durable quickly without
+ * rewriting the whole program file, deferring the full snapshot until the
+ * journal is compacted.
+ *
+ * <p>Journals are named after the program's node key in the database
+ * directory.  When a snapshot is about to be written the current journal is
+ * "rolled" into a numbered segment; new changes go to a fresh journal while
+ * the snapshot is taken, and the rolled segments are deleted only once the
+ * snapshot has been safely written.  Each entry records the node's version
+ * vector and is only replayed onto a node whose version is older, so stale
+ * segments left behind by a crash are harmless.
+ *
+ * <p>Each entry is framed as <code>length, crc32, payload</code> so that a
+ * torn write at the end of the journal is detected and ignored.
+ */
+final class ProgramJournal {
+    private static final Logger LOG = Logger.getLogger(ProgramJournal.class.getName());
+
+    /** The file suffix of a program's journal. */
+    static final String SUFFIX = ".jnl";
+
+    /**
+     * A single journaled data object change.  The data object is serialized
+     * when the entry is created so that later changes to the same instance do
+     * not leak into the journal.
+     */
+    static final class Entry {
+        final SPNodeKey nodeKey;
+        final byte[] payload;
+
+        private Entry(SPNodeKey nodeKey, byte[] payload) {
+            this.nodeKey = nodeKey;
+            this.payload = payload;
+        }
+
+        /**
+         * Creates an entry recording the node's new data object along with
+         * its current version.
+         */
+        static Entry create(ISPNode node, ISPDataObject dataObject) throws IOException {
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+                oos.writeObject(node.getNodeKey());
+                oos.writeObject(node.getVersion());
+                oos.writeObject(dataObject);
+            }
+            return new Entry(node.getNodeKey(), baos.toByteArray());
+        }
+    }
+
+    private final File _dir;
+    private long _lastSegment;
+
+    ProgramJournal(File dir) {
+        _dir = dir;
+    }
+
+    private String _prefix(SPNodeKey key) {
+        return key.toString() + SUFFIX;
+    }
+
+    private File _journalFile(SPNodeKey key) {
+        return new File(_dir, _prefix(key));
+    }
+
+    /**
+     * Appends the entries to the program's journal and forces them to disk.
+     *
+     * @return the size of the journal after the append
+     */
+    synchronized long append(SPNodeKey progKey, List<Entry> entries) throws IOException {
+        int size = 0;
+        for (Entry e : entries) size += 12 + e.payload.length;
+
+        final ByteBuffer buf = ByteBuffer.allocate(size);
+        final CRC32 crc = new CRC32();
+        for (Entry e : entries) {
+            crc.reset();
+            crc.update(e.payload, 0, e.payload.length);
+            buf.putInt(e.payload.length);
+            buf.putLong(crc.getValue());
+            buf.put(e.payload);
+        }
+        buf.flip();
+
+        try (FileChannel ch = FileChannel.open(_journalFile(progKey).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (buf.hasRemaining()) ch.write(buf);
+            ch.force(false);
+            return ch.size();
+        }
+    }
+
+    /**
+     * Moves the current journal, if any, aside into a numbered segment so that
+     * changes made from now on are written to a new journal.
+     *
+     * @return all the rolled segments for the program, which may be deleted
+     * once a snapshot taken after this call has been written
+     */
+    synchronized List<File> roll(SPNodeKey progKey) throws IOException {
+        final File cur = _journalFile(progKey);
+        if (cur.exists()) {
+            _lastSegment = Math.max(_lastSegment + 1, System.currentTimeMillis());
+            final File seg = new File(_dir, _prefix(progKey) + "." + _lastSegment);
+            if (!cur.renameTo(seg)) throw new IOException("Couldn't roll journal " + cur);
+        }
+        return _segments(progKey);
+    }
+
+    /**
+     * Gets the rolled segments for the program, oldest first.
+     */
+    private List<File> _segments(SPNodeKey progKey) {
+        final String prefix = _prefix(progKey) + ".";
+        final File[] files  = _dir.listFiles(f -> f.getName().startsWith(prefix));
+        if ((files == null) || (files.length == 0)) return Collections.emptyList();
+
+        final List<File> res = new ArrayList<>(Arrays.asList(files));
+        res.sort(Comparator.comparingLong(f -> _segmentNumber(f, prefix)));
+        return res;
+    }
+
+    private static long _segmentNumber(File f, String prefix) {
+        try {
+            return Long.parseLong(f.getName().substring(prefix.length()));
+        } catch (NumberFormatException ex) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Gets all the journal files for the program in the order in which they
+     * must be replayed.
+     */
+    synchronized List<File> files(SPNodeKey progKey) {
+        final List<File> res = new ArrayList<>(_segments(progKey));
+        final File cur = _journalFile(progKey);
+        if (cur.exists()) res.add(cur);
+        return res;
+    }
+
+    /**
+     * Deletes every journal file associated with the program.
+     */
+    synchronized void delete(SPNodeKey progKey) {
+        for (File f : files(progKey)) {
+            if (!f.delete()) LOG.warning("Couldn't delete journal " + f);
+        }
+    }
+
+    /**
+     * Replays the program's journals onto the freshly loaded program, applying
+     * each entry whose version is newer than that of the corresponding node.
+     *
+     * @return the number of entries applied
+     */
+    int replay(ISPRootNode root) {
+        final List<File> files = files(root.getProgramKey());
+        if (files.isEmpty()) return 0;
+
+        final Map<SPNodeKey, ISPNode> nodes = new HashMap<>();
+        _index(root, nodes);
+
+        int applied = 0;
+        for (File f : files) {
+            try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+                applied += _replay(f, dis, nodes);
+            } catch (IOException ex) {
+                LOG.log(Level.WARNING, "Problem reading journal " + f, ex);
+            }
+        }
+        return applied;
+    }
+
+    private static void _index(ISPNode node, Map<SPNodeKey, ISPNode> nodes) {
+        nodes.put(node.getNodeKey(), node);
+        if (node instanceof ISPContainerNode) {
+            for (ISPNode child : ((ISPContainerNode) node).getChildren()) _index(child, nodes);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int _replay(File f, DataInputStream dis, Map<SPNodeKey, ISPNode> nodes) throws IOException {
+        final CRC32 crc = new CRC32();
+        int applied = 0;
+        while (true) {
+            final int len;
+            final long sum;
+            final byte[] payload;
+            try {
+                len = dis.readInt();
+                sum = dis.readLong();
+                if (len < 0) throw new EOFException();
+                payload = new byte[len];
+                dis.readFully(payload);
+            } catch (EOFException ex) {
+                // End of the journal, or a torn final write.
+                return applied;
+            }
+
+            crc.reset();
+            crc.update(payload, 0, len);
+            if (crc.getValue() != sum) {
+                LOG.warning("Corrupt entry in journal " + f + ", ignoring the remainder");
+                return applied;
+            }
+
+            final SPNodeKey key;
+            final VersionVector<LifespanId, Integer> version;
+            final ISPDataObject dataObject;
+            try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(payload))) {
+                key        = (SPNodeKey) ois.readObject();
+                version    = (VersionVector<LifespanId, Integer>) ois.readObject();
+                dataObject = (ISPDataObject) ois.readObject();
+            } catch (ClassNotFoundException | ClassCastException ex) {
+                LOG.log(Level.WARNING, "Couldn't read entry in journal " + f, ex);
+                continue;
+            }
+
+            final ISPNode node = nodes.get(key);
+            if ((node != null) && (version.compare(node.getVersion()) == VersionComparison.Newer$.MODULE$)) {
+                node.setDataObjectAndVersion(dataObject, version);
+                ++applied;
+            }
+        }
+    }
+}
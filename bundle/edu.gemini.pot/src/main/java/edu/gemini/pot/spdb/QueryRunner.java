@@ -3,10 +3,19 @@ package edu.gemini.pot.spdb;
 import edu.gemini.pot.sp.*;
 
 import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -14,10 +23,57 @@ import java.util.logging.Logger;
 /**
  * The query runner implementation.  See
  * <code>{@link IDBQueryRunner}</code> for more details.
+ *
+ * <p>Functors that implement <code>{@link IDBParallelQueryFunctor}</code> are
+ * executed in parallel on a shared fork-join pool, with the programs split
+ * into contiguous slices.  All other functors are executed sequentially on
+ * the calling thread.
  */
 final class QueryRunner implements IDBQueryRunner {
     private static final Logger LOG = Logger.getLogger(QueryRunner.class.getName());
 
+    /**
+     * System property that sets the number of threads used to execute
+     * <code>{@link IDBParallelQueryFunctor}</code>s.  A value of 1 executes
+     * all queries sequentially on the calling thread.  By default one thread
+     * per available processor is used.
+     */
+    public static final String PARALLELISM_PROP = "edu.gemini.spdb.queryParallelism";
+
+    // Number of slices per thread, which evens out the load when some
+    // programs are much larger than others.
+    private static final int SLICES_PER_THREAD = 4;
+
+    private static final int PARALLELISM = _getParallelism();
+
+    // Created on first use so that a database that only runs sequential
+    // queries never starts the pool.
+    private static final class PoolHolder {
+        static final ForkJoinPool POOL = new ForkJoinPool(PARALLELISM, pool -> {
+            final ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName("ODB Query-" + t.getPoolIndex());
+            t.setDaemon(true);
+            return t;
+        }, null, false);
+    }
+
+    private static int _getParallelism() {
+        final int defaultVal = Runtime.getRuntime().availableProcessors();
+        final String propStr = System.getProperty(PARALLELISM_PROP);
+        if (propStr == null) return defaultVal;
+
+        try {
+            final int threads = Integer.parseInt(propStr.trim());
+            if (threads > 0) return threads;
+            LOG.warning("Value of property '" + PARALLELISM_PROP + "' must be > 0 (" +
+                        propStr + "), using default value: " + defaultVal);
+        } catch (NumberFormatException ex) {
+            LOG.warning("Could not parse value of property '" + PARALLELISM_PROP +
+                        "': " + propStr);
+        }
+        return defaultVal;
+    }
+
     private DBLocalDatabase _database;
     private DatabaseManager _dataMan;
     private Set<Principal> _principals;
@@ -35,11 +91,8 @@ final class QueryRunner implements IDBQueryRunner {
      * Runs a query on the available observations.
      */
     public <T extends IDBQueryFunctor> T queryObservations(T queryFunctor) {
-        List<ISPObservation> lst = new LinkedList<>();
-        for (ISPProgram prog : _dataMan.getProgramManager().getPrograms()) {
-            lst.addAll(prog.getAllObservations());
-        }
-        return _doQuery(lst, queryFunctor);
+        final List<ISPProgram> lst = _dataMan.getProgramManager().getPrograms();
+        return _doQuery(lst, ISPProgram::getAllObservations, queryFunctor);
     }
 
     /**
@@ -66,16 +119,34 @@ final class QueryRunner implements IDBQueryRunner {
      * Runs the query on the given node list using the given functor.
      */
     <T extends IDBQueryFunctor> T _doQuery(final List<? extends ISPNode> nodeList, final T queryFunctor) {
+        return _doQuery(nodeList, Collections::singletonList, queryFunctor);
+    }
+
+    /**
+     * Runs the query on the nodes obtained by expanding each root in the
+     * given list, without gathering all the nodes into one list first.
+     */
+    <R extends ISPNode, T extends IDBQueryFunctor> T _doQuery(final List<R> roots,
+                                                             final Function<? super R, ? extends Collection<? extends ISPNode>> expand,
+                                                             final T queryFunctor) {
+        final boolean parallel = (PARALLELISM > 1) && (roots.size() > 1) &&
+                                 (queryFunctor instanceof IDBParallelQueryFunctor);
+
         WithPriority.exec(queryFunctor.getPriority(), () -> {
-            Iterator<? extends ISPNode> it = nodeList.iterator();
             FunctorLogger.Handback hb = _dataMan.functorLogger.logQueryStart(queryFunctor);
             try {
                 queryFunctor.init();
-                while (!queryFunctor.isDone() && it.hasNext()) {
-                    ISPNode node = it.next();
-                    queryFunctor.execute(_database, node, _principals);
+                boolean ok = true;
+                if (parallel) {
+                    ok = _doParallelQuery(roots, expand, (IDBParallelQueryFunctor) queryFunctor);
+                } else {
+                    final Iterator<ISPNode> it = new ExpandingIterator<>(roots, expand);
+                    while (!queryFunctor.isDone() && it.hasNext()) {
+                        ISPNode node = it.next();
+                        queryFunctor.execute(_database, node, _principals);
+                    }
                 }
-                queryFunctor.finished();
+                if (ok) queryFunctor.finished();
             } catch (Exception ex) {
                 LOG.log(Level.WARNING, "Problem running functor: " + queryFunctor, ex);
                 queryFunctor.setException(ex);
@@ -85,4 +156,113 @@ final class QueryRunner implements IDBQueryRunner {
         return queryFunctor;
     }
 
+    // The outcome of running one partition over its slice.
+    private static final class SliceResult {
+        final IDBParallelQueryFunctor partition;
+        final Exception failure;
+
+        SliceResult(IDBParallelQueryFunctor partition, Exception failure) {
+            this.partition = partition;
+            this.failure   = failure;
+        }
+    }
+
+    /**
+     * Runs the partitions and merges their results into the master.
+     *
+     * @return <code>false</code> if a partition failed, in which case the
+     * exception has been recorded in the master and nothing is merged
+     */
+    private <R extends ISPNode> boolean _doParallelQuery(final List<R> roots,
+                                                      final Function<? super R, ? extends Collection<? extends ISPNode>> expand,
+                                                      final IDBParallelQueryFunctor master) {
+        if (master.isDone()) return true;
+
+        final int size       = roots.size();
+        final int sliceCount = Math.min(size, PARALLELISM * SLICES_PER_THREAD);
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        // Index of the first slice whose partition reported that it is done.
+        final AtomicInteger firstDone = new AtomicInteger(sliceCount);
+        final IDBFunctor.Priority priority = master.getPriority();
+
+        final List<ForkJoinTask<SliceResult>> tasks = new ArrayList<>(sliceCount);
+        for (int i = 0; i < sliceCount; ++i) {
+            final List<R> slice = roots.subList(i * size / sliceCount, (i + 1) * size / sliceCount);
+            final IDBParallelQueryFunctor partition = master.newPartition();
+            final int index = i;
+            tasks.add(PoolHolder.POOL.submit(() -> _runSlice(index, slice, expand, partition, priority, failed, firstDone)));
+        }
+
+        // Join everything, even after a failure, so that no partition is still
+        // running when the master is finished.
+        final List<SliceResult> results = new ArrayList<>(sliceCount);
+        for (ForkJoinTask<SliceResult> t : tasks) results.add(t.join());
+
+        for (SliceResult r : results) {
+            if (r.failure != null) {
+                LOG.log(Level.WARNING, "Problem running functor: " + master, r.failure);
+                master.setException(r.failure);
+                return false;
+            }
+        }
+        // A sequential run stops in the first slice that is done, so later
+        // slices, which may have been cut short, are not merged.
+        final int last = Math.min(firstDone.get(), sliceCount - 1);
+        for (int i = 0; i <= last; ++i) master.mergePartition(results.get(i).partition);
+        return true;
+    }
+
+    private <R extends ISPNode> SliceResult _runSlice(final int index,
+                                                      final List<R> slice,
+                                                      final Function<? super R, ? extends Collection<? extends ISPNode>> expand,
+                                                      final IDBParallelQueryFunctor partition,
+                                                      final IDBFunctor.Priority priority,
+                                                      final AtomicBoolean failed,
+                                                      final AtomicInteger firstDone) {
+        final Exception[] failure = new Exception[1];
+        WithPriority.exec(priority, () -> {
+            try {
+                partition.init();
+                final Iterator<ISPNode> it = new ExpandingIterator<>(slice, expand);
+                // Only a failure or an earlier slice being done stops this one.
+                while (!failed.get() && (index < firstDone.get()) && it.hasNext()) {
+                    if (partition.isDone()) {
+                        firstDone.accumulateAndGet(index, Math::min);
+                    } else {
+                        partition.execute(_database, it.next(), _principals);
+                    }
+                }
+            } catch (Exception ex) {
+                failed.set(true);
+                failure[0] = ex;
+            }
+        });
+        return new SliceResult(partition, failure[0]);
+    }
+
+    /**
+     * Iterates over the nodes obtained by expanding each root in turn.
+     */
+    private static final class ExpandingIterator<R> implements Iterator<ISPNode> {
+        private final Iterator<R> _roots;
+        private final Function<? super R, ? extends Collection<? extends ISPNode>> _expand;
+        private Iterator<? extends ISPNode> _cur = Collections.emptyIterator();
+
+        ExpandingIterator(List<R> roots, Function<? super R, ? extends Collection<? extends ISPNode>> expand) {
+            _roots  = roots.iterator();
+            _expand = expand;
+        }
+
+        @Override public boolean hasNext() {
+            while (!_cur.hasNext() && _roots.hasNext()) {
+                _cur = _expand.apply(_roots.next()).iterator();
+            }
+            return _cur.hasNext();
+        }
+
+        @Override public ISPNode next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            return _cur.next();
+        }
+    }
 }
@@ -10,11 +10,16 @@ package edu.gemini.pot.spdb;
 import edu.gemini.pot.sp.ISPRootNode;
 import edu.gemini.spModel.core.SPProgramID;
 
+import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * The <code>StorageManager</code>
+ * The <code>StorageManager</code> saves modified programs.  Structural and
+ * other changes cause the whole program to be stored periodically, while
+ * changes to individual data objects are appended to the program's journal
+ * within a few milliseconds and only folded into a full program file when
+ * the journal is compacted.
  */
 final class StorageManager<N extends ISPRootNode> implements ProgramEventListener<N> {
     private static final Logger LOG = Logger.getLogger(StorageManager.class.getName());
@@ -25,16 +30,43 @@ final class StorageManager<N extends ISPRootNode> implements ProgramEventListene
      */
     public static final long DEFAULT_STORAGE_INTERVAL = 1000 * 10;
 
+    /**
+     * How often pending data object changes are appended to the program
+     * journals and forced to disk.  Each such group commit costs one fsync per
+     * modified program.
+     */
+    public static final long DEFAULT_JOURNAL_INTERVAL = 50;
+
+    /**
+     * Journals larger than this size (in bytes) are compacted into a full
+     * program file on the next storage pass.
+     */
+    public static final long JOURNAL_COMPACTION_SIZE = 1024 * 1024;
+
+    /**
+     * Journals with changes older than this (in milliseconds) are compacted
+     * into a full program file on the next storage pass.
+     */
+    public static final long JOURNAL_COMPACTION_AGE = 1000 * 60 * 10;
+
 
     /**
      * The StorageWorker is a helper class that contains a thread that
-     * periodically wakes up and stores any modified programs.
+     * periodically wakes up and performs a storage task.
      */
     private class StorageWorker {
-        private long _storageInterval = DEFAULT_STORAGE_INTERVAL;
+        private final String _name;
+        private final Runnable _task;
+        private long _storageInterval;
         private Thread _storageThread;
         private StorageRunnable _storageRunnable;
 
+        StorageWorker(String name, long interval, Runnable task) {
+            _name            = name;
+            _storageInterval = interval;
+            _task            = task;
+        }
+
         //
         // Runnable that does the storage work.
         //
@@ -43,11 +75,11 @@ final class StorageManager<N extends ISPRootNode> implements ProgramEventListene
 
             public void run() {
                 while (!done) {
-                    _storeDirtyPrograms();
+                    _task.run();
                     try {
                         Thread.sleep(_storageInterval);
                     } catch (InterruptedException ex) {
-                        LOG.log(Level.FINE, "ODB StorageRunnable interrupted.");
+                        LOG.log(Level.FINE, _name + " interrupted.");
                     }
                 }
             }
@@ -61,7 +93,7 @@ final class StorageManager<N extends ISPRootNode> implements ProgramEventListene
                 return;
             }
             _storageRunnable = new StorageRunnable();
-            _storageThread = new Thread(_storageRunnable, "ODB StorageRunnable");
+            _storageThread = new Thread(_storageRunnable, _name);
             _storageThread.setPriority(Thread.NORM_PRIORITY - 1);
             _storageThread.start();
         }
@@ -107,10 +139,21 @@ final class StorageManager<N extends ISPRootNode> implements ProgramEventListene
     }
 
 
+    /**
+     * Tracks the journal of a program that has changes journaled since it was
+     * last stored in full.
+     */
+    private static final class JournalState {
+        final long since = System.currentTimeMillis();
+        long size;
+    }
+
     private final ProgramManager<N> _progMan;
     private final IDBPersister _persister;
     private final DirtyProgramListener<N> _dirty;
+    private final Map<N, JournalState> _journaled = new HashMap<N, JournalState>();
     private final StorageWorker _storeWorker;
+    private final StorageWorker _journalWorker;
 
 
     /**
@@ -128,8 +171,16 @@ final class StorageManager<N extends ISPRootNode> implements ProgramEventListene
         for (N prog : pm.getPrograms()) prog.addCompositeChangeListener(_dirty);
 
         // Start the thread that periodically looks for modifications.
-        _storeWorker = new StorageWorker();
+        _storeWorker = new StorageWorker("ODB StorageRunnable", DEFAULT_STORAGE_INTERVAL, new Runnable() {
+            @Override public void run() { _storeDirtyPrograms(false); }
+        });
         _storeWorker.start();
+
+        // Start the thread that commits data object changes to the journals.
+        _journalWorker = new StorageWorker("ODB JournalRunnable", DEFAULT_JOURNAL_INTERVAL, new Runnable() {
+            @Override public void run() { _commitJournals(); }
+        });
+        _journalWorker.start();
     }
 
     /**
@@ -137,16 +188,18 @@ final class StorageManager<N extends ISPRootNode> implements ProgramEventListene
      * The storage manager will no longer function after a call to shutdown.
      */
     void shutdown() {
-        // Stop the storage thread.
+        // Stop the storage threads.
         _storeWorker.stop();
+        _journalWorker.stop();
 
         // Do some cleanup, removing listeners.
         _progMan.removeListener(this);
 
         for (N prog : _progMan.getPrograms()) prog.removeCompositeChangeListener(_dirty);
 
-        // Write out any last modifications.
-        _storeDirtyPrograms();
+        // Write out any last modifications, compacting all the journals.
+        _commitJournals();
+        _storeDirtyPrograms(true);
     }
 
     /**
@@ -194,14 +247,74 @@ final class StorageManager<N extends ISPRootNode> implements ProgramEventListene
         N prog = pme.getOldProgram();
         prog.removeCompositeChangeListener(_dirty);
         _dirty.removeProgram(prog);
+        synchronized (_journaled) { _journaled.remove(prog); }
         _persister.remove(prog.getNodeKey());
     }
 
     /**
-     * Stores all the modified programs, if any.
+     * Appends any pending data object changes to the program journals.  If a
+     * program cannot be journaled, it is marked to be stored in full instead.
+     */
+    private void _commitJournals() {
+        for (Map.Entry<N, List<ProgramJournal.Entry>> me : _dirty.getJournalEntries().entrySet()) {
+            final N n = me.getKey();
+            long size;
+            try {
+                size = _persister.journal(n, me.getValue());
+            } catch (Exception ex) {
+                LOG.log(Level.WARNING, "Couldn't journal changes to program " + getId(n) + ", storing it in full", ex);
+                size = -1;
+            }
+
+            if (size < 0) {
+                _dirty.markDirty(n);
+            } else {
+                synchronized (_journaled) {
+                    JournalState js = _journaled.get(n);
+                    if (js == null) {
+                        js = new JournalState();
+                        _journaled.put(n, js);
+                    }
+                    js.size = size;
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes and returns the journaled programs that should be compacted into
+     * a full program file.
+     *
+     * @param all whether to compact every journaled program regardless of the
+     * size or age of its journal
      */
-    private void _storeDirtyPrograms() {
-        for (N n : _dirty.getDirtyPrograms()) {
+    private List<N> _takeCompactable(boolean all) {
+        final long now = System.currentTimeMillis();
+        final List<N> res = new ArrayList<N>();
+        synchronized (_journaled) {
+            final Iterator<Map.Entry<N, JournalState>> it = _journaled.entrySet().iterator();
+            while (it.hasNext()) {
+                final Map.Entry<N, JournalState> me = it.next();
+                final JournalState js = me.getValue();
+                if (all || (js.size > JOURNAL_COMPACTION_SIZE) || (now - js.since > JOURNAL_COMPACTION_AGE)) {
+                    res.add(me.getKey());
+                    it.remove();
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Stores all the modified programs, if any, along with the programs whose
+     * journals are due to be compacted.
+     */
+    private void _storeDirtyPrograms(boolean compactAll) {
+        final Set<N> progs = new LinkedHashSet<N>(_dirty.getDirtyPrograms());
+        synchronized (_journaled) { _journaled.keySet().removeAll(progs); }
+        progs.addAll(_takeCompactable(compactAll));
+
+        for (N n : progs) {
             try {
                 _persister.store(n);
             } catch (Exception ex) {
@@ -216,6 +329,7 @@ final class StorageManager<N extends ISPRootNode> implements ProgramEventListene
      */
     void checkpoint(N prog) {
         _dirty.removeProgram(prog);
+        synchronized (_journaled) { _journaled.remove(prog); }
 
         try {
             _persister.store(prog);
@@ -234,5 +348,8 @@ final class StorageManager<N extends ISPRootNode> implements ProgramEventListene
     }
 
     /** Checkpoints all the outstanding modifications. */
-    void checkpoint() { _storeDirtyPrograms(); }
+    void checkpoint() {
+        _commitJournals();
+        _storeDirtyPrograms(true);
+    }
 }
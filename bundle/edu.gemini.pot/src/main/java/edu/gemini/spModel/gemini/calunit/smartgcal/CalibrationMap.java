@@ -27,6 +27,18 @@ public interface CalibrationMap extends Serializable {
 
     Calibration put(ConfigurationKey key, Properties properties, Calibration calibration);
 
+    /**
+     * Adds a calibration for all the keys that cover the given properties.  Maps that can store wildcards
+     * and regular expressions without expanding them override this.
+     * @param properties
+     * @param calibration
+     */
+    default void put(Properties properties, Calibration calibration) {
+        for (ConfigurationKey key : createConfig(properties)) {
+            put(key, properties, calibration);
+        }
+    }
+
     /**
      * Gets a sequence of calibrations to be taken for the given instrument configuration (key).
      * @param key
@@ -49,6 +49,11 @@ public abstract class ConfigKeyGmos implements ConfigurationKey {
         this.gain = gain;
     }
 
+    public GmosCommonType.Binning getXBin() { return xBin; }
+    public GmosCommonType.Binning getYBin() { return yBin; }
+    public GmosCommonType.Order getOrder() { return order; }
+    public GmosCommonType.AmpGain getGain() { return gain; }
+
     @Override
     public boolean equals(Object o) {
         // Note: This equals() will be used in comparisons of GMOSN- and GMOSSCalibrationKeys.
@@ -35,6 +35,10 @@ public class ConfigKeyGmosNorth extends ConfigKeyGmos {
         this.hashCode = caluculateHashCode();
     }
 
+    public GmosNorthType.DisperserNorth getDisperser() { return disperser; }
+    public GmosNorthType.FilterNorth getFilter() { return filter; }
+    public GmosNorthType.FPUnitNorth getFocalPlaneUnit() { return focalPlaneUnit; }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -35,6 +35,10 @@ public class ConfigKeyGmosSouth extends ConfigKeyGmos {
         this.hashCode = calculateHashcode();
     }
 
+    public GmosSouthType.DisperserSouth getDisperser() { return disperser; }
+    public GmosSouthType.FilterSouth getFilter() { return filter; }
+    public GmosSouthType.FPUnitSouth getFocalPlaneUnit() { return focalPlaneUnit; }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -64,6 +64,13 @@ public class ConfigKeyGnirs implements ConfigurationKey {
         this.hashCode = calculateHashCode();
     }
 
+    public CalibrationProvider.GNIRSMode getMode() { return mode; }
+    public GNIRSParams.PixelScale getPixelScale() { return pixelScale; }
+    public GNIRSParams.Disperser getDisperser() { return disperser; }
+    public GNIRSParams.CrossDispersed getCrossDispersed() { return crossDispersed; }
+    public GNIRSParams.SlitWidth getSlitWidth() { return slitWidth; }
+    public GNIRSParams.WellDepth getWellDepth() { return wellDepth; }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
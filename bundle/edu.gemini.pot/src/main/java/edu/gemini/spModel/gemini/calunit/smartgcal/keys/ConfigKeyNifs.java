@@ -48,6 +48,10 @@ public class ConfigKeyNifs implements ConfigurationKey {
         this.hashCode = calculateHashCode();
     }
 
+    public NIFSParams.Disperser getDisperser() { return disperser; }
+    public NIFSParams.Filter getFilter() { return filter; }
+    public NIFSParams.Mask getMask() { return mask; }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
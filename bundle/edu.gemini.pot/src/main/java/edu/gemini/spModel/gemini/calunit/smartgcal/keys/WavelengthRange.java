@@ -95,8 +95,12 @@ public final class WavelengthRange implements Serializable {
      */
     public double getMax() { return this.max; }
 
+    /**
+     * Checks if the two ranges have any wavelength in common.  Since the upper boundaries are excluded, adjacent
+     * ranges like [500,650) and [650,800) don't overlap, whichever way round they are compared.
+     */
     public boolean overlaps(final WavelengthRange that) {
-        return min < that.max && max >= that.min;
+        return min < that.max && that.min < max;
     }
 
     public boolean contains(double val) {
@@ -6,7 +6,7 @@ import edu.gemini.shared.util.immutable.ImList;
 import edu.gemini.spModel.gemini.calunit.smartgcal.*;
 import edu.gemini.spModel.type.DisplayableSpType;
 
-import java.util.HashSet;
+import java.util.EnumSet;
 import java.util.Properties;
 import java.util.Set;
 import java.util.stream.Stream;
@@ -28,7 +28,7 @@ public abstract class BaseCalibrationMap implements CalibrationMap {
 
     static protected <T extends Enum<T>&DisplayableSpType> Set<T> getValues(Class<T> c, Properties properties, ConfigurationKey.Values name) {
         String valueString = getValue(properties, name);
-        Set<T> results = new HashSet<>();
+        Set<T> results = EnumSet.noneOf(c);
 
         T[] constants = c.getEnumConstants();
 
@@ -0,0 +1,161 @@
+package edu.gemini.spModel.gemini.calunit.smartgcal.maps;
+
+import edu.gemini.spModel.gemini.calunit.smartgcal.Calibration;
+import edu.gemini.spModel.gemini.calunit.smartgcal.keys.WavelengthRange;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Decision trie that stores the lines of a calibration file for a central
+ * wavelength map.  Every level of the trie corresponds to one attribute of
+ * the instrument configuration and every edge is labelled with the set of
+ * values a line accepts for that attribute, so a line with wildcards or
+ * regular expressions is stored once instead of once for each configuration
+ * it covers.  Lines with the same value sets share a leaf, in which their
+ * (disjoint) wavelength ranges are indexed by lower bound.
+ */
+final class CalibrationTrie implements Serializable {
+
+    /** A line of the calibration file. */
+    static final class Rule implements Serializable {
+        final int index;
+        final Set<?>[] values;
+        final WavelengthRange range;
+        final Calibration calibration;
+
+        Rule(int index, Set<?>[] values, WavelengthRange range, Calibration calibration) {
+            this.index       = index;
+            this.values      = values;
+            this.range       = range;
+            this.calibration = calibration;
+        }
+    }
+
+    private static final class Node implements Serializable {
+        private final List<Set<?>> labels = new ArrayList<>(1);
+        private final List<Node> children = new ArrayList<>(1);
+
+        // Rules of a leaf, keyed by the lower bound of their range.
+        private TreeMap<Double, List<Rule>> ranges;
+
+        Node child(Set<?> label, Set<?>[] path, int level) {
+            final int i = labels.indexOf(label);
+            if (i >= 0) {
+                path[level] = labels.get(i); // share equal value sets
+                return children.get(i);
+            }
+            final Node n = new Node();
+            labels.add(label);
+            children.add(n);
+            path[level] = label;
+            return n;
+        }
+    }
+
+    private final int levels;
+    private final Node root = new Node();
+    private final List<Rule> rules = new ArrayList<>();
+
+    CalibrationTrie(int levels) {
+        this.levels = levels;
+    }
+
+    /**
+     * Adds a line accepting the given values for each attribute.  Throws an
+     * IllegalArgumentException if a configuration it covers already has a
+     * different, overlapping wavelength range.
+     */
+    void add(Set<?>[] values, WavelengthRange range, Calibration calibration) {
+        if (values.length != levels) {
+            throw new IllegalArgumentException("expected " + levels + " values, not " + values.length);
+        }
+
+        final WavelengthRange overlap = findOverlap(root, 0, values, range);
+        if (overlap != null) {
+            throw new IllegalArgumentException("range " + range + " overlaps with " + overlap);
+        }
+
+        final Set<?>[] path = new Set<?>[levels];
+        Node n = root;
+        for (int i = 0; i < levels; ++i) n = n.child(values[i], path, i);
+
+        final Rule rule = new Rule(rules.size(), path, range, calibration);
+        if (n.ranges == null) n.ranges = new TreeMap<>();
+        n.ranges.computeIfAbsent(range.getMin(), d -> new ArrayList<>(1)).add(rule);
+        rules.add(rule);
+    }
+
+    // Finds a different range that overlaps the given one in a leaf whose
+    // lines share a configuration with the given values, following only the
+    // edges whose value sets intersect them.
+    private WavelengthRange findOverlap(Node n, int level, Set<?>[] values, WavelengthRange range) {
+        if (level == levels) {
+            // The ranges of a leaf are disjoint, so only the last one starting
+            // at or below the new one and those starting inside it can overlap.
+            final Double from = n.ranges.floorKey(range.getMin());
+            final Map<Double, List<Rule>> candidates =
+                    n.ranges.subMap((from == null) ? range.getMin() : from, true, range.getMax(), false);
+            for (List<Rule> rs : candidates.values()) {
+                final WavelengthRange r = rs.get(0).range;
+                if (!range.equals(r) && range.overlaps(r)) return r;
+            }
+            return null;
+        }
+
+        for (int i = 0; i < n.labels.size(); ++i) {
+            if (!Collections.disjoint(n.labels.get(i), values[level])) {
+                final WavelengthRange r = findOverlap(n.children.get(i), level + 1, values, range);
+                if (r != null) return r;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the calibrations for the configuration with the given attribute
+     * values and wavelength, in the order in which they were added.
+     */
+    List<Calibration> find(Object[] key, double wavelength) {
+        final List<Rule> found = new ArrayList<>();
+        find(root, 0, key, wavelength, found);
+        if (found.size() > 1) found.sort(Comparator.comparingInt(r -> r.index));
+
+        final List<Calibration> res = new ArrayList<>(found.size());
+        for (Rule r : found) res.add(r.calibration);
+        return res;
+    }
+
+    private void find(Node n, int level, Object[] key, double wavelength, List<Rule> found) {
+        if (level == levels) {
+            final Map.Entry<Double, List<Rule>> e = n.ranges.floorEntry(wavelength);
+            if ((e != null) && e.getValue().get(0).range.contains(wavelength)) found.addAll(e.getValue());
+        } else {
+            final Object value = key[level];
+            for (int i = 0; i < n.labels.size(); ++i) {
+                if (n.labels.get(i).contains(value)) find(n.children.get(i), level + 1, key, wavelength, found);
+            }
+        }
+    }
+
+    /** Gets the number of key attributes. */
+    int levels() {
+        return levels;
+    }
+
+    /** Gets all the lines, in the order in which they were added. */
+    Stream<Rule> rules() {
+        return rules.stream();
+    }
+
+    int size() {
+        return rules.size();
+    }
+}
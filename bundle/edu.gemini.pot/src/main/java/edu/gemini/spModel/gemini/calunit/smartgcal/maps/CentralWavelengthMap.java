@@ -1,13 +1,11 @@
 package edu.gemini.spModel.gemini.calunit.smartgcal.maps;
 
 
-import edu.gemini.shared.util.immutable.DefaultImList;
 import edu.gemini.shared.util.immutable.ImList;
 import edu.gemini.spModel.gemini.calunit.smartgcal.Calibration;
 import edu.gemini.spModel.gemini.calunit.smartgcal.ConfigurationKey;
 import edu.gemini.spModel.gemini.calunit.smartgcal.Version;
 import edu.gemini.spModel.gemini.calunit.smartgcal.keys.WavelengthRange;
-import edu.gemini.spModel.gemini.calunit.smartgcal.keys.WavelengthRangeSet;
 
 import java.util.*;
 import java.util.stream.Stream;
@@ -16,20 +14,73 @@ import java.util.stream.Stream;
  * A specialised calibration map that allows to store different lists of calibrations for disjoint wavelength
  * ranges for every key (combination of instrument configuration attributes).
  *
+ * Lines of the calibration files are kept in a {@link CalibrationTrie} with one level per key attribute, so
+ * wildcards and regular expressions are not expanded into all the keys they cover.  Subclasses describe how
+ * the attribute values of a line and of a key map to the levels of the trie.
  */
 public abstract class CentralWavelengthMap extends BaseCalibrationMap {
 
     public static final String WAVELENGTH_RANGE_NAME = "Central Wavelength";
 
-    protected final Map<ConfigurationKey, WavelengthRangeSet> rangesMap;
+    private final CalibrationTrie trie;
 
-    public CentralWavelengthMap(Version version) {
-        this(version, 200);
+    public CentralWavelengthMap(Version version, int levels) {
+        super(version);
+        trie = new CalibrationTrie(levels);
     }
 
-    public CentralWavelengthMap(Version version, int size) {
-        super(version);
-        rangesMap = new HashMap<ConfigurationKey, WavelengthRangeSet>(size);
+    /**
+     * Gets the set of values accepted for each key attribute by a line of the calibration file, in the order
+     * of the trie levels.
+     */
+    protected abstract Set<?>[] createValues(Properties properties);
+
+    /**
+     * Gets the value of each attribute of a key, in the order of the trie levels.
+     */
+    protected abstract Object[] toValues(ConfigurationKey key);
+
+    /**
+     * Creates the key with the given attribute values, in the order of the trie levels.
+     */
+    protected abstract ConfigurationKey createKey(Object[] values);
+
+    /**
+     * Creates all the keys covered by the given properties, expanding wildcards and regular expressions.
+     */
+    @Override
+    public Set<ConfigurationKey> createConfig(Properties properties) {
+        final Set<ConfigurationKey> keys = new HashSet<>();
+        expand(createValues(properties), 0, new Object[trie.levels()], keys);
+        return keys;
+    }
+
+    private void expand(Set<?>[] values, int level, Object[] key, Set<ConfigurationKey> keys) {
+        if (level == values.length) {
+            keys.add(createKey(key.clone()));
+        } else {
+            for (Object v : values[level]) {
+                key[level] = v;
+                expand(values, level + 1, key, keys);
+            }
+        }
+    }
+
+    private static WavelengthRange getRange(Properties properties) {
+        // get wavelength range, it must exist
+        String wavelengthRange = properties.getProperty(WAVELENGTH_RANGE_NAME);
+        if (wavelengthRange == null) {
+            throw new IllegalArgumentException("value for '" + WAVELENGTH_RANGE_NAME + "' is missing");
+        }
+        return WavelengthRange.parse(wavelengthRange);
+    }
+
+    /**
+     * Adds a calibration for all the keys covered by the properties, storing the line only once.
+     */
+    @Override
+    public void put(Properties properties, Calibration calibration) {
+        trie.add(createValues(properties), getRange(properties), calibration);
     }
 
     /**
@@ -41,25 +92,10 @@ public abstract class CentralWavelengthMap extends BaseCalibrationMap {
      * @return
      */
     public Calibration put(ConfigurationKey key, Properties properties, Calibration calibration) {
-        // get wavelength range, it must exist
-        String wavelengthRange = properties.getProperty(WAVELENGTH_RANGE_NAME);
-        if (wavelengthRange == null) {
-            throw new IllegalArgumentException("value for '" + WAVELENGTH_RANGE_NAME + "' is missing");
-        }
-
-        // get or create a wavelength range set for the given key (instrument configuration)
-        WavelengthRangeSet rangeSet = rangesMap.get(key);
-        if (rangeSet == null) {
-            rangeSet = new WavelengthRangeSet();
-            rangesMap.put(key, rangeSet);
-        }
-
-        // get or create the range corresponding to the wavelength range string
-        WavelengthRange range = WavelengthRange.parse(wavelengthRange);
-
-        // add the calibration to the range in the range set
-        rangeSet.add(range, calibration);
-
+        final Object[] values = toValues(key);
+        final Set<?>[] sets   = new Set<?>[values.length];
+        for (int i = 0; i < values.length; ++i) sets[i] = Collections.singleton(values[i]);
+        trie.add(sets, getRange(properties), calibration);
         return calibration;
     }
 
@@ -75,14 +111,14 @@ public abstract class CentralWavelengthMap extends BaseCalibrationMap {
      * @return
      */
     public List<Calibration> get(ConfigurationKey key, Double wavelength) {
-        // get range set for this key
-        WavelengthRangeSet rangeSet = rangesMap.get(key);
-        if(rangeSet == null) {
-            // return empty list if we don't have any calibrations for this key
-            return new ArrayList<Calibration>();
-        }
-        // if we have calibrations for this key get the ones for the given wavelength from the set
-        return rangeSet.findCalibrations(wavelength);
+        return trie.find(toValues(key), wavelength);
+    }
+
+    /**
+     * Gets the number of lines stored in the map.
+     */
+    public int size() {
+        return trie.size();
     }
 
     private String exportWavelength(double wl) {
@@ -105,19 +141,20 @@ public abstract class CentralWavelengthMap extends BaseCalibrationMap {
      */
     @Override
     public Stream<ImList<String>> export() {
-        return rangesMap.entrySet().stream().flatMap(me0 -> {
-            final ImList<String>   calKey = me0.getKey().export();
-            final WavelengthRangeSet rset = me0.getValue();
-
-            return rset.getRangeMap().entrySet().stream().flatMap(me1 -> {
-                final WavelengthRange          wr = me1.getKey();
-                final ImList<Calibration> calList = me1.getValue();
-                final ImList<String>       prefix =
-                        calKey.append(exportWavelength(wr.getMin()))
-                              .append(exportWavelength(wr.getMax()));
-
-                return calList.stream().map(cal -> prefix.append(cal.export()));
-            });
+        return trie.rules().flatMap(r -> {
+            final Set<ConfigurationKey> keys = new LinkedHashSet<>();
+            expand(r.values, 0, new Object[r.values.length], keys);
+
+            return keys.stream().map(k -> exportRow(k, r.range, r.calibration));
         });
     }
+
+    /**
+     * Exports a single row of the calibration map: the key, the wavelength range and the calibration.
+     */
+    public ImList<String> exportRow(ConfigurationKey key, WavelengthRange range, Calibration calibration) {
+        return key.export().append(exportWavelength(range.getMin()))
+                           .append(exportWavelength(range.getMax()))
+                           .append(calibration.export());
+    }
 }
@@ -7,26 +7,24 @@ import edu.gemini.spModel.gemini.calunit.smartgcal.keys.ConfigKeyGmosSouth;
 import edu.gemini.spModel.gemini.gmos.GmosCommonType;
 import edu.gemini.spModel.gemini.gmos.GmosSouthType;
 
-import java.util.HashSet;
 import java.util.Properties;
 import java.util.Set;
 
 /**
  * GMOS South calibration map.
  * This map stores calibrations that can be retrived with GMOS-S configuration keys which represent
- * instrument configurations. When reading a file, createConfig() is called with the a Properties object
+ * instrument configurations. When reading a file, createValues() is called with the a Properties object
  * containing the named value pairs describing the different instrument parameters. These parameters can
- * be wildcards or regular expressions which represent a set of values. The calls to getValues() and the
- * nested for-loops will expand lines in the config files with wildcards and regular expressions to all
- * possible configuration keys that are represented by this line. This leads to big hash maps but makes
- * lookups fast and simple. As of April 2012 the GMOS-N and GMOS-S tables have each between 20000 and 40000
- * entries resulting in about 50MB of memory consumption (see UX-1426 for more information).
+ * be wildcards or regular expressions which represent a set of values. Each line is stored once with
+ * the sets of values it accepts instead of being expanded to all the configuration keys it covers; as
+ * of April 2012 the GMOS-N and GMOS-S tables expanded to between 20000 and 40000 entries each, resulting
+ * in about 50MB of memory consumption (see UX-1426 for more information).
  */
 public final class GMOSSCalibrationMap extends CentralWavelengthMap {
 
     public GMOSSCalibrationMap(Version version) {
-        // make gmos-s maps big enough for all entries that it will have to store
-        super(version, 40000);
+        // disperser, filter, fpu, x binning, y binning, order, gain
+        super(version, 7);
     }
 
     @Override
@@ -35,7 +33,7 @@ public final class GMOSSCalibrationMap extends CentralWavelengthMap {
     }
 
     @Override
-    public Set<ConfigurationKey> createConfig(Properties properties) {
+    protected Set<?>[] createValues(Properties properties) {
         // lookup values
         Set<GmosCommonType.Binning> xBins = getValues(GmosCommonType.Binning.class, properties, ConfigKeyGmos.Values.XBIN);
         Set<GmosCommonType.Binning> yBins = getValues(GmosCommonType.Binning.class, properties, ConfigKeyGmos.Values.YBIN);
@@ -45,34 +43,28 @@ public final class GMOSSCalibrationMap extends CentralWavelengthMap {
         Set<GmosSouthType.FilterSouth> filters = getValues(GmosSouthType.FilterSouth.class, properties, ConfigKeyGmos.Values.FILTER);
         Set<GmosSouthType.FPUnitSouth> fpus = getValues(GmosSouthType.FPUnitSouth.class, properties, ConfigKeyGmos.Values.FPU);
 
-        // create all possible combinations and produce a key for each one
-        Set<ConfigurationKey> keys = new HashSet<ConfigurationKey>();
-        for (GmosCommonType.Binning xBin : xBins) {
-            for (GmosCommonType.Binning yBin : yBins) {
-                for (GmosCommonType.Order order : orders) {
-                    for (GmosCommonType.AmpGain gain : gains) {
-                        for (GmosSouthType.DisperserSouth disperser : dispersers) {
-                            for (GmosSouthType.FilterSouth filter : filters) {
-                                for (GmosSouthType.FPUnitSouth fpu : fpus) {
-
-                                    ConfigKeyGmosSouth key =
-                                            new ConfigKeyGmosSouth(
-                                                    disperser, filter, fpu, xBin, yBin, order, gain
-                                            );
-
-                                    keys.add(key);
-
-                                }
-                            }
+        return new Set<?>[] { dispersers, filters, fpus, xBins, yBins, orders, gains };
+    }
 
-                        }
-                    }
-                }
-            }
-        }
+    @Override
+    protected Object[] toValues(ConfigurationKey key) {
+        final ConfigKeyGmosSouth k = (ConfigKeyGmosSouth) key;
+        return new Object[] {
+            k.getDisperser(), k.getFilter(), k.getFocalPlaneUnit(), k.getXBin(), k.getYBin(), k.getOrder(), k.getGain()
+        };
+    }
 
-        // return the set of keys we just came up with
-        return keys;
+    @Override
+    protected ConfigurationKey createKey(Object[] values) {
+        return new ConfigKeyGmosSouth(
+                (GmosSouthType.DisperserSouth) values[0],
+                (GmosSouthType.FilterSouth) values[1],
+                (GmosSouthType.FPUnitSouth) values[2],
+                (GmosCommonType.Binning) values[3],
+                (GmosCommonType.Binning) values[4],
+                (GmosCommonType.Order) values[5],
+                (GmosCommonType.AmpGain) values[6]
+        );
     }
 
     // GMOS-S central wavelength is stored as nm.
@@ -6,7 +6,7 @@ import edu.gemini.spModel.gemini.calunit.smartgcal.Version;
 import edu.gemini.spModel.gemini.calunit.smartgcal.keys.ConfigKeyGnirs;
 import edu.gemini.spModel.gemini.gnirs.GNIRSParams;
 
-import java.util.HashSet;
+import java.util.EnumSet;
 import java.util.Properties;
 import java.util.Set;
 
@@ -15,7 +15,8 @@ import java.util.Set;
 public final class GNIRSCalibrationMap extends CentralWavelengthMap {
 
     public GNIRSCalibrationMap(Version version) {
-        super(version);
+        // mode, pixel scale, disperser, cross dispersed, slit width, well depth
+        super(version, 6);
     }
 
     @Override
@@ -24,7 +25,7 @@ public final class GNIRSCalibrationMap extends CentralWavelengthMap {
     }
 
     @Override
-    public Set<ConfigurationKey> createConfig(Properties properties) {
+    protected Set<?>[] createValues(Properties properties) {
 
         CalibrationProvider.GNIRSMode mode = Enum.valueOf(CalibrationProvider.GNIRSMode.class, properties.getProperty(ConfigKeyGnirs.Values.MODE.toString()).toUpperCase());
 
@@ -35,29 +36,27 @@ public final class GNIRSCalibrationMap extends CentralWavelengthMap {
         Set<GNIRSParams.Disperser> dispersers = getValues(GNIRSParams.Disperser.class, properties, ConfigKeyGnirs.Values.DISPERSER);
         Set<GNIRSParams.CrossDispersed> crossDisperseds = getValues(GNIRSParams.CrossDispersed.class, properties, ConfigKeyGnirs.Values.CROSS_DISPERSED);
 
-        // create all possible combinations and produce a key for each one
-        Set<ConfigurationKey> keys = new HashSet<ConfigurationKey>();
-        for (GNIRSParams.PixelScale pixelScale : pixelScales) {
-            for (GNIRSParams.WellDepth wellDepth : wellDepths) {
-                for (GNIRSParams.SlitWidth slitWidth : slitWidths) {
-                    for (GNIRSParams.Disperser disperser : dispersers) {
-                        for (GNIRSParams.CrossDispersed crossDispersed : crossDisperseds) {
-
-                            ConfigKeyGnirs key =
-                                    new ConfigKeyGnirs(
-                                            mode, pixelScale, disperser, crossDispersed,  slitWidth, wellDepth
-                                    );
-
-                            keys.add(key);
+        return new Set<?>[] { EnumSet.of(mode), pixelScales, dispersers, crossDisperseds, slitWidths, wellDepths };
+    }
 
-                        }
-                    }
-                }
-            }
-        }
+    @Override
+    protected Object[] toValues(ConfigurationKey key) {
+        final ConfigKeyGnirs k = (ConfigKeyGnirs) key;
+        return new Object[] {
+            k.getMode(), k.getPixelScale(), k.getDisperser(), k.getCrossDispersed(), k.getSlitWidth(), k.getWellDepth()
+        };
+    }
 
-        // return the set of keys we just came up with
-        return keys;
+    @Override
+    protected ConfigurationKey createKey(Object[] values) {
+        return new ConfigKeyGnirs(
+                (CalibrationProvider.GNIRSMode) values[0],
+                (GNIRSParams.PixelScale) values[1],
+                (GNIRSParams.Disperser) values[2],
+                (GNIRSParams.CrossDispersed) values[3],
+                (GNIRSParams.SlitWidth) values[4],
+                (GNIRSParams.WellDepth) values[5]
+        );
     }
 
     // GNIRS central wavelength is stored as um.
@@ -5,7 +5,6 @@ import edu.gemini.spModel.gemini.calunit.smartgcal.Version;
 import edu.gemini.spModel.gemini.calunit.smartgcal.keys.ConfigKeyNifs;
 import edu.gemini.spModel.gemini.nifs.NIFSParams;
 
-import java.util.HashSet;
 import java.util.Properties;
 import java.util.Set;
 
@@ -14,7 +13,8 @@ import java.util.Set;
 public final class NIFSCalibrationMap extends CentralWavelengthMap {
 
     public NIFSCalibrationMap(Version version) {
-        super(version);
+        // disperser, filter, focal plane mask
+        super(version, 3);
     }
 
     @Override
@@ -23,30 +23,29 @@ public final class NIFSCalibrationMap extends CentralWavelengthMap {
     }
 
     @Override
-    public Set<ConfigurationKey> createConfig(Properties properties) {
+    protected Set<?>[] createValues(Properties properties) {
 
         // lookup values
         Set<NIFSParams.Disperser> dispersers = getValues(NIFSParams.Disperser.class, properties, ConfigKeyNifs.Values.DISPERSER);
         Set<NIFSParams.Filter> filters = getValues(NIFSParams.Filter.class, properties, ConfigKeyNifs.Values.FILTER);
         Set<NIFSParams.Mask> masks = getValues(NIFSParams.Mask.class, properties, ConfigKeyNifs.Values.FOCAL_PLANE_MASK);
 
-        // create all possible combinations and produce a key for each one
-        Set<ConfigurationKey> keys = new HashSet<ConfigurationKey>();
-        for (NIFSParams.Disperser disperser : dispersers) {
-            for (NIFSParams.Filter filter : filters) {
-                for (NIFSParams.Mask mask : masks) {
-                    ConfigKeyNifs key =
-                            new ConfigKeyNifs(
-                                    disperser, filter, mask
-                            );
-
-                    keys.add(key);
-                }
-            }
-        }
-
-        // return the set of keys we just came up with
-        return keys;
+        return new Set<?>[] { dispersers, filters, masks };
+    }
+
+    @Override
+    protected Object[] toValues(ConfigurationKey key) {
+        final ConfigKeyNifs k = (ConfigKeyNifs) key;
+        return new Object[] { k.getDisperser(), k.getFilter(), k.getMask() };
+    }
+
+    @Override
+    protected ConfigurationKey createKey(Object[] values) {
+        return new ConfigKeyNifs(
+                (NIFSParams.Disperser) values[0],
+                (NIFSParams.Filter) values[1],
+                (NIFSParams.Mask) values[2]
+        );
     }
 
     // NIFS central wavelength is stored as um.
@@ -0,0 +1,89 @@
+package edu.gemini.pot.sp.memImpl;
+
+import edu.gemini.pot.sp.ISPObservation;
+import edu.gemini.pot.sp.ISPProgram;
+import edu.gemini.pot.sp.Instrument;
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.spdb.DBLocalDatabase;
+import edu.gemini.pot.spdb.IDBDatabaseService;
+import edu.gemini.spModel.core.SPProgramID;
+import edu.gemini.spModel.data.ISPDataObject;
+import edu.gemini.spModel.gemini.obscomp.SPProgram;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that program copies which share their data objects with the original
+ * are nonetheless independent of it.
+ */
+public final class MemProgramCopyTest {
+
+    private IDBDatabaseService odb;
+    private ISPProgram prog;
+
+    @Before
+    public void setUp() throws Exception {
+        odb  = DBLocalDatabase.createTransient();
+        prog = odb.getFactory().createProgram(new SPNodeKey(), SPProgramID.toProgramID("GS-2099A-Q-1"));
+        for (int i = 0; i < 3; ++i) {
+            final ISPObservation obs = odb.getFactory().createObservation(prog, Instrument.GmosSouth.some(), null);
+            prog.addObservation(obs);
+        }
+        setTitle(prog, "original");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        odb.getDBAdmin().shutdown();
+    }
+
+    private static void setTitle(ISPProgram p, String title) {
+        final SPProgram dobj = (SPProgram) p.getDataObject();
+        dobj.setTitle(title);
+        p.setDataObject(dobj);
+    }
+
+    private static void setTitle(ISPObservation o, String title) {
+        final ISPDataObject dobj = o.getDataObject();
+        dobj.setTitle(title);
+        o.setDataObject(dobj);
+    }
+
+    @Test
+    public void testCopyMatches() {
+        final ISPProgram copy = odb.getFactory().copyWithSameKeys(prog);
+        assertNotSame(prog, copy);
+        assertEquals(prog.getVersions(), copy.getVersions());
+        assertEquals("original", copy.getDataObject().getTitle());
+
+        final List<ISPObservation> obs0 = prog.getAllObservations();
+        final List<ISPObservation> obs1 = copy.getAllObservations();
+        assertEquals(obs0.size(), obs1.size());
+        for (int i = 0; i < obs0.size(); ++i) {
+            assertEquals(obs0.get(i).getNodeKey(), obs1.get(i).getNodeKey());
+            assertEquals(obs0.get(i).getDataObject().getTitle(), obs1.get(i).getDataObject().getTitle());
+        }
+    }
+
+    @Test
+    public void testCopyIndependent() {
+        final ISPProgram copy = odb.getFactory().copyWithSameKeys(prog);
+
+        setTitle(copy, "copy");
+        setTitle(copy.getAllObservations().get(0), "copy obs");
+        assertEquals("original", prog.getDataObject().getTitle());
+        assertFalse("copy obs".equals(prog.getAllObservations().get(0).getDataObject().getTitle()));
+
+        setTitle(prog, "changed");
+        assertEquals("copy", copy.getDataObject().getTitle());
+
+        // Data objects obtained from the copy are still private copies.
+        copy.getDataObject().setTitle("not stored");
+        assertEquals("copy", copy.getDataObject().getTitle());
+    }
+}
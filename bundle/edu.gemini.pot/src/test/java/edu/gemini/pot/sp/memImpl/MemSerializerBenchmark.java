@@ -0,0 +1,94 @@
+package edu.gemini.pot.sp.memImpl;
+
+import edu.gemini.pot.sp.ISPFactory;
+import edu.gemini.pot.sp.ISPObservation;
+import edu.gemini.pot.sp.ISPProgram;
+import edu.gemini.pot.sp.Instrument;
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.spdb.DBLocalDatabase;
+import edu.gemini.pot.spdb.IDBDatabaseService;
+import edu.gemini.spModel.core.SPProgramID;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
+/**
+ * Compares encode/decode throughput and size of the legacy bare Java
+ * serialization program files against the snapshot format with and without
+ * compression.  Not a unit test; run it by hand:
+ *
+ * <pre>
+ *   MemSerializerBenchmark [observations=500] [iterations=20]
+ * </pre>
+ */
+public final class MemSerializerBenchmark {
+
+    private static final Instrument[] INSTRUMENTS = {
+        Instrument.GmosSouth, Instrument.Flamingos2, Instrument.Gsaoi, Instrument.Gnirs
+    };
+
+    private interface Encoder {
+        byte[] encode(ISPProgram p) throws IOException;
+    }
+
+    private static ISPProgram createProgram(ISPFactory fact, int obsCount) throws Exception {
+        final ISPProgram prog = fact.createProgram(new SPNodeKey(), SPProgramID.toProgramID("GS-2099A-Q-1"));
+        for (int i = 0; i < obsCount; ++i) {
+            final Instrument inst = INSTRUMENTS[i % INSTRUMENTS.length];
+            final ISPObservation obs = fact.createObservation(prog, inst.some(), null);
+            prog.addObservation(obs);
+        }
+        return prog;
+    }
+
+    private static byte[] legacy(ISPProgram p) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            oos.writeObject(p);
+        }
+        return baos.toByteArray();
+    }
+
+    private static void run(String name, ISPProgram p, Encoder enc, int iterations) throws IOException {
+        final MemSerializer ser = new MemSerializer();
+
+        // warm up
+        byte[] bytes = enc.encode(p);
+        ser.load(bytes);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; ++i) bytes = enc.encode(p);
+        final double encMs = (System.nanoTime() - start) / 1e6 / iterations;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; ++i) ser.load(bytes);
+        final double decMs = (System.nanoTime() - start) / 1e6 / iterations;
+
+        System.out.printf("%-10s %10d bytes  encode %8.2f ms  decode %8.2f ms%n", name, bytes.length, encMs, decMs);
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int obsCount   = (args.length > 0) ? Integer.parseInt(args[0]) : 500;
+        final int iterations = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+
+        final IDBDatabaseService odb = DBLocalDatabase.createTransient();
+        try {
+            final ISPProgram p = createProgram(odb.getFactory(), obsCount);
+            System.out.printf("Program with %d observations, %d iterations%n", obsCount, iterations);
+
+            run("legacy", p, new Encoder() {
+                @Override public byte[] encode(ISPProgram p) throws IOException { return legacy(p); }
+            }, iterations);
+
+            for (final MemSerializer.Compression c : MemSerializer.Compression.values()) {
+                final MemSerializer ser = new MemSerializer(c);
+                run(c.name(), p, new Encoder() {
+                    @Override public byte[] encode(ISPProgram p) throws IOException { return ser.store(p); }
+                }, iterations);
+            }
+        } finally {
+            odb.getDBAdmin().shutdown();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package edu.gemini.pot.sp.memImpl;
+
+import edu.gemini.pot.sp.ISPObservation;
+import edu.gemini.pot.sp.ISPProgram;
+import edu.gemini.pot.sp.Instrument;
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.spdb.DBLocalDatabase;
+import edu.gemini.pot.spdb.IDBDatabaseService;
+import edu.gemini.spModel.core.SPProgramID;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
+import static org.junit.Assert.*;
+
+public final class MemSerializerTest {
+
+    private IDBDatabaseService odb;
+    private ISPProgram prog;
+
+    @Before
+    public void setUp() throws Exception {
+        odb  = DBLocalDatabase.createTransient();
+        prog = odb.getFactory().createProgram(new SPNodeKey(), SPProgramID.toProgramID("GS-2099A-Q-1"));
+        for (int i = 0; i < 3; ++i) {
+            final ISPObservation obs = odb.getFactory().createObservation(prog, Instrument.GmosSouth.some(), null);
+            prog.addObservation(obs);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        odb.getDBAdmin().shutdown();
+    }
+
+    private void assertSameProgram(MemAbstractBase node) {
+        assertTrue(node instanceof ISPProgram);
+        final ISPProgram copy = (ISPProgram) node;
+        assertEquals(prog.getNodeKey(), copy.getNodeKey());
+        assertEquals(prog.getProgramID(), copy.getProgramID());
+        assertEquals(prog.getVersions(), copy.getVersions());
+        assertEquals(prog.getAllObservations().size(), copy.getAllObservations().size());
+    }
+
+    private void roundTrip(MemSerializer.Compression c) throws IOException {
+        final MemSerializer ser = new MemSerializer(c);
+        final byte[] snapshot   = ser.store(prog);
+        assertFalse(MemSerializer.isLegacyFormat(snapshot));
+        assertSameProgram(ser.load(snapshot));
+    }
+
+    @Test
+    public void testUncompressed() throws IOException {
+        roundTrip(MemSerializer.Compression.none);
+    }
+
+    @Test
+    public void testDeflate() throws IOException {
+        roundTrip(MemSerializer.Compression.deflate);
+    }
+
+    @Test
+    public void testLegacyFormat() throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            oos.writeObject(prog);
+        }
+        final byte[] legacy = baos.toByteArray();
+        assertTrue(MemSerializer.isLegacyFormat(legacy));
+        assertSameProgram(new MemSerializer().load(legacy));
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnrecognized() throws IOException {
+        new MemSerializer().load(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+    }
+}
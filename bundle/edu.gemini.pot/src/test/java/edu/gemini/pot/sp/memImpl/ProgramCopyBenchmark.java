@@ -0,0 +1,72 @@
+package edu.gemini.pot.sp.memImpl;
+
+import edu.gemini.pot.sp.ISPFactory;
+import edu.gemini.pot.sp.ISPObservation;
+import edu.gemini.pot.sp.ISPProgram;
+import edu.gemini.pot.sp.Instrument;
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.spdb.DBLocalDatabase;
+import edu.gemini.pot.spdb.IDBDatabaseService;
+import edu.gemini.spModel.core.SPProgramID;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measures the time and allocation of <code>copyWithSameKeys</code>, which
+ * the VCS server performs under the program write lock for every merge.
+ * Not a unit test; run it by hand, before and after a change to compare:
+ *
+ * <pre>
+ *   ProgramCopyBenchmark [observations=2000] [iterations=20]
+ * </pre>
+ */
+public final class ProgramCopyBenchmark {
+
+    private static final Instrument[] INSTRUMENTS = {
+        Instrument.GmosSouth, Instrument.Flamingos2, Instrument.Gsaoi, Instrument.Gnirs
+    };
+
+    private static ISPProgram createProgram(ISPFactory fact, int obsCount) throws Exception {
+        final ISPProgram prog = fact.createProgram(new SPNodeKey(), SPProgramID.toProgramID("GS-2099A-Q-1"));
+        for (int i = 0; i < obsCount; ++i) {
+            final Instrument inst = INSTRUMENTS[i % INSTRUMENTS.length];
+            final ISPObservation obs = fact.createObservation(prog, inst.some(), null);
+            prog.addObservation(obs);
+        }
+        return prog;
+    }
+
+    // Bytes allocated by the current thread, if the JVM can tell us.
+    private static long allocated(ThreadMXBean mx) {
+        if (mx instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) mx).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int obsCount   = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+        final int iterations = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+
+        final IDBDatabaseService odb = DBLocalDatabase.createTransient();
+        try {
+            final ISPFactory fact = odb.getFactory();
+            final ISPProgram p    = createProgram(fact, obsCount);
+            final ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+
+            // warm up
+            for (int i = 0; i < 3; ++i) fact.copyWithSameKeys(p);
+
+            final long bytes = allocated(mx);
+            final long start = System.nanoTime();
+            for (int i = 0; i < iterations; ++i) fact.copyWithSameKeys(p);
+            final double ms  = (System.nanoTime() - start) / 1e6 / iterations;
+            final long alloc = (allocated(mx) - bytes) / iterations;
+
+            System.out.printf("Program with %d observations: copy %8.2f ms, %,d bytes allocated%n", obsCount, ms, alloc);
+        } finally {
+            odb.getDBAdmin().shutdown();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package edu.gemini.pot.sp.memImpl;
+
+import edu.gemini.pot.sp.ISPFactory;
+import edu.gemini.pot.sp.ISPNode;
+import edu.gemini.pot.sp.ISPObservation;
+import edu.gemini.pot.sp.ISPProgram;
+import edu.gemini.pot.sp.Instrument;
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.spdb.DBLocalDatabase;
+import edu.gemini.pot.spdb.IDBDatabaseService;
+import edu.gemini.spModel.core.SPProgramID;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Compares the time and allocation of reading every data object of a
+ * database with <code>getDataObject</code>, which copies each one, and with
+ * <code>getReadOnlyDataObject</code>, as query functors do when scanning
+ * the whole database.  Not a unit test; run it by hand:
+ *
+ * <pre>
+ *   ReadOnlyDataObjectBenchmark [programs=100] [observations=50] [iterations=10]
+ * </pre>
+ */
+public final class ReadOnlyDataObjectBenchmark {
+
+    private static final Instrument[] INSTRUMENTS = {
+        Instrument.GmosSouth, Instrument.Flamingos2, Instrument.Gsaoi, Instrument.Gnirs
+    };
+
+    private static List<ISPNode> createNodes(IDBDatabaseService odb, int progCount, int obsCount) throws Exception {
+        final ISPFactory fact   = odb.getFactory();
+        final List<ISPNode> res = new ArrayList<>();
+        for (int p = 0; p < progCount; ++p) {
+            final ISPProgram prog = fact.createProgram(new SPNodeKey(), SPProgramID.toProgramID("GS-2099A-Q-" + (p + 1)));
+            for (int i = 0; i < obsCount; ++i) {
+                final Instrument inst = INSTRUMENTS[i % INSTRUMENTS.length];
+                prog.addObservation(fact.createObservation(prog, inst.some(), null));
+            }
+            odb.put(prog);
+
+            res.add(prog);
+            for (ISPObservation obs : prog.getAllObservations()) {
+                res.add(obs);
+                res.addAll(obs.getObsComponents());
+            }
+        }
+        return res;
+    }
+
+    // Bytes allocated by the current thread, if the JVM can tell us.
+    private static long allocated(ThreadMXBean mx) {
+        if (mx instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) mx).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private static void run(String name, List<ISPNode> nodes, int iterations, Function<ISPNode, Object> read) {
+        final ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+
+        // warm up
+        for (int i = 0; i < 3; ++i) nodes.forEach(read::apply);
+
+        int titles = 0;
+        final long bytes = allocated(mx);
+        final long start = System.nanoTime();
+        for (int i = 0; i < iterations; ++i) {
+            for (ISPNode n : nodes) if (read.apply(n) != null) ++titles;
+        }
+        final double ms  = (System.nanoTime() - start) / 1e6 / iterations;
+        final long alloc = (allocated(mx) - bytes) / iterations;
+
+        System.out.printf("%-22s %8.2f ms, %,15d bytes allocated (%d)%n", name, ms, alloc, titles / iterations);
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int progCount  = (args.length > 0) ? Integer.parseInt(args[0]) : 100;
+        final int obsCount   = (args.length > 1) ? Integer.parseInt(args[1]) : 50;
+        final int iterations = (args.length > 2) ? Integer.parseInt(args[2]) : 10;
+
+        final IDBDatabaseService odb = DBLocalDatabase.createTransient();
+        try {
+            final List<ISPNode> nodes = createNodes(odb, progCount, obsCount);
+            System.out.printf("Reading %d data objects%n", nodes.size());
+
+            run("getDataObject", nodes, iterations, n -> n.getDataObject().getTitle());
+            run("getReadOnlyDataObject", nodes, iterations, n -> n.getReadOnlyDataObject().getTitle());
+        } finally {
+            odb.getDBAdmin().shutdown();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package edu.gemini.pot.sp.memImpl;
+
+import edu.gemini.pot.sp.ISPObservation;
+import edu.gemini.pot.sp.ISPProgram;
+import edu.gemini.pot.sp.Instrument;
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.spdb.DBLocalDatabase;
+import edu.gemini.pot.spdb.IDBDatabaseService;
+import edu.gemini.spModel.core.SPProgramID;
+import edu.gemini.spModel.data.ISPDataObject;
+import edu.gemini.spModel.gemini.obscomp.SPProgram;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that read-only data objects are shared without copying and remain
+ * unchanged snapshots when the node is updated.
+ */
+public final class ReadOnlyDataObjectTest {
+
+    private IDBDatabaseService odb;
+    private ISPProgram prog;
+
+    @Before
+    public void setUp() throws Exception {
+        odb  = DBLocalDatabase.createTransient();
+        prog = odb.getFactory().createProgram(new SPNodeKey(), SPProgramID.toProgramID("GS-2099A-Q-1"));
+        final ISPObservation obs = odb.getFactory().createObservation(prog, Instrument.GmosSouth.some(), null);
+        prog.addObservation(obs);
+
+        final SPProgram dobj = (SPProgram) prog.getDataObject();
+        dobj.setTitle("original");
+        prog.setDataObject(dobj);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        odb.getDBAdmin().shutdown();
+    }
+
+    @Test
+    public void testShared() {
+        final ISPDataObject ro = prog.getReadOnlyDataObject();
+        assertSame(ro, prog.getReadOnlyDataObject());
+        assertNotSame(ro, prog.getDataObject());
+        assertEquals("original", ro.getTitle());
+
+        final ISPObservation obs = prog.getAllObservations().get(0);
+        assertSame(obs.getReadOnlyDataObject(), obs.getReadOnlyDataObject());
+        assertEquals(obs.getDataObject().getTitle(), obs.getReadOnlyDataObject().getTitle());
+    }
+
+    @Test
+    public void testSnapshot() {
+        final ISPDataObject ro = prog.getReadOnlyDataObject();
+
+        final SPProgram dobj = (SPProgram) prog.getDataObject();
+        dobj.setTitle("changed");
+        prog.setDataObject(dobj);
+
+        // The object obtained before the update is not modified by it.
+        assertEquals("original", ro.getTitle());
+        assertEquals("changed", prog.getReadOnlyDataObject().getTitle());
+        assertNotSame(dobj, prog.getReadOnlyDataObject());
+    }
+}
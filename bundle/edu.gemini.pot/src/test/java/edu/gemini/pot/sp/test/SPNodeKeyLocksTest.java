@@ -0,0 +1,107 @@
+package edu.gemini.pot.sp.test;
+
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.sp.SPNodeKeyLocks;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for lock reclamation and statistics in SPNodeKeyLocks.
+ */
+public final class SPNodeKeyLocksTest {
+
+    private static final SPNodeKeyLocks locks = SPNodeKeyLocks.instance;
+
+    @After
+    public void tearDown() {
+        locks.setStatsEnabled(false);
+        locks.resetStats();
+    }
+
+    @Test
+    public void testReentrantWriteLock() {
+        final SPNodeKey key = new SPNodeKey();
+        assertFalse(locks.isWriteLockHeld(key));
+
+        locks.writeLock(key);
+        locks.writeLock(key);
+        locks.readLock(key);
+        assertTrue(locks.isWriteLockHeld(key));
+
+        locks.readUnlock(key);
+        locks.writeUnlock(key);
+        assertTrue(locks.isWriteLockHeld(key));
+
+        locks.writeUnlock(key);
+        assertFalse(locks.isWriteLockHeld(key));
+    }
+
+    @Test(expected = IllegalMonitorStateException.class)
+    public void testUnlockNotHeld() {
+        locks.readUnlock(new SPNodeKey());
+    }
+
+    @Test
+    public void testLocksReclaimed() {
+        final int before = locks.getActiveLockCount();
+        for (int i = 0; i < 1000; ++i) {
+            final SPNodeKey key = new SPNodeKey();
+            locks.readLock(key);
+            locks.readUnlock(key);
+            locks.writeLock(key);
+            locks.writeUnlock(key);
+        }
+        // Allow for locks held concurrently by other tests.
+        assertTrue(locks.getActiveLockCount() < before + 100);
+    }
+
+    @Test
+    public void testWriterExcludesReader() throws Exception {
+        final SPNodeKey key = new SPNodeKey();
+        final CountDownLatch acquired = new CountDownLatch(1);
+
+        locks.writeLock(key);
+        final Thread t = new Thread(() -> {
+            locks.readLock(key);
+            acquired.countDown();
+            locks.readUnlock(key);
+        });
+        t.start();
+
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        locks.writeUnlock(key);
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        t.join();
+        assertFalse(locks.isWriteLockHeld(key));
+    }
+
+    @Test
+    public void testStats() {
+        locks.setStatsEnabled(true);
+        final SPNodeKey key = new SPNodeKey();
+
+        locks.writeLock(key);
+        locks.readLock(key);
+        locks.readUnlock(key);
+        locks.writeUnlock(key);
+        locks.readLock(key);
+        locks.readUnlock(key);
+
+        final SPNodeKeyLocks.Stats s = locks.getStats(key);
+        assertNotNull(s);
+        assertEquals(1, s.getWriteCount());
+        assertEquals(2, s.getReadCount());
+        assertTrue(s.getWriteHoldTime() >= 0);
+
+        locks.setStatsEnabled(false);
+        final SPNodeKey other = new SPNodeKey();
+        locks.readLock(other);
+        locks.readUnlock(other);
+        assertNull(locks.getStats(other));
+    }
+}
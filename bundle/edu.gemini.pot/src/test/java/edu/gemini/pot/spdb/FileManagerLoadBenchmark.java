@@ -0,0 +1,88 @@
+package edu.gemini.pot.spdb;
+
+import edu.gemini.pot.sp.ISPFactory;
+import edu.gemini.pot.sp.ISPObservation;
+import edu.gemini.pot.sp.ISPProgram;
+import edu.gemini.pot.sp.Instrument;
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.spModel.core.SPProgramID;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * Startup benchmark for the {@link FileManager} reload path.  Writes a
+ * synthetic database directory of N programs and then times reloading it
+ * sequentially and with the parallel loader.  Not a unit test; run it by hand:
+ *
+ * <pre>
+ *   FileManagerLoadBenchmark [programs=500] [observations=50] [threads=ncpu]
+ * </pre>
+ */
+public final class FileManagerLoadBenchmark {
+
+    private static final int ROUNDS = 3;
+
+    private static void createPrograms(File dir, int progCount, int obsCount) throws Exception {
+        final IDBDatabaseService odb = DBLocalDatabase.createTransient();
+        try {
+            final ISPFactory fact = odb.getFactory();
+            final FileManager fm  = new FileManager(dir, 1);
+            for (int i = 0; i < progCount; ++i) {
+                final SPProgramID pid = SPProgramID.toProgramID("GS-2099A-Q-" + (i + 1));
+                final ISPProgram prog = fact.createProgram(new SPNodeKey(), pid);
+                for (int j = 0; j < obsCount; ++j) {
+                    final ISPObservation obs = fact.createObservation(prog, Instrument.none, null);
+                    prog.addObservation(obs);
+                }
+                fm.store(prog);
+            }
+        } finally {
+            odb.getDBAdmin().shutdown();
+        }
+    }
+
+    private static long time(File dir, int threads) throws IOException {
+        final long start = System.nanoTime();
+        final List<?> progs = new FileManager(dir, threads).reloadPrograms();
+        final long ms = (System.nanoTime() - start) / 1000000;
+        System.out.printf("  %2d thread(s): %6d ms, %d programs%n", threads, ms, progs.size());
+        return ms;
+    }
+
+    private static long best(File dir, int threads) throws IOException {
+        long res = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; ++i) res = Math.min(res, time(dir, threads));
+        return res;
+    }
+
+    private static void delete(File dir) {
+        final File[] files = dir.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        dir.delete();
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int progCount = (args.length > 0) ? Integer.parseInt(args[0]) : 500;
+        final int obsCount  = (args.length > 1) ? Integer.parseInt(args[1]) : 50;
+        final int threads   = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        final File dir = Files.createTempDirectory("spdbLoad").toFile();
+        try {
+            System.out.printf("Creating %d programs with %d observations each in %s%n", progCount, obsCount, dir);
+            createPrograms(dir, progCount, obsCount);
+
+            // Warm up the serialization machinery before timing.
+            time(dir, threads);
+
+            final long seq = best(dir, 1);
+            final long par = best(dir, threads);
+            System.out.printf("Best of %d: sequential %d ms, parallel (%d threads) %d ms, speed-up %.2fx%n",
+                    ROUNDS, seq, threads, par, (par == 0) ? 0.0 : ((double) seq) / par);
+        } finally {
+            delete(dir);
+        }
+    }
+}
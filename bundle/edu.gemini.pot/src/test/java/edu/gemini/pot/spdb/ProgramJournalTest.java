@@ -0,0 +1,111 @@
+package edu.gemini.pot.spdb;
+
+import edu.gemini.pot.sp.ISPProgram;
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.sp.memImpl.MemSerializer;
+import edu.gemini.spModel.core.SPProgramID;
+import edu.gemini.spModel.gemini.obscomp.SPProgram;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public final class ProgramJournalTest {
+
+    private IDBDatabaseService odb;
+    private File dir;
+    private ISPProgram prog;
+
+    @Before
+    public void setUp() throws Exception {
+        odb  = DBLocalDatabase.createTransient();
+        dir  = Files.createTempDirectory("journal").toFile();
+        prog = odb.getFactory().createProgram(new SPNodeKey(), SPProgramID.toProgramID("GS-2099A-Q-1"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        odb.getDBAdmin().shutdown();
+        final File[] files = dir.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        dir.delete();
+    }
+
+    private ProgramJournal.Entry setTitle(String title) throws Exception {
+        final SPProgram dobj = (SPProgram) prog.getDataObject();
+        dobj.setTitle(title);
+        prog.setDataObject(dobj);
+        return ProgramJournal.Entry.create(prog, prog.getDataObject());
+    }
+
+    private ISPProgram reload() throws Exception {
+        final List<ISPProgram> progs = new FileManager(dir, 1).reloadPrograms();
+        assertEquals(1, progs.size());
+        return progs.get(0);
+    }
+
+    @Test
+    public void testNotStoredCannotJournal() throws Exception {
+        final FileManager fm = new FileManager(dir, 1);
+        assertEquals(-1, fm.journal(prog, Collections.singletonList(setTitle("x"))));
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        final FileManager fm = new FileManager(dir, 1);
+        setTitle("original");
+        fm.store(prog);
+
+        assertTrue(fm.journal(prog, Collections.singletonList(setTitle("first"))) > 0);
+        fm.journal(prog, Collections.singletonList(setTitle("second")));
+
+        final ISPProgram copy = reload();
+        assertEquals("second", copy.getDataObject().getTitle());
+        assertEquals(prog.getVersions(), copy.getVersions());
+
+        // Replaying compacts the journal into a new snapshot.
+        assertTrue(new ProgramJournal(dir).files(prog.getProgramKey()).isEmpty());
+        assertEquals("second", reload().getDataObject().getTitle());
+    }
+
+    @Test
+    public void testStaleEntriesIgnored() throws Exception {
+        final FileManager fm = new FileManager(dir, 1);
+        fm.store(prog);
+
+        // Journal a change but leave a rolled segment behind, as if the
+        // program had been stored but the segment never deleted.
+        fm.journal(prog, Collections.singletonList(setTitle("old")));
+        final ProgramJournal j = new ProgramJournal(dir);
+        j.roll(prog.getProgramKey());
+
+        setTitle("new");
+        final File progFile = dir.listFiles((d, n) -> n.endsWith(FileManager.PROGRAM_SUFFIX))[0];
+        new MemSerializer().store(prog, progFile);
+
+        assertEquals("new", reload().getDataObject().getTitle());
+    }
+
+    @Test
+    public void testTornWrite() throws Exception {
+        final FileManager fm = new FileManager(dir, 1);
+        fm.store(prog);
+        fm.journal(prog, Collections.singletonList(setTitle("kept")));
+        final long size = fm.journal(prog, Collections.singletonList(setTitle("torn")));
+
+        // Chop off the end of the last entry.
+        final File jnl = new ProgramJournal(dir).files(prog.getProgramKey()).get(0);
+        try (RandomAccessFile raf = new RandomAccessFile(jnl, "rw")) {
+            raf.setLength(size - 10);
+        }
+
+        assertEquals("kept", reload().getDataObject().getTitle());
+    }
+}
@@ -0,0 +1,144 @@
+package edu.gemini.pot.spdb;
+
+import edu.gemini.pot.sp.ISPFactory;
+import edu.gemini.pot.sp.ISPNode;
+import edu.gemini.pot.sp.ISPProgram;
+import edu.gemini.pot.sp.Instrument;
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.spModel.core.SPProgramID;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares parallel query execution against the sequential results.
+ */
+public final class QueryRunnerTest {
+
+    private static final int PROG_COUNT = 40;
+
+    private IDBDatabaseService odb;
+    private IDBQueryRunner runner;
+
+    @Before
+    public void setUp() throws Exception {
+        odb = DBLocalDatabase.createTransient();
+        final ISPFactory fact = odb.getFactory();
+        for (int i = 0; i < PROG_COUNT; ++i) {
+            final ISPProgram prog = fact.createProgram(new SPNodeKey(), SPProgramID.toProgramID("GS-2099A-Q-" + (i + 1)));
+            for (int j = 0; j <= i % 5; ++j) {
+                prog.addObservation(fact.createObservation(prog, Instrument.GmosSouth.some(), null));
+            }
+            odb.put(prog);
+        }
+        runner = odb.getQueryRunner(Collections.<Principal>emptySet());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        odb.getDBAdmin().shutdown();
+    }
+
+    // Collects node keys, either sequentially or in parallel.
+    private static class ObsKeyFunctor extends DBAbstractQueryFunctor {
+        final List<SPNodeKey> keys = new ArrayList<>();
+        int limit = Integer.MAX_VALUE;
+        boolean finished;
+
+        public void execute(IDBDatabaseService db, ISPNode node, Set<Principal> ps) {
+            keys.add(node.getNodeKey());
+        }
+
+        @Override public boolean isDone() { return keys.size() >= limit; }
+        @Override public void finished()  { finished = true; }
+    }
+
+    private static class ParallelObsKeyFunctor extends ObsKeyFunctor implements IDBParallelQueryFunctor {
+        public IDBParallelQueryFunctor newPartition() {
+            final ParallelObsKeyFunctor f = new ParallelObsKeyFunctor();
+            f.limit = limit;
+            return f;
+        }
+
+        public void mergePartition(IDBParallelQueryFunctor partition) {
+            keys.addAll(((ParallelObsKeyFunctor) partition).keys);
+        }
+    }
+
+    private static final class FailingFunctor extends ParallelObsKeyFunctor {
+        @Override public void execute(IDBDatabaseService db, ISPNode node, Set<Principal> ps) {
+            throw new IllegalStateException("boom");
+        }
+
+        @Override public IDBParallelQueryFunctor newPartition() {
+            return new FailingFunctor();
+        }
+    }
+
+    @Test
+    public void testPrograms() {
+        final List<SPNodeKey> expected = new ArrayList<>();
+        runner.queryPrograms(new DBAbstractQueryFunctor() {
+            public void execute(IDBDatabaseService db, ISPNode node, Set<Principal> ps) {
+                expected.add(((ISPProgram) node).getProgramKey());
+            }
+        });
+        assertEquals(PROG_COUNT, expected.size());
+
+        final DBProgramListFunctor f = runner.queryPrograms(new DBProgramListFunctor());
+        assertNull(f.getException());
+        assertEquals(expected, f.getKeyList());
+    }
+
+    @Test
+    public void testObservations() {
+        final ObsKeyFunctor seq = runner.queryObservations(new ObsKeyFunctor());
+        final ObsKeyFunctor par = runner.queryObservations(new ParallelObsKeyFunctor());
+
+        assertTrue(seq.finished);
+        assertTrue(par.finished);
+        assertEquals(PROG_COUNT * 3, seq.keys.size());
+        assertEquals(seq.keys, par.keys);
+    }
+
+    @Test
+    public void testIsDone() {
+        final ObsKeyFunctor seq = new ObsKeyFunctor();
+        seq.limit = 5;
+        assertEquals(5, runner.queryObservations(seq).keys.size());
+
+        final ObsKeyFunctor par = new ParallelObsKeyFunctor();
+        par.limit = 0;
+        assertEquals(0, runner.queryObservations(par).keys.size());
+        assertTrue(par.finished);
+    }
+
+    @Test
+    public void testIsDoneKeepsSequentialPrefix() {
+        final List<SPNodeKey> all = runner.queryObservations(new ObsKeyFunctor()).keys;
+        for (int limit : new int[] { 1, 3, 7 }) {
+            final ObsKeyFunctor par = new ParallelObsKeyFunctor();
+            par.limit = limit;
+            final List<SPNodeKey> keys = runner.queryObservations(par).keys;
+            assertTrue(keys.size() >= limit);
+            assertEquals(all.subList(0, keys.size()), keys);
+        }
+    }
+
+    @Test
+    public void testFailure() {
+        final FailingFunctor f = new FailingFunctor();
+        runner.queryObservations(f);
+        assertTrue(f.getException() instanceof IllegalStateException);
+        assertFalse(f.finished);
+        assertTrue(f.keys.isEmpty());
+    }
+}
@@ -70,6 +70,7 @@ public final class Schedule extends BaseMutableBean implements PioSerializable,
     public static final String PROP_EXTRA_SEMESTERS = "extraSemesters";
     public static final String PROP_MINI_MODEL = "miniModel";
     public static final String PROP_ICTD = "ictd";
+    public static final String PROP_FLAGS_PROGRESS = "flagsProgress";
 
     // Persistent Members
     private final BlockUnion blocks;
@@ -85,6 +86,8 @@ public final class Schedule extends BaseMutableBean implements PioSerializable,
     private Map<WorldCoordinates, Union<Interval>> intervalCache = new HashMap<>();
     private MiniModel miniModel;
     private Option<IctdSummary> ictdSummary;
+    private Integer flagsProgress;
+    private final UnionSolver unionSolver = new UnionSolver(this);
 
     /**
      * Constructs an empty Schedule.
@@ -614,6 +617,35 @@ public final class Schedule extends BaseMutableBean implements PioSerializable,
         return currentVariant;
     }
 
+    ///
+    /// FLAGS
+    ///
+
+    UnionSolver getUnionSolver() {
+        return unionSolver;
+    }
+
+    /**
+     * Returns the percentage of the observation unions solved so far while
+     * the variant flags are being calculated in the background, or null if
+     * they are up to date.
+     */
+    public Integer getFlagsProgress() {
+        return flagsProgress;
+    }
+
+    void setFlagsProgress(Integer flagsProgress) {
+        Integer prev = this.flagsProgress;
+        this.flagsProgress = flagsProgress;
+        firePropertyChange(PROP_FLAGS_PROGRESS, prev, flagsProgress);
+    }
+
+    @Override
+    public void invalidateAllCaches() {
+        super.invalidateAllCaches();
+        unionSolver.cancel(); // they would be solving for the old caches
+    }
+
     ///
     /// BLOCKS
     ///
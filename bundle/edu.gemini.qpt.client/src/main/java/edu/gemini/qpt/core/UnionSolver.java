@@ -0,0 +1,270 @@
+package edu.gemini.qpt.core;
+
+import edu.gemini.qpt.core.util.ElevationConstraintSolver;
+import edu.gemini.qpt.core.util.Interval;
+import edu.gemini.qpt.core.util.SkyBackgroundSolver;
+import edu.gemini.qpt.core.util.TimingWindowSolver;
+import edu.gemini.qpt.core.util.Union;
+import edu.gemini.qpt.shared.sp.Obs;
+import edu.gemini.spModel.core.Site;
+import jsky.coords.WorldCoords;
+
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import java.util.*;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Solves and caches the dark, visible and timing unions of the observations
+ * in a schedule, which are shared by all of its variants. Observations are
+ * solved independently, on all cores if there are enough of them. On the
+ * event dispatch thread large batches are solved in the background, the
+ * schedule's PROP_FLAGS_PROGRESS is updated as they go, and the variants
+ * update their flags when a batch is done. Anywhere else the unions are
+ * solved before returning, so the flags are complete when a variant setter
+ * returns.
+ */
+final class UnionSolver {
+
+    private static final Logger LOGGER = Logger.getLogger(UnionSolver.class.getName());
+
+    // Below this many unsolved observations the unions are solved one by one.
+    static final int PARALLEL_SOLVER_THRESHOLD = 8;
+
+    private final Schedule owner;
+    private final Map<Obs, Union<Interval>> visibleUnionCache;
+    private final Map<Obs, Union<Interval>> darkUnionCache;
+    private final Map<Obs, Union<Interval>> timingUnionCache;
+
+    // Batches being solved in the background, and their observations. Only
+    // used on the event dispatch thread.
+    private final Set<Batch> batches = new HashSet<>();
+    private final Set<Obs> pending = new HashSet<>();
+
+    UnionSolver(Schedule owner) {
+        this.owner = owner;
+        visibleUnionCache = owner.getCache(Variant.VISIBLE_UNION_CACHE, Schedule.PROP_BLOCKS);
+        darkUnionCache = owner.getCache(Variant.DARK_UNION_CACHE, Schedule.PROP_BLOCKS);
+        timingUnionCache = owner.getCache(Variant.TIMING_UNION_CACHE);
+
+        // Batches started before the blocks changed are solving for the old ones.
+        owner.addPropertyChangeListener(Schedule.PROP_BLOCKS, evt -> cancel());
+    }
+
+    Union<Interval> getDarkUnion(Obs obs) {
+        return getUnion(darkUnionCache, obs, o -> solveDarkUnion(owner.getSite(), o, owner.getStart(), owner.getEnd()));
+    }
+
+    Union<Interval> getVisibleUnion(Obs obs) {
+        return getUnion(visibleUnionCache, obs, o -> solveVisibleUnion(owner.getSite(), o, owner.getStart(), owner.getEnd()));
+    }
+
+    Union<Interval> getTimingUnion(Obs obs) {
+        return getUnion(timingUnionCache, obs, o -> solveTimingUnion(o, owner.getStart(), owner.getEnd()));
+    }
+
+    private static Union<Interval> getUnion(final Map<Obs, Union<Interval>> cache, final Obs obs, final Function<Obs, Union<Interval>> solve) {
+        Union<Interval> u = cache.get(obs);
+        if (u == null) {
+            u = solve.apply(obs);
+            cache.put(obs, u);
+        }
+        return u;
+    }
+
+    private static Union<Interval> solveDarkUnion(final Site site, final Obs obs, final long start, final long end) {
+        Function<Long, WorldCoords> coords = obs::getCoords;
+        final double brightest = obs.getConditions().getBrightestMagnitude();
+        SkyBackgroundSolver sbs = new SkyBackgroundSolver(site, coords, brightest);
+        return sbs.solve(start, end);
+    }
+
+    private static Union<Interval> solveVisibleUnion(final Site site, final Obs obs, final long start, final long end) {
+        ElevationConstraintSolver as = ElevationConstraintSolver.forObs(site, obs);
+        return as.solve(start, end);
+    }
+
+    private static Union<Interval> solveTimingUnion(final Obs obs, final long start, final long end) {
+        TimingWindowSolver as = new TimingWindowSolver(obs);
+        return as.solve(start, end);
+    }
+
+    private boolean isSolved(Obs obs) {
+        return darkUnionCache.containsKey(obs) && visibleUnionCache.containsKey(obs) && timingUnionCache.containsKey(obs);
+    }
+
+    /**
+     * Solves the unions that aren't cached yet for the given observations, and
+     * returns the observations whose unions are being solved in the background.
+     * Their variant flags are only partial until the variants are updated
+     * again at the end of the batch.
+     */
+    Set<Obs> solve(final Collection<Obs> observations) {
+        final boolean edt = SwingUtilities.isEventDispatchThread();
+
+        final List<Obs> missing = new ArrayList<>();
+        for (Obs obs: observations) {
+            if (!isSolved(obs) && !(edt && pending.contains(obs)))
+                missing.add(obs);
+        }
+
+        if (missing.size() >= PARALLEL_SOLVER_THRESHOLD) {
+            final Batch batch = new Batch(missing);
+            if (edt) {
+                batches.add(batch);
+                pending.addAll(missing);
+                updateProgress();
+                batch.execute();
+            } else {
+                batch.solved(batch.solveAll(false));
+            }
+        }
+        // Otherwise the few missing ones are solved as needed.
+
+        return edt ? Collections.unmodifiableSet(pending) : Collections.emptySet();
+    }
+
+    /**
+     * Cancels the batches being solved in the background. The variants are
+     * updated as usual when they finish, so whatever is still missing then is
+     * solved again.
+     */
+    void cancel() {
+        if (batches.isEmpty()) return;
+        for (Batch b: batches) b.cancel(true);
+        batches.clear();
+        pending.clear();
+        updateProgress();
+    }
+
+    private void updateProgress() {
+        Integer progress = null;
+        if (!batches.isEmpty()) {
+            int solved = 0, total = 0;
+            for (Batch b: batches) {
+                solved += b.progress;
+                total  += b.observations.size();
+            }
+            progress = 100 * solved / total;
+        }
+        owner.setFlagsProgress(progress);
+    }
+
+    // The union solutions for one observation, null for the unions that were
+    // already cached.
+    private static final class SolvedUnions {
+        final Obs obs;
+        final Union<Interval> dark, visible, timing;
+        SolvedUnions(Obs obs, Union<Interval> dark, Union<Interval> visible, Union<Interval> timing) {
+            this.obs = obs;
+            this.dark = dark;
+            this.visible = visible;
+            this.timing = timing;
+        }
+    }
+
+    // Solves the missing unions of a list of observations. Everything the
+    // solvers need is read up front, so the batch can run in the background.
+    private final class Batch extends SwingWorker<List<SolvedUnions>, Integer> {
+
+        final List<Obs> observations;
+        private final Site site = owner.getSite();
+        private final long start = owner.getStart();
+        private final long end = owner.getEnd();
+        private final boolean[] dark, visible, timing;
+
+        // Number of observations solved so far, on the event dispatch thread.
+        int progress;
+
+        Batch(List<Obs> observations) {
+            this.observations = observations;
+            dark = new boolean[observations.size()];
+            visible = new boolean[observations.size()];
+            timing = new boolean[observations.size()];
+            for (int i = 0; i < observations.size(); i++) {
+                final Obs obs = observations.get(i);
+                dark[i] = !darkUnionCache.containsKey(obs);
+                visible[i] = !visibleUnionCache.containsKey(obs);
+                timing[i] = !timingUnionCache.containsKey(obs);
+            }
+        }
+
+        List<SolvedUnions> solveAll(boolean background) {
+            final CompletionService<SolvedUnions> solver = new ExecutorCompletionService<>(ForkJoinPool.commonPool());
+            final List<Future<SolvedUnions>> futures = new ArrayList<>(observations.size());
+            for (int i = 0; i < observations.size(); i++) {
+                final Obs obs = observations.get(i);
+                final boolean d = dark[i], v = visible[i], t = timing[i];
+                futures.add(solver.submit(() -> new SolvedUnions(obs,
+                        d ? solveDarkUnion(site, obs, start, end) : null,
+                        v ? solveVisibleUnion(site, obs, start, end) : null,
+                        t ? solveTimingUnion(obs, start, end) : null)));
+            }
+
+            final List<SolvedUnions> res = new ArrayList<>(observations.size());
+            try {
+                for (int i = 0; i < observations.size(); i++) {
+                    res.add(solver.take().get());
+                    if (background) publish(i + 1);
+                }
+            } catch (InterruptedException ie) {
+                // Cancelled, whatever wasn't solved is solved later.
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ee) {
+                final Throwable cause = ee.getCause();
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                if (cause instanceof Error) throw (Error) cause;
+                throw new RuntimeException(cause);
+            } finally {
+                for (Future<SolvedUnions> f: futures) f.cancel(false);
+            }
+            return res;
+        }
+
+        void solved(List<SolvedUnions> res) {
+            for (SolvedUnions su: res) {
+                if (su.dark != null) darkUnionCache.putIfAbsent(su.obs, su.dark);
+                if (su.visible != null) visibleUnionCache.putIfAbsent(su.obs, su.visible);
+                if (su.timing != null) timingUnionCache.putIfAbsent(su.obs, su.timing);
+            }
+        }
+
+        @Override
+        protected List<SolvedUnions> doInBackground() {
+            return solveAll(true);
+        }
+
+        @Override
+        protected void process(List<Integer> chunks) {
+            if (!batches.contains(this)) return; // cancelled
+            progress = chunks.get(chunks.size() - 1);
+            updateProgress();
+        }
+
+        @Override
+        protected void done() {
+            if (batches.remove(this)) {
+                pending.removeAll(observations);
+                try {
+                    solved(get());
+                } catch (InterruptedException | ExecutionException e) {
+                    LOGGER.log(Level.SEVERE, "Could not solve the observation unions.", e);
+                    return; // don't try them again until something else changes
+                } finally {
+                    updateProgress();
+                }
+            }
+            for (Variant v: owner.getVariants())
+                v.unionsSolved();
+        }
+
+    }
+
+}
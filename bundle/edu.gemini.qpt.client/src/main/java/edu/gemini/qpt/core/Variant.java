@@ -12,7 +12,6 @@ import edu.gemini.qpt.shared.sp.*;
 import edu.gemini.qpt.shared.util.PioSerializable;
 import edu.gemini.qpt.shared.util.TimeUtils;
 import edu.gemini.shared.util.immutable.ImOption;
-import edu.gemini.spModel.core.Site;
 import edu.gemini.spModel.ictd.Availability;
 import edu.gemini.spModel.obs.SPObservation.Priority;
 import edu.gemini.spModel.obs.plannedtime.PlannedStepSummary;
@@ -21,11 +20,9 @@ import edu.gemini.spModel.pio.ParamSet;
 import edu.gemini.spModel.pio.Pio;
 import edu.gemini.spModel.pio.PioFactory;
 import edu.gemini.spModel.too.TooType;
-import jsky.coords.WorldCoords;
 
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.function.Function;
 import java.util.logging.Logger;
 
 
@@ -65,15 +62,14 @@ public final class Variant extends BaseMutableBean implements PioSerializable, C
     private Map<Obs, EnumSet<Flag>> intrinsicFlagCache;
     private Map<Obs, EnumSet<Flag>> facilitiesFlagCache;
     private Map<Obs, EnumSet<Flag>> condsFlagCache;
-    private Map<Obs, Union<Interval>> visibleUnionCache;
-    private Map<Obs, Union<Interval>> darkUnionCache;
+    private Map<Obs, SchedulingFlags> schedulingFlagCache;
     private Map<Obs, Union<Interval>> constrainedUnionCache;
-    private Map<Obs, Union<Interval>> timingUnionCache;
 
     // Cache names
     public static final String CONDS_FLAG_CACHE        = "condsFlagCache";
     public static final String FACILITIES_FLAG_CACHE   = "facilitiesFlagCache";
     public static final String INTRINSIC_FLAG_CACHE    = "intrinsicFlagCache";
+    public static final String SCHEDULING_FLAG_CACHE   = "schedulingFlagCache";
 
     public static final String CONSTRAINED_UNION_CACHE = "constrainedUnionCache";
     public static final String DARK_UNION_CACHE        = "darkUnionCache";
@@ -162,13 +158,11 @@ public final class Variant extends BaseMutableBean implements PioSerializable, C
         // These schedule-level caches are shared among all Variants.
         intrinsicFlagCache = owner.getCache(INTRINSIC_FLAG_CACHE);
         facilitiesFlagCache = owner.getCache(FACILITIES_FLAG_CACHE, Schedule.PROP_FACILITIES, Schedule.PROP_ICTD);
-        visibleUnionCache = owner.getCache(VISIBLE_UNION_CACHE, Schedule.PROP_BLOCKS);
-        darkUnionCache = owner.getCache(DARK_UNION_CACHE, Schedule.PROP_BLOCKS);
         constrainedUnionCache = owner.getCache(CONSTRAINED_UNION_CACHE, Schedule.PROP_BLOCKS);
-        timingUnionCache = owner.getCache(TIMING_UNION_CACHE);
 
         // Private variant-level caches.
-        condsFlagCache = getCache(CONDS_FLAG_CACHE, Variant.PROP_SITE_CONDITIONS);
+        condsFlagCache = getCache(CONDS_FLAG_CACHE, Variant.PROP_SITE_CONDITIONS, Variant.PROP_LGS_CONSTRAINT);
+        schedulingFlagCache = getCache(SCHEDULING_FLAG_CACHE, Variant.PROP_ALLOCS);
 
     }
 
@@ -199,6 +193,10 @@ public final class Variant extends BaseMutableBean implements PioSerializable, C
         updateObsFlags();
     }
 
+    void unionsSolved() {
+        updateObsFlags();
+    }
+
     ///
     /// COMMENTS
     ///
@@ -414,7 +412,6 @@ public final class Variant extends BaseMutableBean implements PioSerializable, C
         Boolean prev = this.lgsConstraint;
         this.lgsConstraint = lgsConstraint;
         firePropertyChange(PROP_LGS_CONSTRAINT, prev, lgsConstraint);
-        invalidateAllCaches(); //without this you need to update the variant twice for the candidate observations list to be updated, no idea why...
         updateObsFlags(); // must do this after prop change
         setDirty(true);
     }
@@ -611,9 +608,6 @@ public final class Variant extends BaseMutableBean implements PioSerializable, C
         // Clear our last flag map.
         obsFlags.clear();
 
-        // We need the site for a few things
-        Site site = owner.getSite();
-
         // It's easier to create the SCHEDULED flag by iterating the
         // allocs, so we'll do that before iterating the model.
         for (Alloc a: getAllocs()) {
@@ -625,8 +619,14 @@ public final class Variant extends BaseMutableBean implements PioSerializable, C
         // This is a very expensive process and we're doing aggressive caching
         // in order to keep up with it. The caches are created during variant
         // construction and are invalidated automatically based on property
-        // changes. Some caches are shared among all variants.
-        for (Obs obs: owner.getMiniModel().getAllObservations()) {
+        // changes. Some caches are shared among all variants. The unions that
+        // aren't cached yet are solved first, in parallel. On the event
+        // dispatch thread they may be solved in the background, in which case
+        // the flags that depend on them are left out until they are solved.
+        final UnionSolver unionSolver = owner.getUnionSolver();
+        final Collection<Obs> observations = owner.getMiniModel().getAllObservations();
+        final Set<Obs> pending = unionSolver.solve(observations);
+        for (Obs obs: observations) {
 
             EnumSet<Flag> flags = getMutableFlags(obs);
 
@@ -740,186 +740,211 @@ public final class Variant extends BaseMutableBean implements PioSerializable, C
             flags.addAll(condsFlags);
 
 
-            // We dont want to do the blocking calculation if the obs can't be
-            // scheduled even if the variant is totally empty. So keep track
-            // of whether we have come up with a reason or not.
-            boolean theoreticallySchedulable = !flags.contains(Flag.SCHEDULED);
+            // BACKGROUND_CNS, ELEVATION_CNS, SETS_EARLY, TIMING_CNS, MULTI_CNS,
+            // BLOCKED, SETUP_BLOCKED, PARTIALLY_BLOCKED
+            // These flags depend on the schedule's blocks and this variant's
+            // allocs but not on its conditions, so they are kept as long as
+            // the unions they were calculated from are still cached.
+            if (pending.contains(obs)) continue;
+            final Union<Interval> darkUnion = unionSolver.getDarkUnion(obs);
+            final Union<Interval> visibleUnion = unionSolver.getVisibleUnion(obs);
+            final Union<Interval> timingUnion = unionSolver.getTimingUnion(obs);
+            SchedulingFlags schedulingFlags = schedulingFlagCache.get(obs);
+            if (schedulingFlags == null || !schedulingFlags.isFor(darkUnion, visibleUnion, timingUnion)) {
+                final EnumSet<Flag> fs = getSchedulingFlags(obs, flags.contains(Flag.SCHEDULED), darkUnion, visibleUnion, timingUnion);
+                if (fs == null) return;
+                schedulingFlags = new SchedulingFlags(darkUnion, visibleUnion, timingUnion, fs);
+                schedulingFlagCache.put(obs, schedulingFlags);
+            }
+            flags.addAll(schedulingFlags.flags);
 
+        }
 
-            // BACKGROUND_CNS
-            // This flag depends on the schedule's blocks.
-            // Find the dark time for the target. If the union is empty, the observation
-            // can not be scheduled at all tonight.
-            Union<Interval> darkUnion = darkUnionCache.get(obs);
-            if (darkUnion == null) {
-                Function<Long, WorldCoords> coords = obs::getCoords;
-                final double brightest = obs.getConditions().getBrightestMagnitude();
-                SkyBackgroundSolver sbs = new SkyBackgroundSolver(site, coords, brightest);
-                darkUnion = sbs.solve(owner.getStart(), owner.getEnd());
-                darkUnionCache.put(obs, darkUnion);
-            }
-            if (darkUnion.isEmpty()) {
-                flags.add(Flag.BACKGROUND_CNS);
-                theoreticallySchedulable = false;
-            }
+        firePropertyChange(PROP_FLAGS, null, Collections.unmodifiableMap(obsFlags));
 
+    }
 
-            // ELEVATION_CNS, SETS_EARLY
-            // This flag depends on the schedule's blocks.
-            // Find the time that the target meets its elevation constraints. For now
-            // this just means <= airmass 2.
-            Union<Interval> visibleUnion = visibleUnionCache.get(obs);
-            if (visibleUnion == null) {
-                ElevationConstraintSolver as = ElevationConstraintSolver.forObs(site, obs);
-                visibleUnion = as.solve(owner.getStart(), owner.getEnd());
-                visibleUnionCache.put(obs, visibleUnion);
-            }
-            if (visibleUnion.isEmpty()) {
-                flags.add(Flag.ELEVATION_CNS);
-                theoreticallySchedulable = false;
-            } else {
-                long set = visibleUnion.getIntervals().last().getEnd();
-                if (set - owner.getStart() < 3 * TimeUtils.MS_PER_HOUR)
-                    flags.add(Flag.SETS_EARLY);
-            }
+    // Scheduling flags along with the unions they were calculated from.
+    private static final class SchedulingFlags {
+        final Union<Interval> dark, visible, timing;
+        final EnumSet<Flag> flags;
+        SchedulingFlags(Union<Interval> dark, Union<Interval> visible, Union<Interval> timing, EnumSet<Flag> flags) {
+            this.dark = dark;
+            this.visible = visible;
+            this.timing = timing;
+            this.flags = flags;
+        }
+        boolean isFor(Union<Interval> dark, Union<Interval> visible, Union<Interval> timing) {
+            return this.dark == dark && this.visible == visible && this.timing == timing;
+        }
+    }
 
-            // Timing windows
-            Union<Interval> timingUnion = timingUnionCache.get(obs);
-            if (timingUnion == null) {
-                TimingWindowSolver as = new TimingWindowSolver(obs);
-                timingUnion = as.solve(owner.getStart(), owner.getEnd());
-                timingUnionCache.put(obs, timingUnion);
-            }
-            if (timingUnion.isEmpty()) {
-                flags.add(Flag.TIMING_CNS);
-                theoreticallySchedulable = false;
-            }
+    /**
+     * Calculates the flags that depend on the given unions and on the allocs
+     * of this variant, or returns null if the obs steps are inconsistent.
+     */
+    private EnumSet<Flag> getSchedulingFlags(final Obs obs, final boolean scheduled, final Union<Interval> darkUnion, final Union<Interval> visibleUnion, final Union<Interval> timingUnion) {
 
-            // UNSCHEDULABLE, BLOCKED
-            // If the Obs is still theoretically schedulable, we now need to
-            // intersect all the availability unions and see if there's enough
-            // room to schedule at least one step.
-            if (theoreticallySchedulable) {
-
-                // What's the minimum amount of time we need?
-                PlannedStepSummary steps = obs.getSteps();
-                final long firstUnexStep;
-                try {
-                    firstUnexStep = steps.getStepTime(obs.getFirstUnexecutedStep());
-                } catch (ArrayIndexOutOfBoundsException aioobe) {
-                    LOGGER.severe(obs + ": TOTAL STEPS == " + steps.size() + ", FIRST UNEX IS " + obs.getFirstUnexecutedStep());
-                    return;
-                }
-                // setupTime will depend on the setup type selected in the obs.
-                final long setupTime = steps.getSetupTime().toDuration().toMillis();
-                final long firstUnexStepPlusSetup = firstUnexStep + setupTime;
-
-
-                // First find the intersection of all constraint-based unions
-                // without regard to the state of the variant itself. This will tell
-                // us whether the Obs is in fact schedulable in theory.
-                Union<Interval> constrainedUnion = constrainedUnionCache.get(obs);
-                if (constrainedUnion == null) {
-                    constrainedUnion = new Union<>(owner.getBlockIntervals());
-                    constrainedUnion.intersect(visibleUnion);
-                    constrainedUnion.intersect(darkUnion);
-                    constrainedUnion.intersect(timingUnion);
-                    constrainedUnionCache.put(obs, new Union<Interval>(constrainedUnion)); // put a copy, since we change it after retrieving
-
-                    // Now, also extend each interval back in time for a length
-                    // equal to the setup time. This is the actual constrained
-                    // union, since setup time is unconstrained.
-                    for (Interval i: new ArrayList<Interval>(constrainedUnion.getIntervals())) {
-                        constrainedUnion.add(new Interval(i.getStart() - setupTime, i.getStart()));
-                    }
+        final EnumSet<Flag> flags = EnumSet.noneOf(Flag.class);
 
-                } else {
-                    constrainedUnion = new Union<Interval>(constrainedUnion); // copy
+        // We dont want to do the blocking calculation if the obs can't be
+        // scheduled even if the variant is totally empty. So keep track
+        // of whether we have come up with a reason or not.
+        boolean theoreticallySchedulable = !scheduled;
+
+
+        // BACKGROUND_CNS
+        // This flag depends on the schedule's blocks.
+        // Find the dark time for the target. If the union is empty, the observation
+        // can not be scheduled at all tonight.
+        if (darkUnion.isEmpty()) {
+            flags.add(Flag.BACKGROUND_CNS);
+            theoreticallySchedulable = false;
+        }
+
+
+        // ELEVATION_CNS, SETS_EARLY
+        // This flag depends on the schedule's blocks.
+        // Find the time that the target meets its elevation constraints. For now
+        // this just means <= airmass 2.
+        if (visibleUnion.isEmpty()) {
+            flags.add(Flag.ELEVATION_CNS);
+            theoreticallySchedulable = false;
+        } else {
+            long set = visibleUnion.getIntervals().last().getEnd();
+            if (set - owner.getStart() < 3 * TimeUtils.MS_PER_HOUR)
+                flags.add(Flag.SETS_EARLY);
+        }
+
+        // Timing windows
+        if (timingUnion.isEmpty()) {
+            flags.add(Flag.TIMING_CNS);
+            theoreticallySchedulable = false;
+        }
+
+        // UNSCHEDULABLE, BLOCKED
+        // If the Obs is still theoretically schedulable, we now need to
+        // intersect all the availability unions and see if there's enough
+        // room to schedule at least one step.
+        if (theoreticallySchedulable) {
+
+            // What's the minimum amount of time we need?
+            PlannedStepSummary steps = obs.getSteps();
+            final long firstUnexStep;
+            try {
+                firstUnexStep = steps.getStepTime(obs.getFirstUnexecutedStep());
+            } catch (ArrayIndexOutOfBoundsException aioobe) {
+                LOGGER.severe(obs + ": TOTAL STEPS == " + steps.size() + ", FIRST UNEX IS " + obs.getFirstUnexecutedStep());
+                return null;
+            }
+            // setupTime will depend on the setup type selected in the obs.
+            final long setupTime = steps.getSetupTime().toDuration().toMillis();
+            final long firstUnexStepPlusSetup = firstUnexStep + setupTime;
+
+
+            // First find the intersection of all constraint-based unions
+            // without regard to the state of the variant itself. This will tell
+            // us whether the Obs is in fact schedulable in theory.
+            Union<Interval> constrainedUnion = constrainedUnionCache.get(obs);
+            if (constrainedUnion == null) {
+                constrainedUnion = new Union<>(owner.getBlockIntervals());
+                constrainedUnion.intersect(visibleUnion);
+                constrainedUnion.intersect(darkUnion);
+                constrainedUnion.intersect(timingUnion);
+                constrainedUnionCache.put(obs, new Union<Interval>(constrainedUnion)); // put a copy, since we change it after retrieving
+
+                // Now, also extend each interval back in time for a length
+                // equal to the setup time. This is the actual constrained
+                // union, since setup time is unconstrained.
+                for (Interval i: new ArrayList<Interval>(constrainedUnion.getIntervals())) {
+                    constrainedUnion.add(new Interval(i.getStart() - setupTime, i.getStart()));
                 }
 
-                // Look for a slot large enough to run the first unexecuted step
-                // plus setup.
-                boolean existsSlotForFirstUnexStepPlusSetup = false;
-                for (Interval i: constrainedUnion) {
-                    if (i.getLength() >= firstUnexStepPlusSetup) {
-                        existsSlotForFirstUnexStepPlusSetup = true;
-                        break;
-                    }
+            } else {
+                constrainedUnion = new Union<Interval>(constrainedUnion); // copy
+            }
+
+            // Look for a slot large enough to run the first unexecuted step
+            // plus setup.
+            boolean existsSlotForFirstUnexStepPlusSetup = false;
+            for (Interval i: constrainedUnion) {
+                if (i.getLength() >= firstUnexStepPlusSetup) {
+                    existsSlotForFirstUnexStepPlusSetup = true;
+                    break;
                 }
+            }
 
-                if (!existsSlotForFirstUnexStepPlusSetup) {
+            if (!existsSlotForFirstUnexStepPlusSetup) {
 
-                    // Once we unioned all the constraints together, there was
-                    // no open space. So although there is no one constraint that
-                    // prevents scheduling, there is nowhere on the schedule where
-                    // we won't violate at least one hard constraint. So we flag
-                    // the obs as unschedulable.
-                    flags.add(Flag.MULTI_CNS);
+                // Once we unioned all the constraints together, there was
+                // no open space. So although there is no one constraint that
+                // prevents scheduling, there is nowhere on the schedule where
+                // we won't violate at least one hard constraint. So we flag
+                // the obs as unschedulable.
+                flags.add(Flag.MULTI_CNS);
 
-                } else {
+            } else {
 
-                    // Ok, clone this again in case we need it down below.
-                    Union<Interval> constrainedUnionWithoutSetup = new Union<Interval>(constrainedUnion);
+                // Ok, clone this again in case we need it down below.
+                Union<Interval> constrainedUnionWithoutSetup = new Union<Interval>(constrainedUnion);
 
-                    // There is at least one slot in the schedule where we can
-                    // place at least one step without violating any hard constraints.
-                    // However all such slots may be covered by existing allocs at
-                    // this point, so we need to subtract them out and see if
-                    // there is enough space remaining.
-                    constrainedUnion.remove(getAllocIntervals());
+                // There is at least one slot in the schedule where we can
+                // place at least one step without violating any hard constraints.
+                // However all such slots may be covered by existing allocs at
+                // this point, so we need to subtract them out and see if
+                // there is enough space remaining.
+                constrainedUnion.remove(getAllocIntervals());
 
-                    // Find largest interval
-                    long maxInterval = -1;
-                    for (Interval i: constrainedUnion)
-                        maxInterval = Math.max(maxInterval, i.getLength());
+                // Find largest interval
+                long maxInterval = -1;
+                for (Interval i: constrainedUnion)
+                    maxInterval = Math.max(maxInterval, i.getLength());
 
-                    if (maxInterval < firstUnexStep) {
+                if (maxInterval < firstUnexStep) {
 
-                        // Nope, all the good spots on the schedule are already taken.
-                        // The obs can still be scheduled, but only if we move something.
-                        flags.add(Flag.BLOCKED);
+                    // Nope, all the good spots on the schedule are already taken.
+                    // The obs can still be scheduled, but only if we move something.
+                    flags.add(Flag.BLOCKED);
 
-                    } else {
+                } else {
 
-                        if (maxInterval < firstUnexStepPlusSetup) {
+                    if (maxInterval < firstUnexStepPlusSetup) {
 
-                            // At least enough time for step 1, but not enough time
-                            // for setup. We need to recalculate the union in this
-                            // corner case because non-setup time is more constrained.
+                        // At least enough time for step 1, but not enough time
+                        // for setup. We need to recalculate the union in this
+                        // corner case because non-setup time is more constrained.
 
-                            // Set up constrainedUnionWithoutSetup
-                            for (Interval i: new ArrayList<Interval>(constrainedUnionWithoutSetup.getIntervals()))
-                                constrainedUnionWithoutSetup.remove(new Interval(i.getStart(), i.getStart() + setupTime));
-                            constrainedUnionWithoutSetup.remove(getAllocIntervals());
+                        // Set up constrainedUnionWithoutSetup
+                        for (Interval i: new ArrayList<Interval>(constrainedUnionWithoutSetup.getIntervals()))
+                            constrainedUnionWithoutSetup.remove(new Interval(i.getStart(), i.getStart() + setupTime));
+                        constrainedUnionWithoutSetup.remove(getAllocIntervals());
 
-                            // And see if there is time for step 1
-                            for (Interval i: constrainedUnionWithoutSetup) {
-                                if (i.getLength() >= firstUnexStep) {
-                                    flags.add(Flag.SETUP_BLOCKED);
-                                    break;
-                                }
+                        // And see if there is time for step 1
+                        for (Interval i: constrainedUnionWithoutSetup) {
+                            if (i.getLength() >= firstUnexStep) {
+                                flags.add(Flag.SETUP_BLOCKED);
+                                break;
                             }
+                        }
 
-                            if (!flags.contains(Flag.SETUP_BLOCKED))
-                                flags.add(Flag.BLOCKED);
-
-                        } else {
+                        if (!flags.contains(Flag.SETUP_BLOCKED))
+                            flags.add(Flag.BLOCKED);
 
-                            // At least enough time for step 1 plus setup (where
-                            // setup time depends on the setup type selected in
-                            // the observation).
+                    } else {
 
-                            // Count up all the steps
-                            long totalSteps = steps.getSetupTime().toDuration().toMillis();
-                            for (int i = 0; i < steps.size(); i++)
-                                totalSteps += steps.getStepTime(i);
+                        // At least enough time for step 1 plus setup (where
+                        // setup time depends on the setup type selected in
+                        // the observation).
 
-                            // If the largest interval isn't big enough for the whole
-                            // obs sequence, we're partially blocked
-                            if (totalSteps > maxInterval)
-                                flags.add(Flag.PARTIALLY_BLOCKED);
+                        // Count up all the steps
+                        long totalSteps = steps.getSetupTime().toDuration().toMillis();
+                        for (int i = 0; i < steps.size(); i++)
+                            totalSteps += steps.getStepTime(i);
 
-                        }
+                        // If the largest interval isn't big enough for the whole
+                        // obs sequence, we're partially blocked
+                        if (totalSteps > maxInterval)
+                            flags.add(Flag.PARTIALLY_BLOCKED);
 
                     }
 
@@ -929,7 +954,7 @@ public final class Variant extends BaseMutableBean implements PioSerializable, C
 
         }
 
-        firePropertyChange(PROP_FLAGS, null, Collections.unmodifiableMap(obsFlags));
+        return flags;
 
     }
 
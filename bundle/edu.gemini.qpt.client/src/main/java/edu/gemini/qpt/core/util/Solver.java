@@ -35,23 +35,47 @@ public abstract class Solver {
 
     
     /**
-     * Find all domains on the specified interval.
+     * Find all domains on the specified interval. The function is sampled every
+     * stepSize and each change of value between two samples is then narrowed
+     * down by bisection to within the tolerance, so a domain or a gap shorter
+     * than stepSize may be missed.
      */
     public Union<Interval> solve(Interval interval) {
-        Union<Interval> ret = new Union<Interval>();
-        long t = interval.getStart();
-        while (interval.contains(t)) {
-            Interval i = solve(interval, t);
-            if (i == null) break;
-//            System.out.println("There is a solution at " + i);
-            ret.add(i);
-            t = i.getEnd() + tolerance;
-        }
+        final Union<Interval> ret = new Union<Interval>();
+        final long end = interval.getEnd();
+        if (interval.getStart() >= end) return ret;
 
-        ret.intersect(new Union<Interval>(interval));
+        long t0 = interval.getStart();
+        boolean f0 = f(t0);
+        long domainStart = t0;
+        while (t0 < end - 1) {
+            final long t1 = Math.min(t0 + stepSize, end - 1);
+            final boolean f1 = f(t1);
+            if (f1 != f0) {
+                final long change = bisect(t0, f0, t1);
+                if (f1) domainStart = change;
+                else ret.add(new Interval(domainStart, change));
+            }
+            t0 = t1;
+            f0 = f1;
+        }
+        if (f0) ret.add(new Interval(domainStart, end));
         return ret;
     }
-    
+
+    /**
+     * Finds the first time in (lo, hi] at which f has the value it has at hi,
+     * given that it has the other value at lo, to within the tolerance.
+     */
+    private long bisect(long lo, boolean flo, long hi) {
+        while (hi - lo > tolerance) {
+            final long mid = lo + (hi - lo) / 2;
+            if (f(mid) == flo) lo = mid;
+            else hi = mid;
+        }
+        return hi;
+    }
+
     public Union<Interval> solve(long start, long end) {
         return solve(new Interval(start, end));
     }
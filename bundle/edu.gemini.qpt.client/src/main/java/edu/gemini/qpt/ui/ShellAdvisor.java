@@ -12,6 +12,7 @@ import static edu.gemini.ui.workspace.IViewAdvisor.Relation.EastOf;
 import static edu.gemini.ui.workspace.IViewAdvisor.Relation.NorthOf;
 import static edu.gemini.ui.workspace.IViewAdvisor.Relation.SouthOf;
 
+import java.awt.BorderLayout;
 import java.awt.event.KeyEvent;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
@@ -163,6 +164,9 @@ public class ShellAdvisor implements IShellAdvisor, PropertyChangeListener {
         for (ViewAdvisor v : ViewAdvisor.values())
             v.add(context);
 
+        // Add the status bar, beneath the views
+        shell.getPeer().getContentPane().add(new FlagsStatusBar(shell), BorderLayout.SOUTH);
+
         // Add Menus
         addMenuItems(mgr,
 
@@ -0,0 +1,56 @@
+package edu.gemini.qpt.ui.util;
+
+import java.awt.BorderLayout;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+
+import javax.swing.BorderFactory;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+
+import edu.gemini.qpt.core.Schedule;
+import edu.gemini.ui.workspace.IShell;
+
+/**
+ * Status bar that shows the progress of the observation flags being
+ * calculated in the background for the shell's schedule, and hides itself
+ * when they are up to date.
+ * @see Schedule#getFlagsProgress()
+ */
+@SuppressWarnings("serial")
+public class FlagsStatusBar extends JPanel implements PropertyChangeListener {
+
+    private final JProgressBar bar = new JProgressBar(0, 100);
+    private Schedule schedule;
+
+    public FlagsStatusBar(IShell shell) {
+        super(new BorderLayout(8, 0));
+        setBorder(BorderFactory.createEmptyBorder(4, 0, 0, 0));
+        add(new JLabel("Calculating observation flags..."), BorderLayout.WEST);
+        add(bar, BorderLayout.CENTER);
+        shell.addPropertyChangeListener(evt -> {
+            if (IShell.PROP_MODEL.equals(evt.getPropertyName()))
+                setSchedule((Schedule) evt.getNewValue());
+        });
+        setSchedule((Schedule) shell.getModel());
+    }
+
+    private void setSchedule(Schedule schedule) {
+        if (this.schedule != null) this.schedule.removePropertyChangeListener(Schedule.PROP_FLAGS_PROGRESS, this);
+        this.schedule = schedule;
+        if (this.schedule != null) this.schedule.addPropertyChangeListener(Schedule.PROP_FLAGS_PROGRESS, this);
+        update();
+    }
+
+    private void update() {
+        final Integer progress = (schedule == null) ? null : schedule.getFlagsProgress();
+        if (progress != null) bar.setValue(progress);
+        setVisible(progress != null);
+    }
+
+    public void propertyChange(PropertyChangeEvent evt) {
+        update();
+    }
+
+}
@@ -0,0 +1,130 @@
+package edu.gemini.qpt.core.util;
+
+import edu.gemini.qpt.shared.util.TimeUtils;
+import edu.gemini.spModel.core.Site;
+import jsky.coords.WorldCoords;
+
+import java.util.Date;
+import java.util.Random;
+import java.util.function.LongPredicate;
+
+/**
+ * Compares the number of function evaluations and the time needed to solve
+ * the airmass, sky background and timing window constraints of a set of
+ * random targets over a night, with the bracketing search of Solver and with
+ * the fixed step search that was used before.
+ *
+ * SolverBenchmark [targets]
+ */
+public final class SolverBenchmark {
+
+    private static final Site SITE = Site.GS;
+
+    // Counts the evaluations of the function.
+    private static final class CountingSolver extends Solver {
+        private final LongPredicate f;
+        long calls;
+        CountingSolver(LongPredicate f) {
+            super(TimeUtils.MS_PER_HOUR / 4, TimeUtils.MS_PER_MINUTE);
+            this.f = f;
+        }
+        @Override
+        protected boolean f(long t) {
+            ++calls;
+            return f.test(t);
+        }
+    }
+
+    // The fixed step search used before, stepping from domain to domain.
+    private static Union<Interval> scan(Solver s, Interval interval) {
+        final Union<Interval> ret = new Union<Interval>();
+        long t = interval.getStart();
+        while (interval.contains(t)) {
+            final Interval i = s.solve(interval, t);
+            if (i == null) break;
+            ret.add(i);
+            t = i.getEnd() + TimeUtils.MS_PER_MINUTE;
+        }
+        ret.intersect(new Union<Interval>(interval));
+        return ret;
+    }
+
+    // Largest difference between the boundaries of two solutions, or -1 if
+    // they have different numbers of intervals.
+    private static long difference(Union<Interval> a, Union<Interval> b) {
+        if (a.getIntervals().size() != b.getIntervals().size()) return -1;
+        long max = 0;
+        final java.util.Iterator<Interval> ib = b.iterator();
+        for (Interval i: a) {
+            final Interval j = ib.next();
+            max = Math.max(max, Math.abs(i.getStart() - j.getStart()));
+            max = Math.max(max, Math.abs(i.getEnd() - j.getEnd()));
+        }
+        return max;
+    }
+
+    private static void run(String name, LongPredicate[] fs, Interval night) {
+        long scanCalls = 0, bracketCalls = 0, scanTime = 0, bracketTime = 0, maxDiff = 0;
+        int mismatches = 0;
+        for (LongPredicate f: fs) {
+            final CountingSolver scanning = new CountingSolver(f);
+            long t0 = System.nanoTime();
+            final Union<Interval> expected = scan(scanning, night);
+            scanTime += System.nanoTime() - t0;
+            scanCalls += scanning.calls;
+
+            final CountingSolver bracketing = new CountingSolver(f);
+            t0 = System.nanoTime();
+            final Union<Interval> actual = bracketing.solve(night);
+            bracketTime += System.nanoTime() - t0;
+            bracketCalls += bracketing.calls;
+
+            final long d = difference(expected, actual);
+            if (d < 0) ++mismatches;
+            else maxDiff = Math.max(maxDiff, d);
+        }
+        System.out.printf("%-15s scanning: %7d calls %6d ms   bracketing: %7d calls %6d ms   max difference %d s, %d mismatches%n",
+                name, scanCalls, scanTime / 1000000, bracketCalls, bracketTime / 1000000, maxDiff / 1000, mismatches);
+    }
+
+    public static void main(String[] args) {
+        final int n = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        final long start = 1393732800000L; // 2014-03-02 00:00 UTC, evening at GS
+        final Interval night = new Interval(start, start + 10 * TimeUtils.MS_PER_HOUR);
+
+        final Random r = new Random(1);
+        final WorldCoords[] coords = new WorldCoords[n];
+        for (int i = 0; i < n; ++i)
+            coords[i] = new WorldCoords(r.nextDouble() * 360, Math.toDegrees(Math.asin(2 * r.nextDouble() - 1)) * 0.6 - 30);
+
+        final LongPredicate[] airmass = new LongPredicate[n];
+        final LongPredicate[] background = new LongPredicate[n];
+        final LongPredicate[] timing = new LongPredicate[n];
+        for (int i = 0; i < n; ++i) {
+            final WorldCoords c = coords[i];
+            final ImprovedSkyCalc calc = new ImprovedSkyCalc(SITE);
+            airmass[i] = t -> {
+                calc.calculate(c, new Date(t), false);
+                final double am = calc.getAirmass();
+                return am >= 1.0 && am <= 2.0;
+            };
+            background[i] = t -> {
+                calc.calculate(c, new Date(t), true);
+                return calc.getTotalSkyBrightness() >= 20.0;
+            };
+            // windows of 1 to 4 hours repeating every 6 to 30 hours
+            final long open = start + (long) (r.nextDouble() * 24 * TimeUtils.MS_PER_HOUR) - 12 * TimeUtils.MS_PER_HOUR;
+            final long length = (1 + r.nextInt(4)) * TimeUtils.MS_PER_HOUR;
+            final long period = (6 + r.nextInt(25)) * TimeUtils.MS_PER_HOUR;
+            timing[i] = t -> Math.floorMod(t - open, period) < length;
+        }
+
+        // warm up
+        run("warm up", airmass, night);
+
+        run("airmass", airmass, night);
+        run("sky background", background, night);
+        run("timing window", timing, night);
+    }
+
+}
@@ -8,6 +8,7 @@ import java.util.SortedSet;
 import static java.lang.Math.PI;
 import static java.lang.Math.sin;
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
 
 public class SolverTest {
 
@@ -143,7 +144,28 @@ public class SolverTest {
 
 
     }
-    
+
+    @Test public void testEvaluations() {
+
+        // True from (1..100] and (201..300], sampled every 50 and bisected
+        final int[] calls = new int[1];
+        Solver s = new TestSolver(50, 1, 100) {
+            @Override
+            protected boolean f(long x) {
+                ++calls[0];
+                return super.f(x);
+            }
+        };
+
+        SortedSet<Interval> solutions = s.solve(0, 1000).getIntervals();
+        assertEquals(5, solutions.size());
+        assertEquals(new Interval(1, 100), solutions.first());
+
+        // 21 samples plus 10 changes of at most 6 bisection steps each
+        assertTrue(calls[0] <= 21 + 10 * 6);
+
+    }
+
 }
 
 /**
@@ -0,0 +1,202 @@
+package edu.gemini.qpt.core
+
+import edu.gemini.qpt.core.Variant.Flag
+import edu.gemini.qpt.core.Variant.Flag._
+import edu.gemini.qpt.shared.sp.{Conds, MiniModelBuilder, Obs}
+import edu.gemini.qpt.shared.util.ObsBuilder
+import edu.gemini.shared.util.immutable.{None => JNone}
+import edu.gemini.skycalc.TwilightBoundedNight
+import edu.gemini.skycalc.TwilightBoundType.CIVIL
+import edu.gemini.spModel.core.Site
+import edu.gemini.spModel.gemini.obscomp.SPSiteQuality
+import edu.gemini.spModel.gemini.obscomp.SPSiteQuality.ImageQuality
+import edu.gemini.spModel.ictd.IctdSummary
+import edu.gemini.spModel.obs.plannedtime.{PlannedStepSummary, SetupTime}
+import edu.gemini.spModel.target.SPTarget
+import edu.gemini.spModel.target.env.TargetEnvironment
+
+import org.specs2.mutable._
+
+import java.beans.{PropertyChangeEvent, PropertyChangeListener}
+import java.time.Instant
+import java.util.concurrent.{CountDownLatch, TimeUnit}
+import javax.swing.SwingUtilities
+
+import scala.collection.JavaConverters._
+
+/**
+ * Variant flag spec
+ */
+final class VariantFlagsSpec extends Specification {
+
+  val site: Site = Site.GS
+
+  val hour: Long = 60L * 60 * 1000
+
+  val night: TwilightBoundedNight =
+    TwilightBoundedNight.forTime(CIVIL, Instant.parse("2019-06-16T04:00:00Z").toEpochMilli, site)
+
+  private def obsBuilder(n: Int, ra: Double, iq20: Boolean, lgs: Boolean, stepTime: Long): ObsBuilder = {
+    val quality = new SPSiteQuality()
+    if (iq20) quality.setImageQuality(ImageQuality.PERCENT_20)
+    ObsBuilder(
+      obsNumber         = n,
+      quality           = quality,
+      lgs               = lgs,
+      steps             = new PlannedStepSummary(SetupTime.ZERO, Array(stepTime), Array(false), Array("OBJECT")),
+      targetEnvironment = TargetEnvironment.create(new SPTarget(ra, -30.0))
+    )
+  }
+
+  // One hour observations spread around the sky, every third one needing
+  // IQ20 and every fourth one LGS.
+  val builders: List[ObsBuilder] =
+    (0 until 24).toList.map(i => obsBuilder(i + 1, i * 15.0, i % 3 == 0, i % 4 == 0, hour))
+
+  private def schedule(obs: List[ObsBuilder]): Schedule = {
+    val s = new Schedule(MiniModelBuilder(site, "GS-2019A-Q-1", obs), JNone.instance[IctdSummary])
+    s.addBlock(night.getStartTime, night.getEndTime)
+    s
+  }
+
+  private def variant(s: Schedule, name: String = "Test"): Variant =
+    s.addVariant(name, new Conds(0: Byte, 100: Byte, 20: Byte, 100: Byte), null, true)
+
+  // Flags of every observation, by obs id since each schedule has its own
+  // Obs instances.
+  private def flags(v: Variant): Map[String, Set[Flag]] =
+    v.getSchedule.getMiniModel.getAllObservations.asScala.toList.map { o =>
+      o.getObsId -> v.getFlags(o).asScala.toSet
+    }.toMap
+
+  private def obs(v: Variant, p: Obs => Boolean): Set[String] =
+    v.getSchedule.getMiniModel.getAllObservations.asScala.filter(p).map(_.getObsId).toSet
+
+  // Sets the flags for the given observations in the given map.
+  private def changed(fs: Map[String, Set[Flag]], ids: Set[String])(f: Set[Flag] => Set[Flag]): Map[String, Set[Flag]] =
+    fs.map { case (id, s) => id -> (if (ids(id)) f(s) else s) }
+
+  "Variant flags" should {
+
+    "be the same when the unions are solved in parallel" in {
+
+      // With a single observation the unions are solved one by one.
+      val sequential = builders.map(b => flags(variant(schedule(List(b))))).reduce(_ ++ _)
+      val parallel   = flags(variant(schedule(builders)))
+
+      builders.size must be_>=(UnionSolver.PARALLEL_SOLVER_THRESHOLD)
+      parallel.values.toSet.size must be_>(1)
+      parallel shouldEqual sequential
+
+    }
+
+    "be solved in the background on the event dispatch thread" in {
+
+      val expected = flags(variant(schedule(builders)))
+
+      val done = new CountDownLatch(1)
+      var progress = List.empty[Integer]
+      var s: Schedule = null
+      var v: Variant  = null
+      var partial: Map[String, Set[Flag]] = null
+
+      SwingUtilities.invokeAndWait(new Runnable {
+        def run(): Unit = {
+          s = schedule(builders)
+          s.addPropertyChangeListener(Schedule.PROP_FLAGS_PROGRESS, new PropertyChangeListener {
+            def propertyChange(evt: PropertyChangeEvent): Unit = {
+              val p = evt.getNewValue.asInstanceOf[Integer]
+              progress = p :: progress
+              if (p == null) done.countDown()
+            }
+          })
+          v = variant(s)
+          partial = flags(v)
+        }
+      })
+
+      // The variant is created without waiting for the unions.
+      partial.values.forall(fs => (fs & Set[Flag](BACKGROUND_CNS, ELEVATION_CNS, TIMING_CNS, BLOCKED)).isEmpty) must beTrue
+
+      done.await(1, TimeUnit.MINUTES) must beTrue
+      var solved: Map[String, Set[Flag]] = null
+      SwingUtilities.invokeAndWait(new Runnable {
+        def run(): Unit = solved = flags(v)
+      })
+
+      solved shouldEqual expected
+      progress.reverse.head shouldEqual Integer.valueOf(0)
+      progress.head must beNull
+      s.getFlagsProgress must beNull
+
+    }
+
+    "only change the LGS and IQ flags when the variant constraints change" in {
+
+      val s  = schedule(builders)
+      val v1 = variant(s, "One")
+      val v2 = variant(s, "Two")
+      val f1 = flags(v1)
+      val f2 = flags(v2)
+
+      val lgs  = obs(v1, _.getLGS)
+      val iq20 = obs(v1, _.getConditions.iq == 20)
+      lgs  must not be empty
+      iq20 must not be empty
+
+      f1.values.forall(!_.contains(LGS_UNAVAILABLE)) must beTrue
+      f1.values.forall(!_.contains(IQ_UQUAL)) must beTrue
+
+      v1.setLgsConstraint(false)
+      flags(v1) shouldEqual changed(f1, lgs)(_ + LGS_UNAVAILABLE)
+      flags(v2) shouldEqual f2
+
+      v1.setLgsConstraint(true)
+      flags(v1) shouldEqual f1
+
+      v1.setConditions(new Conds(0: Byte, 100: Byte, 70: Byte, 100: Byte))
+      flags(v1) shouldEqual changed(f1, iq20)(_ + IQ_UQUAL)
+      flags(v2) shouldEqual f2
+
+    }
+
+    "recalculate the scheduling flags when the allocs change" in {
+
+      // A long observation whose alloc covers the whole night.
+      val long = obsBuilder(100, 270.0, false, false, 16 * hour)
+      val s    = schedule(long :: builders)
+      val v    = variant(s)
+      val f    = flags(v)
+
+      val cache = v.getCache[Obs, AnyRef](Variant.SCHEDULING_FLAG_CACHE)
+      cache.size must be_>(0)
+
+      // The cache must be cleared before the flags are updated.
+      var sizes = List.empty[Int]
+      v.addPropertyChangeListener(Variant.PROP_ALLOCS, new PropertyChangeListener {
+        def propertyChange(evt: PropertyChangeEvent): Unit = sizes = cache.size :: sizes
+      })
+
+      val constrained: Set[Flag] = Set(BACKGROUND_CNS, ELEVATION_CNS, SETS_EARLY, TIMING_CNS)
+      val unschedulable: Set[Flag] = Set(BACKGROUND_CNS, ELEVATION_CNS, TIMING_CNS, MULTI_CNS)
+      val schedulable = f.collect { case (id, s) if (s & unschedulable).isEmpty => id }.toSet
+      schedulable must not be empty
+
+      val longObs = s.getMiniModel.getObs("GS-2019A-Q-1-100")
+      val alloc   = v.addAlloc(longObs, s.getStart, 0, 0, Alloc.SetupType.NONE, null)
+      val g       = flags(v)
+      sizes shouldEqual List(0)
+
+      schedulable.forall(id => g(id).contains(BLOCKED)) must beTrue
+      f.keySet.forall(id => (f(id) & constrained) == (g(id) & constrained)) must beTrue
+      g(longObs.getObsId).contains(SCHEDULED) must beTrue
+
+      alloc.remove()
+      sizes shouldEqual List(0, 0)
+      flags(v) shouldEqual f
+
+    }
+
+  }
+
+}
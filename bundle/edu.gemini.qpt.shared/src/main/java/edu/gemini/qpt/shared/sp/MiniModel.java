@@ -49,14 +49,17 @@ public class MiniModel {
     private final long timestamp = System.currentTimeMillis();
     private final Map<SPProgramID, ProgramExclusion> programExclusions;
     private final Map<SPObservationID, ObsExclusion> obsExclusions;
+    private final Map<SPProgramID, Long> programVersions;
 
     private MiniModel(Site site,
                       SortedSet<Prog> programs,
                       SortedSet<String> misconfiguredObservations,
                       SortedSet<String> allSemesters,
                       Map<SPProgramID, ProgramExclusion> programExclusions,
-                      Map<SPObservationID, ObsExclusion> obsExclusions) {
+                      Map<SPObservationID, ObsExclusion> obsExclusions,
+                      Map<SPProgramID, Long> programVersions) {
         this.site = site;
+        this.programVersions = Collections.unmodifiableMap(programVersions);
         this.programs = Collections.unmodifiableSortedSet(new TreeSet<>(programs));
         this.misconfiguredObservations = Collections.unmodifiableSortedSet(new TreeSet<>(misconfiguredObservations));
         this.allSemesters = Collections.unmodifiableSortedSet(new TreeSet<>(allSemesters));
@@ -75,6 +78,7 @@ public class MiniModel {
                 Collections.emptySortedSet(),
                 Collections.emptySortedSet(),
                 Collections.emptyMap(),
+                Collections.emptyMap(),
                 Collections.emptyMap()
         );
     }
@@ -107,6 +111,14 @@ public class MiniModel {
         return allSemesters;
     }
 
+    /**
+     * Gets the version map checksums of the programs in this model, which allow to only query the
+     * programs that changed since this model was created.
+     */
+    public Map<SPProgramID, Long> getProgramVersions() {
+        return programVersions;
+    }
+
     /**
      * Creates a mini model for the given peer and date.
      * This is a convenience method used by QPT.
@@ -143,15 +155,45 @@ public class MiniModel {
             Set<String> extraSemesters,
             AgsMagnitude.MagnitudeTable magTable) throws IOException, TimeoutException {
 
-        Set<Semester> semesters = new HashSet<Semester>();
-        for (String s : extraSemesters) {
+        return newInstance(kc, peer, new Date(date), parseSemesters(extraSemesters), ProgramType$.MODULE$.AllAsJava(), RELEVANT_OBS_CLASSES, RELEVANT_OBS_STATUSES, magTable);
+    }
+
+    /**
+     * Updates a mini model for the given peer, date and some additional semesters.
+     * Only programs that changed since the previous model was created are transferred and built again,
+     * unchanged programs are taken over from the previous model.
+     * This is a convenience method used by QPT.
+     * @param peer
+     * @param date the date on which the night ends / sunrise
+     * @param extraSemesters
+     * @param previous a model created by any of the QPT convenience methods
+     * @return
+     * @throws IOException
+     * @throws TimeoutException
+     */
+    public static MiniModel update(
+            KeyChain kc,
+            Peer peer,
+            long date,
+            Set<String> extraSemesters,
+            AgsMagnitude.MagnitudeTable magTable,
+            MiniModel previous) throws IOException, TimeoutException {
+
+        ObsQueryFunctor func = new ObsQueryFunctor(peer.site, new Date(date), parseSemesters(extraSemesters), ProgramType$.MODULE$.AllAsJava(), RELEVANT_OBS_CLASSES, RELEVANT_OBS_STATUSES, magTable);
+        if (previous.getSite() == peer.site) func.setKnownVersions(previous.getProgramVersions());
+        return newInstance(kc, peer, func, previous);
+    }
+
+    private static Set<Semester> parseSemesters(Set<String> semesters) {
+        Set<Semester> result = new HashSet<Semester>();
+        for (String s : semesters) {
             try {
-                semesters.add(Semester.parse(s));
+                result.add(Semester.parse(s));
             } catch (ParseException e) {
                 throw new RuntimeException("can not parse semester: " + s);
             }
         }
-        return newInstance(kc, peer, new Date(date), semesters, ProgramType$.MODULE$.AllAsJava(), RELEVANT_OBS_CLASSES, RELEVANT_OBS_STATUSES, magTable);
+        return result;
     }
 
     /**
@@ -180,7 +222,7 @@ public class MiniModel {
             AgsMagnitude.MagnitudeTable magTable) throws IOException, TimeoutException {
 
         ObsQueryFunctor func = new ObsQueryFunctor(peer.site, date, extraSemesters, progTypes, obsClasses, obsStatuses, magTable);
-        return newInstance(kc, peer, func);
+        return newInstance(kc, peer, func, null);
 
     }
 
@@ -191,16 +233,47 @@ public class MiniModel {
      * @return
      */
     public static MiniModel newInstanceFromExecuted(Peer peer, ObsQueryFunctor result) {
+        return newInstanceFromExecuted(peer, result, null);
+    }
+
+    /**
+     * Creates a mini model from an already executed incremental functor, taking over the programs
+     * that did not change from the previous model.
+     * @param peer
+     * @param result
+     * @param previous the model whose program versions were passed to the functor, or null
+     * @return
+     */
+    public static MiniModel newInstanceFromExecuted(Peer peer, ObsQueryFunctor result, MiniModel previous) {
+        final SortedSet<Prog> programs = new TreeSet<>(result.getProgramSet());
+        final SortedSet<String> misconfigured = new TreeSet<>(result.getMisconfiguredObservations());
+        final Map<SPObservationID, ObsExclusion> obsExclusions = new TreeMap<>(result.getObsExclusions());
+
+        final Set<SPProgramID> unchanged = result.getUnchangedPrograms();
+        if (previous != null && !unchanged.isEmpty()) {
+            for (Prog prog: previous.programs) {
+                if (unchanged.contains(prog.getProgramId())) programs.add(prog);
+            }
+            for (Map.Entry<SPObservationID, ObsExclusion> e: previous.obsExclusions.entrySet()) {
+                if (unchanged.contains(e.getKey().getProgramID())) {
+                    obsExclusions.put(e.getKey(), e.getValue());
+                    if (previous.misconfiguredObservations.contains(e.getKey().toString()))
+                        misconfigured.add(e.getKey().toString());
+                }
+            }
+        }
+
         return new MiniModel(
                 peer.site,
-                result.getProgramSet(),
-                result.getMisconfiguredObservations(),
+                programs,
+                misconfigured,
                 result.getAllSemesters(),
                 result.getProgramExclusions(),
-                result.getObsExclusions());
+                obsExclusions,
+                result.getProgramVersions());
     }
 
-    private static MiniModel newInstance(KeyChain kc, Peer peer, ObsQueryFunctor functor) throws IOException, TimeoutException {
+    private static MiniModel newInstance(KeyChain kc, Peer peer, ObsQueryFunctor functor, MiniModel previous) throws IOException, TimeoutException {
 
         ClassLoader cl = Thread.currentThread().getContextClassLoader();
         try {
@@ -216,7 +289,7 @@ public class MiniModel {
 
             final IDBQueryRunner qr = TrpcClient$.MODULE$.apply(peer.host, peer.port).withKeyChain(kc).proxy(IDBQueryRunner.class);
             final ObsQueryFunctor result = qr.queryPrograms(functor);
-            return newInstanceFromExecuted(peer, result);
+            return newInstanceFromExecuted(peer, result, previous);
 
         } catch (UndeclaredThrowableException ute) {
             try {
@@ -2,6 +2,7 @@ package edu.gemini.qpt.shared.sp;
 
 import edu.gemini.ags.api.*;
 import edu.gemini.pot.sp.*;
+import edu.gemini.pot.sp.version.package$;
 import edu.gemini.pot.spdb.DBAbstractQueryFunctor;
 import edu.gemini.pot.spdb.IDBDatabaseService;
 import edu.gemini.shared.util.TimeValue;
@@ -80,6 +81,11 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor implements Iterable<
     private final SortedSet<String> allSemesters = new TreeSet<>();
     private final Map<SPProgramID, ProgramExclusion> programExclusions = new TreeMap<>();
     private final Map<SPObservationID, ObsExclusion> obsExclusions = new TreeMap<>();
+    private final Map<SPProgramID, Long> programVersions = new TreeMap<>();
+    private final SortedSet<SPProgramID> unchangedPrograms = new TreeSet<>();
+
+    // Version map checksums of the programs the client already has (incremental queries)
+    private Map<SPProgramID, Long> knownVersions = Collections.emptyMap();
 
     private final Site site;
     private final Calendar date;
@@ -163,12 +169,23 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor implements Iterable<
         this.magTable = magTable;
     }
 
+    /**
+     * Turns this into an incremental query. Programs that still have the given version map checksum are
+     * not built again, they are only reported as unchanged and the client is expected to reuse its copy.
+     * Note that all query parameters except for the semesters, program types and dates must be the same as
+     * for the query that produced the client's copy.
+     * @param versions the version map checksums of the programs the client has
+     */
+    public void setKnownVersions(Map<SPProgramID, Long> versions) {
+        this.knownVersions = new TreeMap<>(versions);
+    }
+
     @SuppressWarnings("unchecked")
     public void execute(IDBDatabaseService db, ISPNode progNode, Set<Principal> principals) {
         try {
 
             final ISPProgram programShell = (ISPProgram) progNode;
-            final SPProgram program = (SPProgram) programShell.getDataObject();
+            final SPProgram program = (SPProgram) programShell.getReadOnlyDataObject();
 
             // Get program ID and its string value. Punt if it's null.
             final SPProgramID id = programShell.getProgramID();
@@ -228,6 +245,15 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor implements Iterable<
                 }
             }
 
+            // -- skip programs the client already has, nothing below depends on anything but the program itself
+            // and the query parameters (times, observations, AGS analysis)
+            final long version = package$.MODULE$.vmChecksum(programShell.getVersions());
+            if (knownVersions.containsKey(id) && knownVersions.get(id) == version) {
+                programVersions.put(id, version);
+                unchangedPrograms.add(id);
+                return;
+            }
+
             // -- Get the science band and times
             final int band;
             long plannedTime = 0;
@@ -304,7 +330,7 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor implements Iterable<
                 } else if (rn instanceof ISPGroup) {
 
                     ISPGroup groupShell = (ISPGroup) rn;
-                    SPGroup group = (SPGroup) rn.getDataObject();
+                    SPGroup group = (SPGroup) rn.getReadOnlyDataObject();
                     List<Obs> groupObservations = new ArrayList<>();
                     List<Note> groupNotes = new ArrayList<>();
 
@@ -319,7 +345,7 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor implements Iterable<
 
                         } else {
 
-                            Object o = rn2.getDataObject();
+                            Object o = rn2.getReadOnlyDataObject();
                             if (o instanceof SPNote) {
                                 SPNote spnote = (SPNote) o;
                                 groupNotes.add(new Note(Scope.Group, spnote.getTitle(), spnote.getNote()));
@@ -334,7 +360,7 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor implements Iterable<
 
                 } else {
 
-                    Object o = rn.getDataObject();
+                    Object o = rn.getReadOnlyDataObject();
                     if (o instanceof SPNote) {
                         SPNote spnote = (SPNote) o;
                         noteList.add(new Note(Scope.Group, spnote.getTitle(), spnote.getNote()));
@@ -346,6 +372,7 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor implements Iterable<
             // Finish constructing the program.
             prog.setChildren(obsList, groupList, noteList);
             programSet.add(prog);
+            programVersions.put(id, version);
 
         } catch (Exception e) {
             LOGGER.log(Level.WARNING, "Trouble in functor.", e);
@@ -401,7 +428,7 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor implements Iterable<
     }
 
     private static Option<String> getVisitorName(ISPObsComponent shell) {
-        final Object d = shell.getDataObject();
+        final Object d = shell.getReadOnlyDataObject();
         return (d instanceof VisitorInstrument)                                         ?
             ImOption.apply(((VisitorInstrument) d).getName()).filter(n -> !n.isEmpty()) :
             ImOption.empty();
@@ -413,8 +440,8 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor implements Iterable<
             SPComponentType type = comp.getType();
 
             // This is only relevant for some instruments
-            if (type.equals(InstGNIRS.SP_TYPE)) return ((InstGNIRS) comp.getDataObject()).getCentralWavelength().doubleValue();
-            if (type.equals(InstTReCS.SP_TYPE)) return ((InstTReCS) comp.getDataObject()).getDisperserLambda();
+            if (type.equals(InstGNIRS.SP_TYPE)) return ((InstGNIRS) comp.getReadOnlyDataObject()).getCentralWavelength().doubleValue();
+            if (type.equals(InstTReCS.SP_TYPE)) return ((InstTReCS) comp.getReadOnlyDataObject()).getDisperserLambda();
 
         }
 
@@ -436,7 +463,7 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor implements Iterable<
                 // GMOS
                 if (type.equals(InstGmosNorth.SP_TYPE) || type.equals(InstGmosSouth.SP_TYPE)) {
 
-                    InstGmosCommon<?, ?, ?, ?> gmos = (InstGmosCommon<?, ?, ?, ?>) comp.getDataObject();
+                    InstGmosCommon<?, ?, ?, ?> gmos = (InstGmosCommon<?, ?, ?, ?>) comp.getReadOnlyDataObject();
                     ret.add(gmos.getFPUnit());
                     ret.add(gmos.getDisperser());
                     ret.add(gmos.getFilter());
@@ -454,7 +481,7 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor implements Iterable<
                 // Flamingos2
                 if (type.equals(Flamingos2.SP_TYPE)) {
 
-                    Flamingos2 f2 = (Flamingos2) comp.getDataObject();
+                    Flamingos2 f2 = (Flamingos2) comp.getReadOnlyDataObject();
                     ret.add(f2.getFpu());
                     ret.add(f2.getDisperser());
                     ret.add(f2.getFilter());
@@ -470,7 +497,7 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor implements Iterable<
                 // GSAOI
                 if (type.equals(Gsaoi.SP_TYPE)) {
 
-                    Gsaoi gsaoi = (Gsaoi) comp.getDataObject();
+                    Gsaoi gsaoi = (Gsaoi) comp.getReadOnlyDataObject();
                     ret.add(gsaoi.getFilter());
 
                     addFromIterators(obsShell, ret,
@@ -481,7 +508,7 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor implements Iterable<
                 // NIRI
                 if (type.equals(InstNIRI.SP_TYPE)) {
 
-                    InstNIRI niri = (InstNIRI) comp.getDataObject();
+                    InstNIRI niri = (InstNIRI) comp.getReadOnlyDataObject();
                     ret.add(niri.getFilter());
                     ret.add(niri.getDisperser());
                     ret.add(niri.getMask());
@@ -498,7 +525,7 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor implements Iterable<
                 // GNIRS
                 if (type.equals(InstGNIRS.SP_TYPE)) {
 
-                    InstGNIRS gnirs = (InstGNIRS) comp.getDataObject();
+                    InstGNIRS gnirs = (InstGNIRS) comp.getReadOnlyDataObject();
                     ret.add(gnirs.getDisperser());
                     ret.add(gnirs.getSlitWidth());
                     ret.add(gnirs.getCrossDispersed());
@@ -529,7 +556,7 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor implements Iterable<
                 // TReCS
                 if (type.equals(InstTReCS.SP_TYPE)) {
 
-                    InstTReCS trecs = (InstTReCS) comp.getDataObject();
+                    InstTReCS trecs = (InstTReCS) comp.getReadOnlyDataObject();
                     ret.add(trecs.getDisperser());
                     ret.add(trecs.getMask());
 
@@ -542,7 +569,7 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor implements Iterable<
                 // NIFS
                 if (type.equals(InstNIFS.SP_TYPE)) {
 
-                    InstNIFS nifs = (InstNIFS) comp.getDataObject();
+                    InstNIFS nifs = (InstNIFS) comp.getReadOnlyDataObject();
                     ret.add(nifs.getDisperser());
                     ret.add(nifs.getFilter());
                     ret.add(nifs.getMask());
@@ -556,7 +583,7 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor implements Iterable<
                 // NICI
                 if (type.equals(InstNICI.SP_TYPE)) {
 
-                    InstNICI nici = (InstNICI) comp.getDataObject();
+                    InstNICI nici = (InstNICI) comp.getReadOnlyDataObject();
                     ret.add(nici.getFocalPlaneMask());
                     ret.add(nici.getDichroicWheel());
                     ret.add(nici.getChannel1Fw());
@@ -572,7 +599,7 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor implements Iterable<
                 // Texes
                 if (type.equals(InstTexes.SP_TYPE)) {
 
-                    InstTexes texes = (InstTexes) comp.getDataObject();
+                    InstTexes texes = (InstTexes) comp.getReadOnlyDataObject();
                     ret.add(texes.getDisperser());
 
                     addFromIterators(obsShell, ret,
@@ -586,7 +613,7 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor implements Iterable<
 
                 // If it's altair we need to grab the guide star type
                 if (type.equals(InstAltair.SP_TYPE)) {
-                    InstAltair altair = (InstAltair)  comp.getDataObject();
+                    InstAltair altair = (InstAltair)  comp.getReadOnlyDataObject();
                     ret.add(altair.getGuideStarType());
                 }
 
@@ -594,7 +621,7 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor implements Iterable<
 
             // REL-293: check for WFS
             if (TargetObsComp.SP_TYPE.equals(type)) {
-                TargetObsComp targetObsComp = (TargetObsComp)comp.getDataObject();
+                TargetObsComp targetObsComp = (TargetObsComp)comp.getReadOnlyDataObject();
                 for(GuideProbe guideProbe : targetObsComp.getTargetEnvironment().getPrimaryGuideGroup().getReferencedGuiders()) {
                     if (guideProbe instanceof Enum) {
                         ret.add((Enum)guideProbe);
@@ -624,7 +651,7 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor implements Iterable<
 
                 // If it's altair we need to grab the guide star type
                 if (type.equals(InstAltair.SP_TYPE)) {
-                    InstAltair altair = (InstAltair) comp.getDataObject();
+                    InstAltair altair = (InstAltair) comp.getReadOnlyDataObject();
                     AltairParams.GuideStarType gs = altair.getGuideStarType();
                     if (gs == AltairParams.GuideStarType.LGS) return true;
                 }
@@ -663,7 +690,7 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor implements Iterable<
      */
     private boolean usesAverageParallacticAngle(final ISPObservation obsShell) throws RemoteException {
         return obsShell.getObsComponents().stream().anyMatch(comp -> {
-            final ISPDataObject dObj = comp.getDataObject();
+            final ISPDataObject dObj = comp.getReadOnlyDataObject();
             return (dObj instanceof PosAngleConstraintAware) && ((PosAngleConstraintAware) dObj).getPosAngleConstraint().isParallactic();
         });
     }
@@ -679,7 +706,7 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor implements Iterable<
             while (!queue.isEmpty()) {
                 seqShell = queue.removeFirst();
                 queue.addAll(seqShell.getSeqComponents());
-                Object obj = seqShell.getDataObject();
+                Object obj = seqShell.getReadOnlyDataObject();
                 if (obj instanceof SeqConfigComp) { // this should always be true, I think
                     SeqConfigComp scc = (SeqConfigComp) obj;
                     ISysConfig config = scc.getSysConfig();
@@ -751,13 +778,13 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor implements Iterable<
 
                 // GMOS
                 if (type.equals(InstGmosNorth.SP_TYPE) || type.equals(InstGmosSouth.SP_TYPE)) {
-                    InstGmosCommon<?, ?, ?, ?> gmos = (InstGmosCommon<?, ?, ?, ?>) comp.getDataObject();
+                    InstGmosCommon<?, ?, ?, ?> gmos = (InstGmosCommon<?, ?, ?, ?>) comp.getReadOnlyDataObject();
                     return gmos.getFPUnitCustomMask();
                 }
 
                 // Flamingos2 - FPU
                 if (type.equals(Flamingos2.SP_TYPE)) {
-                    Flamingos2 flam2 = (Flamingos2) comp.getDataObject();
+                    Flamingos2 flam2 = (Flamingos2) comp.getReadOnlyDataObject();
                     return flam2.getFpuCustomMask();
                 }
 
@@ -771,7 +798,7 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor implements Iterable<
     private Obs getObs(Prog info, ISPObservation obsShell, Group group) throws RemoteException {
 
         // Collect obs info
-        SPObservation obs = (SPObservation) obsShell.getDataObject();
+        SPObservation obs = (SPObservation) obsShell.getReadOnlyDataObject();
         SPObservationID id = obsShell.getObservationID(); // will never be null if there's a progid (which there is)
 
         // Only look at those that are of the proper obs class.
@@ -789,6 +816,7 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor implements Iterable<
         }
 
         // Get the target environment; NOTE: this may be null!
+        // (the target environment and site quality end up in the result, so use copies of them)
         TargetEnvironment targetEnv = null;
         for (ISPObsComponent obsCompShell: obsShell.getObsComponents()) {
             SPComponentType type = obsCompShell.getType();
@@ -902,7 +930,7 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor implements Iterable<
 
     private static boolean isRollover(ISPProgram programShell) throws RemoteException {
         try {
-            return ((SPProgram) programShell.getDataObject()).getRolloverStatus();
+            return ((SPProgram) programShell.getReadOnlyDataObject()).getRolloverStatus();
 //            return P1DocumentUtil.getGeminiPart(P1DocumentUtil.lookupProposal(programShell)).getITacExtension().getRolloverFlag();
         } catch (NullPointerException npe) {
             // If the required structure isn't there, rollover is false. This
@@ -935,6 +963,20 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor implements Iterable<
         return obsExclusions;
     }
 
+    /**
+     * Version map checksums of all programs in the result, including the unchanged ones.
+     */
+    Map<SPProgramID, Long> getProgramVersions() {
+        return programVersions;
+    }
+
+    /**
+     * Programs that were not built again because the client already has them (incremental queries).
+     */
+    public SortedSet<SPProgramID> getUnchangedPrograms() {
+        return unchangedPrograms;
+    }
+
 }
 
 
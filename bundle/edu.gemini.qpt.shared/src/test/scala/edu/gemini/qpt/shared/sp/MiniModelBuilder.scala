@@ -0,0 +1,31 @@
+package edu.gemini.qpt.shared.sp
+
+import edu.gemini.qpt.shared.util.ObsBuilder
+import edu.gemini.spModel.core.{Peer, ProgramType, SPProgramID, Semester, Site}
+import edu.gemini.spModel.gemini.obscomp.SPProgram
+import edu.gemini.spModel.obs.ObservationStatus
+import edu.gemini.spModel.obsclass.ObsClass
+
+import scala.collection.JavaConverters._
+
+/**
+ * Builds mini models with a single active program holding the observations made by the given builders, e.g.
+ * for testing code that works on a mini model without querying a database. Each call creates new Prog and Obs
+ * instances, so the builders should have explicit obs numbers if observations are compared between models.
+ */
+object MiniModelBuilder {
+
+  def apply(site: Site, programId: String, obs: List[ObsBuilder]): MiniModel = {
+    val hours = 60L * 60 * 1000
+    val prog  = new Prog(new SPProgram, SPProgramID.toProgramID(programId), true, 1, false,
+                         0L, 0L, 100 * hours, null, null, "", "", "")
+    prog.setChildren(obs.map(_.setProg(prog).apply).asJava, List.empty[Group].asJava, List.empty[Note].asJava)
+
+    // An unexecuted functor that only holds the program.
+    val result = new ObsQueryFunctor(site, Set.empty[Semester].asJava, List.empty[ProgramType].asJava,
+                                     Set.empty[ObsClass].asJava, Set.empty[ObservationStatus].asJava,
+                                     false, false, null)
+    result.getProgramSet.add(prog)
+    MiniModel.newInstanceFromExecuted(new Peer("localhost", 8443, site), result)
+  }
+}
@@ -0,0 +1,89 @@
+package edu.gemini.qpt.shared.sp
+
+import java.security.Principal
+
+import edu.gemini.pot.sp.{ISPProgram, SPNodeKey}
+import edu.gemini.pot.spdb.{DBLocalDatabase, IDBDatabaseService}
+import edu.gemini.spModel.core.{Peer, ProgramType, SPProgramID, Semester, Site}
+import edu.gemini.spModel.gemini.obscomp.SPProgram
+import edu.gemini.spModel.obs.ObservationStatus
+import edu.gemini.spModel.obsclass.ObsClass
+import org.specs2.mutable.Specification
+
+import scala.collection.JavaConverters._
+
+/**
+ * Tests incremental queries, which only build programs that changed since the client's model was created.
+ */
+object ObsQueryFunctorSpec extends Specification {
+
+  val peer = new Peer("localhost", 8443, Site.GS)
+
+  def withDb[A](f: IDBDatabaseService => A): A = {
+    val db = DBLocalDatabase.createTransient()
+    try f(db) finally db.getDBAdmin.shutdown()
+  }
+
+  def program(db: IDBDatabaseService, id: String): ISPProgram = {
+    val p = db.getFactory.createProgram(new SPNodeKey(), SPProgramID.toProgramID(id))
+    val d = p.getDataObject.asInstanceOf[SPProgram]
+    d.setQueueBand("1")
+    p.setDataObject(d)
+    db.put(p)
+    p
+  }
+
+  def query(db: IDBDatabaseService, previous: Option[MiniModel]): (ObsQueryFunctor, MiniModel) = {
+    val functor = new ObsQueryFunctor(
+      Site.GS,
+      Set(Semester.parse("2014A")).asJava,
+      List[ProgramType](ProgramType.Queue).asJava,
+      Set(ObsClass.SCIENCE).asJava,
+      Set(ObservationStatus.READY).asJava,
+      false, false, null)
+    previous.foreach(m => functor.setKnownVersions(m.getProgramVersions))
+    val result = db.getQueryRunner(java.util.Collections.emptySet[Principal]).queryPrograms(functor)
+    (result, MiniModel.newInstanceFromExecuted(peer, result, previous.orNull))
+  }
+
+  def ids(m: MiniModel): Set[String] =
+    m.getPrograms.asScala.map(_.getProgramId.stringValue).toSet
+
+  "ObsQueryFunctor" should {
+    "only build changed programs" in withDb { db =>
+      val p1 = program(db, "GS-2014A-Q-1")
+      program(db, "GS-2014A-Q-2")
+
+      val (full, m0) = query(db, None)
+      full.getProgramSet.size must_== 2
+      m0.getProgramVersions.size must_== 2
+
+      val (same, m1) = query(db, Some(m0))
+      same.getProgramSet.size must_== 0
+      same.getUnchangedPrograms.size must_== 2
+      ids(m1) must_== Set("GS-2014A-Q-1", "GS-2014A-Q-2")
+
+      val d = p1.getDataObject.asInstanceOf[SPProgram]
+      d.setTitle("changed")
+      p1.setDataObject(d)
+
+      val (changed, m2) = query(db, Some(m1))
+      changed.getProgramSet.asScala.map(_.getProgramId.stringValue) must_== Set("GS-2014A-Q-1")
+      changed.getUnchangedPrograms.asScala.map(_.stringValue) must_== Set("GS-2014A-Q-2")
+      ids(m2) must_== Set("GS-2014A-Q-1", "GS-2014A-Q-2")
+      m2.getProgramVersions must_!= m1.getProgramVersions
+    }
+
+    "drop removed programs" in withDb { db =>
+      program(db, "GS-2014A-Q-1")
+      val p2 = program(db, "GS-2014A-Q-2")
+
+      val (_, m0) = query(db, None)
+      db.removeProgram(p2.getProgramKey)
+
+      val (_, m1) = query(db, Some(m0))
+      ids(m1) must_== Set("GS-2014A-Q-1")
+      m1.getProgramVersions.keySet.asScala.map(_.stringValue) must_== Set("GS-2014A-Q-1")
+    }
+  }
+}
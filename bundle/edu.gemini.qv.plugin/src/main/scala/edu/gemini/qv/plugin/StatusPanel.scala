@@ -3,7 +3,7 @@ package edu.gemini.qv.plugin
 import edu.gemini.qv.plugin.data._
 import edu.gemini.qv.plugin.selector.ReferenceDateSelector
 import edu.gemini.qv.plugin.ui.QvGui
-import edu.gemini.qv.plugin.util.ConstraintsCache.{ConstraintCalculationEnd, ConstraintCalculationProgress, ConstraintCalculationStart}
+import edu.gemini.qv.plugin.util.ConstraintsCache.{ConstraintCalculationCacheHits, ConstraintCalculationEnd, ConstraintCalculationProgress, ConstraintCalculationStart}
 import edu.gemini.qv.plugin.util.ScheduleCache.{ScheduleLoadStart, ScheduleLoadEnd, ScheduleLoadFailed}
 import edu.gemini.qv.plugin.util._
 import scala.swing.GridBagPanel.Anchor._
@@ -19,6 +19,8 @@ class StatusPanel(ctx: QvContext) extends GridBagPanel {
 
   var constraintsTotal = 0
   var constraintsDone = 0
+  var constraintsLoaded = 0
+  var constraintsCalculated = 0
 
   val messageLabel = new Label()
 
@@ -121,13 +123,26 @@ class StatusPanel(ctx: QvContext) extends GridBagPanel {
       constraintsProgress.value = constraintsDone
       constraintsProgress.label = f"${100.0*constraintsDone/constraintsTotal}%3.0f%%"
 
+    case ConstraintCalculationCacheHits(loaded, calculated) =>
+      constraintsLoaded += loaded
+      constraintsCalculated += calculated
+
     case ConstraintCalculationEnd(c, cnt) =>
       constraintsDone += cnt
       if (constraintsDone >= constraintsTotal) {
         constraintsTotal = 0
         constraintsDone = 0
         constraintsProgress.visible = false
-        constraintsLabel.text = "All up to date."
+        val nights = constraintsLoaded + constraintsCalculated
+        if (nights == 0) {
+          constraintsLabel.text = "All up to date."
+          constraintsLabel.tooltip = null
+        } else {
+          constraintsLabel.text = f"All up to date, ${100.0*constraintsLoaded/nights}%.0f%% from cache."
+          constraintsLabel.tooltip = s"Loaded $constraintsLoaded and calculated $constraintsCalculated observation nights."
+        }
+        constraintsLoaded = 0
+        constraintsCalculated = 0
         revalidate()
       }
 
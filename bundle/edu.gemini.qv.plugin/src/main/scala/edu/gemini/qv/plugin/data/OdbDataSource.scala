@@ -31,6 +31,9 @@ class OdbDataSource(val peer: Peer, mt: MagnitudeTable) extends DataSource {
 
   def site = peer.site
 
+  // the model of the last refresh and the observation classes and statuses it was queried for
+  @volatile private var previous: Option[(Set[ObsClass], Set[ObservationStatus], MiniModel)] = None
+
   /**
    * Initiates refresh of data and update in the background.
    *
@@ -54,6 +57,13 @@ class OdbDataSource(val peer: Peer, mt: MagnitudeTable) extends DataSource {
     val javaTypes = new java.util.ArrayList[ProgramType](); selectedTypes.foreach(javaTypes.add)
     val functor = new ObsQueryFunctor(peer.site, javaSemesters, javaTypes, javaClasses, javaStatuses, !includeCompletedPrograms, !includeInactivePrograms, mt)
 
+    // only programs that changed since the last refresh need to be transferred, as long as
+    // we are asking for the same observation classes and statuses
+    val classes  = selectedClasses
+    val statuses = selectedStatuses
+    val prev     = previous.collect { case (cs, ss, m) if cs == classes && ss == statuses => m }
+    prev.foreach(m => functor.setKnownVersions(m.getProgramVersions))
+
     // create and initiate db read operation
     val client = {
       val trpc = TrpcClient(peer)
@@ -71,7 +81,9 @@ class OdbDataSource(val peer: Peer, mt: MagnitudeTable) extends DataSource {
     val obsSet = client.future[Set[Obs]] { r =>
 
       val result = r[IDBQueryRunner].queryPrograms(functor)
-      val model  = MiniModel.newInstanceFromExecuted(peer, result)
+      val model  = MiniModel.newInstanceFromExecuted(peer, result, prev.orNull)
+      previous   = Some((classes, statuses, model))
+      LOG.info(s"  >>> ${result.getUnchangedPrograms.size} of ${model.getPrograms.size} programs unchanged")
       val obs    = model.getAllObservations
       scala.collection.JavaConversions.asScalaSet[Obs](obs).toSet
 
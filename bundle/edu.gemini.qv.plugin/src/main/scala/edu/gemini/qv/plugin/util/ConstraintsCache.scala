@@ -1,6 +1,7 @@
 package edu.gemini.qv.plugin.util
 
 import java.time.Instant
+import java.util.concurrent.atomic.AtomicInteger
 
 import ConstraintsCache._
 import edu.gemini.qpt.shared.sp.{Conds, Obs}
@@ -9,9 +10,10 @@ import edu.gemini.qv.plugin.data.FoldedTargetsProvider
 import edu.gemini.qv.plugin.util.ConstraintsCache.ConstraintCalculationEnd
 import edu.gemini.qv.plugin.util.ConstraintsCache.ConstraintCalculationProgress
 import edu.gemini.qv.plugin.util.ConstraintsCache.ConstraintCalculationStart
+import edu.gemini.qv.plugin.util.ConstraintsDiskCache.NightSolutions
 import edu.gemini.qv.plugin.util.SolutionProvider.{ConstraintType, ValueType}
 import edu.gemini.skycalc.TimeUtils
-import edu.gemini.spModel.core.{Coordinates, Peer, Site}
+import edu.gemini.spModel.core.{Coordinates, NonSiderealTarget, Peer, Site}
 import edu.gemini.spModel.gemini.obscomp.SPSiteQuality
 import edu.gemini.spModel.gemini.obscomp.SPSiteQuality.TimingWindow
 import edu.gemini.util.skycalc.calc._
@@ -32,6 +34,8 @@ object ConstraintsCache {
   case class ConstraintCalculationStart(constraint: ConstraintType, cnt: Int = 1) extends CalculationEvent
   case class ConstraintCalculationEnd(constraint: ConstraintType, cnt: Int = 1) extends CalculationEvent
   case class ConstraintCalculationProgress(constraint: ConstraintType, cnt: Int = 1) extends CalculationEvent
+  /** Number of nights of observations loaded from the disk cache and calculated by the last update. */
+  case class ConstraintCalculationCacheHits(loaded: Int, calculated: Int) extends CalculationEvent
 
 
   sealed trait ConstraintConstraint extends ConstraintType
@@ -49,7 +53,7 @@ object ConstraintsCache {
 
 }
 
-class ConstraintsCache(allNights: Seq[Night]) extends Publisher {
+class ConstraintsCache(allNights: Seq[Night], diskCache: Option[ConstraintsDiskCache] = ConstraintsDiskCache.default) extends Publisher {
 
   sealed trait SolutionKey
   case class ObsKey(ct: ConstraintType, obsId: String) extends SolutionKey
@@ -133,12 +137,17 @@ class ConstraintsCache(allNights: Seq[Night]) extends Publisher {
     // (it will be needed later and slows UI interaction down too much when only initialised when needed)
     nights.map(_.moonCalculator)
 
+    val loaded = new AtomicInteger()
+    val calculated = new AtomicInteger()
+
     // do calculations for each "folded" obs, i.e. for each position
     // this can be done in parallel!
     foldedObs.par.foreach(obs => {                                   // work on observation groups in parallel!
 
       val target = (t: Long) => obs.getTargetEnvironment.getAsterism.basePosition(Some(Instant.ofEpochMilli(t))).getOrElse(Coordinates.zero)
-      calculatePosSemester(nights, target, obs, foldedMap(obs))
+      val n = calculatePosSemester(nights, target, obs, foldedMap(obs))
+      loaded.addAndGet(n)
+      calculated.addAndGet(nights.size - n)
 
       // update progress, we've calculated all constraints for obs.size observations for all nights in the semester
       Swing.onEDT({
@@ -147,22 +156,31 @@ class ConstraintsCache(allNights: Seq[Night]) extends Publisher {
 
     })
 
-    onEDT(constraints.foreach(c => {
-      publish(ConstraintCalculationEnd(c, 0))
-    }))
+    diskCache.foreach(_.prune())
+
+    onEDT({
+      publish(ConstraintCalculationCacheHits(loaded.get, calculated.get))
+      constraints.foreach(c => publish(ConstraintCalculationEnd(c, 0)))
+    })
 
   }
 
 
-  private def calculatePosSemester(nights: Seq[Night], target: Long => Coordinates, foldedObs: Obs, obs: Set[Obs]): Unit = {
+  /** Calculates the constraints for the given nights and returns the number of nights loaded from the disk cache. */
+  private def calculatePosSemester(nights: Seq[Night], target: Long => Coordinates, foldedObs: Obs, obs: Set[Obs]): Int = {
 
-    // calculate all constraints on a per-night basis and then concatenate the results
-    val cc = nights.map(n => calculatePosNight(n, target, foldedObs))
-    val ah = cc.map(_._1).reduce(_ add _)
-    val sb = cc.map(_._2).reduce(_ add _)
-    val el = cc.map(_._3).reduce(_ add _)
-    val minEl = cc.map(_._4)
-    val maxEl = cc.map(_._5)
+    // calculate all constraints on a per-night basis, unless they are stored already, and then concatenate the results
+    val key = diskKey(nights.head.site, foldedObs)
+    val days = nights.map(_.dayStart)
+    val stored = diskCache.fold(Map.empty[Long, NightSolutions])(_.find(key, days))
+    val cc = nights.map(n => stored.getOrElse(n.dayStart, calculatePosNight(n, target, foldedObs)))
+    if (stored.size < nights.size) diskCache.foreach(_.store(key, days.zip(cc)))
+
+    val ah = cc.map(_.aboveHorizon).reduce(_ add _)
+    val sb = cc.map(_.skyBrightness).reduce(_ add _)
+    val el = cc.map(_.elevation).reduce(_ add _)
+    val minEl = cc.map(_.minElevation)
+    val maxEl = cc.map(_.maxElevation)
     // timing windows for an observation are calculated once per semester only, convert windows to immutable sequence
     val tws = Seq(scala.collection.JavaConversions.asScalaBuffer(foldedObs.getTimingWindows):_*)
     val twsSol = TimingWindowConstraint(tws).solve(nights, foldedObs)
@@ -177,9 +195,24 @@ class ConstraintsCache(allNights: Seq[Night]) extends Publisher {
       valueMap.put(ObsValueKey(MaxElevation, o.getObsId), maxEl)
     })
 
+    stored.size
+  }
+
+  /**
+   * Describes everything the per night calculations for an observation depend on, see calculatePosNight().
+   * Timing windows are not part of it, their solutions are cheap and always calculated from scratch.
+   */
+  private def diskKey(site: Site, o: Obs): String = {
+    val targets = o.getTargetEnvironment.getAsterism.allTargets.list.toList.map {
+      // the string representation of non-sidereal targets only includes the size of the ephemeris
+      case t: NonSiderealTarget => t.toString + t.ephemeris.toList.map { case (time, c) => s"$time ${c.ra.toAngle.toDegrees} ${c.dec.toDegrees}" }.mkString(",")
+      case t                    => t.toString
+    }.mkString(";")
+    val minSb = Conds.getBrightestMagnitude(o.getConditions.getSB)
+    s"$site|$targets|$minSb|${o.getElevationConstraintType}|${o.getElevationConstraintMin}|${o.getElevationConstraintMax}|${o.getLGS}"
   }
 
-  private def calculatePosNight(night: Night, target: Long => Coordinates, o: Obs): (Solution, Solution, Solution, Double, Double) = {
+  private def calculatePosNight(night: Night, target: Long => Coordinates, o: Obs): NightSolutions = {
 
     import edu.gemini.spModel.gemini.obscomp.SPSiteQuality.ElevationConstraintType._
 
@@ -187,8 +220,8 @@ class ConstraintsCache(allNights: Seq[Night]) extends Publisher {
     val bounds = night.scienceTime
     val tc = TargetCalculator(night.site, target, bounds, TimeUtils.minutes(10))
 
-    // return a tuple with all values of interest
-    (
+    // return all values of interest
+    NightSolutions(
       // calculate and return the three constraints for AboveHorizon, SkyBrightness and Elevation
       {
         ElevationConstraint(0, Double.MaxValue, TimeUtils.minutes(3)).solve(bounds, tc)
@@ -0,0 +1,194 @@
+package edu.gemini.qv.plugin.util
+
+import java.io._
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, StandardCopyOption}
+import java.security.MessageDigest
+import java.util.concurrent.atomic.AtomicLong
+import java.util.logging.{Level, Logger}
+import java.util.zip.{GZIPInputStream, GZIPOutputStream}
+
+import edu.gemini.util.skycalc.calc.{Interval, Solution}
+import jsky.util.Preferences
+
+import scala.util.control.NonFatal
+
+/**
+ * Constraint solutions of observations kept on disk between sessions.  Each
+ * file holds the per night solutions for one key, which must describe all the
+ * inputs of the calculations (site, target, conditions, elevation constraints),
+ * so that changing any of them results in a different file and the solutions
+ * are calculated again.  Nights are stored by the start of their day, which
+ * allows to reuse the solutions of the nights that are still in range when the
+ * range of nights moves on.  When the files grow beyond the size limit the
+ * least recently used ones are deleted.
+ */
+final class ConstraintsDiskCache(dir: File, maxBytes: Long) {
+  import ConstraintsDiskCache._
+
+  private val hits   = new AtomicLong()
+  private val misses = new AtomicLong()
+  private val stores = new AtomicLong()
+
+  dir.mkdirs()
+  prune()
+
+  private def fileOf(key: String): File = {
+    val digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8))
+    new File(dir, digest.map(b => f"$b%02x").mkString + Suffix)
+  }
+
+  /**
+   * Finds the stored solutions of the given nights, identified by the start
+   * of their day.  Nights without stored solutions are counted as misses.
+   */
+  def find(key: String, days: Seq[Long]): Map[Long, NightSolutions] = {
+    val file   = fileOf(key)
+    val stored =
+      if (!file.exists) Map.empty[Long, NightSolutions]
+      else read(file).getOrElse {
+        Log.info(s"Removing unreadable or outdated constraints cache file $file")
+        file.delete()
+        Map.empty[Long, NightSolutions]
+      }
+    val found  = stored.filterKeys(days.toSet).toMap // filterKeys is only a view
+    if (found.nonEmpty) file.setLastModified(System.currentTimeMillis) // keep the order across sessions
+    hits.addAndGet(found.size)
+    misses.addAndGet(days.size - found.size)
+    found
+  }
+
+  /** Stores the solutions of the given nights, replacing any stored before for this key. */
+  def store(key: String, nights: Seq[(Long, NightSolutions)]): Unit =
+    try {
+      val file = fileOf(key)
+      val tmp  = File.createTempFile("constraints", ".tmp", dir)
+      try {
+        write(tmp, nights)
+        Files.move(tmp.toPath, file.toPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+      } finally {
+        tmp.delete()
+      }
+      stores.incrementAndGet()
+    } catch {
+      case ex: IOException =>
+        Log.log(Level.WARNING, s"Could not store constraint solutions in $dir", ex)
+    }
+
+  private def read(f: File): Option[Map[Long, NightSolutions]] =
+    try {
+      val in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))
+      try {
+        if (in.readInt() != Magic || in.readInt() != Version) None
+        else {
+          val data = new DataInputStream(new BufferedInputStream(new GZIPInputStream(in)))
+          Some(Seq.fill(data.readInt()) {
+            val day = data.readLong()
+            day -> NightSolutions(readSolution(data), readSolution(data), readSolution(data), data.readDouble(), data.readDouble())
+          }.toMap)
+        }
+      } finally {
+        in.close()
+      }
+    } catch {
+      case NonFatal(_) => None
+    }
+
+  /** Deletes the least recently used files until they fit in the size limit. */
+  def prune(): Unit = synchronized {
+    val files = Option(dir.listFiles).fold(List.empty[File])(_.toList).filter(_.getName.endsWith(Suffix))
+    var total = files.map(_.length).sum
+    files.sortBy(_.lastModified).foreach { f =>
+      if (total > maxBytes) {
+        total -= f.length
+        f.delete()
+      }
+    }
+  }
+
+  /** Gets the current counters. */
+  def stats: Stats = {
+    val files = Option(dir.listFiles).fold(List.empty[File])(_.toList).filter(_.getName.endsWith(Suffix))
+    Stats(hits.get, misses.get, stores.get, files.size, files.map(_.length).sum)
+  }
+
+}
+
+object ConstraintsDiskCache {
+  private val Log = Logger.getLogger(classOf[ConstraintsDiskCache].getName)
+
+  /** System property with the cache directory, or "none" to disable it. */
+  val DirProp = "edu.gemini.qv.constraintsCache"
+
+  /** System property with the maximum size of the cache files in MB. */
+  val SizeProp = "edu.gemini.qv.constraintsCacheMB"
+
+  private val Magic   = 0x47515643 // "GQVC"
+  // Must be changed whenever the calculations of the solutions change.
+  private val Version = 1
+  private val Suffix  = ".qvc"
+
+  /** The solutions and values calculated for an observation in a single night. */
+  case class NightSolutions(aboveHorizon: Solution, skyBrightness: Solution, elevation: Solution, minElevation: Double, maxElevation: Double)
+
+  /** Counters describing the use of the cache, hits and misses are counted in nights. */
+  case class Stats(hits: Long, misses: Long, stores: Long, files: Int, bytes: Long)
+
+  /**
+   * The cache shared by all sites, in the jsky cache directory unless set
+   * with the `edu.gemini.qv.constraintsCache` property.
+   */
+  lazy val default: Option[ConstraintsDiskCache] = {
+    val dir = Option(System.getProperty(DirProp)).map(_.trim).getOrElse {
+      new File(Preferences.getPreferences.getCacheDir, "qv-constraints").getPath
+    }
+    val mb  = Option(System.getProperty(SizeProp)).fold(200L) { s =>
+      try s.trim.toLong catch {
+        case ex: NumberFormatException =>
+          Log.log(Level.WARNING, s"Could not parse $SizeProp value '$s', using 200", ex)
+          200L
+      }
+    }
+
+    if (dir.equalsIgnoreCase("none")) None
+    else
+      try Some(new ConstraintsDiskCache(new File(dir), (mb max 0) * 1024 * 1024)) catch {
+        case ex: Exception =>
+          Log.log(Level.WARNING, s"Could not open the constraints cache at $dir", ex)
+          None
+      }
+  }
+
+  private def readSolution(in: DataInputStream): Solution =
+    Solution(Seq.fill(in.readInt())(Interval(in.readLong(), in.readLong())))
+
+  private def writeSolution(out: DataOutputStream, s: Solution): Unit = {
+    out.writeInt(s.intervals.size)
+    s.intervals.foreach { i =>
+      out.writeLong(i.start)
+      out.writeLong(i.end)
+    }
+  }
+
+  private def write(f: File, nights: Seq[(Long, NightSolutions)]): Unit = {
+    val out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)))
+    try {
+      out.writeInt(Magic)
+      out.writeInt(Version)
+      val data = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(out)))
+      data.writeInt(nights.size)
+      nights.foreach { case (day, n) =>
+        data.writeLong(day)
+        writeSolution(data, n.aboveHorizon)
+        writeSolution(data, n.skyBrightness)
+        writeSolution(data, n.elevation)
+        data.writeDouble(n.minElevation)
+        data.writeDouble(n.maxElevation)
+      }
+      data.close()
+    } finally {
+      out.close()
+    }
+  }
+
+}
@@ -0,0 +1,70 @@
+package edu.gemini.qv.plugin.util
+
+import java.io.File
+import java.nio.file.Files
+
+import edu.gemini.qv.plugin.util.ConstraintsDiskCache.NightSolutions
+import edu.gemini.util.skycalc.calc.{Interval, Solution}
+import org.specs2.mutable.Specification
+
+class ConstraintsDiskCacheSpec extends Specification {
+
+  def tempDir: File =
+    Files.createTempDirectory("constraints-cache").toFile
+
+  def night(day: Long): (Long, NightSolutions) =
+    day -> NightSolutions(Solution(day + 10, day + 20), Solution(), Solution(Seq(Interval(day + 11, day + 12), Interval(day + 15, day + 19))), 12.5, 80.0)
+
+  val nights = (0L until 5L).map(d => night(d * 1000))
+  val days   = nights.map(_._1)
+
+  "ConstraintsDiskCache" should {
+    "find the stored nights" in {
+      val cache = new ConstraintsDiskCache(tempDir, Long.MaxValue)
+      cache.store("a", nights)
+
+      cache.find("a", days) should beEqualTo(nights.toMap)
+      cache.find("a", days.drop(3) :+ 9000L) should beEqualTo(nights.drop(3).toMap)
+      cache.find("b", days) should beEqualTo(Map.empty)
+      cache.stats.hits should beEqualTo(7)
+      cache.stats.misses should beEqualTo(6)
+    }
+    "keep solutions between sessions" in {
+      val dir = tempDir
+      new ConstraintsDiskCache(dir, Long.MaxValue).store("a", nights)
+
+      val cache = new ConstraintsDiskCache(dir, Long.MaxValue)
+      cache.stats.files should beEqualTo(1)
+      cache.find("a", days) should beEqualTo(nights.toMap)
+    }
+    "replace the nights stored for a key" in {
+      val cache = new ConstraintsDiskCache(tempDir, Long.MaxValue)
+      cache.store("a", nights.take(2))
+      cache.store("a", nights.drop(2))
+
+      cache.find("a", days) should beEqualTo(nights.drop(2).toMap)
+      cache.stats.files should beEqualTo(1)
+    }
+    "ignore unreadable files" in {
+      val dir = tempDir
+      new ConstraintsDiskCache(dir, Long.MaxValue).store("a", nights)
+      dir.listFiles.foreach(f => Files.write(f.toPath, Array[Byte](1, 2, 3)))
+
+      val cache = new ConstraintsDiskCache(dir, Long.MaxValue)
+      cache.find("a", days) should beEqualTo(Map.empty)
+      cache.stats.files should beEqualTo(0)
+    }
+    "delete the least recently used files" in {
+      val dir   = tempDir
+      val cache = new ConstraintsDiskCache(dir, Long.MaxValue)
+      cache.store("a", nights)
+      val size  = cache.stats.bytes
+      dir.listFiles.foreach(_.setLastModified(System.currentTimeMillis - 60000))
+      cache.store("b", nights)
+
+      val small = new ConstraintsDiskCache(dir, size)
+      small.find("a", days) should beEqualTo(Map.empty)
+      small.find("b", days) should beEqualTo(nights.toMap)
+    }
+  }
+}
@@ -55,6 +55,13 @@ class VcsServer(odb: IDBDatabaseService) { vs =>
     * copy.  If successful, the copy replaces the current version of the program
     * in the database.
     *
+    * The copy is made with `copyWithSameKeys`, which duplicates the node tree
+    * but shares the (privately held, copy-on-access) data objects of the
+    * original so its cost is proportional to the number of nodes rather than
+    * the size of their data.  Keeping the original intact until the copy is
+    * stored means a failed update leaves the program untouched and program
+    * replacement listeners can compare the old and new versions.
+    *
     * @param id program id
     * @param user authentication
     * @param evaluate a function to compute a value which is used to determine
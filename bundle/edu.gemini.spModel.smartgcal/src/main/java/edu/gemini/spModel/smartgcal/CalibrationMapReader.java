@@ -96,11 +96,8 @@ public class CalibrationMapReader {
                 // translate this line
                 Properties properties = createProperties(header, values);
                 Calibration calibration = map.createCalibration(properties);
-                Set<ConfigurationKey> keys = map.createConfig(properties);
-                // insert all keys and the calibration
-                for (ConfigurationKey key : keys) {
-                    map.put(key, properties, calibration);
-                }
+                // insert the calibration for all keys covered by this line
+                map.put(properties, calibration);
 
             } catch (Exception e) {
                 addError(e.getMessage());
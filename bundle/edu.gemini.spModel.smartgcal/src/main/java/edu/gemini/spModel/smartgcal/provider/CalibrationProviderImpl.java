@@ -12,9 +12,11 @@ import java.awt.event.ActionListener;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.logging.Logger;
 import java.util.stream.Stream;
 
 /**
@@ -23,15 +25,22 @@ import java.util.stream.Stream;
  */
 public class CalibrationProviderImpl implements CalibrationProvider, ActionListener {
 
+    private static final Logger LOG = Logger.getLogger(CalibrationProviderImpl.class.getName());
+
     private static SimpleDateFormat sdf = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss z");
 
     private CalibrationRepository repository;
     private Map<String, CalibrationMap> cache;
 
     public CalibrationProviderImpl(CalibrationRepository repository) {
+        this(repository, Collections.<String, CalibrationMap>emptyMap());
+    }
+
+    // Creates a provider that reuses the given maps if their version is still current.
+    private CalibrationProviderImpl(CalibrationRepository repository, Map<String, CalibrationMap> previous) {
         this.repository = repository;
         this.cache = new HashMap<String, CalibrationMap>(32);
-        init();
+        init(previous);
     }
 
     @Override
@@ -92,11 +101,10 @@ public class CalibrationProviderImpl implements CalibrationProvider, ActionListe
     }
 
     public void update() {
-        // after an update make sure that in-memory maps and updated files are in sync.
-        // NOTE: if for some reason this is too much of a performance penalty it would be possible
-        // to just re-read the files that are indeed newer than the ones in memory. Currently
-        // it seems to work fine just like that.
-        CalibrationProviderImpl newProvider = new CalibrationProviderImpl(repository);
+        // after an update make sure that in-memory maps and updated files are in sync; only the
+        // files that are newer than the ones in memory are read again, the other maps are shared
+        // with the new provider (they are not modified after they are read)
+        CalibrationProviderImpl newProvider = new CalibrationProviderImpl(repository, cache);
         CalibrationProviderHolder.setProvider(newProvider);
         // UX-1426: remove update listener on this (old data) -> avoid memory leak!
         CalibrationUpdater.instance.removeListener(this);
@@ -105,10 +113,21 @@ public class CalibrationProviderImpl implements CalibrationProvider, ActionListe
     }
 
     public void init() {
+        init(Collections.<String, CalibrationMap>emptyMap());
+    }
+
+    private void init(Map<String, CalibrationMap> previous) {
         for (String instrument : SmartGcalService.getInstrumentNames()) {
             for (Calibration.Type type : SmartGcalService.getAvailableTypes(instrument)) {
                 String mapKey = getKey(type, instrument);
-                CalibrationMap map = readMap(type, instrument);
+                CalibrationMap map = previous.get(mapKey);
+                if (map == null || !map.getVersion().equals(readVersion(type, instrument))) {
+                    long start = System.currentTimeMillis();
+                    map = readMap(type, instrument);
+                    if (!previous.isEmpty()) {
+                        LOG.info(String.format("Reloaded %s version %s in %d ms", mapKey, map.getVersion(), System.currentTimeMillis() - start));
+                    }
+                }
                 this.cache.put(mapKey, map);
             }
         }
@@ -137,6 +156,14 @@ public class CalibrationProviderImpl implements CalibrationProvider, ActionListe
         return cache.get(mapKey);
     }
 
+    private Version readVersion(Calibration.Type type, String instrument) {
+        try {
+            return repository.getVersion(type, instrument);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     private CalibrationMap readMap(Calibration.Type type, String instrument) {
         try {
             CalibrationFile file = repository.getCalibrationFile(type, instrument);
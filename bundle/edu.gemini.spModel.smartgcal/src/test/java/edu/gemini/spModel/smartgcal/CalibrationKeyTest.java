@@ -94,4 +94,21 @@ public class CalibrationKeyTest {
         }
     }
 
+    @Test
+    public void adjacentRangesDoNotOverlap() {
+        WavelengthRange low  = new WavelengthRange(10.0d, 20.0d);
+        WavelengthRange high = new WavelengthRange(20.0d, 30.0d);
+        Assert.assertFalse(low.overlaps(high));
+        Assert.assertFalse(high.overlaps(low));
+        Assert.assertTrue(low.overlaps(new WavelengthRange(19.0d, 21.0d)));
+        Assert.assertTrue(high.overlaps(new WavelengthRange(19.0d, 21.0d)));
+
+        // in descending order too
+        WavelengthRangeSet rangeSet = new WavelengthRangeSet();
+        rangeSet.add(high, null);
+        rangeSet.add(low, null);
+        Assert.assertEquals(low, rangeSet.findRange(19.0d).getValue());
+        Assert.assertEquals(high, rangeSet.findRange(20.0d).getValue());
+    }
+
 }
@@ -0,0 +1,125 @@
+package edu.gemini.spModel.smartgcal;
+
+import edu.gemini.spModel.gemini.calunit.smartgcal.Calibration;
+import edu.gemini.spModel.gemini.calunit.smartgcal.CalibrationFile;
+import edu.gemini.spModel.gemini.calunit.smartgcal.CalibrationMap;
+import edu.gemini.spModel.gemini.calunit.smartgcal.ConfigurationKey;
+import edu.gemini.spModel.gemini.calunit.smartgcal.SmartGcalService;
+import edu.gemini.spModel.gemini.calunit.smartgcal.keys.WavelengthRange;
+import edu.gemini.spModel.gemini.calunit.smartgcal.keys.WavelengthRangeSet;
+import edu.gemini.spModel.gemini.calunit.smartgcal.maps.CentralWavelengthMap;
+import edu.gemini.spModel.gemini.gmos.InstGmosNorth;
+import edu.gemini.spModel.gemini.gmos.InstGmosSouth;
+import edu.gemini.spModel.gemini.gnirs.InstGNIRS;
+import edu.gemini.spModel.gemini.nifs.InstNIFS;
+import edu.gemini.spModel.smartgcal.repository.CalibrationResourceRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Compares the memory footprint and lookup latency of the trie based central
+ * wavelength maps with maps holding one entry per expanded key, for the
+ * calibration files shipped with the bundle.  Not a unit test; run it by
+ * hand (with a fixed heap, e.g. -Xms1g -Xmx1g, for stable numbers):
+ *
+ * <pre>
+ *   CalibrationMapBenchmark [lookups=1000000]
+ * </pre>
+ */
+public final class CalibrationMapBenchmark {
+
+    private static final String[] INSTRUMENTS = {
+        InstGmosNorth.SP_TYPE.readableStr,
+        InstGmosSouth.SP_TYPE.readableStr,
+        InstGNIRS.SP_TYPE.readableStr,
+        InstNIFS.SP_TYPE.readableStr
+    };
+
+    private static final class Lookup {
+        final ConfigurationKey key;
+        final double wavelength;
+
+        Lookup(ConfigurationKey key, double wavelength) {
+            this.key        = key;
+            this.wavelength = wavelength;
+        }
+    }
+
+    private static long usedMemory() {
+        final Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; ++i) System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    // Heap retained by the map created by the supplier, in KB.
+    private static long footprint(Supplier<CalibrationMap> s) {
+        final long before = usedMemory();
+        final CalibrationMap map = s.get();
+        final long after = usedMemory();
+        if (map.getVersion() == null) throw new IllegalStateException(); // keep the map alive
+        return (after - before) / 1024;
+    }
+
+    private static ExpandedCalibrationMap expanded(String instrument, CalibrationFile file) {
+        final ExpandedCalibrationMap map = new ExpandedCalibrationMap((CentralWavelengthMap) CalibrationMapFactory.createEmpty(instrument, file.getVersion()));
+        new CalibrationMapReader(map).read(file.getData().getBytes());
+        return map;
+    }
+
+    // Random keys of the map, with wavelengths in and out of their ranges.
+    private static List<Lookup> lookups(ExpandedCalibrationMap map, int count) {
+        final List<Lookup> all = new ArrayList<>();
+        for (Map.Entry<ConfigurationKey, WavelengthRangeSet> me : map.getRangesMap().entrySet()) {
+            for (WavelengthRange r : me.getValue().getRangeMap().keySet()) {
+                all.add(new Lookup(me.getKey(), r.getMin()));
+                all.add(new Lookup(me.getKey(), r.getMin() - 0.001));
+            }
+        }
+        final Random rnd = new Random(42);
+        final List<Lookup> res = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) res.add(all.get(rnd.nextInt(all.size())));
+        return res;
+    }
+
+    // Average lookup time in ns.
+    private static double latency(CalibrationMap map, List<Lookup> lookups) {
+        long found = 0;
+        for (Lookup l : lookups) found += map.get(l.key, l.wavelength).size(); // warm up
+        final long start = System.nanoTime();
+        for (Lookup l : lookups) found += map.get(l.key, l.wavelength).size();
+        final long time = System.nanoTime() - start;
+        if (found < 0) throw new IllegalStateException();
+        return (double) time / lookups.size();
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int count = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+        final CalibrationResourceRepository repository = new CalibrationResourceRepository();
+
+        System.out.printf("%-16s %8s %12s %12s %12s %12s%n", "map", "lines", "expanded KB", "trie KB", "expanded ns", "trie ns");
+        for (String instrument : INSTRUMENTS) {
+            for (Calibration.Type type : SmartGcalService.getAvailableTypes(instrument)) {
+                final CalibrationFile file = repository.getCalibrationFile(type, instrument);
+
+                final long expandedKb = footprint(() -> expanded(instrument, file));
+                final long trieKb     = footprint(() -> CalibrationMapFactory.createFromData(instrument, file));
+
+                final ExpandedCalibrationMap expanded = expanded(instrument, file);
+                final CalibrationMap trie = CalibrationMapFactory.createFromData(instrument, file);
+                final List<Lookup> lookups = lookups(expanded, count);
+
+                System.out.printf("%-16s %8d %12d %12d %12.1f %12.1f%n",
+                        instrument + " " + type,
+                        ((CentralWavelengthMap) trie).size(),
+                        expandedKb,
+                        trieKb,
+                        latency(expanded, lookups),
+                        latency(trie, lookups));
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package edu.gemini.spModel.smartgcal;
+
+import edu.gemini.spModel.gemini.calunit.smartgcal.Calibration;
+import edu.gemini.spModel.gemini.calunit.smartgcal.CalibrationFile;
+import edu.gemini.spModel.gemini.calunit.smartgcal.CalibrationMap;
+import edu.gemini.spModel.gemini.calunit.smartgcal.ConfigurationKey;
+import edu.gemini.spModel.gemini.calunit.smartgcal.SmartGcalService;
+import edu.gemini.spModel.gemini.calunit.smartgcal.keys.WavelengthRange;
+import edu.gemini.spModel.gemini.calunit.smartgcal.keys.WavelengthRangeSet;
+import edu.gemini.spModel.gemini.calunit.smartgcal.maps.CentralWavelengthMap;
+import edu.gemini.spModel.gemini.gmos.InstGmosNorth;
+import edu.gemini.spModel.gemini.gmos.InstGmosSouth;
+import edu.gemini.spModel.gemini.gnirs.InstGNIRS;
+import edu.gemini.spModel.gemini.nifs.InstNIFS;
+import edu.gemini.spModel.smartgcal.repository.CalibrationResourceRepository;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Checks that the trie based central wavelength maps find the same
+ * calibrations as maps with one entry per expanded key for the calibration
+ * files shipped with the bundle.
+ */
+public class CentralWavelengthMapTest {
+
+    private static final CalibrationResourceRepository repository = new CalibrationResourceRepository();
+
+    private static final String[] INSTRUMENTS = {
+        InstGmosNorth.SP_TYPE.readableStr,
+        InstGmosSouth.SP_TYPE.readableStr,
+        InstGNIRS.SP_TYPE.readableStr,
+        InstNIFS.SP_TYPE.readableStr
+    };
+
+    private static List<String> export(List<Calibration> cals) {
+        return cals.stream().map(c -> c.export().mkString("", ",", "")).collect(Collectors.toList());
+    }
+
+    private static void assertSameCalibrations(String instrument, Calibration.Type type) throws Exception {
+        final CalibrationFile file = repository.getCalibrationFile(type, instrument);
+
+        final CalibrationMap trie = CalibrationMapFactory.createFromData(instrument, file);
+        final ExpandedCalibrationMap expanded = new ExpandedCalibrationMap((CentralWavelengthMap) CalibrationMapFactory.createEmpty(instrument, file.getVersion()));
+        final CalibrationMapReader reader = new CalibrationMapReader(expanded);
+        reader.read(file.getData().getBytes());
+        Assert.assertFalse(reader.hasErrors());
+
+        for (Map.Entry<ConfigurationKey, WavelengthRangeSet> me : expanded.getRangesMap().entrySet()) {
+            final ConfigurationKey key = me.getKey();
+            for (WavelengthRange r : me.getValue().getRangeMap().keySet()) {
+                final List<Double> wavelengths = new ArrayList<>();
+                wavelengths.add(r.getMin());
+                wavelengths.add(r.getMin() - 0.001);
+                if (r.getMax() != Double.MAX_VALUE) {
+                    wavelengths.add((r.getMin() + r.getMax()) / 2);
+                    wavelengths.add(r.getMax());
+                }
+                for (Double wl : wavelengths) {
+                    Assert.assertEquals(instrument + " " + type + " " + key.export() + " " + wl,
+                            export(expanded.get(key, wl)), export(trie.get(key, wl)));
+                }
+            }
+        }
+
+        // one exported row per key, range and calibration
+        Assert.assertEquals(rows(expanded), rows(trie));
+    }
+
+    private static List<String> rows(CalibrationMap map) {
+        return map.export().map(r -> r.mkString("", ",", "")).sorted().collect(Collectors.toList());
+    }
+
+    @Test
+    public void findsSameCalibrationsAsExpandedMaps() throws Exception {
+        for (String instrument : INSTRUMENTS) {
+            for (Calibration.Type type : SmartGcalService.getAvailableTypes(instrument)) {
+                assertSameCalibrations(instrument, type);
+            }
+        }
+    }
+
+    @Test
+    public void storesEachLineOnce() throws Exception {
+        final CalibrationFile file = repository.getCalibrationFile(Calibration.Type.FLAT, InstGmosSouth.SP_TYPE.readableStr);
+        final CentralWavelengthMap map = (CentralWavelengthMap) CalibrationMapFactory.createFromData(InstGmosSouth.SP_TYPE.readableStr, file);
+
+        final ExpandedCalibrationMap expanded = new ExpandedCalibrationMap(map);
+        new CalibrationMapReader(expanded).read(file.getData().getBytes());
+
+        Assert.assertTrue(map.size() > 0);
+        Assert.assertTrue(map.size() < expanded.getRangesMap().size());
+    }
+}
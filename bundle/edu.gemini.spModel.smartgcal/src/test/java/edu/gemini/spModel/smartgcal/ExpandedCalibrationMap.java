@@ -0,0 +1,87 @@
+package edu.gemini.spModel.smartgcal;
+
+import edu.gemini.shared.util.immutable.ImList;
+import edu.gemini.spModel.gemini.calunit.smartgcal.Calibration;
+import edu.gemini.spModel.gemini.calunit.smartgcal.CalibrationMap;
+import edu.gemini.spModel.gemini.calunit.smartgcal.ConfigurationKey;
+import edu.gemini.spModel.gemini.calunit.smartgcal.Version;
+import edu.gemini.spModel.gemini.calunit.smartgcal.keys.WavelengthRange;
+import edu.gemini.spModel.gemini.calunit.smartgcal.keys.WavelengthRangeSet;
+import edu.gemini.spModel.gemini.calunit.smartgcal.maps.CentralWavelengthMap;
+
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Central wavelength map that expands every line of a calibration file into
+ * all the keys it covers and keeps a hash map entry for each one of them, the
+ * way central wavelength maps used to work.  Used as a reference for the trie
+ * based maps.
+ */
+public class ExpandedCalibrationMap implements CalibrationMap {
+
+    private final CentralWavelengthMap keys;
+    private final Map<ConfigurationKey, WavelengthRangeSet> rangesMap = new HashMap<>(40000);
+
+    /**
+     * Creates an expanded map that parses and exports lines like the given map.
+     */
+    public ExpandedCalibrationMap(CentralWavelengthMap keys) {
+        this.keys = keys;
+    }
+
+    @Override
+    public Set<ConfigurationKey> createConfig(Properties properties) {
+        return keys.createConfig(properties);
+    }
+
+    @Override
+    public Calibration createCalibration(Properties properties) {
+        return keys.createCalibration(properties);
+    }
+
+    @Override
+    public ConfigurationKey.Values[] getKeyValueNames() {
+        return keys.getKeyValueNames();
+    }
+
+    @Override
+    public ConfigurationKey.Values[] getCalibrationValueNames() {
+        return keys.getCalibrationValueNames();
+    }
+
+    @Override
+    public Calibration put(ConfigurationKey key, Properties properties, Calibration calibration) {
+        final WavelengthRange range = WavelengthRange.parse(properties.getProperty(CentralWavelengthMap.WAVELENGTH_RANGE_NAME));
+        rangesMap.computeIfAbsent(key, k -> new WavelengthRangeSet()).add(range, calibration);
+        return calibration;
+    }
+
+    @Override
+    public List<Calibration> get(ConfigurationKey key) {
+        return keys.get(key); // central wavelength maps need a wavelength
+    }
+
+    @Override
+    public List<Calibration> get(ConfigurationKey key, Double centralWavelength) {
+        final WavelengthRangeSet rangeSet = rangesMap.get(key);
+        return (rangeSet == null) ? new ArrayList<>() : rangeSet.findCalibrations(centralWavelength);
+    }
+
+    /** Gets all the keys of the map with their wavelength ranges. */
+    public Map<ConfigurationKey, WavelengthRangeSet> getRangesMap() {
+        return Collections.unmodifiableMap(rangesMap);
+    }
+
+    @Override
+    public Version getVersion() {
+        return keys.getVersion();
+    }
+
+    @Override
+    public Stream<ImList<String>> export() {
+        return rangesMap.entrySet().stream().flatMap(me ->
+            me.getValue().getRangeMap().entrySet().stream().flatMap(rc ->
+                rc.getValue().stream().map(c -> keys.exportRow(me.getKey(), rc.getKey(), c))));
+    }
+}
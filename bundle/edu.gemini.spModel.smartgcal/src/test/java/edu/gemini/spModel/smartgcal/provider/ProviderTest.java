@@ -3,7 +3,11 @@ package edu.gemini.spModel.smartgcal.provider;
 import edu.gemini.spModel.gemini.calunit.CalUnitParams;
 import edu.gemini.spModel.gemini.calunit.smartgcal.Calibration;
 import edu.gemini.spModel.gemini.calunit.smartgcal.CalibrationKey;
+import edu.gemini.spModel.gemini.calunit.smartgcal.CalibrationFile;
 import edu.gemini.spModel.gemini.calunit.smartgcal.CalibrationProvider;
+import edu.gemini.spModel.gemini.calunit.smartgcal.CalibrationProviderHolder;
+import edu.gemini.spModel.gemini.calunit.smartgcal.CalibrationRepository;
+import edu.gemini.spModel.gemini.calunit.smartgcal.Version;
 import edu.gemini.spModel.gemini.calunit.smartgcal.keys.CalibrationKeyImpl;
 import edu.gemini.spModel.gemini.calunit.smartgcal.keys.ConfigKeyGmosNorth;
 import edu.gemini.spModel.gemini.calunit.smartgcal.keys.ConfigKeyGmosSouth;
@@ -11,11 +15,14 @@ import edu.gemini.spModel.gemini.calunit.smartgcal.keys.ConfigKeyGnirs;
 import edu.gemini.spModel.gemini.gmos.GmosCommonType;
 import edu.gemini.spModel.gemini.gmos.GmosNorthType;
 import edu.gemini.spModel.gemini.gmos.GmosSouthType;
+import edu.gemini.spModel.gemini.gmos.InstGmosSouth;
 import edu.gemini.spModel.gemini.gnirs.GNIRSParams;
 import edu.gemini.spModel.smartgcal.repository.CalibrationResourceRepository;
+import edu.gemini.spModel.smartgcal.repository.CalibrationUpdater;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.IOException;
 import java.util.List;
 
 /**
@@ -120,4 +127,49 @@ public class ProviderTest {
         Assert.assertTrue(calibrations.get(1).isArc());
      }
 
+    // Repository that counts the files read and reports a newer version of one of them.
+    private static final class ChangingRepository implements CalibrationRepository {
+        private final CalibrationResourceRepository delegate = new CalibrationResourceRepository();
+        int reads = 0;
+        String changed = null;
+
+        private Version version(Version v, Calibration.Type type, String instrument) {
+            return (instrument + type).equals(changed) ? new Version(v.getRevision().longValue() + 1, v.getTimestamp()) : v;
+        }
+
+        @Override
+        public Version getVersion(Calibration.Type type, String instrument) throws IOException {
+            return version(delegate.getVersion(type, instrument), type, instrument);
+        }
+
+        @Override
+        public CalibrationFile getCalibrationFile(Calibration.Type type, String instrument) throws IOException {
+            ++reads;
+            final CalibrationFile f = delegate.getCalibrationFile(type, instrument);
+            return new CalibrationFile(version(f.getVersion(), type, instrument), f.getData());
+        }
+    }
+
+    @Test
+    public void updateRereadsOnlyChangedFiles() throws Exception {
+        final CalibrationProvider holder = CalibrationProviderHolder.getProvider();
+        final ChangingRepository repo = new ChangingRepository();
+        final CalibrationProviderImpl provider = new CalibrationProviderImpl(repo);
+        final int reads = repo.reads;
+        final String gmosS = InstGmosSouth.SP_TYPE.readableStr;
+        final Version version = provider.getVersion(Calibration.Type.FLAT, gmosS);
+
+        repo.changed = gmosS + Calibration.Type.FLAT;
+        provider.update();
+        final CalibrationProvider updated = CalibrationProviderHolder.getProvider();
+        try {
+            Assert.assertEquals(reads + 1, repo.reads);
+            Assert.assertEquals(version.getRevision().longValue() + 1, updated.getVersion(Calibration.Type.FLAT, gmosS).getRevision().longValue());
+            Assert.assertEquals(provider.getVersionInfo().size(), updated.getVersionInfo().size());
+        } finally {
+            CalibrationUpdater.instance.removeListener((CalibrationProviderImpl) updated);
+            CalibrationProviderHolder.setProvider(holder);
+        }
+    }
+
 }
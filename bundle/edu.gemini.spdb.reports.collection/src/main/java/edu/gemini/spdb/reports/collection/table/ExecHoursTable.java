@@ -67,7 +67,7 @@ public class ExecHoursTable extends AbstractTable {
 //		try {
 
 			ISPProgram prog = (ISPProgram) node;
-			SPProgram program = (SPProgram) prog.getDataObject();
+			SPProgram program = (SPProgram) prog.getReadOnlyDataObject();
 
 			// Skip irrelevant programs.
             if (!TypeCheck.isScienceType(prog.getProgramID())) return Collections.emptyList();
@@ -89,7 +89,7 @@ public class ExecHoursTable extends AbstractTable {
 			row.put(Columns.PARTNER_HRS, charges.getTime(ChargeClass.PARTNER) / MS_PER_HOUR);
 			row.put(Columns.PROGRAM_HRS, charges.getTime(ChargeClass.PROGRAM) / MS_PER_HOUR);
 
-			SPProgram sp = (SPProgram) prog.getDataObject();
+			SPProgram sp = (SPProgram) prog.getReadOnlyDataObject();
 			row.put(Columns.PI_AFFILIATE, sp.getPIInfo().getAffiliate());
 			row.put(Columns.PI_FIRST_NAME, sp.getPIInfo().getFirstName());
 			row.put(Columns.PI_LAST_NAME, sp.getPIInfo().getLastName());
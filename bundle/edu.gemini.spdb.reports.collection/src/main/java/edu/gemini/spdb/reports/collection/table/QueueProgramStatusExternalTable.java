@@ -86,7 +86,7 @@ public final class QueueProgramStatusExternalTable extends AbstractTable {
             final Optional<Semester> semester = ReportUtils.getSemester(id);
 
             // Fetch the program itself.
-            final SPProgram prog = (SPProgram) progShell.getDataObject();
+            final SPProgram prog = (SPProgram) progShell.getReadOnlyDataObject();
 
             // Get the Queue band. If it's missing or invalid, log and punt.
             final String sband = prog.getQueueBand();
@@ -42,7 +42,7 @@ public class ReportUtils {
 	public static String getPlanningNoteTitle(ISPProgram progShell)  {
 		for (Object o: progShell.getChildren()) {
 			if (o instanceof ISPObsComponent && ((ISPObsComponent) o).getType() == ProgramNote.SP_TYPE) {
-				ProgramNote note = (ProgramNote) ((ISPObsComponent) o).getDataObject();
+				ProgramNote note = (ProgramNote) ((ISPObsComponent) o).getReadOnlyDataObject();
                 // SCT-286 (#3): now they only want to see the title, not the whole
                 // note text
                 return note.getEditableTitle();
@@ -71,7 +71,7 @@ public class ReportUtils {
 
 	public static boolean isRollover(ISPProgram programShell)  {
 		try {
-            return ((SPProgram) programShell.getDataObject()).getRolloverStatus();
+            return ((SPProgram) programShell.getReadOnlyDataObject()).getRolloverStatus();
 //			return P1DocumentUtil.getGeminiPart(P1DocumentUtil.lookupProposal(programShell)).getITacExtension().getRolloverFlag();
         } catch (NullPointerException npe) {
             // If the required structure isn't there, rollover is false. This
@@ -82,7 +82,7 @@ public class ReportUtils {
     }
 
     public static long getBand3Minimum(ISPProgram programShell)  {
-        TimeValue tv = ((SPProgram) programShell.getDataObject()).getMinimumTime();
+        TimeValue tv = ((SPProgram) programShell.getReadOnlyDataObject()).getMinimumTime();
         if (tv == null) return 0;
         return (long) (tv.convertTimeAmountTo(TimeValue.Units.seconds) * 1000);
     }
@@ -178,7 +178,7 @@ public class ReportUtils {
 
                         // SCT-286 (#5): if a LGS is required, add that to the
                         // string
-                        InstAltair alt = (InstAltair) comp.getDataObject();
+                        InstAltair alt = (InstAltair) comp.getReadOnlyDataObject();
                         if (alt.getGuideStarType() == AltairParams.GuideStarType.LGS) {
                             ao += "LGS";
                         }
@@ -285,7 +285,7 @@ public class ReportUtils {
 
                 if (INSTRUMENT == type.broadType) {
                     if (type == InstGmosSouth.SP_TYPE || type == InstGmosNorth.SP_TYPE) {
-                        InstGmosCommon gmos = (InstGmosCommon) comp.getDataObject();
+                        InstGmosCommon gmos = (InstGmosCommon) comp.getReadOnlyDataObject();
                         GmosCommonType.Disperser disp = (GmosCommonType.Disperser) gmos.getDisperser();
                         if (!disp.isMirror()) {
                             dispersers.add(disp.logValue());
@@ -371,9 +371,9 @@ public class ReportUtils {
             if (targetEnvComp == null) continue;
 
             // Figure out the RA of the base position
-            final TargetObsComp targetEnv = (TargetObsComp) targetEnvComp.getDataObject();
+            final TargetObsComp targetEnv = (TargetObsComp) targetEnvComp.getReadOnlyDataObject();
             final Asterism asterism = targetEnv.getAsterism();
-            final Option<Long> when = ((SPObservation) obsShell.getDataObject()).getSchedulingBlockStart();
+            final Option<Long> when = ((SPObservation) obsShell.getReadOnlyDataObject()).getSchedulingBlockStart();
             final Option<Integer> raHours = getRaHours(asterism, when);
             raHours.forEach(h -> hourSet.add(h));
         }
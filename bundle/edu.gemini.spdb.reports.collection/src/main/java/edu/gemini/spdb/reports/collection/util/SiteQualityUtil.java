@@ -137,7 +137,7 @@ public class SiteQualityUtil {
         if (sqComponent == null) return;
 
         // Extract the observing conditions we care about.
-        SPSiteQuality sq = (SPSiteQuality) sqComponent.getDataObject();
+        SPSiteQuality sq = (SPSiteQuality) sqComponent.getReadOnlyDataObject();
         ObsConditions oc = new ObsConditions(sq);
 
         // Figure out the execution time for this observation.
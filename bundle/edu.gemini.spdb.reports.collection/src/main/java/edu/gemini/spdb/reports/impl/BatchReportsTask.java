@@ -12,10 +12,15 @@ import edu.gemini.spdb.reports.ITable;
 
 import java.io.*;
 import java.security.Principal;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import edu.gemini.spdb.cron.util.Props;
@@ -33,6 +38,18 @@ public class BatchReportsTask implements CronJob {
         this.rootDir = rootDir;
     }
 
+    /** One report to generate: its registration, query and results. */
+    private static final class Job {
+        final ReportManager.ReportRegistration reg;
+        final IQuery query;
+        final Map<IDBDatabaseService, List<IRow>> results = new HashMap<>();
+
+        Job(ReportManager.ReportRegistration reg, IQuery query) {
+            this.reg   = reg;
+            this.query = query;
+        }
+    }
+
     public void run(final CronStorage store, final Logger log, final Map<String, String> env, Set<Principal> user) {
 
         // Get our config
@@ -42,74 +59,161 @@ public class BatchReportsTask implements CronJob {
         final String remoteHost = props.getString("edu.gemini.spdb.reports.public.host");
         final String remoteDirectory = props.getString("edu.gemini.spdb.reports.public.remotedir");
 
+        // In shared scan mode all the queries are run in a single pass over
+        // the database and the reports are then written and uploaded in
+        // parallel. Otherwise each report is queried and published in turn.
+        final boolean sharedScan = Boolean.parseBoolean(props.getString("edu.gemini.spdb.reports.sharedScan", "true"));
+        final int threads = Math.max(1, props.getInt("edu.gemini.spdb.reports.threads", 4));
+
         // And away we go...
         log.info("Starting batch reports; cleaning batch root...");
         clear(rootDir);
         log.info("Done cleaning batch root.");
 
+        // Create and configure a query for each report.
+        final List<Job> jobs = new ArrayList<>();
         for (final ReportManager.ReportRegistration reg : ReportManager.getInstance()) {
             final ITable t = TableManager.getInstance().get(reg.tableId);
             if (t != null) {
+                final IQuery q = new QueryManager(user).createQuery(t);
+                reg.report.configureQuery(q);
+                jobs.add(new Job(reg, q));
+            } else {
+                log.warning("Could not find table " + reg.tableId);
+            }
+        }
 
-                // The report
-                final IReport rep = reg.report;
+        final Publisher pub = new Publisher(log, rootDir, username, password, remoteHost, remoteDirectory);
+        if (sharedScan) {
+            final long start = System.currentTimeMillis();
+            queryAll(log, user, jobs);
+            log.info(String.format("Queried %d reports in %d ms.", jobs.size(), System.currentTimeMillis() - start));
+            publishAll(log, pub, jobs, threads);
+        } else {
+            for (final Job job : jobs) {
+                query(log, user, job);
+                pub.publish(job);
+            }
+        }
 
-                // Create and configure the query.
-                final IQuery q = new QueryManager(user).createQuery(t);
-                rep.configureQuery(q);
-
-                // Run it once for each database we know about, collecting results.
-                final IDBDatabaseService db = SPDB.get();
-                final Map<IDBDatabaseService, List<IRow>> results = new HashMap<>();
-                if (db != null) {
-                    // Run the query, collecting the reports.
-                    final ClassLoader loader = Thread.currentThread().getContextClassLoader();
-                    try {
-                        log.info("Executing " + reg.id);
-                        Thread.currentThread().setContextClassLoader(QueryManager.class.getClassLoader());
-                        final List<IRow> rows = new QueryManager(user).runQuery(q, db);
-                        results.put(db, rows);
-                    } catch (Exception e) {
-                        log.log(Level.SEVERE, "Trouble creating report.", e);
-                    } finally {
-                        Thread.currentThread().setContextClassLoader(loader);
-                    }
-                }
+        log.info("Done with batch reports.");
+    }
 
-                try {
+    /** Runs the query of a single report on the database. */
+    private static void query(final Logger log, final Set<Principal> user, final Job job) {
+        final IDBDatabaseService db = SPDB.get();
+        if (db == null) return;
 
-                    // And write out the files.
-                    final List<File> files = rep.execute(q, results, rootDir);
-
-                    // Now try to FTP the public ones to the public server
-                    if (rep.isPublic()) {
-                        for (final File f : files) {
-                            log.info("Public report: " + f.getName() + " => " + remoteHost);
-                            try {
-                                sftp(log, f, username, password, remoteHost, remoteDirectory);
-                            } catch (Exception ioe) {
-                                log.log(Level.SEVERE, "Trouble ftp'ing public report: " + f.getName(), ioe);
-                            }
-                        }
-                    } else {
-                        for (final File f : files)
-                            log.info("Private report: " + f.getName());
-                    }
+        // Run the query, collecting the reports.
+        final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        try {
+            log.info("Executing " + job.reg.id);
+            Thread.currentThread().setContextClassLoader(QueryManager.class.getClassLoader());
+            final long start = System.currentTimeMillis();
+            final List<IRow> rows = new QueryManager(user).runQuery(job.query, db);
+            job.results.put(db, rows);
+            log.info(String.format("Executed %s in %d ms.", job.reg.id, System.currentTimeMillis() - start));
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Trouble creating report.", e);
+        } finally {
+            Thread.currentThread().setContextClassLoader(loader);
+        }
+    }
 
-                    reg.setFiles(files);
+    /** Runs the queries of all the reports in one pass over the database. */
+    private static void queryAll(final Logger log, final Set<Principal> user, final List<Job> jobs) {
+        final IDBDatabaseService db = SPDB.get();
+        if (db == null) return;
 
-                } catch (IOException ioe) {
-                    log.log(Level.SEVERE, "Trouble writing report(s).", ioe);
-                }
+        final List<IQuery> queries = new ArrayList<>();
+        for (final Job job : jobs) queries.add(job.query);
 
+        final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        try {
+            log.info("Executing " + jobs.size() + " reports in a shared scan");
+            Thread.currentThread().setContextClassLoader(QueryManager.class.getClassLoader());
+            final Map<IQuery, List<IRow>> rows = new QueryManager(user).runQueries(queries, db);
+            for (final Job job : jobs) job.results.put(db, rows.get(job.query));
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Trouble creating reports.", e);
+        } finally {
+            Thread.currentThread().setContextClassLoader(loader);
+        }
+    }
 
-            } else {
-                log.warning("Could not find table " + reg.tableId);
+    /** Writes out and uploads all the reports, a few at a time. */
+    private static void publishAll(final Logger log, final Publisher pub, final List<Job> jobs, final int threads) {
+        final long start = System.currentTimeMillis();
+        final ExecutorService exec = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> fs = new ArrayList<>();
+            for (final Job job : jobs) fs.add(exec.submit(() -> pub.publish(job)));
+            for (int i = 0; i < fs.size(); ++i) {
+                try {
+                    fs.get(i).get();
+                } catch (ExecutionException e) {
+                    log.log(Level.SEVERE, "Trouble publishing " + jobs.get(i).reg.id, e.getCause());
+                }
             }
+        } catch (InterruptedException e) {
+            log.warning("Interrupted while publishing reports.");
+            Thread.currentThread().interrupt();
+        } finally {
+            exec.shutdownNow();
+        }
+        log.info(String.format("Published %d reports in %d ms.", jobs.size(), System.currentTimeMillis() - start));
+    }
 
+    /** Writes out the files of a report and uploads the public ones. */
+    private static final class Publisher {
+        private final Logger log;
+        private final File rootDir;
+        private final String username;
+        private final String password;
+        private final String remoteHost;
+        private final String remoteDirectory;
+
+        Publisher(Logger log, File rootDir, String username, String password, String remoteHost, String remoteDirectory) {
+            this.log             = log;
+            this.rootDir         = rootDir;
+            this.username        = username;
+            this.password        = password;
+            this.remoteHost      = remoteHost;
+            this.remoteDirectory = remoteDirectory;
         }
 
-        log.info("Done with batch reports.");
+        void publish(final Job job) {
+            final IReport rep = job.reg.report;
+            try {
+
+                // And write out the files.
+                final long start = System.currentTimeMillis();
+                final List<File> files = rep.execute(job.query, job.results, rootDir);
+                log.info(String.format("Rendered %s in %d ms.", job.reg.id, System.currentTimeMillis() - start));
+
+                // Now try to FTP the public ones to the public server
+                if (rep.isPublic()) {
+                    final long upload = System.currentTimeMillis();
+                    for (final File f : files) {
+                        log.info("Public report: " + f.getName() + " => " + remoteHost);
+                        try {
+                            sftp(log, f, username, password, remoteHost, remoteDirectory);
+                        } catch (Exception ioe) {
+                            log.log(Level.SEVERE, "Trouble ftp'ing public report: " + f.getName(), ioe);
+                        }
+                    }
+                    log.info(String.format("Uploaded %s in %d ms.", job.reg.id, System.currentTimeMillis() - upload));
+                } else {
+                    for (final File f : files)
+                        log.info("Private report: " + f.getName());
+                }
+
+                job.reg.setFiles(files);
+
+            } catch (IOException ioe) {
+                log.log(Level.SEVERE, "Trouble writing report(s).", ioe);
+            }
+        }
     }
 
     /** rm -r */
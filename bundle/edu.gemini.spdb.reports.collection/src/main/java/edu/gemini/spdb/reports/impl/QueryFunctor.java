@@ -70,17 +70,27 @@ class QueryFunctor extends DBAbstractQueryFunctor {
 	public void execute(IDBDatabaseService db, ISPNode node, Set<Principal> principals) {
 		try {
 			ITable table = query.getTable();
-			for (Map<IColumn, ?> row: table.getRows(node)) {
-				IFilter f = query.getFilter();
-				if (f == null || f.accept(row))
-					rows.add(row);
-			}
+			addRows(table.getRows(node));
 			Thread.yield(); // Try not to bog down the server.
 		} catch (Throwable t) {
 			LOGGER.log(Level.SEVERE, "Problem executing functor.", t);
 		}
 	}
 
+	/**
+	 * Accumulate the given table rows that pass the filter. Used directly
+	 * by SharedQueryFunctor, which computes the rows of a node once for
+	 * all the queries on the same table.
+	 */
+	@SuppressWarnings("unchecked")
+	void addRows(List<Map<IColumn, Object>> tableRows) {
+		IFilter f = query.getFilter();
+		for (Map<IColumn, ?> row: tableRows) {
+			if (f == null || f.accept(row))
+				rows.add(row);
+		}
+	}
+
 	/**
 	 * Group and sort the raw rows, then create IRows to return.
 	 */
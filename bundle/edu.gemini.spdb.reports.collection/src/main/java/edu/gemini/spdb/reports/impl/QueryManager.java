@@ -1,10 +1,14 @@
 package edu.gemini.spdb.reports.impl;
 
 
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Collections;
 import java.security.Principal;
+import java.util.Map;
 import java.util.Set;
+import java.util.logging.Logger;
 
 import edu.gemini.pot.spdb.IDBDatabaseService;
 import edu.gemini.pot.spdb.IDBQueryRunner;
@@ -22,6 +26,8 @@ import edu.gemini.spdb.reports.ITable.Domain;
 @SuppressWarnings("serial")
 public class QueryManager implements IQueryManager {
 
+    private static final Logger LOGGER = Logger.getLogger(QueryManager.class.getName());
+
     private final Set<Principal> user;
 
 	public QueryManager(Set<Principal> user) {
@@ -61,4 +67,33 @@ public class QueryManager implements IQueryManager {
         return func.getResults();
 	}
 
+	/**
+	 * Runs all the specified queries, visiting each program only once for
+	 * all the PROGRAM and OBSERVATION queries (see SharedQueryFunctor).
+	 * NULL domain queries are run directly. The time spent on each table is
+	 * logged.
+	 * @return the results of each query, in the order given
+	 */
+	public Map<IQuery, List<IRow>> runQueries(List<IQuery> queries, IDBDatabaseService dbs) {
+        final Map<IQuery, List<IRow>> res = new LinkedHashMap<IQuery, List<IRow>>();
+        SharedQueryFunctor shared = new SharedQueryFunctor();
+        final Map<IQuery, Integer> indices = new HashMap<IQuery, Integer>();
+        for (IQuery q: queries) {
+            if (q.getTable().getDomain() != Domain.NULL) indices.put(q, shared.add(q));
+        }
+
+        if (!indices.isEmpty()) {
+            final long start = System.currentTimeMillis();
+            shared = dbs.getQueryRunner(user).queryPrograms(shared);
+            LOGGER.info(String.format("Shared scan for %d queries done in %d ms; time per table: %s",
+                    indices.size(), System.currentTimeMillis() - start, shared.getTableTimes()));
+        }
+
+        for (IQuery q: queries) {
+            final Integer i = indices.get(q);
+            res.put(q, (i == null) ? runQuery(q, dbs) : shared.getFunctor(i).getResults());
+        }
+        return res;
+	}
+
 }
@@ -52,7 +52,7 @@ public class ReportManager implements Iterable<ReportManager.ReportRegistration>
 		public final String id;
 		public final String tableId;
 		public final IReport report;
-		private List<File> files = Collections.emptyList();
+		private volatile List<File> files = Collections.emptyList();
 		
 		public List<File> getFiles() {
 			return files;
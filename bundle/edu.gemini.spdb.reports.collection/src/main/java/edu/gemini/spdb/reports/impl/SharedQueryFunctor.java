@@ -0,0 +1,138 @@
+package edu.gemini.spdb.reports.impl;
+
+import java.security.Principal;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.gemini.pot.sp.ISPNode;
+import edu.gemini.pot.sp.ISPObservation;
+import edu.gemini.pot.sp.ISPProgram;
+import edu.gemini.pot.spdb.DBAbstractQueryFunctor;
+import edu.gemini.pot.spdb.IDBDatabaseService;
+import edu.gemini.spdb.reports.IColumn;
+import edu.gemini.spdb.reports.IQuery;
+import edu.gemini.spdb.reports.ITable;
+
+/**
+ * SPDB functor that executes several IQuery definitions in a single pass
+ * over the programs. The rows of each program, and of each of its
+ * observations, are computed once per table and handed to every query on
+ * that table. Each query is then finished as if it had been run on its own,
+ * so the results are the same as those of separate QueryFunctors.
+ * Internal to the implementation.
+ */
+class SharedQueryFunctor extends DBAbstractQueryFunctor {
+
+	static final Logger LOGGER = Logger.getLogger(SharedQueryFunctor.class.getName());
+	private static final long serialVersionUID = 1L;
+
+	/** Query functors for each PROGRAM table, in the order added. */
+	private final Map<ITable, List<QueryFunctor>> programQueries = new LinkedHashMap<>();
+
+	/** Query functors for each OBSERVATION table, in the order added. */
+	private final Map<ITable, List<QueryFunctor>> observationQueries = new LinkedHashMap<>();
+
+	/** All the query functors, in the order added. */
+	private final List<QueryFunctor> functors = new ArrayList<>();
+
+	/** Time spent building the rows of each table, in nanoseconds. */
+	private final Map<ITable, Long> tableTimes = new HashMap<>();
+
+	/**
+	 * Add a query on a PROGRAM or OBSERVATION table, returning the index of
+	 * the functor that will hold its results.
+	 */
+	int add(IQuery query) {
+		final ITable table = query.getTable();
+		final Map<ITable, List<QueryFunctor>> map;
+		switch (table.getDomain()) {
+		case PROGRAM:
+			map = programQueries;
+			break;
+		case OBSERVATION:
+			map = observationQueries;
+			break;
+		default:
+			throw new IllegalArgumentException("Cannot share a scan for domain " + table.getDomain());
+		}
+		final QueryFunctor func = new QueryFunctor(query);
+		map.computeIfAbsent(table, t -> new ArrayList<>()).add(func);
+		functors.add(func);
+		return functors.size() - 1;
+	}
+
+	/**
+	 * Run the reports server SharedQueryFunctor in low priority.
+	 */
+	@Override public Priority getPriority() { return Priority.low; }
+
+	@Override
+	public void init() {
+		tableTimes.clear();
+		forEach(QueryFunctor::init);
+	}
+
+	/**
+	 * Feed the program to the program tables and each of its observations
+	 * to the observation tables.
+	 */
+	public void execute(IDBDatabaseService db, ISPNode node, Set<Principal> principals) {
+		feed(programQueries, node);
+		if (!observationQueries.isEmpty()) {
+			for (ISPObservation obs: ((ISPProgram) node).getAllObservations())
+				feed(observationQueries, obs);
+		}
+		Thread.yield(); // Try not to bog down the server.
+	}
+
+	private void feed(Map<ITable, List<QueryFunctor>> queries, ISPNode node) {
+		for (Map.Entry<ITable, List<QueryFunctor>> me: queries.entrySet()) {
+			final ITable table = me.getKey();
+			final long start = System.nanoTime();
+			try {
+				final List<Map<IColumn, Object>> rows = table.getRows(node);
+				for (QueryFunctor func: me.getValue())
+					func.addRows(rows);
+			} catch (Throwable t) {
+				LOGGER.log(Level.SEVERE, "Problem executing functor for " + table.getDisplayName() + ".", t);
+			}
+			tableTimes.merge(table, System.nanoTime() - start, Long::sum);
+		}
+	}
+
+	@Override
+	public void finished() {
+		forEach(QueryFunctor::finished);
+	}
+
+	/**
+	 * Returns the functor of the query added at the given index. Must be
+	 * called on the functor returned by the query runner, which may be a
+	 * copy of the one that was passed in.
+	 */
+	QueryFunctor getFunctor(int index) {
+		return functors.get(index);
+	}
+
+	/**
+	 * Returns the time spent building the rows of each table, in
+	 * milliseconds, keyed by table display name.
+	 */
+	Map<String, Long> getTableTimes() {
+		final Map<String, Long> res = new LinkedHashMap<>();
+		for (ITable t: programQueries.keySet())     res.put(t.getDisplayName(), millis(t));
+		for (ITable t: observationQueries.keySet()) res.put(t.getDisplayName(), millis(t));
+		return res;
+	}
+
+	private long millis(ITable t) {
+		final Long nanos = tableTimes.get(t);
+		return (nanos == null) ? 0 : nanos / 1000000;
+	}
+
+	private void forEach(java.util.function.Consumer<QueryFunctor> f) {
+		functors.forEach(f);
+	}
+
+}
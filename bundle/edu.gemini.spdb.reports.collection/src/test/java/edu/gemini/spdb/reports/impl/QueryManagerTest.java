@@ -0,0 +1,158 @@
+package edu.gemini.spdb.reports.impl;
+
+import edu.gemini.pot.sp.ISPFactory;
+import edu.gemini.pot.sp.ISPObservation;
+import edu.gemini.pot.sp.ISPProgram;
+import edu.gemini.pot.sp.Instrument;
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.spdb.DBLocalDatabase;
+import edu.gemini.pot.spdb.IDBDatabaseService;
+import edu.gemini.spModel.core.SPProgramID;
+import edu.gemini.spdb.reports.IColumn;
+import edu.gemini.spdb.reports.IFilter;
+import edu.gemini.spdb.reports.IQuery;
+import edu.gemini.spdb.reports.IRow;
+import edu.gemini.spdb.reports.util.AbstractTable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that running several queries in one shared scan gives the same
+ * results as running them one at a time, while building the rows of each
+ * table only once per node.
+ */
+public final class QueryManagerTest {
+
+    private static final int PROG_COUNT = 5;
+    private static final int OBS_COUNT  = 15; // 1 + 2 + 3 + 4 + 5
+
+    private static final AtomicInteger PROG_ROWS = new AtomicInteger();
+    private static final AtomicInteger OBS_ROWS  = new AtomicInteger();
+
+    private enum Columns implements IColumn {
+        ID;
+
+        public String getCaption() {
+            return "ID";
+        }
+
+        public String format(Object value) {
+            return String.valueOf(value);
+        }
+    }
+
+    private static Map<IColumn, Object> row(Object id) {
+        final Map<IColumn, Object> row = new HashMap<IColumn, Object>();
+        row.put(Columns.ID, id.toString());
+        return row;
+    }
+
+    private static final class ProgTable extends AbstractTable {
+        private static final long serialVersionUID = 1L;
+
+        ProgTable() {
+            super(Domain.PROGRAM, Columns.values(), "Programs", "Program ids.");
+        }
+
+        public List<Map<IColumn, Object>> getRows(Object node) {
+            PROG_ROWS.incrementAndGet();
+            return Collections.singletonList(row(((ISPProgram) node).getProgramID()));
+        }
+    }
+
+    private static final class ObsTable extends AbstractTable {
+        private static final long serialVersionUID = 1L;
+
+        ObsTable() {
+            super(Domain.OBSERVATION, Columns.values(), "Observations", "Observation ids.");
+        }
+
+        public List<Map<IColumn, Object>> getRows(Object node) {
+            OBS_ROWS.incrementAndGet();
+            return Collections.singletonList(row(((ISPObservation) node).getObservationID()));
+        }
+    }
+
+    /** Keeps the first observation of each program. */
+    private static final class FirstObsFilter implements IFilter {
+        private static final long serialVersionUID = 1L;
+
+        public boolean accept(Map<IColumn, ?> row) {
+            return ((String) row.get(Columns.ID)).endsWith("-1");
+        }
+    }
+
+    private IDBDatabaseService odb;
+    private QueryManager qm;
+
+    @Before
+    public void setUp() throws Exception {
+        odb = DBLocalDatabase.createTransient();
+        final ISPFactory fact = odb.getFactory();
+        for (int i = 0; i < PROG_COUNT; ++i) {
+            final ISPProgram prog = fact.createProgram(new SPNodeKey(), SPProgramID.toProgramID("GS-2099A-Q-" + (i + 1)));
+            for (int j = 0; j <= i; ++j) {
+                prog.addObservation(fact.createObservation(prog, Instrument.GmosSouth.some(), null));
+            }
+            odb.put(prog);
+        }
+        qm = new QueryManager(Collections.<Principal>emptySet());
+        PROG_ROWS.set(0);
+        OBS_ROWS.set(0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        odb.getDBAdmin().shutdown();
+    }
+
+    private List<IQuery> queries() {
+        final ProgTable progs = new ProgTable();
+        final ObsTable  obs   = new ObsTable();
+
+        final IQuery filtered = qm.createQuery(obs);
+        filtered.setFilter(new FirstObsFilter());
+
+        return Arrays.asList(qm.createQuery(progs), qm.createQuery(obs), filtered, qm.createQuery(progs));
+    }
+
+    private static List<List<Object>> values(List<IRow> rows) {
+        final List<List<Object>> res = new ArrayList<List<Object>>();
+        for (IRow r : rows) res.add(Arrays.asList(r.getValues()));
+        return res;
+    }
+
+    @Test
+    public void testSameResults() {
+        final List<IQuery> qs = queries();
+        final Map<IQuery, List<IRow>> shared = qm.runQueries(qs, odb);
+        assertEquals(qs.size(), shared.size());
+
+        for (IQuery q : qs) {
+            assertEquals(values(qm.runQuery(q, odb)), values(shared.get(q)));
+        }
+
+        assertEquals(PROG_COUNT, shared.get(qs.get(0)).size());
+        assertEquals(OBS_COUNT,  shared.get(qs.get(1)).size());
+        assertEquals(PROG_COUNT, shared.get(qs.get(2)).size());
+    }
+
+    @Test
+    public void testOneVisitPerNode() {
+        qm.runQueries(queries(), odb);
+        assertEquals(PROG_COUNT, PROG_ROWS.get());
+        assertEquals(OBS_COUNT,  OBS_ROWS.get());
+    }
+}
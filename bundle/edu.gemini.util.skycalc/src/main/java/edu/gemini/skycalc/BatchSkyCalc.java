@@ -0,0 +1,113 @@
+package edu.gemini.skycalc;
+
+import edu.gemini.spModel.core.Site;
+
+import java.util.Date;
+import java.util.stream.IntStream;
+
+/**
+ * Calculates the same circumstances as {@link ImprovedSkyCalc} for many targets
+ * over a common grid of times.  The sidereal time, the sun and the moon only
+ * depend on the time and the site, so they are calculated once per sample and
+ * shared by all targets, instead of once per target and sample.  The samples
+ * are independent of each other and can optionally be calculated in parallel.
+ */
+public final class BatchSkyCalc extends ImprovedSkyCalcMethods {
+
+    // Indices of the calculated values, in the order of the TargetCalculator fields.
+    public static final int ELEVATION         = 0;
+    public static final int AZIMUTH           = 1;
+    public static final int AIRMASS           = 2;
+    public static final int LUNAR_DISTANCE    = 3;
+    public static final int PARALLACTIC_ANGLE = 4;
+    public static final int HOUR_ANGLE        = 5;
+    public static final int SKY_BRIGHTNESS    = 6;
+    public static final int FIELDS            = 7;
+
+    // Site parameters
+    private final double hoursLongitude;
+    private final double degreesLatitude;
+    private final double siteAltitude;
+
+    public BatchSkyCalc(final Site site) {
+        hoursLongitude = -site.longitude/15.;
+        degreesLatitude = site.latitude;
+        siteAltitude = site.altitude;
+    }
+
+    /**
+     * Calculates the circumstances of all targets at all times.
+     * The positions are given in degrees as <code>ra[target][sample]</code> and
+     * <code>dec[target][sample]</code>; a target with a single position is
+     * fixed for all samples.
+     * @return the values as <code>values[target][field][sample]</code>
+     */
+    public double[][][] calculate(final long[] times, final double[][] ra, final double[][] dec, final boolean parallel) {
+        if (ra.length != dec.length) throw new IllegalArgumentException("ra and dec have different number of targets");
+
+        final double[][][] values = new double[ra.length][FIELDS][times.length];
+        final IntStream samples = IntStream.range(0, times.length);
+        (parallel ? samples.parallel() : samples).forEach(ix -> calculate(times, ix, ra, dec, values));
+        return values;
+    }
+
+    // Calculates the values of all targets for one sample.
+    private void calculate(final long[] times, final int ix, final double[][] ra, final double[][] dec, final double[][][] values) {
+        final DateTime dateTime = new DateTime(new Date(times[ix]));
+        final DoubleRef jdut = new DoubleRef();
+        final DoubleRef sid = new DoubleRef();
+        final DoubleRef curepoch = new DoubleRef();
+
+        setup_time_place(dateTime, hoursLongitude, jdut, sid, curepoch);
+
+        // sun and moon, the same for all targets
+        final DoubleRef az = new DoubleRef();
+        final DoubleRef par = new DoubleRef();
+        final DoubleRef ramoon = new DoubleRef();
+        final DoubleRef decmoon= new DoubleRef();
+        final DoubleRef distmoon = new DoubleRef();
+        final DoubleRef georamoon = new DoubleRef();
+        final DoubleRef geodecmoon = new DoubleRef();
+        final DoubleRef geodistmoon = new DoubleRef();
+        final DoubleRef rasun = new DoubleRef();
+        final DoubleRef decsun = new DoubleRef();
+        final DoubleRef distsun = new DoubleRef();
+        final DoubleRef x = new DoubleRef();
+        final DoubleRef y = new DoubleRef();
+        final DoubleRef z = new DoubleRef();
+        final DoubleRef toporasun = new DoubleRef();
+        final DoubleRef topodecsun = new DoubleRef();
+
+        accusun(jdut.d,sid.d,degreesLatitude,rasun,decsun,distsun, toporasun,topodecsun,x,y,z);
+        final double sunAltitude = altit(topodecsun.d,(sid.d-toporasun.d),degreesLatitude,az, par);
+
+        accumoon(jdut.d,degreesLatitude,sid.d,siteAltitude,georamoon,geodecmoon,geodistmoon, ramoon,decmoon,distmoon);
+        final double lunarElevation = altit(decmoon.d,(sid.d-ramoon.d),degreesLatitude,az, par);
+        final double lunarPhaseAngle = DEG_IN_RADIAN * subtend(ramoon.d,decmoon.d,toporasun.d,topodecsun.d);
+
+        // the targets
+        final DoubleRef curra = new DoubleRef();
+        final DoubleRef curdec = new DoubleRef();
+        for (int t = 0; t < ra.length; ++t) {
+            final int pos = ra[t].length == 1 ? 0 : ix;
+            final double objra = ra[t][pos]/15;
+            final double objdec = dec[t][pos];
+
+            cooxform(objra, objdec, 2000., curepoch.d, curra, curdec, XFORM_JUSTPRE, XFORM_FROMSTD);
+
+            final double ha = adj_time(sid.d - curra.d);
+            final double alt = altit(curdec.d, ha, degreesLatitude, az, par);
+            final double lunarDistance = DEG_IN_RADIAN * subtend(ramoon.d,decmoon.d,objra,objdec);
+
+            final double[][] v = values[t];
+            v[ELEVATION][ix] = alt;
+            v[AZIMUTH][ix] = az.d;
+            v[AIRMASS][ix] = getAirmass(alt);
+            v[LUNAR_DISTANCE][ix] = lunarDistance;
+            v[PARALLACTIC_ANGLE][ix] = par.d;
+            v[HOUR_ANGLE][ix] = ha;
+            v[SKY_BRIGHTNESS][ix] = sb(180. - lunarPhaseAngle, lunarDistance, 90 - lunarElevation, 90 - alt, 90 - sunAltitude);
+        }
+    }
+
+}
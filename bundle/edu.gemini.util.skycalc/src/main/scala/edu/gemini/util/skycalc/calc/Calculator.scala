@@ -9,7 +9,14 @@ trait Calculator {
 
   val times: Vector[Long]
   def toIndex(t: Long): Int
-  val values: Vector[Vector[Double]]
+  def values: Vector[Vector[Double]]
+
+  // Unboxed times and values of each field; all the accessors use these, QV and the elevation plots look up
+  // values millions of times. The arrays are mutable but shared, so they must never be changed; accessors that
+  // hand them out return copies.
+  protected lazy val timeArray: Array[Long] = times.toArray
+  protected def columns: Array[Array[Double]] = valueArrays
+  private lazy val valueArrays: Array[Array[Double]] = values.map(_.toArray).toArray
 
   lazy val start = times.head
   lazy val end = times.last
@@ -17,13 +24,41 @@ trait Calculator {
 
   /** True if the values for the given time are covered by this target. */
   def isDefinedAt(t: Long) = t >= start && t <= end
-  def value(field: Int, ix: Int) = values(field)(ix)
-  def valueAt(field: Int, t: Long) = values(field)(toIndex(t))
+  def value(field: Int, ix: Int) = columns(field)(ix)
+  def valueAt(field: Int, t: Long) = columns(field)(toIndex(t))
   def timedValues(field: Int) = times.zip(values(field))
 
-  def min(field: Int): Double = values(field).min
-  def max(field: Int): Double = values(field).max
-  def mean(field: Int): Double = values(field).sum / samples
+  /** Gets the values for the given field at each of the given times. */
+  def valuesAt(field: Int, ts: Array[Long]): Array[Double] = {
+    val vs = new Array[Double](ts.length)
+    var i = 0
+    while (i < ts.length) {
+      vs(i) = valueAt(field, ts(i))
+      i += 1
+    }
+    vs
+  }
+
+  /** Gets a copy of all the values of the given field. */
+  def valuesOf(field: Int): Array[Double] = columns(field).clone()
+
+  /** Gets a copy of all the sampling times. */
+  def timesArray: Array[Long] = timeArray.clone()
+
+  def min(field: Int): Double = fold(field)(Math.min)
+  def max(field: Int): Double = fold(field)(Math.max)
+  def mean(field: Int): Double = fold(field)(_ + _) / samples
+
+  private def fold(field: Int)(op: (Double, Double) => Double): Double = {
+    val vs = columns(field)
+    var r = vs(0)
+    var i = 1
+    while (i < vs.length) {
+      r = op(r, vs(i))
+      i += 1
+    }
+    r
+  }
 
 }
 
@@ -47,35 +82,47 @@ trait FixedRateCalculator extends Calculator {
   val defined: Interval
   val rate: Long
 
-  // the number of samples we need to have a sampling rate >= than expected
-  private val cnt: Int = Math.ceil(defined.duration.toDouble/rate).toInt
   // the precise rate in milliseconds that corresponds to the expected rate
-  private val preciseRate: Double = defined.duration.toDouble / cnt
+  private val preciseRate: Double = FixedRateCalculator.preciseRate(defined, rate)
 
   /** Calculates a vector with times that cover the given interval. */
-  val times: Vector[Long] = {
-    val ts = for {
-      i <- 0 to cnt
-    } yield {
-      Math.ceil(defined.start + i*preciseRate).toLong     // always round up
-    }
-    require(ts.head == defined.start)
-    require(ts.last >= defined.end)
-    Vector(ts:_*)
-  }
+  val times: Vector[Long] = FixedRateCalculator.times(defined, rate)
 
   /** Gets the index to the left of the given value t. */
   def toIndex(t: Long) = {
     require(t >= start)
     require(t <= end)
     val ix = Math.floor((t - start) / preciseRate).toInt   // always round down; the sample at this index gives a value <= t
-    require(times(ix) <= t)
-    require(ix == samples-1 || times(ix+1) > t)
+    require(timeArray(ix) <= t)
+    require(ix == samples-1 || timeArray(ix+1) > t)
     ix
   }
 
 }
 
+object FixedRateCalculator {
+
+  // the number of samples we need to have a sampling rate >= than expected
+  private def count(defined: Interval, rate: Long): Int = Math.ceil(defined.duration.toDouble/rate).toInt
+
+  private def preciseRate(defined: Interval, rate: Long): Double = defined.duration.toDouble / count(defined, rate)
+
+  /** Calculates a vector with times that cover the given interval at the given rate. */
+  def times(defined: Interval, rate: Long): Vector[Long] = {
+    val cnt = count(defined, rate)
+    val rt  = preciseRate(defined, rate)
+    val ts = for {
+      i <- 0 to cnt
+    } yield {
+      Math.ceil(defined.start + i*rt).toLong     // always round up
+    }
+    require(ts.head == defined.start)
+    require(ts.last >= defined.end)
+    Vector(ts:_*)
+  }
+
+}
+
 /**
  * Sampling at irregular intervals e.g middle dark time etc.
  * Define a vector with sampling times to make this work.
@@ -86,11 +133,18 @@ trait IrregularIntervalCalculator extends Calculator {
   /** Irregular interval calculators need to define a vector of times at which to sample the data. */
   val times: Vector[Long]
 
-  /** Gets the index to the left of the given value t. */
+  /** Gets the index to the left of the given value t, i.e. the last index with a time <= t. */
   def toIndex(t: Long) = {
     require(t >= start)
     require(t <= end)
-    val ix = times.zipWithIndex.reverse.dropWhile(_._1 > t).head._2
+    // binary search for the first time > t
+    var lo = 0
+    var hi = samples
+    while (lo < hi) {
+      val mid = (lo + hi) >>> 1
+      if (timeArray(mid) <= t) lo = mid + 1 else hi = mid
+    }
+    val ix = lo - 1
     // postconditions: useful for debugging / documentation
     // require(ix >= 0 && ix < samples)
     // require(times(ix) <= t && (ix == samples-1 || times(ix+1) > t))
@@ -110,13 +164,13 @@ trait LinearInterpolatingCalculator extends Calculator {
    */
   override def valueAt(field: Int, t: Long): Double = {
     val ix = toIndex(t)
-    val t0 = times(ix)
-    val v0 = values(field)(ix)
+    val t0 = timeArray(ix)
+    val v0 = columns(field)(ix)
     if (t0 == t || ix == samples-1) v0
     else {
-      val t1 = times(ix+1)
+      val t1 = timeArray(ix+1)
       // require(t0 <= t && t < t1)
-      val v1 = values(field)(ix+1)
+      val v1 = columns(field)(ix+1)
       val v = v0 + (t - t0).toDouble/(t1 - t0) * (v1 - v0)
       // require((v0 >= v1 && v0 >= v && v >= v1) || (v0 < v1 && v0 <= v && v <= v1))
       v
@@ -17,7 +17,8 @@ trait MoonCalculator extends Calculator {
 
   val site: Site
 
-  val values: Vector[Vector[Double]] = calculate()
+  override protected val columns: Array[Array[Double]] = calculate()
+  lazy val values: Vector[Vector[Double]] = columns.map(c => Vector(c:_*)).toVector
 
   import Fields._
 
@@ -45,7 +46,12 @@ trait MoonCalculator extends Calculator {
   lazy val fullMoons: Seq[Long] = MoonCalculator.calculatePhases(site, Interval(start, end), MoonCalc.Phase.FULL)
   lazy val lastQuarterMoons: Seq[Long] = MoonCalculator.calculatePhases(site, Interval(start, end), MoonCalc.Phase.LAST_QUARTER)
 
-  protected def calculate() = {
+  /**
+   * Calculates all values for the given times.
+   * @return one array of values per field, indexed by the field ids; the arrays are used as the calculator's
+   *         columns without being copied, so they are mutable and must not be changed by anyone once returned
+   */
+  protected def calculate(): Array[Array[Double]] = {
     val skycalc = new ImprovedSkyCalc(site)
     val dummy = new WorldCoords(0, 0)
 
@@ -69,13 +75,13 @@ trait MoonCalculator extends Calculator {
       values(SkyBrightness.id)(ix) = if (skycalc.getLunarSkyBrightness == null) 0.0 else skycalc.getLunarSkyBrightness.toDouble
     }
 
-    // turn into immutable data structure
-    Vector(
+    // one column per field, used as is (not copied) by the calculator
+    Array(
       // IMPORTANT: Make sure the order reflects the id values of the field enums!
-      Vector(values(Elevation.id):_*),
-      Vector(values(PhaseAngle.id):_*),
-      Vector(values(IlluminatedFraction.id):_*),
-      Vector(values(SkyBrightness.id):_*)
+      values(Elevation.id),
+      values(PhaseAngle.id),
+      values(IlluminatedFraction.id),
+      values(SkyBrightness.id)
     )
   }
 }
@@ -3,6 +3,8 @@ package edu.gemini.util.skycalc.calc
 import edu.gemini.skycalc.TimeUtils
 import edu.gemini.util.skycalc.constraint.Constraint
 
+import scala.annotation.tailrec
+
 /**
  * Representation of an algorithm that finds all intervals between a start and end point in time for which a given
  * function <code>f(t: Long): Boolean</code> is true.
@@ -40,6 +42,48 @@ case class DefaultSolver[A](step: Long = TimeUtils.seconds(30)) extends Solver[A
 
 }
 
+/**
+ * Solver that samples the constraint function at a coarse rate and narrows down each change between two samples
+ * by bisection to the given tolerance. This needs far fewer evaluations than the default solver for the same
+ * precision but, like it, misses intervals shorter than the sampling rate. Use this solver for smooth functions
+ * like elevation or airmass, where it is cheap to look up values in the pre-calculated data of a target calculator.
+ */
+case class BracketingSolver[A](step: Long = TimeUtils.minutes(10), tolerance: Long = TimeUtils.seconds(30)) extends Solver[A] {
+  require(step > 0)
+  require(tolerance > 0)
+
+  def solve(constraint: Constraint[A], interval: Interval, param: A): Solution = {
+
+    def f(t: Long) = constraint.metAt(t, param)
+
+    // finds the first time in (lo, hi] with the value at hi
+    @tailrec
+    def bisect(lo: Long, flo: Boolean, hi: Long): Long =
+      if (hi - lo <= tolerance) hi
+      else {
+        val m = lo + (hi - lo) / 2
+        if (f(m) == flo) bisect(m, flo, hi) else bisect(lo, flo, m)
+      }
+
+    @tailrec
+    def solve(t0: Long, f0: Boolean, curStart: Long, solution: Solution): Solution =
+      if (t0 >= interval.end - 1)
+        if (f0) solution.add(Interval(curStart, interval.end))
+        else solution
+      else {
+        val t1 = Math.min(t0 + step, interval.end - 1)
+        val f1 = f(t1)
+        if (f1 == f0) solve(t1, f1, curStart, solution)
+        else if (f1) solve(t1, f1, bisect(t0, f0, t1), solution)
+        else solve(t1, f1, curStart, solution.add(Interval(curStart, bisect(t0, f0, t1))))
+      }
+
+    if (interval.start >= interval.end) Solution.Never
+    else solve(interval.start, f(interval.start), interval.start, Solution.Never)
+  }
+
+}
+
 /**
  * Finds a solution for a constraint on a parabolic curve that crosses that constraint
  * at most twice during the given interval. This is true for all basic elevation constraints for a single night.
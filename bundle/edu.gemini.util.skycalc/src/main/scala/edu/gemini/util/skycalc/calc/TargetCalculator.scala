@@ -1,7 +1,7 @@
 package edu.gemini.util.skycalc.calc
 
 import edu.gemini.spModel.core.{Coordinates, Site}
-import edu.gemini.skycalc.{ImprovedSkyCalc, TimeUtils}
+import edu.gemini.skycalc.{BatchSkyCalc, ImprovedSkyCalc, TimeUtils}
 import java.util.Date
 
 import edu.gemini.util.skycalc.calc.TargetCalculator.Fields
@@ -23,7 +23,8 @@ trait TargetCalculator extends Calculator {
   val site: Site
   val targetLocation: Long => Coordinates
 
-  val values: Vector[Vector[Double]] = calculate()
+  override protected val columns: Array[Array[Double]] = calculate()
+  lazy val values: Vector[Vector[Double]] = columns.map(c => Vector(c:_*)).toVector
 
   import Fields._
 
@@ -107,9 +108,10 @@ trait TargetCalculator extends Calculator {
 
   /**
    * Calculates all values for the given times.
-   * @return
+   * @return one array of values per field, indexed by the field ids; the arrays are used as the calculator's
+   *         columns without being copied, so they are mutable and must not be changed by anyone once returned
    */
-  protected def calculate(): Vector[Vector[Double]] = {
+  protected def calculate(): Array[Array[Double]] = {
     val skycalc = new ImprovedSkyCalc(site)
 
     // prepare temporary data structure
@@ -135,16 +137,16 @@ trait TargetCalculator extends Calculator {
       values(SkyBrightness.id)(ix) = skycalc.getTotalSkyBrightness.doubleValue
     }
 
-    // turn into immutable data structure
-    Vector(
+    // one column per field, used as is (not copied) by the calculator
+    Array(
       // IMPORTANT: Make sure the order reflects the id values of the field enums!
-      Vector(values(Elevation.id):_*),
-      Vector(values(Azimuth.id):_*),
-      Vector(values(Airmass.id):_*),
-      Vector(values(LunarDistance.id):_*),
-      Vector(values(ParallacticAngle.id):_*),
-      Vector(values(HourAngle.id):_*),
-      Vector(values(SkyBrightness.id):_*)
+      values(Elevation.id),
+      values(Azimuth.id),
+      values(Airmass.id),
+      values(LunarDistance.id),
+      values(ParallacticAngle.id),
+      values(HourAngle.id),
+      values(SkyBrightness.id)
     )
 
   }
@@ -156,6 +158,15 @@ case class SampleTargetCalculator(site: Site, targetLocation: Long => Coordinate
 
 case class SingleValueTargetCalculator(site: Site, targetLocation: Long => Coordinates, time: Long) extends SingleValueCalculator with TargetCalculator
 
+// Target calculators for values that were calculated together with the ones of other targets, see TargetCalculator.batch.
+final class BatchIntervalTargetCalculator private[calc] (val site: Site, val targetLocation: Long => Coordinates, val defined: Interval, val rate: Long, calculated: Array[Array[Double]]) extends FixedRateCalculator with LinearInterpolatingCalculator with TargetCalculator {
+  override protected def calculate(): Array[Array[Double]] = calculated
+}
+
+final class BatchSampleTargetCalculator private[calc] (val site: Site, val targetLocation: Long => Coordinates, val times: Vector[Long], calculated: Array[Array[Double]]) extends IrregularIntervalCalculator with LinearInterpolatingCalculator with TargetCalculator {
+  override protected def calculate(): Array[Array[Double]] = calculated
+}
+
 object TargetCalculator {
 
   /** Enumeration that defines the different fields for this calculator for indexed access in sequence. */
@@ -172,5 +183,34 @@ object TargetCalculator {
 
   def apply(site: Site, targetLocation: Long => Coordinates, times: Vector[Long]): TargetCalculator =
     SampleTargetCalculator(site, targetLocation, times)
-}
 
+  /** Batches with at least this many target samples are calculated on all cores. */
+  val ParallelBatchSize = 10000
+
+  /**
+   * Creates calculators for many targets over the same interval. This is equivalent to creating a calculator
+   * for each target but much faster, the sun, moon and sidereal time are only calculated once per sample.
+   */
+  def batch(site: Site, targetLocations: Seq[Long => Coordinates], defined: Interval, rate: Long): Seq[TargetCalculator] = {
+    val times = FixedRateCalculator.times(defined, rate)
+    batchCalculate(site, targetLocations, times).map { case (l, vs) =>
+      new BatchIntervalTargetCalculator(site, l, defined, rate, vs)
+    }
+  }
+
+  /** Creates calculators for many targets sampled at the same times, see above. */
+  def batch(site: Site, targetLocations: Seq[Long => Coordinates], times: Vector[Long]): Seq[TargetCalculator] =
+    batchCalculate(site, targetLocations, times).map { case (l, vs) =>
+      new BatchSampleTargetCalculator(site, l, times, vs)
+    }
+
+  private def batchCalculate(site: Site, targetLocations: Seq[Long => Coordinates], times: Vector[Long]): Seq[(Long => Coordinates, Array[Array[Double]])] = {
+    val ts  = times.toArray
+    val cs  = targetLocations.map(l => ts.map(l))
+    val ra  = cs.map(_.map(_.ra.toDegrees)).toArray
+    val dec = cs.map(_.map(_.dec.toDegrees)).toArray
+    val values = new BatchSkyCalc(site).calculate(ts, ra, dec, ts.length * ra.length >= ParallelBatchSize)
+    targetLocations.zip(values)
+  }
+
+}
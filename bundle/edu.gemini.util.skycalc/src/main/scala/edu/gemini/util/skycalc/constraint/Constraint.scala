@@ -28,12 +28,19 @@ trait Constraint[A] {
 
 }
 
+object Constraint {
+
+  /** Sampling rate for the constraints on smooth functions, changes between samples are found by bisection. */
+  val BracketingStep: Long = TimeUtils.minutes(10)
+
+}
+
 /**
  * Implementation for an elevation constraint that uses the pre-calculated data from a
  * {@see edu.gemini.util.skycalc.calc.TargetCalc} object.
  */
 case class ElevationConstraint(min: Double, max: Double, tolerance: Long = TimeUtils.seconds(30)) extends Constraint[TargetCalculator] {
-  protected val solver = DefaultSolver[TargetCalculator](tolerance)
+  protected val solver = BracketingSolver[TargetCalculator](Constraint.BracketingStep max tolerance, tolerance)
   def metAt(t: Long, target: TargetCalculator): Boolean = {
     val elevation = target.elevationAt(t)
     elevation >= min && elevation <= max
@@ -41,7 +48,7 @@ case class ElevationConstraint(min: Double, max: Double, tolerance: Long = TimeU
 }
 
 case class MoonElevationConstraint(min: Double, max: Double, tolerance: Long = TimeUtils.seconds(30)) extends Constraint[MoonCalculator] {
-  protected val solver = DefaultSolver[MoonCalculator](tolerance)
+  protected val solver = BracketingSolver[MoonCalculator](Constraint.BracketingStep max tolerance, tolerance)
   def metAt(t: Long, moon: MoonCalculator): Boolean = {
     val elevation = moon.elevationAt(t)
     elevation >= min && elevation <= max
@@ -57,7 +64,7 @@ case class SkyBrightnessConstraint(min: Double, max: Double, tolerance: Long = T
 }
 
 case class AirmassConstraint(min: Double, max: Double, tolerance: Long = TimeUtils.seconds(30)) extends Constraint[TargetCalculator] {
-  protected val solver = DefaultSolver[TargetCalculator](tolerance)
+  protected val solver = BracketingSolver[TargetCalculator](Constraint.BracketingStep max tolerance, tolerance)
   def metAt(t: Long, target: TargetCalculator): Boolean = {
     val airmass = target.airmassAt(t)
     // NOTE: we need to work around errors with interpolation etc which may cause to give wrong airmass values for very small altitudes (<1deg)
@@ -66,7 +73,7 @@ case class AirmassConstraint(min: Double, max: Double, tolerance: Long = TimeUti
 }
 
 case class HourAngleConstraint(min: Double, max: Double, tolerance: Long = TimeUtils.seconds(30)) extends Constraint[TargetCalculator] {
-  protected val solver = DefaultSolver[TargetCalculator](tolerance)
+  protected val solver = BracketingSolver[TargetCalculator](Constraint.BracketingStep max tolerance, tolerance)
   def metAt(t: Long, target: TargetCalculator): Boolean = {
     val hourAngle = target.hourAngleAt(t)
     // NOTE: we need to work around errors with interpolation etc which may cause to give wrong hour angle values for very small altitudes (<1deg)
@@ -0,0 +1,66 @@
+package edu.gemini.util.skycalc.calc
+
+import org.junit.Test
+import org.junit.Assert._
+
+import scala.util.Random
+
+/**
+ * Tests the lookup and accessor mechanics shared by all calculators.
+ */
+class CalculatorTest {
+
+  case class TestCalculator(times: Vector[Long], values: Vector[Vector[Double]]) extends IrregularIntervalCalculator
+  case class TestInterpolatingCalculator(times: Vector[Long], values: Vector[Vector[Double]]) extends IrregularIntervalCalculator with LinearInterpolatingCalculator
+
+  // the original linear lookup: the highest index with a time <= t
+  def linearIndex(times: Vector[Long], t: Long): Int =
+    times.zipWithIndex.reverse.dropWhile(_._1 > t).head._2
+
+  @Test def findsIndexOfIrregularTimes(): Unit = {
+    val r = new Random(42)
+    (1 to 50).foreach { _ =>
+      val times = Vector.iterate(r.nextInt(100).toLong, 1 + r.nextInt(200))(_ + 1 + r.nextInt(1000))
+      val calc  = TestCalculator(times, Vector(times.map(_.toDouble)))
+      (calc.start to calc.end by 7).foreach { t =>
+        assertEquals(linearIndex(times, t), calc.toIndex(t))
+      }
+      times.foreach { t =>
+        assertEquals(linearIndex(times, t), calc.toIndex(t))
+        assertEquals(t.toDouble, calc.valueAt(0, t), 0)
+      }
+    }
+  }
+
+  @Test def findsIndexOfFixedRateTimes(): Unit = {
+    val calc = new {
+      val defined = Interval(1000, 100000)
+      val rate = 333L
+    } with FixedRateCalculator {
+      lazy val values = Vector(times.map(_.toDouble))
+    }
+    (calc.start to calc.end by 11).foreach { t =>
+      assertEquals(linearIndex(calc.times, t), calc.toIndex(t))
+    }
+  }
+
+  @Test def interpolatesValues(): Unit = {
+    val calc = TestInterpolatingCalculator(Vector(0L, 10L, 30L), Vector(Vector(0.0, 10.0, 50.0), Vector(1.0, 1.0, -1.0)))
+    assertEquals(5.0, calc.valueAt(0, 5), 1e-12)
+    assertEquals(10.0, calc.valueAt(0, 10), 1e-12)
+    assertEquals(30.0, calc.valueAt(0, 20), 1e-12)
+    assertEquals(50.0, calc.valueAt(0, 30), 1e-12)
+    assertEquals(0.0, calc.valueAt(1, 20), 1e-12)
+    assertArrayEquals(Array(0.0, 2.0, 30.0, 50.0), calc.valuesAt(0, Array(0L, 2L, 20L, 30L)), 1e-12)
+  }
+
+  @Test def calculatesStatistics(): Unit = {
+    val calc = TestCalculator(Vector(0L, 10L, 30L, 40L), Vector(Vector(3.0, -2.0, 7.0, 0.0)))
+    assertEquals(-2.0, calc.min(0), 0)
+    assertEquals(7.0, calc.max(0), 0)
+    assertEquals(2.0, calc.mean(0), 1e-12)
+    assertArrayEquals(Array(3.0, -2.0, 7.0, 0.0), calc.valuesOf(0), 0)
+    assertArrayEquals(Array(0L, 10L, 30L, 40L), calc.timesArray)
+  }
+
+}
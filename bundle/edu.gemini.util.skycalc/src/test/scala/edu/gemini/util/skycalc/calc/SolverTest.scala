@@ -25,6 +25,28 @@ class SolverTest {
 
   }
 
+  @Test
+  def checkBracketingSolver(): Unit = {
+
+    def f(t: Long) =
+      if (t < 150) true
+      else if (t >= 250 && t < 450) true
+      else false
+
+    val c = new TestConstraint(BracketingSolver(7, 1), f)
+    assertEquals(Solution(Seq(Interval(0,150))), c.solve(new Interval(0, 200), 0))
+    assertEquals(Solution(Seq(Interval(250,400))), c.solve(new Interval(200, 400), 0))
+    assertEquals(Solution(Seq(Interval(250,450))), c.solve(new Interval(200, 500), 0))
+    assertEquals(Solution(Seq(Interval(0,150),Interval(250,400))), c.solve(new Interval(0, 400), 0))
+
+    // only changes between samples are found
+    val evaluations = new java.util.concurrent.atomic.AtomicInteger()
+    val counted = new TestConstraint(BracketingSolver(100, 1), t => { evaluations.incrementAndGet(); f(t) })
+    assertEquals(Solution(Seq(Interval(0,150),Interval(250,450))), counted.solve(new Interval(0, 1000), 0))
+    assertTrue(evaluations.get < 40)
+
+  }
+
   @Test
   def checkParabolaSolver(): Unit = {
 
@@ -46,6 +46,31 @@ class TargetCalculatorTest {
     assertEquals(37, target.minElevation, 1)
   }
 
+  @Test def calculatesBatchOfTargets(): Unit = {
+    val t = TimeUtils.time(2014, 3, 1, 20, 0, Site.GS.timezone)
+    val interval = Interval(t, t + TimeUtils.hours(4))
+    val fixed = List((150.0, 20.0), (10.0, -70.0), (280.0, -30.0), (0.0, 0.0)).map { case (ra, dec) =>
+      (_: Long) => Coordinates.fromDegrees(ra, dec).get
+    }
+    val moving = (l: Long) => Coordinates.fromDegrees(100 + (l - t) / 3600000.0, -20).get
+    val locations = moving :: fixed
+
+    def assertSame(expected: TargetCalculator, actual: TargetCalculator): Unit = {
+      assertEquals(expected.times, actual.times)
+      TargetCalculator.Fields.values.foreach { f =>
+        expected.values(f.id).zip(actual.values(f.id)).foreach { case (e, a) => assertEquals(e, a, 1e-9) }
+      }
+      assertEquals(expected.airmassAt(t + 1234567), actual.airmassAt(t + 1234567), 1e-9)
+    }
+
+    val batch = TargetCalculator.batch(Site.GS, locations, interval, TimeUtils.minutes(10))
+    locations.zip(batch).foreach { case (l, b) => assertSame(TargetCalculator(Site.GS, l, interval, TimeUtils.minutes(10)), b) }
+
+    val times = Vector(t, t + 1000, t + TimeUtils.hours(1), t + TimeUtils.hours(7))
+    val samples = TargetCalculator.batch(Site.GS, locations, times)
+    locations.zip(samples).foreach { case (l, b) => assertSame(TargetCalculator(Site.GS, l, times), b) }
+  }
+
   // === this is for performance trimming purposes, not an actual test case
 
   @Ignore
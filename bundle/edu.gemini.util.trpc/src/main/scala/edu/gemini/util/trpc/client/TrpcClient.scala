@@ -8,16 +8,17 @@ import edu.gemini.util.trpc.common._
 
 import java.io.IOException
 import java.lang.reflect.{UndeclaredThrowableException, Proxy, Method, InvocationHandler}
-import java.net.URL
+import java.net.{HttpURLConnection, URL}
+import java.util.concurrent.ConcurrentHashMap
 import java.util.logging.{Level, Logger=>JLogger}
 import javax.net.ssl.{SSLSession, HostnameVerifier, HttpsURLConnection}
 import javax.servlet.http.HttpServletResponse
 
 import scala.collection.JavaConverters._
+import scala.collection.mutable.ListBuffer
 import scala.concurrent.{ExecutionContext, Future}
 import scalaz._
 import Scalaz._
-import System.currentTimeMillis
 
 object TrpcClient {
   private val Log  = JLogger.getLogger(classOf[TrpcClient].getName)
@@ -26,10 +27,41 @@ object TrpcClient {
   val ConnectTimeout = 20 * 1000
   val ReadTimeout    = 0
 
+  /** System property that, when `false`, asks servers to close the
+    * connection after each call.  By default connections are kept alive and
+    * pooled by the JDK's HTTP keep-alive cache (whose size is set with the
+    * standard `http.maxConnections` property), so that consecutive calls to
+    * the same peer skip the TCP and TLS handshakes.  Reuse depends upon every
+    * connection sharing the same socket factory and hostname verifier and
+    * upon each response being read in full.
+    */
+  val KeepAliveProp = "edu.gemini.util.trpc.keepAlive"
+
+  private val KeepAlive: Boolean =
+    !Option(System.getProperty(KeepAliveProp)).exists(_.trim.equalsIgnoreCase("false"))
+
+  // Peers ("host:port") that have said they can read compressed requests.
+  // Until a peer says so, requests to it are sent uncompressed so that older
+  // servers continue to work.
+  private val gzipPeers = new ConcurrentHashMap[String, java.lang.Boolean]()
+
   private val hostnameVerifier: HostnameVerifier = new HostnameVerifier {
      def verify(s: String, sslSession: SSLSession) = true
   }
 
+  // The value returned by a recorded batch call, which must be of the right
+  // type for primitive return types.
+  private def placeholder(c: Class[_]): AnyRef =
+    if (!c.isPrimitive || c == java.lang.Void.TYPE) null
+    else if (c == java.lang.Boolean.TYPE)   java.lang.Boolean.FALSE
+    else if (c == java.lang.Character.TYPE) java.lang.Character.valueOf(0.toChar)
+    else if (c == java.lang.Byte.TYPE)      java.lang.Byte.valueOf(0.toByte)
+    else if (c == java.lang.Short.TYPE)     java.lang.Short.valueOf(0.toShort)
+    else if (c == java.lang.Integer.TYPE)   java.lang.Integer.valueOf(0)
+    else if (c == java.lang.Long.TYPE)      java.lang.Long.valueOf(0L)
+    else if (c == java.lang.Float.TYPE)     java.lang.Float.valueOf(0.0f)
+    else                                    java.lang.Double.valueOf(0.0)
+
   class ClientBuilder(host: String, port: Int, connectTimeout: Int, readTimeout: Int) {
 
     def withKeys(keys: Set[Key]): TrpcClient = 
@@ -66,6 +98,8 @@ object TrpcClient {
 class TrpcClient private (host: String, port: Int, connectTimeout: Int, readTimeout: Int, keys: Set[Key]) {
   import TrpcClient._
 
+  private val peerKey = s"$host:$port"
+
   /**
    * A remote proxy broker, which may be coerced into any <i>interface</i> type; this coercion triggers the creation of
    * a dynamic proxy whose method calls are forwarded to the remote host. See TrpcClient.apply() below.
@@ -120,45 +154,139 @@ class TrpcClient private (host: String, port: Int, connectTimeout: Int, readTime
   private def proxy[A](implicit m: Manifest[A]): A = {
     val handler = new InvocationHandler {
 
-      def invoke(proxy: Any, method: Method, args: Array[AnyRef]): AnyRef = {
-        val start = currentTimeMillis
-        try {
-          val url = "https://%s:%d/trpc/%s/%s".format(host, port, m.erasure.getName, method.getName)
-          val conn = new URL(url).openConnection.asInstanceOf[HttpsURLConnection]
-          conn.setSSLSocketFactory(GemSslSocketFactory.get)
-          conn.setHostnameVerifier(hostnameVerifier)
-          conn.setConnectTimeout(connectTimeout)
-          conn.setChunkedStreamingMode(1024 * 16) // 16k blocks (?)
-          conn.setDoOutput(true)
-          conn.setDoInput(true)
-          conn.setReadTimeout(readTimeout)
-
-          if (Log.isLoggable(Level.FINE))
-            Log.fine("Sending %d principals:".format(keys.size) + keys.map(p => "\n\t" + p))
-
-          closing(conn.getOutputStream)(_.writeRaw(Version.current, (args, keys))) // note that args may be null
-          conn.getResponseCode match {
-            case HttpServletResponse.SC_OK => closing(conn.getInputStream)(_.readRaw.next[Try[AnyRef]]) match {
-              case \/-(a) => a
-              case -\/(e) =>
-                val localFrames = new Exception().getStackTrace.drop(2) // throw away the proxy frames (?)
-                val markerFrame = new StackTraceElement("***** EXCEPTION THROW FROM SERVER", "", "<none>", 0)
-                e.setStackTrace(localFrames ++ Array(markerFrame) ++ e.getStackTrace)
-                throw e
-            }
-            case code => throw new IOException("%d %s: %s".format(code, conn.getResponseMessage, url)) // can we do better?
-          }
-        } finally {
-          val elapsed = currentTimeMillis - start
-          val level = if (elapsed > Warn) Level.WARNING else Level.FINE
-          if (Log.isLoggable(level))
-            Log.log(level, "%s on %s:%d took %d ms.".format(method, host, port, elapsed))
+      def invoke(proxy: Any, method: Method, args: Array[AnyRef]): AnyRef =
+        send(m.erasure.getName, method.getName, args) match {
+          case \/-(a) => a
+          case -\/(e) =>
+            val localFrames = new Exception().getStackTrace.drop(2) // throw away the proxy frames (?)
+            val markerFrame = new StackTraceElement("***** EXCEPTION THROW FROM SERVER", "", "<none>", 0)
+            e.setStackTrace(localFrames ++ Array(markerFrame) ++ e.getStackTrace)
+            throw e
         }
-      }
 
     }
 
     Proxy.newProxyInstance(getClass.getClassLoader, Array(m.erasure), handler).asInstanceOf[A]
   }
 
+  /**
+   * Sends several calls in a single request, which saves a round trip per
+   * call when making many small calls.  The calls are recorded by invoking
+   * methods on the proxies provided to `f`, whose return values are only
+   * placeholders (`null`, zero or `false`).  The results, one per call in the
+   * order the calls were made, are returned when the batch completes.
+   * Invoke as
+   * <code>
+   * val versions = TrpcClient(host, port).withKeys(ks).batch(concurrent = true) { remote =>
+   *   ids.foreach(remote[VcsService].version)
+   * }
+   * </code>
+   *
+   * If `concurrent` is true the server may execute the calls in parallel,
+   * which is only appropriate when they are independent of one another.
+   * Otherwise they are executed in order and each sees the effects of those
+   * before it.  A failure of one call doesn't prevent the others from
+   * running; the outer `Try` fails only if the batch itself could not be
+   * sent or answered.
+   */
+  def batch(concurrent: Boolean)(f: Remote => Unit): Try[Vector[Try[AnyRef]]] = catching {
+    val calls = record(f)
+    if (calls.isEmpty) Vector.empty[Try[AnyRef]].right
+    else {
+      val mode = if (concurrent) TrpcCall.Concurrent else TrpcCall.Sequential
+      send(TrpcCall.BatchService, mode, calls.toArray[AnyRef]).map(_.asInstanceOf[Vector[Try[AnyRef]]])
+    }
+  }
+
+  /** Records the calls made by `f` on the remote proxies, in order. */
+  private[trpc] def record(f: Remote => Unit): Vector[TrpcCall] = {
+    val calls = ListBuffer.empty[TrpcCall]
+    f(new Remote {
+      def apply[A: Manifest]: A = recorder[A](calls)
+    })
+    calls.synchronized { calls.toVector }
+  }
+
+  // A proxy that records the calls made on it rather than sending them.
+  private def recorder[A](calls: ListBuffer[TrpcCall])(implicit m: Manifest[A]): A = {
+    val handler = new InvocationHandler {
+      def invoke(proxy: Any, method: Method, args: Array[AnyRef]): AnyRef = {
+        calls.synchronized { calls += TrpcCall(m.erasure.getName, method.getName, args) }
+        placeholder(method.getReturnType)
+      }
+    }
+    Proxy.newProxyInstance(getClass.getClassLoader, Array(m.erasure), handler).asInstanceOf[A]
+  }
+
+  /**
+   * Posts the call to the server, returning the result it sends back.  Any
+   * failure to communicate with the server is thrown.
+   */
+  private def send(service: String, method: String, args: Array[AnyRef]): Try[AnyRef] = {
+    val url = "https://%s:%d/trpc/%s/%s".format(host, port, service, method)
+    val conn = new URL(url).openConnection.asInstanceOf[HttpsURLConnection]
+    conn.setSSLSocketFactory(GemSslSocketFactory.get)
+    conn.setHostnameVerifier(hostnameVerifier)
+    conn.setConnectTimeout(connectTimeout)
+    conn.setChunkedStreamingMode(1024 * 16) // 16k blocks (?)
+    conn.setDoOutput(true)
+    conn.setDoInput(true)
+    conn.setReadTimeout(readTimeout)
+    if (!KeepAlive) conn.setRequestProperty("Connection", "close")
+    exchange(conn, s"$service.$method", args)
+  }
+
+  /**
+   * Writes the call to an unconnected connection and reads back the result,
+   * negotiating compression with the peer and recording the call in
+   * `TrpcStats.client` under the given name.
+   */
+  private[trpc] def exchange(conn: HttpURLConnection, name: String, args: Array[AnyRef]): Try[AnyRef] = {
+    val start    = System.nanoTime
+    var sent     = 0L
+    var received = 0L
+    var failed   = true
+    try {
+      // Ask for a compressed response, and compress the request if the
+      // server has already told us it can read it.
+      val gzipRequest = CompressionEnabled && gzipPeers.containsKey(peerKey)
+      if (CompressionEnabled) conn.setRequestProperty(AcceptEncodingHeader, Gzip)
+      if (gzipRequest) conn.setRequestProperty(EncodingHeader, Gzip)
+
+      if (Log.isLoggable(Level.FINE))
+        Log.fine("Sending %d principals:".format(keys.size) + keys.map(p => "\n\t" + p))
+
+      val out = new CountingOutputStream(conn.getOutputStream)
+      closing(out)(_.writeEncoded(gzipRequest, Version.current, (args, keys))) // note that args may be null
+      sent = out.count
+
+      conn.getResponseCode match {
+        case HttpServletResponse.SC_OK =>
+          if (acceptsGzip(conn.getHeaderField(AcceptEncodingHeader))) gzipPeers.put(peerKey, java.lang.Boolean.TRUE)
+          else gzipPeers.remove(peerKey)
+
+          val gzipResponse = acceptsGzip(conn.getHeaderField(EncodingHeader))
+          val in           = new CountingInputStream(conn.getInputStream)
+          val result       = closing(in.readEncoded(gzipResponse)) { ois =>
+            try ois.next[Try[AnyRef]]
+            finally drain(in) // so that the connection may be reused
+          }
+          received = in.count
+          failed   = result.isLeft
+          result
+
+        case code =>
+          Option(conn.getErrorStream).foreach(es => closing(es)(drain))
+          throw new IOException("%d %s: %s".format(code, conn.getResponseMessage, conn.getURL)) // can we do better?
+      }
+    } finally {
+      val nanos   = System.nanoTime - start
+      val elapsed = nanos / 1000000
+      TrpcStats.client.record(name, nanos, sent, received, failed)
+      val level = if (elapsed > Warn) Level.WARNING else Level.FINE
+      if (Log.isLoggable(level))
+        Log.log(level, "%s on %s:%d took %d ms (%d bytes sent, %d received).".format(name, host, port, elapsed, sent, received))
+    }
+  }
+
 }
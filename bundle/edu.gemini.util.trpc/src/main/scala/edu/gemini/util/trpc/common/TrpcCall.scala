@@ -0,0 +1,23 @@
+package edu.gemini.util.trpc.common
+
+/** A single method invocation sent as part of a batch.
+  *
+  * @param service name of the remote interface
+  * @param method name of the method to call
+  * @param args arguments to the method, which may be `null` if there are none
+  */
+final case class TrpcCall(service: String, method: String, args: Array[AnyRef]) {
+  def name: String = s"$service.$method"
+}
+
+object TrpcCall {
+
+  /** The service name under which batches are posted. It is not a legal Java
+    * class name, so it can't clash with a real service. */
+  val BatchService = "-batch"
+
+  /** Method names for a batch, saying whether the server may execute the
+    * calls concurrently or must run them one after the other in order. */
+  val Sequential = "sequential"
+  val Concurrent = "concurrent"
+}
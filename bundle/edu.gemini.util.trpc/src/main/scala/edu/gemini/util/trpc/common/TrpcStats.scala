@@ -0,0 +1,77 @@
+package edu.gemini.util.trpc.common
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.{LongAccumulator, LongAdder}
+
+import scala.collection.JavaConverters._
+
+/** Per-method call counters.  Methods are identified by service interface
+  * and method name, e.g. `edu.gemini.sp.vcs2.VcsService.fetchDiffs`.  Byte
+  * counts are as sent over the wire, that is after any compression.
+  */
+final class TrpcStats {
+  import TrpcStats._
+
+  private val methods = new ConcurrentHashMap[String, MethodStats]()
+
+  private def method(name: String): MethodStats =
+    Option(methods.get(name)).getOrElse {
+      val ms = new MethodStats
+      Option(methods.putIfAbsent(name, ms)).getOrElse(ms)
+    }
+
+  /** Records one call of the named method. */
+  def record(name: String, nanos: Long, sent: Long, received: Long, failed: Boolean): Unit =
+    method(name).record(nanos, sent, received, failed)
+
+  /** Gets the counters accumulated so far for every method called. */
+  def snapshot: Map[String, Snapshot] =
+    methods.asScala.map { case (n, ms) => n -> ms.snapshot }.toMap
+
+  /** Discards all counters. */
+  def reset(): Unit =
+    methods.clear()
+
+  /** A summary of the counters, one line per method, slowest first. */
+  def format: String =
+    snapshot.toList.sortBy(-_._2.totalMs).map { case (n, s) => s"$n: $s" }.mkString("\n")
+}
+
+object TrpcStats {
+
+  /** Calls made by this process. */
+  val client = new TrpcStats
+
+  /** Calls served by this process. */
+  val server = new TrpcStats
+
+  final case class Snapshot(calls: Long, failures: Long, totalMs: Long, maxMs: Long, bytesSent: Long, bytesReceived: Long) {
+    def meanMs: Double = if (calls == 0) 0.0 else totalMs.toDouble / calls
+
+    override def toString: String =
+      f"calls=$calls%d, failures=$failures%d, mean=$meanMs%.1f ms, max=$maxMs%d ms, sent=$bytesSent%d B, received=$bytesReceived%d B"
+  }
+
+  private final class MethodStats {
+    val calls    = new LongAdder
+    val failures = new LongAdder
+    val nanos    = new LongAdder
+    val maxNanos = new LongAccumulator(new java.util.function.LongBinaryOperator {
+      def applyAsLong(a: Long, b: Long): Long = a max b
+    }, 0L)
+    val sent     = new LongAdder
+    val received = new LongAdder
+
+    def record(ns: Long, s: Long, r: Long, failed: Boolean): Unit = {
+      calls.increment()
+      if (failed) failures.increment()
+      nanos.add(ns)
+      maxNanos.accumulate(ns)
+      sent.add(s)
+      received.add(r)
+    }
+
+    def snapshot: Snapshot =
+      Snapshot(calls.sum, failures.sum, nanos.sum / 1000000, maxNanos.get / 1000000, sent.sum, received.sum)
+  }
+}
@@ -3,11 +3,34 @@ package edu.gemini.util.trpc
 import scalaz._
 import Scalaz._
 import java.io._
+import java.util.zip.{Deflater, GZIPInputStream, GZIPOutputStream}
 
 package object common {
 
   val BufSize = 1024 * 16 // ok?
 
+  /** Header naming the encoding applied to a request or response body. */
+  val EncodingHeader = "X-Trpc-Encoding"
+
+  /** Header listing the body encodings that the sender is able to read. */
+  val AcceptEncodingHeader = "X-Trpc-Accept-Encoding"
+
+  /** The only supported body encoding. */
+  val Gzip = "gzip"
+
+  /** System property that selects whether bodies are compressed, either
+    * `gzip` (the default) or `none`.  Compression is only used when the peer
+    * says that it can read compressed bodies, so either side may turn it off.
+    */
+  val CompressionProp = "edu.gemini.util.trpc.compression"
+
+  lazy val CompressionEnabled: Boolean =
+    !"none".equalsIgnoreCase(Option(System.getProperty(CompressionProp)).map(_.trim).getOrElse(Gzip))
+
+  /** True if the given header value lists gzip among its encodings. */
+  def acceptsGzip(header: String): Boolean =
+    Option(header).exists(_.split(",").exists(_.trim.equalsIgnoreCase(Gzip)))
+
   type Try[A] = Exception \/ A
 
   def lift[A](a: => A):Try[A] = catching(a.right[Exception])
@@ -24,17 +47,32 @@ package object common {
 
   implicit class OutputStreamOps(os:OutputStream) {
     def writeRaw(as: Any*): Unit =
-      closing(new BufferedOutputStream(os, BufSize)) { os =>
+      writeEncoded(false, as: _*)
+
+    /** Writes the objects, gzipped if requested.  Compression favors speed
+      * since payloads are written while the peer waits. */
+    def writeEncoded(gzip: Boolean, as: Any*): Unit = {
+      val out =
+        if (gzip) new GZIPOutputStream(os, BufSize) { `def`.setLevel(Deflater.BEST_SPEED) }
+        else os
+      closing(new BufferedOutputStream(out, BufSize)) { os =>
         closing(new ObjectOutputStream(os)) {
           oos => as.foreach(oos.writeObject)
         }
       }
+    }
   }
 
   implicit class InputStreamOps(is:InputStream) {
 
-    def readRaw:ObjectInputStream = {
-      new ObjectInputStream(new BufferedInputStream(is, BufSize)) {
+    def readRaw:ObjectInputStream =
+      readEncoded(false)
+
+    /** Reads objects from the stream, which is gzipped if so indicated.  The
+      * returned stream should be closed so that any inflater is released. */
+    def readEncoded(gzip: Boolean):ObjectInputStream = {
+      val in = if (gzip) new GZIPInputStream(is, BufSize) else is
+      new ObjectInputStream(new BufferedInputStream(in, BufSize)) {
 
         // Override to fall back on the current classloader, since ObjectInputStream pulls
         // one out of the ether and it's not really possible to know what to expect.
@@ -63,5 +101,50 @@ package object common {
     a.close()
   }
 
+  /** Reads and discards whatever remains of the stream.  An HTTP connection
+    * can only be kept alive for reuse if its body has been read completely. */
+  def drain(is: InputStream): Unit = {
+    val buf = new Array[Byte](BufSize)
+    while (is.read(buf) >= 0) {}
+  }
+
+  /** An output stream that counts the bytes written through it. */
+  final class CountingOutputStream(os: OutputStream) extends FilterOutputStream(os) {
+    @volatile var count: Long = 0L
+
+    override def write(b: Int): Unit = {
+      out.write(b)
+      count += 1
+    }
+
+    override def write(b: Array[Byte], off: Int, len: Int): Unit = {
+      out.write(b, off, len)
+      count += len
+    }
+  }
+
+  /** An input stream that counts the bytes read through it. */
+  final class CountingInputStream(is: InputStream) extends FilterInputStream(is) {
+    @volatile var count: Long = 0L
+
+    override def read(): Int = {
+      val b = in.read()
+      if (b >= 0) count += 1
+      b
+    }
+
+    override def read(b: Array[Byte], off: Int, len: Int): Int = {
+      val n = in.read(b, off, len)
+      if (n > 0) count += n
+      n
+    }
+
+    override def skip(n: Long): Long = {
+      val s = in.skip(n)
+      count += s
+      s
+    }
+  }
+
 }
 
@@ -12,6 +12,9 @@ import Scalaz._
 import edu.gemini.spModel.core.{VersionException, Version}
 import java.util.logging.{Level, Logger}
 import scala.util.DynamicVariable
+import scala.collection.JavaConverters._
+import java.util.concurrent.{Callable, ExecutorService, Executors, ThreadFactory}
+import java.util.concurrent.atomic.AtomicInteger
 
 abstract class TrpcServlet(auth: KeyService) extends HttpServlet {
   val Log = Logger.getLogger(this.getClass.getName)
@@ -21,8 +24,18 @@ abstract class TrpcServlet(auth: KeyService) extends HttpServlet {
   // The idea is that you pass class, method, args and get back a result or a throwable.
   // POST goes to http://server:host/trpc/class/method, where local path /class/method
   // Request payload is an Array[AnyRef] serialized as a raw bytestream
+  //
+  // Bodies may be gzipped, as indicated by the X-Trpc-Encoding header.  The
+  // response is compressed only when the client lists gzip in its
+  // X-Trpc-Accept-Encoding header, and every response advertises that this
+  // server reads compressed requests so that the client may send them.
   override def service(req: HttpServletRequest, res: HttpServletResponse) {
 
+    val start = System.nanoTime
+    val in    = new CountingInputStream(req.getInputStream)
+    var out   = Option.empty[CountingOutputStream]
+    var ok    = false
+
     try {
 
       // Our result object is either an exception or a valid result
@@ -31,32 +44,67 @@ abstract class TrpcServlet(auth: KeyService) extends HttpServlet {
         r <- catching {  // capture any exceptions thrown within, and turn to Failure
           for {
             n  <- req.path(1) // the name of our method
-            a  <- req.payload // our argument array
+            a  <- req.payload(in) // our argument array
             ps <- subject(a._2)
-            a <- withService(c, ps) { t => t.getClass.getCompatibleMethod(n, a._1).map { m =>
-                try {
-                  m.setAccessible(true) // public stuff isn't visible if the class isn't public
-                  m.invoke(t, a._1: _*)
-                } catch {
-                  case ite:InvocationTargetException => throw ite.getCause // unwrap the exception
-                }
-              }
-            }
+            a  <- if (c == TrpcCall.BatchService) batch(n == TrpcCall.Concurrent, a._1, ps).right
+                  else invoke(c, n, a._1, ps)
           } yield a
         }
       } yield r
+      ok = result.isRight
 
       // Either way, send it back.
-      closing(res.getOutputStream)(_.writeRaw(result))
+      val gzip = CompressionEnabled && acceptsGzip(req.getHeader(AcceptEncodingHeader))
+      if (CompressionEnabled) res.setHeader(AcceptEncodingHeader, Gzip)
+      if (gzip) res.setHeader(EncodingHeader, Gzip)
+      val os = new CountingOutputStream(res.getOutputStream)
+      out = Some(os)
+      closing(os)(_.writeEncoded(gzip, result))
 
     } catch {
       case t: Exception =>
         Log.log(Level.INFO, s"Problem writing response to ${req.getRemoteAddr} for request: class=${req.path(0).getOrElse("")} method=${req.path(1).getOrElse("")}", t)
         throw t
+    } finally {
+      val name = s"${req.path(0).getOrElse("")}.${req.path(1).getOrElse("")}"
+      TrpcStats.server.record(name, System.nanoTime - start, out.fold(0L)(_.count), in.count, !ok)
     }
 
   }
 
+  /** Invokes the named method on the service with the given arguments. */
+  private def invoke(c: String, n: String, args: Array[AnyRef], ps: Set[Principal]): Try[AnyRef] =
+    withService(c, ps) { t => t.getClass.getCompatibleMethod(n, args).map { m =>
+        try {
+          m.setAccessible(true) // public stuff isn't visible if the class isn't public
+          m.invoke(t, args: _*)
+        } catch {
+          case ite:InvocationTargetException => throw ite.getCause // unwrap the exception
+        }
+      }
+    }
+
+  /** Executes each call in a batch, returning their results in order. */
+  private def batch(concurrent: Boolean, calls: Array[AnyRef], ps: Set[Principal]): Vector[Try[AnyRef]] = {
+    def run(a: AnyRef): Try[AnyRef] =
+      a match {
+        case c: TrpcCall =>
+          val start  = System.nanoTime
+          val result = catching(invoke(c.service, c.method, c.args, ps))
+          TrpcStats.server.record(c.name, System.nanoTime - start, 0L, 0L, result.isLeft)
+          result
+        case _           =>
+          new IllegalArgumentException(s"Not a TRPC call: $a").left
+      }
+
+    val cs = Option(calls).fold(Vector.empty[AnyRef])(_.toVector)
+    if (!concurrent || (cs.size < 2)) cs.map(run)
+    else {
+      val tasks = cs.map(c => new Callable[Try[AnyRef]] { def call(): Try[AnyRef] = run(c) })
+      TrpcServlet.batchPool.invokeAll(tasks.asJava).asScala.map(_.get).toVector
+    }
+  }
+
   def subject(ps:Set[Key]): Try[Set[Principal]] = try {
     ps.collect { case a if auth.validateKey(a).isRight => a.get._1 : Principal } .toSet.right
   } catch {
@@ -70,3 +118,26 @@ abstract class TrpcServlet(auth: KeyService) extends HttpServlet {
   protected def withService[B](clazz: String, ps: Set[Principal])(f: Any => B): B
 
 }
+
+object TrpcServlet {
+
+  /** System property that sets the number of threads used to execute the
+    * calls in concurrent batches.  Defaults to one per available processor.
+    */
+  val BatchThreadsProp = "edu.gemini.util.trpc.batchThreads"
+
+  private lazy val batchPool: ExecutorService = {
+    val threads = Option(System.getProperty(BatchThreadsProp)).flatMap { s =>
+      try Some(s.trim.toInt).filter(_ > 0) catch { case _: NumberFormatException => None }
+    }.getOrElse(Runtime.getRuntime.availableProcessors)
+
+    val count = new AtomicInteger()
+    Executors.newFixedThreadPool(threads, new ThreadFactory {
+      def newThread(r: Runnable): Thread = {
+        val t = new Thread(r, s"TRPC Batch-${count.incrementAndGet()}")
+        t.setDaemon(true)
+        t
+      }
+    })
+  }
+}
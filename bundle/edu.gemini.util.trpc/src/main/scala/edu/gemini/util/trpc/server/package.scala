@@ -6,7 +6,7 @@ import Scalaz._
 import javax.servlet.http.{HttpServletResponse, HttpServletRequest}
 import java.{lang => jl}
 import java.lang.reflect.Method
-import java.io.{InvalidClassException, ByteArrayOutputStream, ByteArrayInputStream, ObjectInputStream}
+import java.io.{InvalidClassException, ByteArrayOutputStream, ByteArrayInputStream, InputStream, ObjectInputStream}
 import edu.gemini.spModel.core.{VersionException, Version}
 import edu.gemini.util.security.auth.keychain._
 
@@ -20,25 +20,37 @@ package object server {
       Option(req.getParameter(s)) \/> new IllegalArgumentException("Required request parameter %s was not found.".format(s))
 
     def payload: Try[(Array[AnyRef], Set[Key])] =
+      payload(req.getInputStream)
+
+    /** Reads the payload from the given stream, which wraps the request's
+      * input stream, decompressing it if the client compressed it. */
+    def payload(is: InputStream): Try[(Array[AnyRef], Set[Key])] =
       lift {
 
         // Get our object stream
-        val ios = req.getInputStream.readRaw
-
-        // Check serial compatibility
-        try {
-          val actualVersion = ios.next[Version]
-          if (!Version.current.isCompatible(actualVersion, Version.Compatibility.serial))
-            throw new VersionException(Version.current, actualVersion, Version.Compatibility.serial);
-        } catch {
-          case ice: InvalidClassException =>
-            // the version itself is incompatible!
-            throw new VersionException(Version.current, Version.Compatibility.serial);
+        val gzip = acceptsGzip(req.getHeader(EncodingHeader))
+        closing(is.readEncoded(gzip)) { ios =>
+          try {
+
+            // Check serial compatibility
+            try {
+              val actualVersion = ios.next[Version]
+              if (!Version.current.isCompatible(actualVersion, Version.Compatibility.serial))
+                throw new VersionException(Version.current, actualVersion, Version.Compatibility.serial);
+            } catch {
+              case ice: InvalidClassException =>
+                // the version itself is incompatible!
+                throw new VersionException(Version.current, Version.Compatibility.serial);
+            }
+
+            // Next hunk is our payload
+            ios.next[(Array[AnyRef], Set[Key])]
+
+          } finally {
+            drain(is) // read to the end, even when unreadable, so that the connection may be reused
+          }
         }
 
-        // Next hunk is our payload
-        ios.next[(Array[AnyRef], Set[Key])]
-
       }
 
     def path(n: Int): Try[String] =
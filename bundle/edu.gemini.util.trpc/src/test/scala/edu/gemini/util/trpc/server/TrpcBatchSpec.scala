@@ -0,0 +1,119 @@
+package edu.gemini.util.trpc.server
+
+import edu.gemini.spModel.core.Version
+import edu.gemini.util.security.auth.keychain.Key
+import edu.gemini.util.trpc.client.TrpcClient
+import edu.gemini.util.trpc.common._
+
+import java.io.{ByteArrayInputStream, ByteArrayOutputStream}
+import java.lang.reflect.{InvocationHandler, Method, Proxy}
+import java.security.Principal
+import javax.servlet.{ServletInputStream, ServletOutputStream}
+import javax.servlet.http.{HttpServletRequest, HttpServletResponse}
+
+import org.specs2.mutable.Specification
+import scalaz._
+
+trait EchoService {
+  def echo(s: String): String
+  def length(s: String): Int
+  def fail(s: String): String
+  def thread(): String
+}
+
+object TrpcBatchSpec extends Specification {
+
+  object Echo extends EchoService {
+    def echo(s: String): String   = s
+    def length(s: String): Int    = s.length
+    def fail(s: String): String   = throw new IllegalStateException(s)
+    def thread(): String          = Thread.currentThread.getName
+  }
+
+  // No keys are sent, so the key service is never consulted.
+  object Servlet extends TrpcServlet(null) {
+    override protected def withService[B](clazz: String, ps: Set[Principal])(f: Any => B): B =
+      if (clazz == classOf[EchoService].getName) f(Echo)
+      else throw new IllegalArgumentException(s"No service $clazz")
+  }
+
+  val client = TrpcClient("localhost", 0).withoutKeys
+
+  // A proxy for a servlet API interface answering calls by method name.
+  def stub[A](answer: String => AnyRef)(implicit m: Manifest[A]): A =
+    Proxy.newProxyInstance(getClass.getClassLoader, Array(m.runtimeClass), new InvocationHandler {
+      def invoke(p: Any, method: Method, args: Array[AnyRef]): AnyRef = answer(method.getName)
+    }).asInstanceOf[A]
+
+  // Posts a batch to the servlet the way the client does, returning its answer.
+  def post(mode: String, calls: Array[AnyRef]): Try[AnyRef] = {
+    val body = new ByteArrayOutputStream()
+    body.writeRaw(Version.current, (calls, Set.empty[Key]))
+    val in   = new ByteArrayInputStream(body.toByteArray)
+    val out  = new ByteArrayOutputStream()
+
+    val req = stub[HttpServletRequest] {
+      case "getPathInfo"    => s"/${TrpcCall.BatchService}/$mode"
+      case "getInputStream" => new ServletInputStream { def read(): Int = in.read() }
+      case _                => null
+    }
+    val res = stub[HttpServletResponse] {
+      case "getOutputStream" => new ServletOutputStream { def write(b: Int): Unit = out.write(b) }
+      case _                 => null
+    }
+    Servlet.service(req, res)
+    closing(new ByteArrayInputStream(out.toByteArray).readRaw)(_.next[Try[AnyRef]])
+  }
+
+  def batch(mode: String, calls: Seq[AnyRef]): Vector[Try[AnyRef]] =
+    post(mode, calls.toArray).get.asInstanceOf[Vector[Try[AnyRef]]]
+
+  def record(f: EchoService => Unit): Vector[TrpcCall] =
+    client.record(remote => f(remote[EchoService]))
+
+  def failure(t: Try[AnyRef]): Option[Exception] = t.swap.toOption
+
+  "batch calls" should {
+    "be recorded in order" in {
+      record { e => e.echo("a"); e.length("bc") }.map(c => (c.method, c.args.toList)) must_==
+        Vector(("echo", List("a")), ("length", List("bc")))
+    }
+
+    "return their results in order" in {
+      foreach(List(TrpcCall.Sequential, TrpcCall.Concurrent)) { mode =>
+        val calls = record { e => (1 to 20).foreach(i => if (i % 2 == 0) e.echo(i.toString) else e.length("x" * i)) }
+        batch(mode, calls).map(_.get) must_==
+          (1 to 20).toVector.map(i => if (i % 2 == 0) i.toString else Int.box(i))
+      }
+    }
+
+    "fail individually" in {
+      foreach(List(TrpcCall.Sequential, TrpcCall.Concurrent)) { mode =>
+        val rs = batch(mode, record { e => e.echo("a"); e.fail("boom"); e.echo("b") })
+        (rs(0) must_== \/-("a")) and
+          (failure(rs(1)).map(e => (e.getClass, e.getMessage)) must_== Some((classOf[IllegalStateException], "boom"))) and
+          (rs(2) must_== \/-("b"))
+      }
+    }
+
+    "reject elements that are not calls" in {
+      foreach(List(TrpcCall.Sequential, TrpcCall.Concurrent)) { mode =>
+        val c  = record(_.echo("a")).head
+        val rs = batch(mode, Seq(c, "bogus", c))
+        (rs(0) must_== \/-("a")) and
+          (failure(rs(1)).map(_.getClass) must_== Some(classOf[IllegalArgumentException])) and
+          (rs(2) must_== \/-("a"))
+      }
+    }
+
+    "run on the calling thread when sequential" in {
+      val calls = record { e => e.thread(); e.thread() }
+      batch(TrpcCall.Sequential, calls).map(_.get) must_== Vector.fill(2)(Thread.currentThread.getName)
+    }
+
+    "run on the batch pool when concurrent" in {
+      val calls = record { e => (1 to 4).foreach(_ => e.thread()) }
+      batch(TrpcCall.Concurrent, calls).map(_.get.toString) must contain(startWith("TRPC Batch-")).forall
+    }
+  }
+}
@@ -0,0 +1,248 @@
+package edu.gemini.util.trpc.server
+
+import edu.gemini.spModel.core.Version
+import edu.gemini.util.security.auth.keychain.Key
+import edu.gemini.util.trpc.client.TrpcClient
+import edu.gemini.util.trpc.common._
+
+import java.io.{ByteArrayInputStream, ByteArrayOutputStream, IOException, InputStream, OutputStream}
+import java.lang.reflect.{InvocationHandler, Method, Proxy}
+import java.net.{HttpURLConnection, URL}
+import javax.servlet.{ServletInputStream, ServletOutputStream}
+import javax.servlet.http.{HttpServletRequest, HttpServletResponse}
+
+import org.specs2.mutable.Specification
+import scalaz._
+
+import scala.collection.mutable
+
+object TrpcEncodingSpec extends Specification {
+  sequential // the counters are shared
+
+  import TrpcBatchSpec.Servlet
+
+  val Service = classOf[EchoService].getName
+
+  // Bytes appended to a body, which the reader must drain.
+  val Trailer = Array.fill[Byte](BufSize * 4)(42)
+
+  // What the servlet made of a request.
+  case class Response(headers: Map[String, String], body: Array[Byte], unread: Int) {
+    def gzipped: Boolean = isGzip(body)
+    def result: Try[AnyRef] =
+      closing(new ByteArrayInputStream(body).readEncoded(acceptsGzip(headers.getOrElse(EncodingHeader, null))))(_.next[Try[AnyRef]])
+  }
+
+  def isGzip(bs: Array[Byte]): Boolean =
+    bs.length > 2 && (bs(0) & 0xff) == 0x1f && (bs(1) & 0xff) == 0x8b
+
+  // A proxy for a servlet API interface answering calls by method name and
+  // arguments.
+  def stub[A](answer: (String, List[AnyRef]) => AnyRef)(implicit m: Manifest[A]): A =
+    Proxy.newProxyInstance(getClass.getClassLoader, Array(m.runtimeClass), new InvocationHandler {
+      def invoke(p: Any, method: Method, args: Array[AnyRef]): AnyRef =
+        answer(method.getName, Option(args).fold(List.empty[AnyRef])(_.toList))
+    }).asInstanceOf[A]
+
+  // Hands a request to the servlet, returning its response and how much of
+  // the request it left unread.
+  def serve(method: String, headers: Map[String, String], body: Array[Byte]): Response = {
+    val in       = new ByteArrayInputStream(body)
+    val out      = new ByteArrayOutputStream()
+    val response = mutable.Map.empty[String, String]
+
+    val req = stub[HttpServletRequest] {
+      case ("getPathInfo", _)              => s"/$Service/$method"
+      case ("getHeader", List(h: String))  => headers.getOrElse(h, null)
+      case ("getInputStream", _)           => new ServletInputStream { def read(): Int = in.read() }
+      case _                               => null
+    }
+    val res = stub[HttpServletResponse] {
+      case ("setHeader", List(h: String, v: String)) => response.put(h, v); null
+      case ("getOutputStream", _)                    => new ServletOutputStream { def write(b: Int): Unit = out.write(b) }
+      case _                                         => null
+    }
+    Servlet.service(req, res)
+    Response(response.toMap, out.toByteArray, in.available)
+  }
+
+  def body(gzip: Boolean, as: Any*): Array[Byte] = {
+    val out = new ByteArrayOutputStream()
+    out.writeEncoded(gzip, as: _*)
+    out.toByteArray
+  }
+
+  def call(gzip: Boolean, args: AnyRef*): Array[Byte] =
+    body(gzip, Version.current, (args.toArray, Set.empty[Key]))
+
+  // An unconnected HTTP connection that hands the request to the servlet in
+  // memory.  An old server neither sees nor sends the encoding headers.  If
+  // there's an error code it is answered with the given error body instead.
+  class Wire(method: String, old: Boolean = false, error: Option[Int] = None, trailer: Array[Byte] = Array.empty)
+      extends HttpURLConnection(new URL(s"http://localhost/trpc/$Service/$method")) {
+
+    val request = new ByteArrayOutputStream()
+    lazy val response: Response = {
+      val headers = List(EncodingHeader, AcceptEncodingHeader).flatMap(h => Option(getRequestProperty(h)).map(h -> _)).toMap
+      val r       = serve(method, if (old) Map.empty else headers, request.toByteArray)
+      if (old) r.copy(headers = Map.empty) else r
+    }
+    lazy val in: ByteArrayInputStream =
+      new ByteArrayInputStream(error.fold(response.body)(_ => Array.empty[Byte]) ++ trailer)
+
+    def unread: Int = in.available
+
+    def connect(): Unit = ()
+    def disconnect(): Unit = ()
+    def usingProxy(): Boolean = false
+
+    override def getOutputStream: OutputStream = request
+    override def getResponseCode: Int = error.getOrElse { response; HttpURLConnection.HTTP_OK }
+    override def getHeaderField(name: String): String = if (error.isDefined) null else response.headers.getOrElse(name, null)
+    override def getInputStream: InputStream = if (error.isDefined) throw new IOException("error") else in
+    override def getErrorStream: InputStream = if (error.isDefined) in else null
+  }
+
+  // Each test talks to its own peer, since clients remember which peers
+  // accept compressed requests.
+  def client(port: Int): TrpcClient =
+    TrpcClient("localhost", port).withoutKeys
+
+  "the servlet" should {
+    "compress the response when the client accepts gzip" in {
+      val r = serve("echo", Map(AcceptEncodingHeader -> Gzip), call(false, "hello"))
+      (r.headers.get(EncodingHeader) must_== Some(Gzip)) and
+        (r.gzipped must beTrue) and
+        (r.result must_== \/-("hello"))
+    }
+
+    "read compressed requests" in {
+      val r = serve("echo", Map(EncodingHeader -> Gzip, AcceptEncodingHeader -> Gzip), call(true, "hello"))
+      (r.result must_== \/-("hello")) and (r.unread must_== 0)
+    }
+
+    "leave the response uncompressed for an old client" in {
+      val r = serve("echo", Map.empty, call(false, "hello"))
+      (r.headers.get(EncodingHeader) must beNone) and
+        (r.gzipped must beFalse) and
+        (closing(new ByteArrayInputStream(r.body).readRaw)(_.next[Try[AnyRef]]) must_== \/-("hello"))
+    }
+
+    "advertise that it reads compressed requests" in {
+      foreach(List(Map.empty[String, String], Map(AcceptEncodingHeader -> Gzip))) { hs =>
+        serve("echo", hs, call(false, "hello")).headers.get(AcceptEncodingHeader) must_== Some(Gzip)
+      }
+    }
+
+    "drain the request when the call fails" in {
+      foreach(List(false, true)) { gzip =>
+        val hs = if (gzip) Map(EncodingHeader -> Gzip) else Map.empty[String, String]
+        val r  = serve("fail", hs, call(gzip, "boom") ++ Trailer)
+        (r.result.swap.toOption.map(_.getMessage) must_== Some("boom")) and (r.unread must_== 0)
+      }
+    }
+
+    "drain the request when it cannot be read" in {
+      val r = serve("echo", Map.empty, body(false, "not a version", "hello") ++ Trailer)
+      (r.result.isLeft must beTrue) and (r.unread must_== 0)
+    }
+
+    "count calls, failures and bytes" in {
+      TrpcStats.server.reset()
+      val echoes = List(call(false, "a"), call(true, "bc"))
+      val boom   = call(false, "boom")
+      val ok     = echoes.zip(List(Map.empty[String, String], Map(EncodingHeader -> Gzip))).map { case (b, hs) => serve("echo", hs, b) }
+      val fail   = serve("fail", Map(AcceptEncodingHeader -> Gzip), boom)
+      val s      = TrpcStats.server.snapshot
+
+      (s(s"$Service.echo") must_== s(s"$Service.echo").copy(calls = 2, failures = 0,
+        bytesSent = ok.map(_.body.length.toLong).sum, bytesReceived = echoes.map(_.length.toLong).sum)) and
+        (s(s"$Service.fail") must_== s(s"$Service.fail").copy(calls = 1, failures = 1,
+          bytesSent = fail.body.length.toLong, bytesReceived = boom.length.toLong)) and
+        (fail.gzipped must beTrue)
+    }
+  }
+
+  "the client" should {
+    "compress requests once the server accepts gzip" in {
+      val c      = client(1)
+      val first  = new Wire("echo")
+      val second = new Wire("echo")
+
+      (c.exchange(first, "echo", Array("a")) must_== \/-("a")) and
+        (first.getRequestProperty(EncodingHeader) must beNull) and
+        (isGzip(first.request.toByteArray) must beFalse) and
+        (first.response.gzipped must beTrue) and
+        (c.exchange(second, "echo", Array("b")) must_== \/-("b")) and
+        (second.getRequestProperty(EncodingHeader) must_== Gzip) and
+        (isGzip(second.request.toByteArray) must beTrue) and
+        (second.response.gzipped must beTrue)
+    }
+
+    "never compress requests to an old server" in {
+      val c     = client(2)
+      val wires = List.fill(3)(new Wire("echo", old = true))
+      foreach(wires.zipWithIndex) { case (w, i) =>
+        (c.exchange(w, "echo", Array(i.toString)) must_== \/-(i.toString)) and
+          (w.getRequestProperty(EncodingHeader) must beNull) and
+          (isGzip(w.request.toByteArray) must beFalse) and
+          (w.response.gzipped must beFalse)
+      }
+    }
+
+    "stop compressing requests when the server no longer accepts gzip" in {
+      val c = client(3)
+      c.exchange(new Wire("echo"), "echo", Array("a"))
+      c.exchange(new Wire("echo", old = true), "echo", Array("b"))
+      val w = new Wire("echo")
+      (c.exchange(w, "echo", Array("c")) must_== \/-("c")) and (isGzip(w.request.toByteArray) must beFalse)
+    }
+
+    "drain the response" in {
+      val c = client(4)
+      val w = new Wire("echo", old = true, trailer = Trailer)
+      (c.exchange(w, "echo", Array("a")) must_== \/-("a")) and (w.unread must_== 0)
+    }
+
+    "drain the error stream" in {
+      val w = new Wire("echo", error = Some(HttpURLConnection.HTTP_UNAVAILABLE), trailer = Trailer)
+      (client(5).exchange(w, "echo", Array("a")) must throwA[IOException]) and (w.unread must_== 0)
+    }
+
+    "count calls, failures and bytes" in {
+      TrpcStats.client.reset()
+      val c  = client(6)
+      val ws = List(new Wire("echo"), new Wire("echo"), new Wire("fail"))
+      c.exchange(ws(0), "echo", Array("a"))
+      c.exchange(ws(1), "echo", Array("bc"))
+      c.exchange(ws(2), "fail", Array("boom"))
+      try c.exchange(new Wire("echo", error = Some(HttpURLConnection.HTTP_INTERNAL_ERROR)), "down", Array("d"))
+      catch { case _: IOException => }
+      val s = TrpcStats.client.snapshot
+
+      def sent(ws: List[Wire]): Long     = ws.map(_.request.size.toLong).sum
+      def received(ws: List[Wire]): Long = ws.map(_.response.body.length.toLong).sum
+
+      (s("echo") must_== s("echo").copy(calls = 2, failures = 0, bytesSent = sent(ws.take(2)), bytesReceived = received(ws.take(2)))) and
+        (s("fail") must_== s("fail").copy(calls = 1, failures = 1, bytesSent = sent(ws.drop(2)), bytesReceived = received(ws.drop(2)))) and
+        (s("down").calls must_== 1) and
+        (s("down").failures must_== 1) and
+        (s("down").bytesReceived must_== 0)
+    }
+  }
+
+  "the counters" should {
+    "accumulate per method until reset" in {
+      val stats = new TrpcStats
+      stats.record("a", 2000000L, 10, 20, failed = false)
+      stats.record("a", 4000000L, 1, 2, failed = true)
+      stats.record("b", 1000000L, 0, 0, failed = false)
+
+      (stats.snapshot must_== Map(
+        "a" -> TrpcStats.Snapshot(2, 1, 6, 4, 11, 22),
+        "b" -> TrpcStats.Snapshot(1, 0, 1, 1, 0, 0))) and
+        (stats.format.lines.toList.map(_.takeWhile(_ != ':')) must_== List("a", "b")) and
+        ({ stats.reset(); stats.snapshot } must beEmpty)
+    }
+  }
+}
@@ -0,0 +1,733 @@
+package jsky.app.ot.shared.gemini.obscat;
+
+import edu.gemini.pot.sp.*;
+import edu.gemini.pot.spdb.DBAbstractQueryFunctor;
+import edu.gemini.pot.spdb.IDBDatabaseService;
+import edu.gemini.pot.spdb.ProgramEvent;
+import edu.gemini.pot.spdb.ProgramEventListener;
+import edu.gemini.shared.util.immutable.Option;
+import edu.gemini.spModel.core.Affiliate;
+import edu.gemini.spModel.core.SPProgramID;
+import edu.gemini.spModel.data.ISPDataObject;
+import edu.gemini.spModel.data.YesNoType;
+import edu.gemini.spModel.dataset.DataflowStatus$;
+import edu.gemini.spModel.gemini.obscomp.SPProgram;
+import edu.gemini.spModel.gemini.obscomp.SPSiteQuality;
+import edu.gemini.spModel.obs.*;
+import edu.gemini.spModel.obsclass.ObsClass;
+import edu.gemini.spModel.obscomp.InstConfigInfo;
+import edu.gemini.spModel.pio.ParamSet;
+import edu.gemini.spModel.pio.Pio;
+import edu.gemini.spModel.pio.PioFactory;
+import edu.gemini.spModel.pio.xml.PioXmlFactory;
+import edu.gemini.spModel.target.env.Asterism;
+import edu.gemini.spModel.target.obsComp.TargetObsComp;
+import edu.gemini.spModel.too.Too;
+import edu.gemini.spModel.util.SPTreeUtil;
+import jsky.catalog.SearchCondition;
+import jsky.coords.DMS;
+import jsky.coords.HMS;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.security.Principal;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A secondary index over the values that the OT browser searches for, kept
+ * next to a database so that an {@link ObsQueryFunctor} can look up the
+ * matching observations instead of examining every observation of every
+ * program.
+ *
+ * <p>Each program is described by a record holding the searchable values of
+ * the program and of its observations, including the instrument parameters
+ * that otherwise require a <code>ParamSet</code> per instrument to compare.
+ * The records of all programs are indexed by value, and a search first
+ * narrows the candidates with the conditions on indexed fields and then
+ * checks the remaining conditions against the records of the candidates.
+ *
+ * <p>The index listens to the programs it describes.  Any change to a
+ * program drops its record, which is built again shortly afterwards in the
+ * background, or when a query needs it first.  Programs whose record could
+ * not be built are searched by the functor as before.
+ */
+public final class ObsCatalogIndex implements ProgramEventListener<ISPProgram>, PropertyChangeListener {
+    private static final Logger LOG = Logger.getLogger(ObsCatalogIndex.class.getName());
+
+    // Time to wait after a change before indexing the program again, so
+    // that a burst of edits is only indexed once.
+    private static final long UPDATE_DELAY_MS = 5000;
+
+    private static final Map<UUID, ObsCatalogIndex> INDEXES = new ConcurrentHashMap<>();
+
+    // Program and observation fields that are indexed by value.
+    private static final Set<String> PROGRAM_FIELDS = new HashSet<>(Arrays.asList(
+        ObsCatalogInfo.PI_LAST_NAME,
+        ObsCatalogInfo.EMAIL,
+        ObsCatalogInfo.PROG_REF,
+        ObsCatalogInfo.ACTIVE,
+        ObsCatalogInfo.COMPLETED,
+        ObsCatalogInfo.THESIS,
+        ObsCatalogInfo.ROLLOVER,
+        ObsCatalogInfo.SEMESTER,
+        ObsCatalogInfo.PARTNER_COUNTRY,
+        ObsCatalogInfo.QUEUE_BAND
+    ));
+
+    private static final Set<String> OBS_FIELDS = new HashSet<>(Arrays.asList(
+        ObsCatalogInfo.TARGET_NAME,
+        ObsCatalogInfo.SKY_BACKGROUND,
+        ObsCatalogInfo.WATER_VAPOR,
+        ObsCatalogInfo.CLOUD_COVER,
+        ObsCatalogInfo.IMAGE_QUALITY,
+        ObsCatalogInfo.INSTRUMENT,
+        ObsCatalogInfo.OBS_STATUS,
+        ObsCatalogInfo.OBS_QA,
+        ObsCatalogInfo.DATAFLOW_STEP,
+        ObsCatalogInfo.PRIORITY,
+        ObsCatalogInfo.AO,
+        ObsCatalogInfo.OBS_CLASS,
+        ObsCatalogInfo.TOO
+    ));
+
+    /**
+     * Creates an index for the given database and starts indexing its
+     * programs in the background.  Queries on the database use the index
+     * from now on.
+     */
+    public static ObsCatalogIndex install(IDBDatabaseService db) {
+        final ObsCatalogIndex index = new ObsCatalogIndex();
+        final ObsCatalogIndex old   = INDEXES.put(db.getUuid(), index);
+        if (old != null) {
+            db.removeProgramEventListener(old);
+            old.shutdown();
+        }
+        db.addProgramEventListener(index);
+        index._updater.submit(() -> {
+            try {
+                final long start = System.currentTimeMillis();
+                db.getQueryRunner(Collections.<Principal>emptySet()).queryPrograms(new Builder());
+                LOG.info(String.format("Indexed %d programs, %d observations for the OT browser in %d ms",
+                        index.size(), index.observationCount(), System.currentTimeMillis() - start));
+            } catch (Exception ex) {
+                LOG.log(Level.WARNING, "Could not index the programs for the OT browser", ex);
+            }
+        });
+        return index;
+    }
+
+    /**
+     * Removes the index of the given database, if any.  Queries on the
+     * database examine every program again.
+     */
+    public static void uninstall(IDBDatabaseService db) {
+        final ObsCatalogIndex index = INDEXES.remove(db.getUuid());
+        if (index != null) {
+            db.removeProgramEventListener(index);
+            index.shutdown();
+        }
+    }
+
+    /**
+     * Gets the index of the given database, or <code>null</code> if there
+     * is none.
+     */
+    static ObsCatalogIndex forDatabase(IDBDatabaseService db) {
+        return INDEXES.get(db.getUuid());
+    }
+
+    // Indexes each program handed to it by the query runner.
+    private static final class Builder extends DBAbstractQueryFunctor {
+        public void execute(IDBDatabaseService db, ISPNode node, Set<Principal> principals) {
+            final ObsCatalogIndex index = forDatabase(db);
+            if (index != null) index.record((ISPProgram) node);
+        }
+    }
+
+    /**
+     * The searchable values of an instrument component in an observation.
+     */
+    static final class InstRecord {
+        final String name;
+        final List<InstConfigInfo> configInfo;
+
+        // InstConfigInfo property name -> value
+        final Map<String, String> values;
+
+        InstRecord(String name, List<InstConfigInfo> configInfo, Map<String, String> values) {
+            this.name       = name;
+            this.configInfo = (configInfo == null) ? Collections.emptyList() : configInfo;
+            this.values     = values;
+        }
+    }
+
+    /**
+     * The searchable values of an observation.
+     */
+    static final class ObsRecord {
+        final SPNodeKey key;
+        final Map<String, List<String>> values;
+        final List<InstRecord> instruments;
+
+        // Base position in hours and degrees, if known.
+        final Double ra;
+        final Double dec;
+
+        // Set once by the program record that contains the observation.
+        ProgramRecord program;
+
+        ObsRecord(SPNodeKey key, Map<String, List<String>> values, List<InstRecord> instruments, Double ra, Double dec) {
+            this.key         = key;
+            this.values      = values;
+            this.instruments = instruments;
+            this.ra          = ra;
+            this.dec         = dec;
+        }
+    }
+
+    /**
+     * The searchable values of a program and its observations, in the order
+     * of <code>ISPProgram.getAllObservations()</code>.
+     */
+    static final class ProgramRecord {
+        final ISPProgram program;
+        final Map<String, List<String>> values;
+        final List<ObsRecord> observations;
+
+        // Order in which records were added to the index, MAX_VALUE for
+        // records that were not added.
+        volatile long generation = Long.MAX_VALUE;
+
+        ProgramRecord(ISPProgram program, Map<String, List<String>> values, List<ObsRecord> observations) {
+            this.program      = program;
+            this.values       = values;
+            this.observations = observations;
+            for (ObsRecord o : observations) o.program = this;
+        }
+    }
+
+    /**
+     * The conditions of a browser query, split into those that apply to the
+     * program, to the observation and to the instrument.
+     */
+    static final class Query {
+        private final List<SearchCondition> programConditions = new ArrayList<>();
+        private final List<SearchCondition> obsConditions     = new ArrayList<>();
+        private final List<SearchCondition> instConditions    = new ArrayList<>();
+
+        private final String[] instruments;
+        private final SearchCondition[][] instSc;
+
+        // Query region, if any.  An invalid region matches nothing.
+        private final boolean region;
+        private final boolean validRegion;
+        private final double ra0, ra1, dec0, dec1;
+
+        Query(SearchCondition[] sc, String[] instruments, SearchCondition[][] instSc) {
+            this.instruments = instruments;
+            this.instSc      = instSc;
+
+            String minRA = null, maxRA = null, minDec = null, maxDec = null;
+            if (sc != null) {
+                for (SearchCondition c : sc) {
+                    final String name = c.getName();
+                    if (PROGRAM_FIELDS.contains(name)) {
+                        programConditions.add(c);
+                    } else if (name.equals(ObsCatalogInfo.INSTRUMENT)) {
+                        instConditions.add(c);
+                    } else if (OBS_FIELDS.contains(name)) {
+                        obsConditions.add(c);
+                    } else if (name.equals(ObsCatalogInfo.MIN_RA)) {
+                        minRA = c.getValueAsString();
+                    } else if (name.equals(ObsCatalogInfo.MAX_RA)) {
+                        maxRA = c.getValueAsString();
+                    } else if (name.equals(ObsCatalogInfo.MIN_DEC)) {
+                        minDec = c.getValueAsString();
+                    } else if (name.equals(ObsCatalogInfo.MAX_DEC)) {
+                        maxDec = c.getValueAsString();
+                    }
+                }
+            }
+
+            region = (minRA != null) || (maxRA != null) || (minDec != null) || (maxDec != null);
+
+            double r0 = 0., r1 = 24., d0 = -90., d1 = 90.;
+            boolean valid = true;
+            if (region) {
+                try {
+                    if (minRA  != null) r0 = new HMS(minRA, true).getVal();
+                    if (maxRA  != null) r1 = new HMS(maxRA, true).getVal();
+                    if (minDec != null) d0 = new DMS(minDec).getVal();
+                    if (maxDec != null) d1 = new DMS(maxDec).getVal();
+                } catch (RuntimeException ex) {
+                    valid = false;
+                }
+            }
+            validRegion = valid;
+            ra0  = r0;
+            ra1  = r1;
+            dec0 = d0;
+            dec1 = d1;
+        }
+
+        private static boolean anyTrue(SearchCondition c, List<String> values) {
+            for (String v : values) {
+                if (isTrueFor(c, v)) return true;
+            }
+            return false;
+        }
+
+        boolean matchesProgram(ProgramRecord p) {
+            for (SearchCondition c : programConditions) {
+                if (!anyTrue(c, p.values.get(c.getName()))) return false;
+            }
+            return true;
+        }
+
+        private boolean matchesInstrument(InstRecord inst) {
+            for (SearchCondition c : instConditions) {
+                if (!isTrueFor(c, inst.name)) return false;
+            }
+            if (instruments == null || instSc == null || instSc.length == 0) return true;
+
+            final int index = Arrays.asList(instruments).indexOf(inst.name);
+            if (index == -1) return true;
+
+            for (SearchCondition c : instSc[index]) {
+                for (InstConfigInfo info : inst.configInfo) {
+                    if (c.getName().equals(info.getName())) {
+                        final String value = inst.values.get(info.getPropertyName());
+                        if (((value != null) || info.isOptional()) && !isTrueFor(c, value)) return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns the index of the first instrument of the observation for
+         * which all the conditions hold, or -1 if there is none.
+         */
+        int matchObservation(ObsRecord o) {
+            for (SearchCondition c : obsConditions) {
+                if (!anyTrue(c, o.values.get(c.getName()))) return -1;
+            }
+            if (region && ((o.ra == null) || (o.dec == null) ||
+                    !ObsQueryFunctor._regionMatchAux(o.ra, o.dec, ra0, ra1, dec0, dec1))) {
+                return -1;
+            }
+            for (int i = 0; i < o.instruments.size(); ++i) {
+                if (matchesInstrument(o.instruments.get(i))) return i;
+            }
+            return -1;
+        }
+
+        /**
+         * Finds the matching observations of the program, with the index of
+         * their matching instrument.
+         */
+        Map<ObsRecord, Integer> find(ProgramRecord p) {
+            if (!validRegion || !matchesProgram(p)) return Collections.emptyMap();
+            final Map<ObsRecord, Integer> res = new HashMap<>();
+            for (ObsRecord o : p.observations) {
+                final int i = matchObservation(o);
+                if (i >= 0) res.put(o, i);
+            }
+            return res;
+        }
+    }
+
+    /**
+     * The observations matching a query among the records in the index at
+     * the time of the search.
+     */
+    static final class Snapshot {
+        private final Query query;
+        private final long generation;
+        private final Map<ProgramRecord, Map<ObsRecord, Integer>> found;
+
+        private Snapshot(Query query, long generation, Map<ProgramRecord, Map<ObsRecord, Integer>> found) {
+            this.query      = query;
+            this.generation = generation;
+            this.found      = found;
+        }
+
+        /**
+         * Finds the matching observations of the program, which are looked
+         * up if the record was in the index at the time of the search and
+         * checked directly otherwise.
+         */
+        Map<ObsRecord, Integer> find(ProgramRecord p) {
+            if (p.generation > generation) return query.find(p);
+            final Map<ObsRecord, Integer> m = found.get(p);
+            return (m == null) ? Collections.emptyMap() : m;
+        }
+    }
+
+    private final ScheduledExecutorService _updater = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread t = new Thread(r, "ObsCatalogIndex");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // All guarded by this.
+    private final Map<SPNodeKey, ProgramRecord> _programs = new HashMap<>();
+    private final Map<SPNodeKey, ISPProgram> _listening  = new HashMap<>();
+    private final Map<SPNodeKey, Long> _changes          = new HashMap<>();
+    private final Set<SPNodeKey> _pending                = new HashSet<>();
+    private final Map<String, Map<String, Set<ProgramRecord>>> _programPostings = new HashMap<>();
+    private final Map<String, Map<String, Set<ObsRecord>>> _obsPostings         = new HashMap<>();
+    private long _generation;
+    private int _obsCount;
+
+    ObsCatalogIndex() {
+    }
+
+    /**
+     * Gets the number of programs in the index.
+     */
+    public synchronized int size() {
+        return _programs.size();
+    }
+
+    /**
+     * Gets the number of observations in the index.
+     */
+    public synchronized int observationCount() {
+        return _obsCount;
+    }
+
+    /**
+     * Gets the record of the given program, building it if the index has
+     * none or it is out of date.
+     *
+     * @return the record, or <code>null</code> if it could not be built
+     */
+    ProgramRecord record(ISPProgram prog) {
+        final SPNodeKey key = prog.getProgramKey();
+        synchronized (this) {
+            final ProgramRecord r = _programs.get(key);
+            if ((r != null) && (r.program == prog)) return r;
+        }
+
+        // Listen before reading the program so that no change goes unnoticed.
+        listen(prog);
+        final long stamp;
+        synchronized (this) {
+            stamp = _changes.getOrDefault(key, 0L);
+        }
+
+        final ProgramRecord r = build(prog);
+        if (r == null) return null;
+
+        synchronized (this) {
+            if ((_listening.get(key) == prog) && (_changes.getOrDefault(key, 0L) == stamp)) {
+                remove(_programs.get(key));
+                add(r);
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Searches the records in the index for observations matching the query.
+     */
+    synchronized Snapshot search(Query q) {
+        final Map<ProgramRecord, Map<ObsRecord, Integer>> found = new HashMap<>();
+        if (q.validRegion) {
+            final Set<ProgramRecord> progs = candidates(q.programConditions, _programPostings);
+
+            final List<SearchCondition> obsConditions = new ArrayList<>(q.obsConditions);
+            obsConditions.addAll(q.instConditions);
+            final Set<ObsRecord> obs = candidates(obsConditions, _obsPostings);
+
+            if (obs == null) {
+                for (ProgramRecord p : (progs == null) ? _programs.values() : progs) {
+                    final Map<ObsRecord, Integer> m = q.find(p);
+                    if (!m.isEmpty()) found.put(p, m);
+                }
+            } else {
+                final Map<ProgramRecord, Boolean> progMatch = new HashMap<>();
+                for (ObsRecord o : obs) {
+                    final ProgramRecord p = o.program;
+                    if ((progs != null) && !progs.contains(p)) continue;
+                    if (!progMatch.computeIfAbsent(p, q::matchesProgram)) continue;
+                    final int i = q.matchObservation(o);
+                    if (i >= 0) found.computeIfAbsent(p, k -> new HashMap<>()).put(o, i);
+                }
+            }
+        }
+        return new Snapshot(q, _generation, found);
+    }
+
+    // Finds the records with values satisfying all the conditions, or null
+    // if there are no conditions.
+    private static <R> Set<R> candidates(List<SearchCondition> conditions, Map<String, Map<String, Set<R>>> postings) {
+        Set<R> res = null;
+        for (SearchCondition c : conditions) {
+            final Set<R> union = new HashSet<>();
+            final Map<String, Set<R>> byValue = postings.get(c.getName());
+            if (byValue != null) {
+                for (Map.Entry<String, Set<R>> me : byValue.entrySet()) {
+                    if (isTrueFor(c, me.getKey())) union.addAll(me.getValue());
+                }
+            }
+            if (res == null) {
+                res = union;
+            } else {
+                res.retainAll(union);
+            }
+            if (res.isEmpty()) break;
+        }
+        return res;
+    }
+
+    private static <R> void post(Map<String, Map<String, Set<R>>> postings, Map<String, List<String>> values, R r) {
+        for (Map.Entry<String, List<String>> me : values.entrySet()) {
+            final Map<String, Set<R>> byValue = postings.computeIfAbsent(me.getKey(), k -> new HashMap<>());
+            for (String v : me.getValue()) {
+                byValue.computeIfAbsent(v, k -> new HashSet<>()).add(r);
+            }
+        }
+    }
+
+    private static <R> void unpost(Map<String, Map<String, Set<R>>> postings, Map<String, List<String>> values, R r) {
+        for (Map.Entry<String, List<String>> me : values.entrySet()) {
+            final Map<String, Set<R>> byValue = postings.get(me.getKey());
+            if (byValue == null) continue;
+            for (String v : me.getValue()) {
+                final Set<R> s = byValue.get(v);
+                if (s == null) continue;
+                s.remove(r);
+                if (s.isEmpty()) byValue.remove(v);
+            }
+        }
+    }
+
+    private void add(ProgramRecord r) {
+        r.generation = ++_generation;
+        _programs.put(r.program.getProgramKey(), r);
+        post(_programPostings, r.values, r);
+        for (ObsRecord o : r.observations) post(_obsPostings, o.values, o);
+        _obsCount += r.observations.size();
+    }
+
+    private void remove(ProgramRecord r) {
+        if (r == null) return;
+        _programs.remove(r.program.getProgramKey());
+        unpost(_programPostings, r.values, r);
+        for (ObsRecord o : r.observations) unpost(_obsPostings, o.values, o);
+        _obsCount -= r.observations.size();
+    }
+
+    private void listen(ISPProgram prog) {
+        final ISPProgram old;
+        synchronized (this) {
+            old = _listening.put(prog.getProgramKey(), prog);
+        }
+        if (old != prog) {
+            if (old != null) old.removeCompositeChangeListener(this);
+            prog.addCompositeChangeListener(this);
+        }
+    }
+
+    private void forget(ISPProgram prog) {
+        final SPNodeKey key = prog.getProgramKey();
+        final boolean listened;
+        synchronized (this) {
+            final ProgramRecord r = _programs.get(key);
+            if ((r != null) && (r.program == prog)) remove(r);
+            listened = (_listening.get(key) == prog);
+            if (listened) {
+                _listening.remove(key);
+                _changes.remove(key);
+            }
+        }
+        if (listened) prog.removeCompositeChangeListener(this);
+    }
+
+    // Indexes the program again after a while, unless already planned.
+    private void schedule(ISPProgram prog) {
+        final SPNodeKey key = prog.getProgramKey();
+        synchronized (this) {
+            if (!_pending.add(key)) return;
+        }
+        try {
+            _updater.schedule(() -> {
+                synchronized (this) {
+                    _pending.remove(key);
+                }
+                record(prog);
+            }, UPDATE_DELAY_MS, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException ex) {
+            // shut down
+            synchronized (this) {
+                _pending.remove(key);
+            }
+        }
+    }
+
+    private void shutdown() {
+        _updater.shutdownNow();
+        final List<ISPProgram> progs;
+        synchronized (this) {
+            progs = new ArrayList<>(_listening.values());
+            _listening.clear();
+            _programs.clear();
+            _programPostings.clear();
+            _obsPostings.clear();
+            _obsCount = 0;
+        }
+        for (ISPProgram p : progs) p.removeCompositeChangeListener(this);
+    }
+
+    @Override public void propertyChange(PropertyChangeEvent evt) {
+        if (SPUtil.isTransientClientDataPropertyName(evt.getPropertyName())) return;
+
+        final Object src = evt.getSource();
+        if (!(src instanceof ISPNode)) return;
+
+        final ISPNode root = ((ISPNode) src).getRootAncestor();
+        if (!(root instanceof ISPProgram)) return;
+
+        final ISPProgram prog = (ISPProgram) root;
+        final SPNodeKey key   = prog.getProgramKey();
+        synchronized (this) {
+            if (_listening.get(key) != prog) return;
+            _changes.merge(key, 1L, Long::sum);
+            final ProgramRecord r = _programs.get(key);
+            if ((r != null) && (r.program == prog)) remove(r);
+        }
+        schedule(prog);
+    }
+
+    @Override public void programAdded(ProgramEvent<ISPProgram> pme) {
+        schedule(pme.getNewProgram());
+    }
+
+    @Override public void programReplaced(ProgramEvent<ISPProgram> pme) {
+        forget(pme.getOldProgram());
+        schedule(pme.getNewProgram());
+    }
+
+    @Override public void programRemoved(ProgramEvent<ISPProgram> pme) {
+        forget(pme.getOldProgram());
+    }
+
+    // Some conditions cannot compare null values; these do not match, as
+    // when the functor fails on them.
+    private static boolean isTrueFor(SearchCondition c, String value) {
+        try {
+            return c.isTrueFor(value);
+        } catch (RuntimeException ex) {
+            return false;
+        }
+    }
+
+    private static List<String> value(String s) {
+        return Collections.singletonList(s);
+    }
+
+    private static List<String> optionalValue(String s) {
+        return (s == null) ? Collections.emptyList() : Collections.singletonList(s);
+    }
+
+    private static <A> List<String> nameOf(A a, Function<A, String> f) {
+        return value((a == null) ? null : f.apply(a));
+    }
+
+    /**
+     * Collects the searchable values of the program, the same values that
+     * the <code>ObsQueryFunctor</code> compares against the conditions.
+     * Values that must be present for a condition to hold are left out when
+     * missing; the others are compared even when <code>null</code>.
+     *
+     * @return the record, or <code>null</code> if the program could not be
+     * read
+     */
+    static ProgramRecord build(ISPProgram prog) {
+        try {
+            final SPProgram spProg = (SPProgram) prog.getReadOnlyDataObject();
+            final SPProgram.PIInfo piInfo = spProg.getPIInfo();
+            final SPProgramID progId = prog.getProgramID();
+            final Affiliate affiliate = piInfo.getAffiliate();
+
+            final Map<String, List<String>> values = new HashMap<>();
+            values.put(ObsCatalogInfo.PI_LAST_NAME, value(piInfo.getLastName()));
+            values.put(ObsCatalogInfo.EMAIL, Arrays.asList(piInfo.getEmail(), spProg.getPrimaryContactEmail(), spProg.getContactPerson()));
+            values.put(ObsCatalogInfo.PROG_REF, optionalValue((progId == null) ? null : progId.stringValue()));
+            values.put(ObsCatalogInfo.ACTIVE, value(spProg.getActive().name()));
+            values.put(ObsCatalogInfo.COMPLETED, value(YesNoType.fromBoolean(spProg.isCompleted()).name()));
+            values.put(ObsCatalogInfo.THESIS, value(YesNoType.fromBoolean(spProg.isThesis()).name()));
+            values.put(ObsCatalogInfo.ROLLOVER, value(YesNoType.fromBoolean(spProg.getRolloverStatus()).name()));
+            values.put(ObsCatalogInfo.SEMESTER, optionalValue(ObsQueryFunctor._getSemester(prog)));
+            values.put(ObsCatalogInfo.PARTNER_COUNTRY, optionalValue((affiliate == null) ? null : affiliate.name()));
+            values.put(ObsCatalogInfo.QUEUE_BAND, value(spProg.getQueueBand()));
+
+            final PioFactory factory = new PioXmlFactory();
+            final List<ObsRecord> observations = new ArrayList<>();
+            for (ISPObservation o : prog.getAllObservations()) {
+                observations.add(build(o, factory));
+            }
+            return new ProgramRecord(prog, values, observations);
+        } catch (Exception ex) {
+            LOG.log(Level.FINE, "Could not index program " + prog.getProgramID(), ex);
+            return null;
+        }
+    }
+
+    private static ObsRecord build(ISPObservation o, PioFactory factory) {
+        final SPObservation obs = (SPObservation) o.getReadOnlyDataObject();
+        final SPSiteQuality sq  = ObsQueryFunctor._getSiteQuality(o);
+
+        final List<InstRecord> instruments = new ArrayList<>();
+        final List<String> instNames = new ArrayList<>();
+        for (ISPDataObject inst : ObsQueryFunctor._getInstruments(o)) {
+            final String name = inst.getType().readableStr;
+            final List<InstConfigInfo> configInfo = ObsCatalogInfo.getInstConfigInfoList(name);
+            final Map<String, String> instValues = new HashMap<>();
+            if (configInfo != null) {
+                final ParamSet paramSet = ObsQueryFunctor.getInstParamSet(inst, factory, o);
+                for (InstConfigInfo info : configInfo) {
+                    final String v = Pio.getValue(paramSet, info.getPropertyName());
+                    if (v != null) instValues.put(info.getPropertyName(), v);
+                }
+            }
+            instruments.add(new InstRecord(name, configInfo, instValues));
+            if (!instNames.contains(name)) instNames.add(name);
+        }
+
+        final Map<String, List<String>> values = new HashMap<>();
+        values.put(ObsCatalogInfo.TARGET_NAME, optionalValue(ObsQueryFunctor._getTargetName(o)));
+        values.put(ObsCatalogInfo.SKY_BACKGROUND, nameOf(sq, q -> q.getSkyBackground().name()));
+        values.put(ObsCatalogInfo.WATER_VAPOR, nameOf(sq, q -> q.getWaterVapor().name()));
+        values.put(ObsCatalogInfo.CLOUD_COVER, nameOf(sq, q -> q.getCloudCover().name()));
+        values.put(ObsCatalogInfo.IMAGE_QUALITY, nameOf(sq, q -> q.getImageQuality().name()));
+        values.put(ObsCatalogInfo.INSTRUMENT, instNames);
+        values.put(ObsCatalogInfo.OBS_STATUS, value(ObservationStatus.computeFor(o).name()));
+        values.put(ObsCatalogInfo.OBS_QA, value(ObsQaStateService.getObsQaState(o).name()));
+        values.put(ObsCatalogInfo.DATAFLOW_STEP, value(DataflowStatus$.MODULE$.description(DataflowStatusService.lookupDataflowStatus(o))));
+        values.put(ObsCatalogInfo.PRIORITY, value(obs.getPriority().displayValue()));
+        values.put(ObsCatalogInfo.AO, value(ObsQueryFunctor._getAO(o).name()));
+        values.put(ObsCatalogInfo.OBS_CLASS, nameOf(ObsClassService.lookupObsClass(o), ObsClass::name));
+        values.put(ObsCatalogInfo.TOO, value(Too.get(o).name()));
+
+        Double ra = null, dec = null;
+        final ISPObsComponent targetObsComp = SPTreeUtil.findObsComponent(o, TargetObsComp.SP_TYPE);
+        if (targetObsComp != null) {
+            final Asterism asterism = ((TargetObsComp) targetObsComp.getReadOnlyDataObject()).getAsterism();
+            final Option<Long> when = obs.getSchedulingBlockStart();
+            ra  = asterism.getRaDegrees(when).map(x -> x / 15.).getOrNull();
+            dec = asterism.getDecDegrees(when).getOrNull();
+        }
+
+        return new ObsRecord(o.getNodeKey(), values, instruments, ra, dec);
+    }
+}
@@ -54,6 +54,8 @@ import java.util.*;
  * An <code>edu.gemini.pot.spdb.IDBQueryFunctor</code>
  * implementation that can be used by clients to query the science
  * program database for observations matching given constraints.
+ * When the database has an {@link ObsCatalogIndex}, the matching
+ * observations are looked up in the index and only those are examined.
  *
  * @author Allan Brighton
  */
@@ -78,6 +80,10 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor {
     // An array, for each selected instrument, of instrument specific search conditions
     private final SearchCondition[][] _instSc;
 
+    // The observations found in the index of the database, if it has one,
+    // when the first program is examined.
+    private transient ObsCatalogIndex.Snapshot _snapshot;
+
 
     /**
      * Initialize a functor to query the science program database for all
@@ -139,6 +145,9 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor {
             if (prog.getProgramID() != null)
                 ImplicitPolicyForJava.checkPermission(database, principals, new ProgramPermission.Read(prog.getProgramID()));
 
+            final ObsCatalogIndex index = ObsCatalogIndex.forDatabase(database);
+            if ((index != null) && _executeIndexed(index, prog)) return;
+
             // check for program related constraints, such as AFFILIATES and PI Last Name
             if (_match(prog)) {
                 // check each observation and add a row to the result vector for any matches
@@ -154,6 +163,45 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor {
     }
 
 
+    /**
+     * Adds the matching observations of the program found with the index.
+     * Returns false if the index has no record of the program, in which case
+     * the program must be examined node by node.
+     */
+    private boolean _executeIndexed(ObsCatalogIndex index, ISPProgram prog) {
+        final ObsCatalogIndex.ProgramRecord r = index.record(prog);
+        if (r == null) return false;
+
+        if (_snapshot == null) {
+            _snapshot = index.search(new ObsCatalogIndex.Query(_sc, _instruments, _instSc));
+        }
+        final Map<ObsCatalogIndex.ObsRecord, Integer> matches = _snapshot.find(r);
+        if (matches.isEmpty()) return true;
+
+        final Map<SPNodeKey, ISPObservation> obsMap = new HashMap<>();
+        for (ISPObservation o : prog.getAllObservations()) {
+            obsMap.put(o.getNodeKey(), o);
+        }
+
+        // Only the matching observations are converted into rows.
+        final PioFactory factory = new PioXmlFactory();
+        for (ObsCatalogIndex.ObsRecord or : r.observations) {
+            final Integer i = matches.get(or);
+            final ISPObservation o = obsMap.get(or.key);
+            if ((i == null) || (o == null)) continue;
+
+            final List<ISPDataObject> instruments = _getInstruments(o);
+            if (i >= instruments.size()) continue;
+            final ISPDataObject inst = instruments.get(i);
+            final List<InstConfigInfo> instConfigInfoList = ObsCatalogInfo.getInstConfigInfoList(inst.getType().readableStr);
+            final ParamSet instParamSet = getInstParamSet(inst, factory, o);
+            _result.add(_makeRow(prog, o, instruments.get(0), instConfigInfoList, instParamSet));
+            _ids.add(_makeIdRow(prog, o));
+        }
+        return true;
+    }
+
+
     /**
      * Return true if the given science program matches the conditions.
      * If no conditions apply at the program level, true is returned.
@@ -163,9 +211,8 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor {
         if (_sc == null)
             return true;
 
-        // We should be running on the server at this point, so calling getDataObject() should
-        // not involve any remote calls...
-        final SPProgram spProg = (SPProgram) prog.getDataObject();
+        // Only reads the program data object, so there is no need for a copy.
+        final SPProgram spProg = (SPProgram) prog.getReadOnlyDataObject();
         final SPProgram.PIInfo piInfo = spProg.getPIInfo();
 
         final int n = _sc.length;
@@ -247,7 +294,7 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor {
         }
     }
 
-    private ParamSet getInstParamSet(
+    static ParamSet getInstParamSet(
        ISPDataObject  inst,
        PioFactory     f,
        ISPObservation o
@@ -271,7 +318,7 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor {
      */
     private boolean _match(ISPObservation o, ISPDataObject inst, List<InstConfigInfo> instConfigInfoList,
                            ParamSet instParamSet) {
-        final SPObservation obs = (SPObservation) o.getDataObject();
+        final SPObservation obs = (SPObservation) o.getReadOnlyDataObject();
         final SPSiteQuality siteQuality = _getSiteQuality(o);
 
         // Describes the query region, if specified
@@ -398,12 +445,12 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor {
     }
 
     // Return a description of the observations AO type.
-    private AOConstants.AO _getAO(ISPObservation o) {
+    static AOConstants.AO _getAO(ISPObservation o) {
         final ISPObsComponent obsComp = AOTreeUtil.findAOSystem(o);
         if (obsComp != null) {
             final SPComponentType type = obsComp.getType();
             if (type.equals(InstAltair.SP_TYPE)) {
-                final InstAltair inst = (InstAltair) obsComp.getDataObject();
+                final InstAltair inst = (InstAltair) obsComp.getReadOnlyDataObject();
                 if (inst.getGuideStarType() == AltairParams.GuideStarType.LGS) {
                     return AOConstants.AO.Altair_LGS;
                 } else if (inst.getGuideStarType() == AltairParams.GuideStarType.NGS) {
@@ -428,7 +475,7 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor {
     /**
      * Return the semester for the given program
      */
-    private String _getSemester(ISPProgram prog) {
+    static String _getSemester(ISPProgram prog) {
         try {
             final SPProgramID progId = prog.getProgramID();
             if (progId != null) {
@@ -448,12 +495,12 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor {
     /**
      * Return the target name for the given observation, or null if none is defined.
      */
-    private String _getTargetName(ISPObservation o) {
+    static String _getTargetName(ISPObservation o) {
         try {
             final ISPObsComponent targetEnvNode = SPTreeUtil.findTargetEnvNode(o);
             if (targetEnvNode == null)
                 return null;
-            final TargetObsComp targetEnv = (TargetObsComp) targetEnvNode.getDataObject();
+            final TargetObsComp targetEnv = (TargetObsComp) targetEnvNode.getReadOnlyDataObject();
             if (targetEnv == null)
                 return null;
             return targetEnv.getAsterism().name();
@@ -502,11 +549,11 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor {
      * Return a list containing the instrument and Altair data objects for the
      * given observation.
      */
-    private List<ISPDataObject> _getInstruments(ISPObservation o) {
+    static List<ISPDataObject> _getInstruments(ISPObservation o) {
         final List<ISPDataObject> result = new ArrayList<>();
         final List<ISPObsComponent> l = SPTreeUtil.findInstruments(o);
         for (ISPObsComponent aL : l) {
-            result.add(aL.getDataObject());
+            result.add(aL.getReadOnlyDataObject());
         }
         return result;
     }
@@ -514,10 +561,10 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor {
     /**
      * Return the site quality data object for the given observation, or null if not defined
      */
-    private SPSiteQuality _getSiteQuality(ISPObservation o) {
+    static SPSiteQuality _getSiteQuality(ISPObservation o) {
         final ISPObsComponent siteQualityObsComp = SPTreeUtil.findObsComponent(o, SPSiteQuality.SP_TYPE);
         if (siteQualityObsComp != null) {
-            return (SPSiteQuality) siteQualityObsComp.getDataObject();
+            return (SPSiteQuality) siteQualityObsComp.getReadOnlyDataObject();
         }
         return null;
     }
@@ -537,10 +584,10 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor {
         final ISPObsComponent targetObsComp = SPTreeUtil.findObsComponent(o, TargetObsComp.SP_TYPE);
         if (targetObsComp == null)
             return false;
-        final TargetObsComp targetEnv = (TargetObsComp) targetObsComp.getDataObject();
+        final TargetObsComp targetEnv = (TargetObsComp) targetObsComp.getReadOnlyDataObject();
         final Asterism asterism = targetEnv.getAsterism();
 
-        final Option<Long> when = ((SPObservation) o.getDataObject()).getSchedulingBlockStart();
+        final Option<Long> when = ((SPObservation) o.getReadOnlyDataObject()).getSchedulingBlockStart();
         final Option<Double> raOp  = asterism.getRaDegrees(when).map(x -> x / 15.);
         final Option<Double> decOp = asterism.getDecDegrees(when);
 
@@ -557,7 +604,7 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor {
 
     }
 
-    private boolean _regionMatchAux(double ra, double dec, double ra0, double ra1, double dec0, double dec1) {
+    static boolean _regionMatchAux(double ra, double dec, double ra0, double ra1, double dec0, double dec1) {
         if (dec < dec0 || dec > dec1) {
             return false;
         }
@@ -588,8 +635,8 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor {
     private Vector<Object> _makeRow(ISPProgram prog, ISPObservation o, ISPDataObject inst,
                             List<InstConfigInfo> instConfigInfoList, ParamSet instParamSet) {
 
-        final SPProgram spProg = (SPProgram) prog.getDataObject();
-        final SPObservation obs = (SPObservation) o.getDataObject();
+        final SPProgram spProg = (SPProgram) prog.getReadOnlyDataObject();
+        final SPObservation obs = (SPObservation) o.getReadOnlyDataObject();
         final SPProgram.PIInfo piInfo = spProg.getPIInfo();
         final String piLastName = piInfo.getLastName();
         final Affiliate country = piInfo.getAffiliate();
@@ -608,7 +655,7 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor {
 
         final ISPObsComponent siteQualityObsComp = SPTreeUtil.findObsComponent(o, SPSiteQuality.SP_TYPE);
         if (siteQualityObsComp != null) {
-            final SPSiteQuality siteQuality = (SPSiteQuality) siteQualityObsComp.getDataObject();
+            final SPSiteQuality siteQuality = (SPSiteQuality) siteQualityObsComp.getReadOnlyDataObject();
             skyBackground = siteQuality.getSkyBackground().displayValue();
             waterVapor = siteQuality.getWaterVapor().displayValue();
             cloudCover = siteQuality.getCloudCover().displayValue();
@@ -633,7 +680,7 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor {
         Double ra = null, dec = null;
         final ISPObsComponent targetObsComp = SPTreeUtil.findObsComponent(o, TargetObsComp.SP_TYPE);
         if (targetObsComp != null) {
-            final TargetObsComp targetEnv = (TargetObsComp) targetObsComp.getDataObject();
+            final TargetObsComp targetEnv = (TargetObsComp) targetObsComp.getReadOnlyDataObject();
             final Asterism asterism = targetEnv.getAsterism();
             final Option<Long> when = obs.getSchedulingBlockStart();
             ra = asterism.getRaDegrees(when).getOrNull();
@@ -681,7 +728,7 @@ public class ObsQueryFunctor extends DBAbstractQueryFunctor {
         String groupType = null;
         final ISPNode parent = o.getParent();
         if (parent instanceof ISPGroup) {
-            final SPGroup groupDataObj = (SPGroup) parent.getDataObject();
+            final SPGroup groupDataObj = (SPGroup) parent.getReadOnlyDataObject();
             if (groupDataObj != null) {
                 final String tmp = groupDataObj.getGroup();
                 if (tmp != null) groupName = tmp;
@@ -1,16 +1,47 @@
 package jsky.app.ot.shared.osgi;
 
+import edu.gemini.pot.spdb.IDBDatabaseService;
+import jsky.app.ot.shared.gemini.obscat.ObsCatalogIndex;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.util.tracker.ServiceTracker;
+import org.osgi.util.tracker.ServiceTrackerCustomizer;
 
-public class Activator implements BundleActivator {
+public class Activator implements BundleActivator, ServiceTrackerCustomizer<IDBDatabaseService, IDBDatabaseService> {
+
+	private BundleContext context;
+	private ServiceTracker<IDBDatabaseService, IDBDatabaseService> tracker;
 
 	public void start(BundleContext context) throws Exception {
+		this.context = context;
+
+		// Keep an index for the OT browser next to each database.
+		this.tracker = new ServiceTracker<>(context, IDBDatabaseService.class, this);
+		tracker.open();
+
 		System.out.println("jsky.app.ot.shared started.");
 	}
 
 	public void stop(BundleContext context) throws Exception {
+		tracker.close();
+		tracker = null;
 		System.out.println("jsky.app.ot.shared stopped.");
 	}
+
+	public IDBDatabaseService addingService(ServiceReference<IDBDatabaseService> ref) {
+		final IDBDatabaseService db = context.getService(ref);
+		ObsCatalogIndex.install(db);
+		return db;
+	}
+
+	public void modifiedService(ServiceReference<IDBDatabaseService> ref, IDBDatabaseService db) {
+		// nop
+	}
+
+	public void removedService(ServiceReference<IDBDatabaseService> ref, IDBDatabaseService db) {
+		ObsCatalogIndex.uninstall(db);
+		context.ungetService(ref);
+	}
 	
 }
@@ -18,6 +18,7 @@ import edu.gemini.pot.spdb.DBAbstractQueryFunctor;
 import edu.gemini.pot.spdb.IDBDatabaseService;
 import edu.gemini.pot.spdb.IDBFunctor;
 import edu.gemini.pot.spdb.IDBParallelFunctor;
+import edu.gemini.pot.spdb.IDBParallelQueryFunctor;
 import edu.gemini.shared.util.immutable.PredicateOp;
 import edu.gemini.shared.util.immutable.Pair;
 import edu.gemini.spModel.data.ISPDataObject;
@@ -44,7 +45,7 @@ import java.util.Set;
  * @author Kim Gillies
  */
 public final class DBProgramListFunctor extends DBAbstractQueryFunctor
-        implements IDBProgramLister, IDBParallelFunctor {
+        implements IDBProgramLister, IDBParallelFunctor, IDBParallelQueryFunctor {
 
     private static final class AcceptAll implements PredicateOp<ISPRootNode>, Serializable {
         @Override public Boolean apply(ISPRootNode rootNode) { return true; }
@@ -146,5 +147,13 @@ public final class DBProgramListFunctor extends DBAbstractQueryFunctor
         }
         list = res;
     }
+
+    public IDBParallelQueryFunctor newPartition() {
+        return new DBProgramListFunctor(predicate);
+    }
+
+    public void mergePartition(IDBParallelQueryFunctor partition) {
+        list.addAll(((DBProgramListFunctor) partition).getList());
+    }
 }
 
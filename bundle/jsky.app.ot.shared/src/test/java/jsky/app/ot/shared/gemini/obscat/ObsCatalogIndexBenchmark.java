@@ -0,0 +1,105 @@
+package jsky.app.ot.shared.gemini.obscat;
+
+import edu.gemini.pot.sp.ISPFactory;
+import edu.gemini.pot.sp.ISPObservation;
+import edu.gemini.pot.sp.ISPProgram;
+import edu.gemini.pot.sp.Instrument;
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.spdb.DBLocalDatabase;
+import edu.gemini.pot.spdb.IDBDatabaseService;
+import edu.gemini.spModel.core.Affiliate;
+import edu.gemini.spModel.core.SPProgramID;
+import edu.gemini.spModel.gemini.gmos.InstGmosSouth;
+import edu.gemini.spModel.gemini.obscomp.SPProgram;
+import edu.gemini.util.security.principal.StaffPrincipal;
+import jsky.catalog.ArraySearchCondition;
+import jsky.catalog.FieldDescAdapter;
+import jsky.catalog.SearchCondition;
+import jsky.catalog.ValueSearchCondition;
+
+import java.security.Principal;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Compares the time of OT browser queries that examine every program with
+ * the time of the same queries answered with the index, on a synthetic
+ * database.  Not a unit test; run it by hand:
+ *
+ * <pre>
+ *   ObsCatalogIndexBenchmark [programs=500] [observations=40] [iterations=5]
+ * </pre>
+ */
+public final class ObsCatalogIndexBenchmark {
+
+    private static final Set<Principal> USER = Collections.singleton(StaffPrincipal.Gemini());
+
+    private static final Instrument[] INSTRUMENTS = {
+        Instrument.GmosSouth, Instrument.Flamingos2, Instrument.Gsaoi, Instrument.Gnirs
+    };
+
+    private static void createPrograms(IDBDatabaseService odb, int progCount, int obsCount) throws Exception {
+        final ISPFactory fact = odb.getFactory();
+        for (int p = 0; p < progCount; ++p) {
+            final ISPProgram prog = fact.createProgram(new SPNodeKey(), SPProgramID.toProgramID("GS-2014A-Q-" + (p + 1)));
+            final SPProgram dobj = (SPProgram) prog.getDataObject();
+            dobj.setPIInfo(new SPProgram.PIInfo("Ann", "Pi" + (p % 50), "pi" + p + "@example.com", "", Affiliate.values()[p % Affiliate.values().length]));
+            dobj.setQueueBand(String.valueOf(1 + p % 3));
+            prog.setDataObject(dobj);
+            for (int i = 0; i < obsCount; ++i) {
+                final ISPObservation obs = fact.createObservation(prog, INSTRUMENTS[(p + i) % INSTRUMENTS.length].some(), null);
+                prog.addObservation(obs);
+            }
+            odb.put(prog);
+        }
+    }
+
+    private static SearchCondition value(String name, String value) {
+        return new ValueSearchCondition(new FieldDescAdapter(name), value);
+    }
+
+    private static SearchCondition array(String name, String... values) {
+        return new ArraySearchCondition(new FieldDescAdapter(name), values);
+    }
+
+    private static void run(IDBDatabaseService odb, String name, int iterations, SearchCondition... sc) {
+        final long[] ms = new long[2];
+        int rows = 0;
+        for (int k = 0; k < 2; ++k) {
+            if (k == 0) ObsCatalogIndex.uninstall(odb);
+            else ObsCatalogIndex.install(odb);
+
+            // warm up, which also builds the index
+            odb.getQueryRunner(USER).queryPrograms(new ObsQueryFunctor(sc, null, null));
+
+            final long start = System.nanoTime();
+            for (int i = 0; i < iterations; ++i) {
+                rows = odb.getQueryRunner(USER).queryPrograms(new ObsQueryFunctor(sc, null, null)).getResult().size();
+            }
+            ms[k] = (System.nanoTime() - start) / 1000000 / iterations;
+        }
+        System.out.printf("%-20s %6d rows   scan: %6d ms   index: %6d ms%n", name, rows, ms[0], ms[1]);
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int progCount  = (args.length > 0) ? Integer.parseInt(args[0]) : 500;
+        final int obsCount   = (args.length > 1) ? Integer.parseInt(args[1]) : 40;
+        final int iterations = (args.length > 2) ? Integer.parseInt(args[2]) : 5;
+
+        final IDBDatabaseService odb = DBLocalDatabase.createTransient();
+        try {
+            createPrograms(odb, progCount, obsCount);
+            System.out.printf("Database with %d programs of %d observations%n", progCount, obsCount);
+
+            run(odb, "PI", iterations, value(ObsCatalogInfo.PI_LAST_NAME, "Pi7"));
+            run(odb, "program", iterations, value(ObsCatalogInfo.PROG_REF, "GS-2014A-Q-42"));
+            run(odb, "instrument", iterations, array(ObsCatalogInfo.INSTRUMENT, InstGmosSouth.SP_TYPE.readableStr));
+            run(odb, "band and region", iterations, array(ObsCatalogInfo.QUEUE_BAND, "1"),
+                    value(ObsCatalogInfo.MIN_RA, "0:00:00"), value(ObsCatalogInfo.MAX_RA, "6:00:00"));
+            run(odb, "everything", iterations);
+        } finally {
+            ObsCatalogIndex.uninstall(odb);
+            odb.getDBAdmin().shutdown();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package jsky.app.ot.shared.gemini.obscat;
+
+import edu.gemini.pot.sp.ISPObservation;
+import edu.gemini.pot.sp.ISPProgram;
+import edu.gemini.pot.sp.Instrument;
+import edu.gemini.pot.sp.SPNodeKey;
+import edu.gemini.pot.spdb.DBLocalDatabase;
+import edu.gemini.pot.spdb.IDBDatabaseService;
+import edu.gemini.spModel.core.Affiliate;
+import edu.gemini.spModel.core.SPProgramID;
+import edu.gemini.spModel.gemini.gmos.InstGmosSouth;
+import edu.gemini.spModel.gemini.obscomp.SPProgram;
+import edu.gemini.spModel.obs.SPObservation;
+import edu.gemini.spModel.obscomp.InstConfigInfo;
+import edu.gemini.util.security.principal.StaffPrincipal;
+import jsky.catalog.ArraySearchCondition;
+import jsky.catalog.FieldDescAdapter;
+import jsky.catalog.SearchCondition;
+import jsky.catalog.ValueSearchCondition;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.Principal;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that browser queries answered with the index find the same rows as
+ * queries that examine every program.
+ */
+public final class ObsCatalogIndexTest {
+
+    private static final Set<Principal> USER = Collections.singleton(StaffPrincipal.Gemini());
+
+    private static final Instrument[] INSTRUMENTS = {
+        Instrument.GmosSouth, Instrument.Flamingos2, Instrument.Gsaoi, Instrument.Gnirs
+    };
+
+    private static final String[] PI_NAMES = { "Smith", "Jones", "Garcia" };
+
+    private static final String GMOS_S = InstGmosSouth.SP_TYPE.readableStr;
+
+    private IDBDatabaseService odb;
+
+    @Before
+    public void setUp() throws Exception {
+        odb = DBLocalDatabase.createTransient();
+        for (int p = 0; p < 6; ++p) {
+            final ISPProgram prog = odb.getFactory().createProgram(new SPNodeKey(), SPProgramID.toProgramID("GS-2014A-Q-" + (p + 1)));
+            final SPProgram dobj = (SPProgram) prog.getDataObject();
+            dobj.setPIInfo(new SPProgram.PIInfo("Ann", PI_NAMES[p % PI_NAMES.length], "pi" + p + "@example.com", "", Affiliate.values()[p % 3]));
+            dobj.setQueueBand(String.valueOf(1 + p % 3));
+            prog.setDataObject(dobj);
+
+            for (int i = 0; i < 4; ++i) {
+                final ISPObservation obs = odb.getFactory().createObservation(prog, INSTRUMENTS[(p + i) % INSTRUMENTS.length].some(), null);
+                final SPObservation obsDobj = (SPObservation) obs.getDataObject();
+                obsDobj.setPriority(SPObservation.Priority.values()[i % 3]);
+                obs.setDataObject(obsDobj);
+                prog.addObservation(obs);
+            }
+            odb.put(prog);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ObsCatalogIndex.uninstall(odb);
+        odb.getDBAdmin().shutdown();
+    }
+
+    private static SearchCondition value(String name, String value) {
+        return new ValueSearchCondition(new FieldDescAdapter(name), value);
+    }
+
+    private static SearchCondition array(String name, String... values) {
+        return new ArraySearchCondition(new FieldDescAdapter(name), values);
+    }
+
+    private ObsQueryFunctor query(SearchCondition[] sc, String[] instruments, SearchCondition[][] instSc) {
+        return odb.getQueryRunner(USER).queryPrograms(new ObsQueryFunctor(sc, instruments, instSc));
+    }
+
+    // Runs the query without and with the index and returns the number of rows.
+    private int assertSameResult(SearchCondition[] sc, String[] instruments, SearchCondition[][] instSc) {
+        ObsCatalogIndex.uninstall(odb);
+        final ObsQueryFunctor scan = query(sc, instruments, instSc);
+
+        ObsCatalogIndex.install(odb);
+        final ObsQueryFunctor indexed = query(sc, instruments, instSc);
+
+        assertEquals(scan.getResult(), indexed.getResult());
+        assertEquals(scan.getIds(), indexed.getIds());
+        return indexed.getResult().size();
+    }
+
+    private int assertSameResult(SearchCondition... sc) {
+        return assertSameResult(sc, null, null);
+    }
+
+    @Test
+    public void testNoConditions() {
+        assertEquals(24, assertSameResult());
+    }
+
+    @Test
+    public void testProgramConditions() {
+        assertEquals(8, assertSameResult(value(ObsCatalogInfo.PI_LAST_NAME, "Smith")));
+        assertEquals(4, assertSameResult(value(ObsCatalogInfo.PROG_REF, "GS-2014A-Q-2")));
+        assertSameResult(array(ObsCatalogInfo.QUEUE_BAND, "1", "2"), value(ObsCatalogInfo.EMAIL, "pi3@example.com"));
+        assertEquals(0, assertSameResult(value(ObsCatalogInfo.SEMESTER, "2015B")));
+    }
+
+    @Test
+    public void testObservationConditions() {
+        assertEquals(6, assertSameResult(array(ObsCatalogInfo.INSTRUMENT, GMOS_S)));
+        assertSameResult(value(ObsCatalogInfo.PRIORITY, SPObservation.Priority.HIGH.displayValue()));
+        assertSameResult(array(ObsCatalogInfo.INSTRUMENT, GMOS_S), value(ObsCatalogInfo.PI_LAST_NAME, "Jones"));
+        assertSameResult(value(ObsCatalogInfo.MIN_RA, "0:00:00"), value(ObsCatalogInfo.MAX_RA, "12:00:00"));
+        assertEquals(0, assertSameResult(value(ObsCatalogInfo.MIN_RA, "not an angle")));
+    }
+
+    @Test
+    public void testInstrumentConditions() {
+        final InstConfigInfo info = ObsCatalogInfo.getInstConfigInfoList(GMOS_S).stream()
+                .filter(i -> i.getEnumType() != null).findFirst().get();
+        final Enum<?>[] types = info.getAllTypes();
+        final SearchCondition[][] instSc = {
+            { array(info.getName(), types[0].name()) }
+        };
+        assertSameResult(new SearchCondition[] { array(ObsCatalogInfo.INSTRUMENT, GMOS_S) }, new String[] { GMOS_S }, instSc);
+    }
+
+    @Test
+    public void testChangedProgram() {
+        assertEquals(0, assertSameResult(value(ObsCatalogInfo.PI_LAST_NAME, "Brown")));
+
+        final ISPProgram prog = odb.lookupProgramByID(SPProgramID.toProgramID("GS-2014A-Q-1"));
+        final SPProgram dobj = (SPProgram) prog.getDataObject();
+        dobj.setPIInfo(new SPProgram.PIInfo("Ann", "Brown", "", "", Affiliate.ARGENTINA));
+        prog.setDataObject(dobj);
+
+        final List<?> rows = query(new SearchCondition[] { value(ObsCatalogInfo.PI_LAST_NAME, "Brown") }, null, null).getResult();
+        assertEquals(4, rows.size());
+        assertEquals(4, assertSameResult(value(ObsCatalogInfo.PI_LAST_NAME, "Brown")));
+    }
+}
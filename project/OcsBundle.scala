@@ -159,6 +159,8 @@ trait OcsBundle {
       bundle_edu_gemini_shared_util,
       bundle_edu_gemini_spModel_core,
       bundle_edu_gemini_spModel_pio,
+      bundle_edu_gemini_util_osgi,
+      bundle_edu_gemini_util_security,
       bundle_jsky_coords
     )
 
@@ -216,7 +218,7 @@ trait OcsBundle {
     project.in(file("bundle/edu.gemini.qpt.client")).dependsOn(
       bundle_edu_gemini_shared_skyobject,
       bundle_edu_gemini_pot,
-      bundle_edu_gemini_qpt_shared,
+      bundle_edu_gemini_qpt_shared % "test->test;compile->compile",
       bundle_edu_gemini_shared_util,
       bundle_edu_gemini_spModel_core,
       bundle_edu_gemini_spModel_pio,